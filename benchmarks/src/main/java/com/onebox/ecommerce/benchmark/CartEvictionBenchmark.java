@@ -0,0 +1,99 @@
+package com.onebox.ecommerce.benchmark;
+
+import com.onebox.ecommerce.config.CartProperties;
+import com.onebox.ecommerce.repository.CartRepository;
+import com.onebox.ecommerce.service.CartService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Duration of one {@link CartService#deleteInactiveCarts()} sweep. Every iteration fills the store with
+ * {@code cartCount} carts of which {@code expiredPercent} are past the inactivity period, then times a
+ * single sweep.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = {"-XX:MaxRAMPercentage=75"})
+public class CartEvictionBenchmark {
+
+    // Gap left between the expired and the fresh carts
+    private static final long GAP_MILLIS = 20;
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int cartCount;
+
+    @Param({"1", "10", "100"})
+    public int expiredPercent;
+
+    @Param({"0", "10"})
+    public int productsPerCart;
+
+    private ConfigurableApplicationContext context;
+    private CartService cartService;
+    private CartRepository cartRepository;
+    private CartProperties cartProperties;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = CartFixtures.startApplication("cart.eviction.precision=1ms");
+        cartService = context.getBean(CartService.class);
+        cartRepository = context.getBean(CartRepository.class);
+        cartProperties = context.getBean(CartProperties.class);
+    }
+
+    @Setup(Level.Iteration)
+    public void fillCarts() throws InterruptedException {
+        // Leftovers of the previous iteration
+        cartRepository.forEachCartId(cartRepository::deleteCart);
+
+        int expired = (int) ((long) cartCount * expiredPercent / 100);
+        createCarts(expired);
+        Thread.sleep(GAP_MILLIS);
+        Instant boundary = Instant.now();
+        Thread.sleep(GAP_MILLIS);
+        createCarts(cartCount - expired);
+
+        // Filling millions of carts takes a while, so the inactivity period is chosen afterwards to put
+        // the sweep cutoff right between the two batches
+        cartProperties.getEviction().setInactivity(Duration.between(boundary, Instant.now()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void deleteInactiveCarts() {
+        cartService.deleteInactiveCarts();
+    }
+
+    private void createCarts(int count) {
+        var products = CartFixtures.products(productsPerCart, 1);
+        for (int i = 0; i < count; i++) {
+            int cartId = cartService.createCart().getId();
+            if (productsPerCart > 0) {
+                cartService.addProductsToCart(cartId, products);
+            }
+        }
+    }
+}
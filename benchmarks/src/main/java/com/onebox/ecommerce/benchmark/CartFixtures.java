@@ -0,0 +1,74 @@
+package com.onebox.ecommerce.benchmark;
+
+import com.onebox.ecommerce.EcommerceApplication;
+import com.onebox.ecommerce.model.Product;
+import org.springframework.boot.Banner;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Shared setup of the benchmarks
+ */
+final class CartFixtures {
+
+    // The sweep is driven by the benchmarks and per-request logging would drown what we measure
+    private static final String[] DEFAULT_PROPERTIES = {
+            "cart.eviction.scheduled=false",
+            "logging.level.root=WARN",
+            "logging.level.cart.requests=WARN",
+            "springdoc.api-docs.enabled=false"
+    };
+
+    private CartFixtures() {
+    }
+
+    /**
+     * Starts the application without a web server, so the beans are wired exactly like in production.
+     * Properties are passed as command line arguments to win over application.properties, and later
+     * ones override earlier ones.
+     */
+    static ConfigurableApplicationContext startApplication(String... properties) {
+        return start(WebApplicationType.NONE, properties);
+    }
+
+    /**
+     * Starts the application with its web server on a random free port
+     */
+    static ConfigurableApplicationContext startServer(String... properties) {
+        return startServer(WebApplicationType.SERVLET, properties);
+    }
+
+    /**
+     * Starts the application on a random free port, as a servlet (Spring MVC on Tomcat) or reactive (WebFlux on
+     * Netty) web application
+     */
+    static ConfigurableApplicationContext startServer(WebApplicationType type, String... properties) {
+        return start(type, Stream.concat(Stream.of("server.port=0"), Stream.of(properties)).toArray(String[]::new));
+    }
+
+    private static ConfigurableApplicationContext start(WebApplicationType type, String... properties) {
+        // Also passed as a property, since the one in application.properties would override the builder's
+        String webApplicationType = "spring.main.web-application-type=" + type.name().toLowerCase();
+        return new SpringApplicationBuilder(EcommerceApplication.class)
+                .web(type)
+                .bannerMode(Banner.Mode.OFF)
+                .run(Stream.of(Stream.of(DEFAULT_PROPERTIES), Stream.of(webApplicationType), Stream.of(properties))
+                        .flatMap(stream -> stream)
+                        .map(property -> "--" + property)
+                        .toArray(String[]::new));
+    }
+
+    static Map<Integer, Product> products(int count, int firstProductId) {
+        Map<Integer, Product> products = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            int productId = firstProductId + i;
+            products.put(productId, new Product(productId, "Product " + productId, 1 + i % 3));
+        }
+        return products;
+    }
+}
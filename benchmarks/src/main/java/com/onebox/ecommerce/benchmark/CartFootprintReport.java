@@ -0,0 +1,104 @@
+package com.onebox.ecommerce.benchmark;
+
+import com.onebox.ecommerce.model.Product;
+import com.onebox.ecommerce.repository.InMemoryCartRepository;
+
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * Heap retained per cart by CartRepository, against the original layout of a HashMap of boxed product ids to
+ * Product objects, and with the descriptions held by the ProductCatalog instead of the lines, as the service stores
+ * lines of catalog products. Prints one JSON object per line. Not a JMH benchmark, run it with a heap large enough for
+ * the biggest population:
+ * <pre>
+ * java -Xmx8g -cp target/benchmarks.jar com.onebox.ecommerce.benchmark.CartFootprintReport [cartCounts] [productsPerCart]
+ * </pre>
+ * e.g. {@code 1000,100000,1000000 1,10,50}.
+ */
+public class CartFootprintReport {
+
+    // Descriptions come from request bodies, so every line holds its own copy of one of a few catalog titles
+    private static final String[] TITLES = new String[1_000];
+
+    static {
+        for (int i = 0; i < TITLES.length; i++) {
+            TITLES[i] = "Videogame title number " + i;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int[] cartCounts = parse(args.length > 0 ? args[0] : "1000,100000,1000000");
+        int[] productCounts = parse(args.length > 1 ? args[1] : "1,10");
+
+        for (int cartCount : cartCounts) {
+            for (int productsPerCart : productCounts) {
+                long original = retainedBytes(cartCount, count -> originalLayout(count, productsPerCart));
+                long current = retainedBytes(cartCount, count -> cartRepository(count, productsPerCart, true));
+                long catalog = retainedBytes(cartCount, count -> cartRepository(count, productsPerCart, false));
+                System.out.printf("{\"cartCount\":%d,\"productsPerCart\":%d,\"originalBytesPerCart\":%d,"
+                                + "\"currentBytesPerCart\":%d,\"catalogBytesPerCart\":%d}%n",
+                        cartCount, productsPerCart, original / cartCount, current / cartCount, catalog / cartCount);
+            }
+        }
+    }
+
+    private static Object originalLayout(int cartCount, int productsPerCart) {
+        Map<Integer, OriginalCart> carts = new HashMap<>();
+        for (int id = 1; id <= cartCount; id++) {
+            Map<Integer, Product> products = new HashMap<>();
+            for (int productId = 1; productId <= productsPerCart; productId++) {
+                products.put(productId, new Product(productId, title(id, productId), 1));
+            }
+            carts.put(id, new OriginalCart(id, products, Instant.now()));
+        }
+        return carts;
+    }
+
+    private static Object cartRepository(int cartCount, int productsPerCart, boolean descriptions) {
+        InMemoryCartRepository cartRepository = new InMemoryCartRepository();
+        for (int i = 0; i < cartCount; i++) {
+            int cartId = cartRepository.createCart().getId();
+            cartRepository.withCart(cartId, cart -> {
+                for (int productId = 1; productId <= productsPerCart; productId++) {
+                    cart.getProducts().put(productId, descriptions ? title(cartId, productId) : null, 1);
+                }
+                return cart;
+            });
+        }
+        return cartRepository;
+    }
+
+    private static String title(int cartId, int productId) {
+        return new String(TITLES[(cartId * 31 + productId) % TITLES.length]);
+    }
+
+    private static long retainedBytes(int cartCount, IntFunction<Object> populate) throws InterruptedException {
+        long before = usedHeapAfterGc();
+        Object population = populate.apply(cartCount);
+        long after = usedHeapAfterGc();
+        // Keeps the population reachable until measured
+        if (population.hashCode() == 42) {
+            System.out.print("");
+        }
+        return after - before;
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static int[] parse(String values) {
+        return java.util.Arrays.stream(values.split(",")).mapToInt(Integer::parseInt).toArray();
+    }
+
+    private record OriginalCart(Integer id, Map<Integer, Product> products, Instant lastUpdated) {
+    }
+}
@@ -0,0 +1,187 @@
+package com.onebox.ecommerce.benchmark;
+
+import jdk.jfr.consumer.RecordingStream;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Closed-loop HTTP load test of the cart API, comparing Tomcat on platform threads, Tomcat on virtual threads
+ * ({@code spring.threads.virtual.enabled}) and the WebFlux controller on Netty's event loops
+ * ({@code spring.main.web-application-type=reactive}). Every client is a virtual thread with its own keep-alive connection,
+ * issuing 90% {@code GET /carts/{id}} and 10% {@code POST /carts/{id}} back to back. Prints one JSON object per
+ * mode with throughput, latency percentiles and the number of {@code jdk.VirtualThreadPinned} events recorded
+ * in the JVM, client included. Not a JMH benchmark:
+ * <pre>
+ * java -cp target/benchmarks.jar com.onebox.ecommerce.benchmark.CartLoadTest [modes] [clients] [seconds] [journal]
+ * </pre>
+ * e.g. {@code platform,virtual,reactive 2000 30 fsync}. With the journal awaiting fsync every update blocks its
+ * request thread on the disk, which is where Tomcat's 200 platform threads run out first. Tens of thousands of
+ * clients need a raised open files limit ({@code ulimit -n}) for both ends of their connections.
+ */
+public class CartLoadTest {
+
+    private static final int CARTS = 10_000;
+    private static final int READ_PERCENT = 90;
+    private static final Pattern CART_ID = Pattern.compile("\"id\":(\\d+)");
+
+    public static void main(String[] args) throws Exception {
+        String[] modes = (args.length > 0 ? args[0] : "platform,virtual,reactive").split(",");
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+        Duration duration = Duration.ofSeconds(args.length > 2 ? Long.parseLong(args[2]) : 30);
+        String journal = args.length > 3 ? args[3] : "off";
+
+        for (String mode : modes) {
+            run(mode, clients, duration, journal);
+        }
+        System.exit(0);
+    }
+
+    private static void run(String mode, int clients, Duration duration, String journal) throws Exception {
+        Path journalDirectory = Files.createTempDirectory("cart-journal");
+        WebApplicationType type = mode.equals("reactive") ? WebApplicationType.REACTIVE : WebApplicationType.SERVLET;
+        try (ConfigurableApplicationContext context = CartFixtures.startServer(type,
+                "spring.threads.virtual.enabled=" + mode.equals("virtual"),
+                "cart.journal.enabled=" + !journal.equals("off"),
+                "cart.journal.await-fsync=" + journal.equals("fsync"),
+                "cart.journal.directory=" + journalDirectory);
+             HttpClient http = HttpClient.newBuilder()
+                     .version(HttpClient.Version.HTTP_1_1)
+                     .executor(Executors.newVirtualThreadPerTaskExecutor())
+                     .build();
+             RecordingStream pinning = new RecordingStream()) {
+
+            URI carts = URI.create("http://localhost:"
+                    + ((WebServerApplicationContext) context).getWebServer().getPort() + "/carts");
+            int[] cartIds = createCarts(http, carts);
+
+            AtomicLong pinnedEvents = new AtomicLong();
+            pinning.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO);
+            pinning.onEvent("jdk.VirtualThreadPinned", event -> pinnedEvents.incrementAndGet());
+            pinning.startAsync();
+
+            drive(http, carts, cartIds, clients, duration.dividedBy(5)); // warm up
+            pinnedEvents.set(0);
+            Result result = drive(http, carts, cartIds, clients, duration);
+
+            System.out.printf("{\"mode\":\"%s\",\"clients\":%d,\"journal\":\"%s\",\"requests\":%d,\"errors\":%d,"
+                            + "\"requestsPerSecond\":%.0f,\"p50Micros\":%d,\"p99Micros\":%d,\"p999Micros\":%d,"
+                            + "\"pinnedEvents\":%d}%n",
+                    mode, clients, journal, result.latencies.length, result.errors,
+                    result.latencies.length / (duration.toNanos() / 1e9),
+                    result.percentile(50) / 1_000, result.percentile(99) / 1_000, result.percentile(99.9) / 1_000,
+                    pinnedEvents.get());
+        } finally {
+            try (Stream<Path> files = Files.walk(journalDirectory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    private static int[] createCarts(HttpClient http, URI carts) throws IOException, InterruptedException {
+        int[] cartIds = new int[CARTS];
+        for (int i = 0; i < CARTS; i++) {
+            HttpResponse<String> response = http.send(
+                    HttpRequest.newBuilder(carts).POST(HttpRequest.BodyPublishers.noBody()).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            Matcher matcher = CART_ID.matcher(response.body());
+            if (!matcher.find()) {
+                throw new IllegalStateException("Unexpected create response: " + response.body());
+            }
+            cartIds[i] = Integer.parseInt(matcher.group(1));
+        }
+        return cartIds;
+    }
+
+    private static Result drive(HttpClient http, URI carts, int[] cartIds, int clients, Duration duration)
+            throws Exception {
+        long deadline = System.nanoTime() + duration.toNanos();
+        List<Future<Client>> futures = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients; i++) {
+                futures.add(executor.submit(() -> new Client().run(http, carts, cartIds, deadline)));
+            }
+        }
+        long[] latencies = new long[0];
+        long errors = 0;
+        for (Future<Client> future : futures) {
+            Client client = future.get();
+            int from = latencies.length;
+            latencies = Arrays.copyOf(latencies, from + client.count);
+            System.arraycopy(client.latencies, 0, latencies, from, client.count);
+            errors += client.errors;
+        }
+        Arrays.sort(latencies);
+        return new Result(latencies, errors);
+    }
+
+    private static final class Client {
+
+        private long[] latencies = new long[1024];
+        private int count;
+        private long errors;
+
+        Client run(HttpClient http, URI carts, int[] cartIds, long deadline) throws Exception {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (System.nanoTime() < deadline) {
+                URI cart = carts.resolve("/carts/" + cartIds[random.nextInt(cartIds.length)]);
+                HttpRequest request;
+                if (random.nextInt(100) < READ_PERCENT) {
+                    request = HttpRequest.newBuilder(cart).GET().build();
+                } else {
+                    int productId = random.nextInt(1, 20);
+                    request = HttpRequest.newBuilder(cart)
+                            .header("Content-Type", "application/json")
+                            .POST(HttpRequest.BodyPublishers.ofString("{\"" + productId + "\":{\"id\":" + productId
+                                    + ",\"description\":\"Product " + productId + "\",\"amount\":1}}"))
+                            .build();
+                }
+                long start = System.nanoTime();
+                HttpResponse<Void> response = http.send(request, HttpResponse.BodyHandlers.discarding());
+                long latency = System.nanoTime() - start;
+                if (count == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, count * 2);
+                }
+                latencies[count++] = latency;
+                if (response.statusCode() >= 400) {
+                    errors++;
+                }
+            }
+            return this;
+        }
+    }
+
+    private record Result(long[] latencies, long errors) {
+
+        long percentile(double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(index, latencies.length - 1))];
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.onebox.ecommerce.benchmark;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.FileAppender;
+import com.onebox.ecommerce.model.CartResponse;
+import com.onebox.ecommerce.model.Product;
+import com.onebox.ecommerce.service.CartService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of cart requests with the per-request log lines off, written synchronously or handed to an
+ * asynchronous appender. Lines go to a temporary file rather than the console, so JMH output stays readable
+ * and the cost is that of formatting and writing, not of a terminal.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class CartLoggingBenchmark {
+
+    private static final String REQUEST_LOGGER = "cart.requests";
+
+    @Param({"100000"})
+    public int cartCount;
+
+    // off (cart.requests disabled), sync (file appender on the calling thread) or async (through an AsyncAppender)
+    @Param({"off", "sync", "async"})
+    public String logging;
+
+    private ConfigurableApplicationContext context;
+    private CartService cartService;
+    private int[] cartIds;
+    private Map<Integer, Product> update;
+    private Appender<ILoggingEvent> appender;
+    private Path logFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        context = CartFixtures.startApplication();
+        cartService = context.getBean(CartService.class);
+        cartIds = new int[cartCount];
+        for (int i = 0; i < cartCount; i++) {
+            cartIds[i] = cartService.createCart().getId();
+        }
+        update = CartFixtures.products(2, 1);
+
+        // Installed after the fixture so setup itself is not logged
+        logFile = Files.createTempFile("cart-requests", ".log");
+        Logger requestLogger = (Logger) LoggerFactory.getLogger(REQUEST_LOGGER);
+        requestLogger.setAdditive(false);
+        requestLogger.setLevel(logging.equals("off") ? Level.OFF : Level.INFO);
+        if (!logging.equals("off")) {
+            appender = logging.equals("async") ? async(fileAppender()) : fileAppender();
+            requestLogger.addAppender(appender);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (appender != null) {
+            appender.stop();
+        }
+        context.close();
+        Files.deleteIfExists(logFile);
+    }
+
+    @Benchmark
+    public CartResponse getCart() {
+        return cartService.getCart(randomCartId());
+    }
+
+    @Benchmark
+    public CartResponse addProductsToCart() {
+        return cartService.addProductsToCart(randomCartId(), update);
+    }
+
+    private FileAppender<ILoggingEvent> fileAppender() {
+        LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(loggerContext);
+        encoder.setPattern("%d{ISO8601} %5level [%thread] %logger : %msg%n");
+        encoder.start();
+        FileAppender<ILoggingEvent> fileAppender = new FileAppender<>();
+        fileAppender.setContext(loggerContext);
+        fileAppender.setFile(logFile.toString());
+        fileAppender.setEncoder(encoder);
+        fileAppender.start();
+        return fileAppender;
+    }
+
+    // Same settings as the ASYNC appender of logback-spring.xml
+    private static AsyncAppender async(Appender<ILoggingEvent> delegate) {
+        AsyncAppender asyncAppender = new AsyncAppender();
+        asyncAppender.setContext(delegate.getContext());
+        asyncAppender.setQueueSize(8192);
+        asyncAppender.setNeverBlock(true);
+        asyncAppender.addAppender(delegate);
+        asyncAppender.start();
+        return asyncAppender;
+    }
+
+    private int randomCartId() {
+        return cartIds[ThreadLocalRandom.current().nextInt(cartIds.length)];
+    }
+}
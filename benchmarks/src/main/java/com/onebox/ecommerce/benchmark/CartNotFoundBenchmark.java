@@ -0,0 +1,78 @@
+package com.onebox.ecommerce.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.onebox.ecommerce.exception.CartErrorBodies;
+import com.onebox.ecommerce.exception.CartNotFoundException;
+import com.onebox.ecommerce.exception.CartServiceCustomException;
+import com.onebox.ecommerce.model.CartErrorResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of answering a request for a cart that does not exist, from the throw to the bytes of the response body:
+ * the original exception with a stack trace, a concatenated message and a CartErrorResponse serialized by Jackson,
+ * against CartNotFoundException and CartErrorBodies. The exception is thrown {@code stackDepth} frames below where
+ * it is caught, as under Tomcat, the filter chain and the DispatcherServlet, since filling in the stack trace costs
+ * per frame. Run with {@code -prof gc} for the bytes allocated per miss.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CartNotFoundBenchmark {
+
+    @Param({"20", "100"})
+    public int stackDepth;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private int cartId = 1_000_000;
+
+    @Benchmark
+    public int exceptionWithStackTrace() throws IOException {
+        int missing = ++cartId;
+        try {
+            return throwAtDepth(stackDepth, () -> {
+                throw new CartServiceCustomException("Cart with given id: " + missing + " was not found",
+                        "CART_NOT_FOUND");
+            });
+        } catch (CartServiceCustomException exception) {
+            return objectMapper.writeValueAsBytes(CartErrorResponse.builder()
+                    .errorMessage(exception.getMessage())
+                    .errorCode(exception.getErrorCode())
+                    .build()).length;
+        }
+    }
+
+    @Benchmark
+    public int stacklessAndPreSerialized() {
+        int missing = ++cartId;
+        try {
+            return throwAtDepth(stackDepth, () -> {
+                throw new CartNotFoundException(missing);
+            });
+        } catch (CartNotFoundException exception) {
+            return CartErrorBodies.notFound(exception.getCartId()).length;
+        }
+    }
+
+    private static int throwAtDepth(int depth, Runnable thrower) {
+        if (depth == 0) {
+            thrower.run();
+            return 0;
+        }
+        return throwAtDepth(depth - 1, thrower) + 1;
+    }
+}
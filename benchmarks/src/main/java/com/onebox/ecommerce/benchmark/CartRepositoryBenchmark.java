@@ -0,0 +1,127 @@
+package com.onebox.ecommerce.benchmark;
+
+import com.onebox.ecommerce.config.CartProperties;
+import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.repository.CartRepository;
+import com.onebox.ecommerce.repository.InMemoryCartRepository;
+import com.onebox.ecommerce.repository.OffHeapCartRepository;
+import com.onebox.ecommerce.repository.ShardedCartRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Raw cost of the cart store, without the service on top. Run with {@code -t} to measure contention,
+ * e.g. {@code java -jar benchmarks.jar CartRepositoryBenchmark -t 8 -p cartCount=1000000}. Large off-heap
+ * populations need {@code -jvmArgsAppend -XX:MaxDirectMemorySize=...}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-XX:MaxRAMPercentage=75"})
+public class CartRepositoryBenchmark {
+
+    @Param({"in-memory", "off-heap", "sharded"})
+    public String storage;
+
+    // Shards of the sharded engine, 0 for one per core; compare -t 1..N with shards=N to see how writers scale
+    @Param({"0"})
+    public int shards;
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int cartCount;
+
+    @Param({"0", "10"})
+    public int productsPerCart;
+
+    // Share of reads in the mixed benchmark, the rest adds a product
+    @Param({"90"})
+    public int readPercent;
+
+    private CartRepository cartRepository;
+    private int[] cartIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        cartRepository = switch (storage) {
+            case "in-memory" -> new InMemoryCartRepository();
+            case "off-heap" -> new OffHeapCartRepository(new CartProperties());
+            case "sharded" -> {
+                CartProperties cartProperties = new CartProperties();
+                cartProperties.getStorage().getSharded().setShards(shards);
+                yield new ShardedCartRepository(cartProperties);
+            }
+            default -> throw new IllegalArgumentException("Unknown storage: " + storage);
+        };
+        cartIds = new int[cartCount];
+        for (int i = 0; i < cartCount; i++) {
+            int cartId = cartRepository.createCart().getId();
+            cartRepository.withCart(cartId, cart -> {
+                cart.getProducts().putAll(CartFixtures.products(productsPerCart, 1));
+                return cart;
+            });
+            cartIds[i] = cartId;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (cartRepository instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+
+    @Benchmark
+    public int readCart() {
+        return cartRepository.withCart(randomCartId(), cart -> cart.getProducts().size());
+    }
+
+    @Benchmark
+    public Cart addProduct() {
+        return addProduct(randomCartId());
+    }
+
+    @Benchmark
+    public boolean createAndDeleteCart() {
+        // Paired so the population stays at cartCount
+        return cartRepository.deleteCart(cartRepository.createCart().getId());
+    }
+
+    @Benchmark
+    public Object mixed() {
+        int cartId = randomCartId();
+        if (ThreadLocalRandom.current().nextInt(100) < readPercent) {
+            return cartRepository.withCart(cartId, cart -> cart.getProducts().size());
+        }
+        return addProduct(cartId);
+    }
+
+    private Cart addProduct(int cartId) {
+        // Reuses a few product ids so carts do not grow without bound over the run
+        int productId = ThreadLocalRandom.current().nextInt(productsPerCart + 1, productsPerCart + 9);
+        return cartRepository.withCart(cartId, cart -> {
+            cart.getProducts().put(productId, "Product " + productId, 1);
+            cart.updateInstant();
+            return cart;
+        });
+    }
+
+    private int randomCartId() {
+        return cartIds[ThreadLocalRandom.current().nextInt(cartIds.length)];
+    }
+}
@@ -0,0 +1,90 @@
+package com.onebox.ecommerce.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.onebox.ecommerce.json.CartJsonWriter;
+import com.onebox.ecommerce.mapper.CartMapper;
+import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.model.CartResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.BeanUtils;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning a cart into the JSON body of {@code GET /carts/{id}}: the original BeanUtils and
+ * Jackson bean serialization path against CartMapper and CartJsonWriter. Run with {@code -prof gc} and
+ * compare {@code gc.alloc.rate.norm}, the bytes allocated per response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CartResponseBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int productsPerCart;
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json()
+            .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .build();
+    private final CartJsonWriter cartJsonWriter = new CartJsonWriter(objectMapper.getFactory());
+    private final CountingOutputStream responseBody = new CountingOutputStream();
+    private Cart cart;
+
+    @Setup
+    public void setUp() {
+        cart = new Cart();
+        cart.getProducts().putAll(CartFixtures.products(productsPerCart, 1));
+    }
+
+    @Benchmark
+    public long beanUtilsAndJackson() throws IOException {
+        CartResponse cartResponse = new CartResponse();
+        BeanUtils.copyProperties(cart, cartResponse);
+        objectMapper.writeValue(responseBody, cartResponse);
+        return responseBody.count;
+    }
+
+    @Benchmark
+    public long mapperAndStreamingWriter() throws IOException {
+        cartJsonWriter.write(CartMapper.toCartResponse(cart), responseBody);
+        return responseBody.count;
+    }
+
+    // Stands in for the servlet response buffer, without allocating itself
+    private static final class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+
+        @Override
+        public void close() {
+            // ObjectMapper.writeValue closes its target
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.onebox.ecommerce.benchmark;
+
+import com.onebox.ecommerce.model.CartResponse;
+import com.onebox.ecommerce.model.Product;
+import com.onebox.ecommerce.service.CartService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the public {@link CartService} operations, with the service wired by Spring as in production
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-XX:MaxRAMPercentage=75"})
+public class CartServiceBenchmark {
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int cartCount;
+
+    @Param({"0", "10"})
+    public int productsPerCart;
+
+    // Share of reads in the mixed benchmark, the rest adds products
+    @Param({"90"})
+    public int readPercent;
+
+    // Journal in a temporary directory, see JournaledCartRepository: off, fsync (calls wait for the disk) or async
+    @Param({"off", "fsync", "async"})
+    public String journal;
+
+    private ConfigurableApplicationContext context;
+    private CartService cartService;
+    private int[] cartIds;
+    private Map<Integer, Product> update;
+    private Path journalDirectory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        journalDirectory = Files.createTempDirectory("cart-journal");
+        context = CartFixtures.startApplication(
+                "cart.journal.enabled=" + !journal.equals("off"),
+                "cart.journal.await-fsync=" + journal.equals("fsync"),
+                "cart.journal.directory=" + journalDirectory);
+        cartService = context.getBean(CartService.class);
+        cartIds = new int[cartCount];
+        Map<Integer, Product> products = CartFixtures.products(productsPerCart, 1);
+        for (int i = 0; i < cartCount; i++) {
+            int cartId = cartService.createCart().getId();
+            if (productsPerCart > 0) {
+                cartService.addProductsToCart(cartId, products);
+            }
+            cartIds[i] = cartId;
+        }
+        // Overwrites existing lines, so carts keep their size over the run
+        update = CartFixtures.products(Math.max(1, productsPerCart / 2), 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        try (var files = Files.walk(journalDirectory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public CartResponse getCart() {
+        return cartService.getCart(randomCartId());
+    }
+
+    @Benchmark
+    public CartResponse addProductsToCart() {
+        return cartService.addProductsToCart(randomCartId(), update);
+    }
+
+    @Benchmark
+    public CartResponse createAndDeleteCart() {
+        // Paired so the population stays at cartCount
+        CartResponse cartResponse = cartService.createCart();
+        cartService.deleteCart(cartResponse.getId());
+        return cartResponse;
+    }
+
+    @Benchmark
+    public CartResponse mixed() {
+        int cartId = randomCartId();
+        if (ThreadLocalRandom.current().nextInt(100) < readPercent) {
+            return cartService.getCart(cartId);
+        }
+        return cartService.addProductsToCart(cartId, update);
+    }
+
+    private int randomCartId() {
+        return cartIds[ThreadLocalRandom.current().nextInt(cartIds.length)];
+    }
+}
@@ -0,0 +1,120 @@
+package com.onebox.ecommerce.benchmark;
+
+import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.repository.InMemoryCartRepository;
+import com.onebox.ecommerce.repository.transfer.CartExportReader;
+import com.onebox.ecommerce.repository.transfer.CartExportWriter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Throughput of exporting a cart population to a file and importing it into an empty repository, the way
+ * CartTransferService moves carts between instances. The source repository is dropped before the import, so the
+ * heap only ever holds one population. Prints one JSON object per line. Not a JMH benchmark:
+ * <pre>
+ * java -Xmx3g -cp target/benchmarks.jar com.onebox.ecommerce.benchmark.CartTransferReport [cartCounts] [productsPerCart]
+ * </pre>
+ * e.g. {@code 1000000,10000000 3}.
+ */
+public class CartTransferReport {
+
+    private static final String[] TITLES = new String[1_000];
+
+    static {
+        for (int i = 0; i < TITLES.length; i++) {
+            TITLES[i] = "Videogame title number " + i;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int[] cartCounts = parse(args.length > 0 ? args[0] : "1000000,10000000");
+        int[] productCounts = parse(args.length > 1 ? args[1] : "3");
+        Path file = Files.createTempFile("carts", ".bin");
+        try {
+            for (int cartCount : cartCounts) {
+                for (int productsPerCart : productCounts) {
+                    report(file, cartCount, productsPerCart);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void report(Path file, int cartCount, int productsPerCart) throws IOException {
+        // Nothing keeps the source population past the export
+        long exportNanos = export(populate(cartCount, productsPerCart), file);
+        long bytes = Files.size(file);
+        System.gc();
+
+        long start = System.nanoTime();
+        CartExportReader.verify(file);
+        long verifyNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        InMemoryCartRepository target = new InMemoryCartRepository();
+        try (CartExportReader reader = new CartExportReader(file)) {
+            Cart cart;
+            while ((cart = reader.next()) != null) {
+                target.restoreCart(cart);
+            }
+        }
+        long importNanos = System.nanoTime() - start;
+        if (target.count() != cartCount) {
+            throw new IllegalStateException("Imported " + target.count() + " of " + cartCount + " carts");
+        }
+
+        System.out.printf("{\"cartCount\":%d,\"productsPerCart\":%d,\"bytesPerCart\":%.1f,\"megabytes\":%.1f,"
+                        + "\"exportCartsPerSecond\":%d,\"exportMegabytesPerSecond\":%.1f,"
+                        + "\"verifyCartsPerSecond\":%d,\"importCartsPerSecond\":%d}%n",
+                cartCount, productsPerCart, (double) bytes / cartCount, bytes / 1e6,
+                perSecond(cartCount, exportNanos), bytes / 1e6 * 1e9 / exportNanos,
+                perSecond(cartCount, verifyNanos), perSecond(cartCount, importNanos));
+    }
+
+    // Returns the nanoseconds the export took
+    private static long export(InMemoryCartRepository source, Path file) throws IOException {
+        long start = System.nanoTime();
+        try (CartExportWriter writer = new CartExportWriter(file)) {
+            source.forEachCartId(cartId -> {
+                source.withCart(cartId, cart -> {
+                    writer.append(cart);
+                    return null;
+                });
+                try {
+                    writer.flushIfFull();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.finish();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static InMemoryCartRepository populate(int cartCount, int productsPerCart) {
+        InMemoryCartRepository cartRepository = new InMemoryCartRepository();
+        for (int i = 0; i < cartCount; i++) {
+            int cartId = cartRepository.createCart().getId();
+            cartRepository.withCart(cartId, cart -> {
+                for (int productId = 1; productId <= productsPerCart; productId++) {
+                    cart.getProducts().put(productId, TITLES[(cartId * 31 + productId) % TITLES.length], productId);
+                }
+                cart.updateInstant();
+                return cart;
+            });
+        }
+        return cartRepository;
+    }
+
+    private static long perSecond(long count, long nanos) {
+        return count * 1_000_000_000L / Math.max(1, nanos);
+    }
+
+    private static int[] parse(String values) {
+        return java.util.Arrays.stream(values.split(",")).mapToInt(Integer::parseInt).toArray();
+    }
+}
@@ -2,10 +2,10 @@ package com.onebox.ecommerce;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 
 @SpringBootApplication
-@EnableScheduling // We delete inactive carts using this annotation
+@ConfigurationPropertiesScan // Binds the cart.* properties, see CartProperties
 public class EcommerceApplication {
 
 	public static void main(String[] args) {
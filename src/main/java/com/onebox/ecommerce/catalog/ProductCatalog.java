@@ -0,0 +1,88 @@
+package com.onebox.ecommerce.catalog;
+
+import com.onebox.ecommerce.config.CartProperties;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
+/**
+ * Descriptions of the products carts reference by id, loaded from {@code cart.catalog.file}. A cart line of a
+ * catalog product stores no description, responses get it from here: one String per product however many carts
+ * hold it, instead of a reference per line. The descriptions of the {@code cart.catalog.cache-size} most popular
+ * products stay on the heap, the others are read from the file when asked for.
+ * <p>
+ * Without a file the catalog is empty, and every line keeps the description it was added with.
+ */
+@Component
+@Log4j2
+public class ProductCatalog {
+
+    private final ProductCatalogFile file;
+    private final TinyLfuCache<String> cache;
+
+    @Autowired
+    public ProductCatalog(CartProperties cartProperties) {
+        this(cartProperties.getCatalog().getFile(), cartProperties.getCatalog().getCacheSize());
+    }
+
+    public ProductCatalog(Path path, int cacheSize) {
+        if (path == null) {
+            this.file = null;
+            this.cache = null;
+            return;
+        }
+        try {
+            this.file = ProductCatalogFile.open(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not load the product catalog from " + path, e);
+        }
+        this.cache = new TinyLfuCache<>(cacheSize);
+        log.info("Loaded {} products from {}, caching up to {} descriptions", file.size(), path, cacheSize);
+    }
+
+    public boolean isEmpty() {
+        return file == null || file.size() == 0;
+    }
+
+    public int size() {
+        return file == null ? 0 : file.size();
+    }
+
+    /**
+     * @return the product's description, or null if the product is not in the catalog
+     */
+    public String description(int productId) {
+        return isEmpty() ? null : cache.get(productId, file::description);
+    }
+
+    /**
+     * @return the description a cart line of the product has to store: null when the catalog has the same one
+     */
+    public String descriptionToStore(int productId, String description) {
+        return description == null || description.equals(description(productId)) ? null : description;
+    }
+
+    public long cachedCount() {
+        return cache == null ? 0 : cache.size();
+    }
+
+    public long cacheHitCount() {
+        return cache == null ? 0 : cache.hitCount();
+    }
+
+    public long cacheMissCount() {
+        return cache == null ? 0 : cache.missCount();
+    }
+
+    @PreDestroy
+    void close() throws IOException {
+        if (file != null) {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.onebox.ecommerce.catalog;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Product descriptions in a UTF-8 text file of {@code id,description} lines; blank lines and lines starting with
+ * {@code #} are skipped, and a product listed twice keeps its last description. Opening the file indexes where
+ * every description starts, 16 bytes per product, and descriptions are read from the file when asked for, so the
+ * catalog can be much larger than what is kept of it on the heap.
+ */
+final class ProductCatalogFile implements AutoCloseable {
+
+    private final Path path;
+    private final FileChannel channel;
+
+    // Sorted by product id
+    private final int[] productIds;
+    private final long[] offsets;
+    private final int[] lengths;
+
+    private ProductCatalogFile(Path path, FileChannel channel, int[] productIds, long[] offsets, int[] lengths) {
+        this.path = path;
+        this.channel = channel;
+        this.productIds = productIds;
+        this.offsets = offsets;
+        this.lengths = lengths;
+    }
+
+    static ProductCatalogFile open(Path path) throws IOException {
+        Index index = new Index();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(path), 1 << 16)) {
+            long offset = 0;
+            int lineNumber = 0;
+            int b;
+            do {
+                lineNumber++;
+                long lineStart = offset;
+                long comma = -1;
+                int productId = 0;
+                boolean digits = false;
+                boolean comment = false;
+                boolean negative = false;
+                // A line ends at \n or at the end of the file, a trailing \r is not part of the description
+                while ((b = in.read()) != -1 && b != '\n') {
+                    if (offset == lineStart && b == '#') {
+                        comment = true;
+                    } else if (!comment && comma < 0) {
+                        if (b == ',') {
+                            comma = offset;
+                        } else if (b == '-' && offset == lineStart) {
+                            negative = true;
+                        } else if (b >= '0' && b <= '9' && productId <= (Integer.MAX_VALUE - 9) / 10) {
+                            productId = productId * 10 + (b - '0');
+                            digits = true;
+                        } else if (b != '\r' || offset != lineStart) {
+                            throw new IllegalStateException("Malformed product id on line " + lineNumber + " of " + path);
+                        }
+                    }
+                    offset++;
+                }
+                long lineEnd = offset;
+                if (b == '\n') {
+                    offset++;
+                }
+                if (comment || (lineEnd == lineStart) || (lineEnd - lineStart == 1 && comma < 0 && !digits)) {
+                    continue;
+                }
+                if (comma < 0 || !digits) {
+                    throw new IllegalStateException("Expected id,description on line " + lineNumber + " of " + path);
+                }
+                index.add(negative ? -productId : productId, comma + 1, lineEnd - comma - 1);
+            } while (b != -1);
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return index.build(path, channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    int size() {
+        return productIds.length;
+    }
+
+    /**
+     * @return the product's description, or null if the file does not list it
+     */
+    String description(int productId) {
+        int index = Arrays.binarySearch(productIds, productId);
+        if (index < 0) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(lengths[index]);
+        try {
+            // Positional reads, safe from any number of threads at once
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offsets[index] + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of " + path);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read product " + productId + " from " + path, e);
+        }
+        int length = lengths[index];
+        // Strip the \r of a CRLF line end
+        if (length > 0 && buffer.get(length - 1) == '\r') {
+            length--;
+        }
+        return new String(buffer.array(), 0, length, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Lines in file order, packed as id << 32 | line so sorting orders by id and then by position in the file
+    private static final class Index {
+        private long[] entries = new long[1024];
+        private long[] offsets = new long[1024];
+        private int[] lengths = new int[1024];
+        private int size;
+
+        void add(int productId, long offset, long length) {
+            if (length > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Description of product " + productId + " is too long");
+            }
+            if (size == entries.length) {
+                entries = Arrays.copyOf(entries, size * 2);
+                offsets = Arrays.copyOf(offsets, size * 2);
+                lengths = Arrays.copyOf(lengths, size * 2);
+            }
+            entries[size] = (long) productId << 32 | size;
+            offsets[size] = offset;
+            lengths[size] = (int) length;
+            size++;
+        }
+
+        ProductCatalogFile build(Path path, FileChannel channel) throws IOException {
+            long[] sorted = Arrays.copyOf(entries, size);
+            Arrays.sort(sorted);
+            int[] productIds = new int[size];
+            long[] sortedOffsets = new long[size];
+            int[] sortedLengths = new int[size];
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                int productId = (int) (sorted[i] >> 32);
+                int line = (int) sorted[i];
+                // The last line of a product comes last in its run, and overwrites the earlier ones
+                if (count > 0 && productIds[count - 1] == productId) {
+                    count--;
+                }
+                productIds[count] = productId;
+                sortedOffsets[count] = offsets[line];
+                sortedLengths[count] = lengths[line];
+                count++;
+            }
+            if (count > 0 && sortedOffsets[count - 1] + sortedLengths[count - 1] > channel.size()) {
+                throw new IOException(path + " changed while it was indexed");
+            }
+            return new ProductCatalogFile(path, channel, Arrays.copyOf(productIds, count),
+                    Arrays.copyOf(sortedOffsets, count), Arrays.copyOf(sortedLengths, count));
+        }
+    }
+}
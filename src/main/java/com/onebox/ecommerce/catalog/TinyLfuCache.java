@@ -0,0 +1,276 @@
+package com.onebox.ecommerce.catalog;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntFunction;
+
+/**
+ * Cache of int keys bounded by entry count, with W-TinyLFU eviction: a small LRU window takes new entries, and an
+ * entry leaving the window only displaces the least recently used entry of the main segmented LRU if a frequency
+ * sketch says it has been asked for more often. One-off lookups, like a crawler walking the whole catalog, pass
+ * through the window without flushing the products everybody buys.
+ * <p>
+ * Reads are lock-free map lookups. Accesses are recorded under a lock that readers only try: when another thread
+ * holds it the access goes unrecorded, which costs a little precision rather than latency. Values must not be null.
+ */
+final class TinyLfuCache<V> {
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+    private static final int REMOVED = 3;
+
+    private final int maximumSize;
+    private final int windowMaximum;
+    private final int protectedMaximum;
+
+    private final Map<Integer, Node<V>> nodes = new ConcurrentHashMap<>();
+    private final FrequencySketch sketch;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Least recently used first, guarded by lock
+    private final AccessOrder<V> window = new AccessOrder<>();
+    private final AccessOrder<V> probation = new AccessOrder<>();
+    private final AccessOrder<V> protectedSegment = new AccessOrder<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    TinyLfuCache(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Cache size must be at least 1: " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+        // 1% window and an 80% protected share of the main segment, the proportions W-TinyLFU starts from
+        this.windowMaximum = Math.max(1, maximumSize / 100);
+        this.protectedMaximum = (maximumSize - windowMaximum) * 4 / 5;
+        this.sketch = new FrequencySketch(maximumSize);
+    }
+
+    /**
+     * @return the cached value, or the one {@code loader} gives, cached unless null. Concurrent misses of the same
+     * key may each load it.
+     */
+    V get(int key, IntFunction<V> loader) {
+        Node<V> node = nodes.get(key);
+        if (node != null) {
+            hits.increment();
+            if (lock.tryLock()) {
+                try {
+                    onAccess(node);
+                } finally {
+                    lock.unlock();
+                }
+            }
+            return node.value;
+        }
+        misses.increment();
+        V value = loader.apply(key);
+        if (value != null) {
+            put(key, value);
+        }
+        return value;
+    }
+
+    long size() {
+        return nodes.size();
+    }
+
+    long hitCount() {
+        return hits.sum();
+    }
+
+    long missCount() {
+        return misses.sum();
+    }
+
+    private void put(int key, V value) {
+        lock.lock();
+        try {
+            sketch.increment(key);
+            Node<V> node = nodes.get(key);
+            if (node != null) {
+                node.value = value;
+                return;
+            }
+            node = new Node<>(key, value);
+            nodes.put(key, node);
+            window.addLast(node, WINDOW);
+            evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onAccess(Node<V> node) {
+        sketch.increment(node.key);
+        switch (node.segment) {
+            case WINDOW -> window.moveToLast(node);
+            case PROBATION -> {
+                probation.remove(node);
+                protectedSegment.addLast(node, PROTECTED);
+                if (protectedSegment.size > protectedMaximum) {
+                    probation.addLast(protectedSegment.removeFirst(), PROBATION);
+                }
+            }
+            case PROTECTED -> protectedSegment.moveToLast(node);
+            default -> {
+                // evicted since it was looked up
+            }
+        }
+    }
+
+    private void evict() {
+        while (window.size > windowMaximum) {
+            Node<V> candidate = window.removeFirst();
+            if (nodes.size() <= maximumSize) {
+                probation.addLast(candidate, PROBATION);
+                continue;
+            }
+            Node<V> victim = probation.size > 0 ? probation.first() : protectedSegment.first();
+            if (victim == null || sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+                discard(candidate);
+            } else {
+                (victim.segment == PROBATION ? probation : protectedSegment).remove(victim);
+                discard(victim);
+                probation.addLast(candidate, PROBATION);
+            }
+        }
+    }
+
+    private void discard(Node<V> node) {
+        node.segment = REMOVED;
+        nodes.remove(node.key);
+    }
+
+    private static final class Node<V> {
+        private final int key;
+        private volatile V value;
+        private int segment;
+        private Node<V> previous;
+        private Node<V> next;
+
+        private Node(int key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    // Intrusive doubly linked list, so moving a node costs no allocation
+    private static final class AccessOrder<V> {
+        private Node<V> head;
+        private Node<V> tail;
+        private int size;
+
+        Node<V> first() {
+            return head;
+        }
+
+        void addLast(Node<V> node, int segment) {
+            node.segment = segment;
+            node.previous = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            size++;
+        }
+
+        Node<V> removeFirst() {
+            Node<V> node = head;
+            remove(node);
+            return node;
+        }
+
+        void remove(Node<V> node) {
+            if (node.previous == null) {
+                head = node.next;
+            } else {
+                node.previous.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.previous;
+            } else {
+                node.next.previous = node.previous;
+            }
+            node.previous = null;
+            node.next = null;
+            size--;
+        }
+
+        void moveToLast(Node<V> node) {
+            if (node != tail) {
+                int segment = node.segment;
+                remove(node);
+                addLast(node, segment);
+            }
+        }
+    }
+
+    /**
+     * Count-min sketch of 4 bit counters, four per key, sixteen to a long. Once the increments reach ten times the
+     * cache size every counter is halved, so the sketch follows what is popular now rather than ever since startup.
+     */
+    static final class FrequencySketch {
+
+        private static final long[] SEEDS = {
+                0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L};
+        private static final long HALVE_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int sampleSize;
+        private int increments;
+
+        FrequencySketch(int maximumSize) {
+            int length = Integer.highestOneBit(Math.max(64, Math.min(maximumSize, 1 << 26)) - 1) << 1;
+            this.table = new long[length];
+            this.sampleSize = (int) Math.min(Integer.MAX_VALUE, 10L * maximumSize);
+        }
+
+        int frequency(int key) {
+            int frequency = 15;
+            for (long seed : SEEDS) {
+                long hash = hash(key, seed);
+                frequency = Math.min(frequency, (int) (table[slot(hash)] >>> shift(hash)) & 15);
+            }
+            return frequency;
+        }
+
+        void increment(int key) {
+            boolean incremented = false;
+            for (long seed : SEEDS) {
+                long hash = hash(key, seed);
+                int slot = slot(hash);
+                int shift = shift(hash);
+                if (((table[slot] >>> shift) & 15) < 15) {
+                    table[slot] += 1L << shift;
+                    incremented = true;
+                }
+            }
+            if (incremented && ++increments >= sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & HALVE_MASK;
+                }
+                increments /= 2;
+            }
+        }
+
+        private int slot(long hash) {
+            return (int) (hash >>> 32) & (table.length - 1);
+        }
+
+        private static int shift(long hash) {
+            return (int) (hash & 15) << 2;
+        }
+
+        private static long hash(int key, long seed) {
+            long hash = (key + seed) * 0x9E3779B97F4A7C15L;
+            return hash ^ (hash >>> 29);
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package com.onebox.ecommerce.cluster;
+
+import com.onebox.ecommerce.config.CartProperties;
+import com.onebox.ecommerce.exception.CartNotFoundException;
+import com.onebox.ecommerce.exception.CartServiceCustomException;
+import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.repository.CartRepository;
+import com.onebox.ecommerce.service.CartExpiryIndex;
+import com.onebox.ecommerce.service.CartQueryIndex;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Moves carts to their new owners after the ring changed. Carts are streamed in batches of
+ * {@code cart.cluster.handoff-batch} per owner while requests keep being served: a batch is encoded under each
+ * cart's lock, sent as one HANDOFF message, and once the owner stored it the carts are deleted here, unless they
+ * were updated since, which makes them go again with the next pass. Requests reach the new owner as soon as it has
+ * the cart, and the old one until then, see ClusteredCartService. Once a pass finds nothing left to move, every
+ * member gets a HANDOFF_DONE, retried until it is reachable.
+ * <p>
+ * Handoffs run one after the other on a thread of their own; a handoff superseded by a later ring change stops and
+ * leaves the rest to the next one.
+ */
+@Component
+@ConditionalOnProperty(prefix = "cart.cluster", name = "enabled", havingValue = "true")
+@Log4j2
+public class CartHandoff {
+
+    @Autowired
+    private CartRepository cartRepository;
+
+    @Autowired
+    private CartExpiryIndex cartExpiryIndex;
+
+    @Autowired
+    private CartQueryIndex cartQueryIndex;
+
+    @Autowired
+    private CartProperties cartProperties;
+
+    @Autowired
+    private ClusterMembership membership;
+
+    private final ExecutorService executor =
+            Executors.newSingleThreadExecutor(Thread.ofPlatform().name("cart-handoff").daemon().factory());
+
+    @EventListener
+    void onRingChange(ClusterMembership.RingChange change) {
+        executor.execute(() -> {
+            try {
+                handOff(change.ring());
+            } catch (RuntimeException e) {
+                // Interrupted when the node shuts down, nothing went wrong
+                if (!Thread.currentThread().isInterrupted()) {
+                    log.error("Handoff for {} failed", change.ring(), e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stores the carts of a HANDOFF message. They are all read before the first is stored, so a failure leaves the
+     * connection in step.
+     * <p>
+     * A cart may arrive again after this node already has it: its previous owner took a write while the first copy
+     * was on the way, so it could not delete the cart and sends it with the next pass. This node may have taken
+     * writes of its own meanwhile, so the copy with the higher version stays.
+     */
+    void receive(DataInputStream in) throws IOException {
+        int count = PeerProtocol.count(in);
+        List<Cart> carts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            carts.add(PeerProtocol.readCart(in));
+        }
+        for (Cart cart : carts) {
+            Instant[] previous = new Instant[1];
+            Boolean replaced = cartRepository.withCart(cart.getId(), stored -> {
+                if (stored.getVersion() >= cart.getVersion()) {
+                    return false;
+                }
+                previous[0] = stored.getLastUpdated();
+                stored.setProducts(cart.getProducts().snapshot());
+                stored.setLastUpdated(cart.getLastUpdated());
+                stored.setVersion(cart.getVersion());
+                return true;
+            });
+            if (replaced == null) {
+                cartRepository.restoreCart(cart);
+            } else if (!replaced) {
+                continue;
+            }
+            cartExpiryIndex.touch(cart.getId(), previous[0], cart.getLastUpdated());
+            cartQueryIndex.index(cart);
+        }
+    }
+
+    void handOff(ConsistentHashRing ring) {
+        long start = System.nanoTime();
+        long moved = 0;
+        long sent;
+        do {
+            if (ring != membership.ring()) {
+                return;
+            }
+            try {
+                long[] pass = pass(ring);
+                sent = pass[0];
+                moved += pass[1];
+            } catch (CartServiceCustomException e) {
+                log.warn("Handoff for {} is held up, retrying: {}", ring, e.getMessage());
+                sent = 1;
+                pause();
+            }
+        } while (sent > 0);
+
+        if (moved > 0) {
+            log.info("Handed off {} carts for {} in {} ms", moved, ring, (System.nanoTime() - start) / 1_000_000);
+        }
+        announceDone(ring);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // One walk over the local carts, returns the carts sent and the ones of them moved for good
+    private long[] pass(ConsistentHashRing ring) {
+        String self = membership.self();
+        int batchSize = cartProperties.getCluster().getHandoffBatch();
+        Map<String, Batch> batches = new HashMap<>();
+        long[] counts = new long[2];
+        cartRepository.forEachCartId(cartId -> {
+            String owner = ring.ownerOf(cartId);
+            if (owner == null || owner.equals(self) || ring != membership.ring()) {
+                return;
+            }
+            PeerClient peer = membership.peer(owner);
+            if (peer == null) {
+                return;
+            }
+            Batch batch = batches.computeIfAbsent(owner, node -> new Batch(peer));
+            if (batch.add(cartId) && batch.size >= batchSize) {
+                counts[0] += batch.size;
+                counts[1] += send(batch);
+            }
+        });
+        for (Batch batch : batches.values()) {
+            if (batch.size > 0) {
+                counts[0] += batch.size;
+                counts[1] += send(batch);
+            }
+        }
+        return counts;
+    }
+
+    // Returns the carts deleted here once the owner had them
+    private int send(Batch batch) {
+        PeerClient peer = batch.peer;
+        peer.call(0, out -> {
+            out.writeByte(PeerProtocol.HANDOFF);
+            out.writeByte(0);
+            PeerProtocol.writeVarint(out, batch.size);
+            batch.bytes.writeTo(out);
+        }, (type, in) -> null);
+
+        int moved = 0;
+        for (int i = 0; i < batch.size; i++) {
+            int cartId = batch.cartIds[i];
+            if (cartRepository.deleteCartIfInactive(cartId, batch.lastUpdated[i])) {
+                cartQueryIndex.remove(cartId);
+                moved++;
+            } else if (cartRepository.withCart(cartId, cart -> Boolean.TRUE) == null) {
+                // Deleted by a request while it was on the way, the owner's copy must go as well
+                deleteAt(peer, cartId);
+            }
+        }
+        batch.clear();
+        return moved;
+    }
+
+    private void deleteAt(PeerClient peer, int cartId) {
+        try {
+            peer.call(cartId, out -> {
+                out.writeByte(PeerProtocol.DELETE);
+                out.writeByte(ClusteredCartService.MAX_HOPS);
+                PeerProtocol.writeVarint(out, cartId);
+            }, (type, in) -> null);
+        } catch (CartNotFoundException ignored) {
+            // deleted there too
+        }
+    }
+
+    private void announceDone(ConsistentHashRing ring) {
+        Set<String> remaining = new LinkedHashSet<>(ring.nodes());
+        remaining.remove(membership.self());
+        while (!remaining.isEmpty() && ring == membership.ring()) {
+            int issuedThrough = membership.issuedThrough();
+            remaining.removeIf(node -> {
+                PeerClient peer = membership.peer(node);
+                if (peer == null) {
+                    return true;
+                }
+                try {
+                    peer.call(0, out -> {
+                        out.writeByte(PeerProtocol.HANDOFF_DONE);
+                        out.writeByte(0);
+                        out.writeLong(ring.id());
+                        PeerProtocol.writeString(out, membership.self());
+                        PeerProtocol.writeVarint(out, issuedThrough);
+                    }, (type, in) -> null);
+                    return true;
+                } catch (CartServiceCustomException e) {
+                    log.debug("Node {} has not taken the handoff of {} yet: {}", node, ring, e.getMessage());
+                    return false;
+                }
+            });
+            if (!remaining.isEmpty()) {
+                pause();
+            }
+        }
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(cartProperties.getCluster().getTimeout());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while handing off carts", e);
+        }
+    }
+
+    // Carts on their way to one owner, encoded as they are added
+    private final class Batch {
+        private final PeerClient peer;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private int[] cartIds = new int[16];
+        private Instant[] lastUpdated = new Instant[16];
+        private int size;
+
+        private Batch(PeerClient peer) {
+            this.peer = peer;
+        }
+
+        // Returns false if the cart is gone
+        private boolean add(int cartId) {
+            Instant encoded = cartRepository.withCart(cartId, cart -> {
+                try {
+                    PeerProtocol.writeCart(out, cart);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return cart.getLastUpdated();
+            });
+            if (encoded == null) {
+                return false;
+            }
+            if (size == cartIds.length) {
+                cartIds = Arrays.copyOf(cartIds, size * 2);
+                lastUpdated = Arrays.copyOf(lastUpdated, size * 2);
+            }
+            cartIds[size] = cartId;
+            lastUpdated[size] = encoded;
+            size++;
+            return true;
+        }
+
+        private void clear() {
+            bytes.reset();
+            size = 0;
+        }
+    }
+}
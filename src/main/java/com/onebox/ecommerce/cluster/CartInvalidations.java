@@ -0,0 +1,102 @@
+package com.onebox.ecommerce.cluster;
+
+import com.onebox.ecommerce.config.CartProperties;
+import com.onebox.ecommerce.exception.CartServiceCustomException;
+import com.onebox.ecommerce.service.CartChange;
+import com.onebox.ecommerce.service.CartChangeListener;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tells the other members about every change made to a cart on this node, so they drop their CartNearCache copies of
+ * it. Request threads only queue the change; a thread of its own sends whatever has queued up as one INVALIDATE
+ * message per member, so a burst of writes costs a few messages rather than one per write and member. The queue is
+ * bounded: when the members can not keep up, changes are dropped rather than writes kept waiting, and the copies
+ * elsewhere live on until {@code cart.cluster.near-cache.max-staleness}. Idle with the near cache disabled.
+ */
+@Component
+@ConditionalOnProperty(prefix = "cart.cluster", name = "enabled", havingValue = "true")
+@Log4j2
+public class CartInvalidations implements CartChangeListener {
+
+    private static final int QUEUE_CAPACITY = 65_536;
+    private static final int MAX_BATCH = 4096;
+
+    @Autowired
+    private ClusterMembership membership;
+
+    @Autowired
+    private CartProperties cartProperties;
+
+    private final BlockingQueue<CartChange> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final LongAdder dropped = new LongAdder();
+    private volatile Thread sender;
+
+    @PostConstruct
+    void start() {
+        if (cartProperties.getCluster().getNearCache().isEnabled()) {
+            sender = Thread.ofPlatform().name("cart-invalidations").daemon().start(this::send);
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        if (sender != null) {
+            sender.interrupt();
+        }
+    }
+
+    @Override
+    public void onCartChange(CartChange change) {
+        if (sender != null && !queue.offer(change)) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * @return changes not sent because the queue was full
+     */
+    public long droppedCount() {
+        return dropped.sum();
+    }
+
+    private void send() {
+        List<CartChange> batch = new ArrayList<>(MAX_BATCH);
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH - 1);
+                for (PeerClient peer : membership.peers()) {
+                    try {
+                        peer.call(0, out -> {
+                            out.writeByte(PeerProtocol.INVALIDATE);
+                            out.writeByte(0);
+                            PeerProtocol.writeVarint(out, batch.size());
+                            for (CartChange change : batch) {
+                                PeerProtocol.writeVarint(out, change.cartId());
+                                PeerProtocol.writeVarlong(out, change.version() + 1);
+                            }
+                        }, (type, in) -> null);
+                    } catch (CartServiceCustomException e) {
+                        // Its copies get stale for max-staleness at most
+                        log.debug("Could not send {} invalidations to node {}: {}", batch.size(), peer.node(),
+                                e.getMessage());
+                    }
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // shutting down
+        }
+    }
+}
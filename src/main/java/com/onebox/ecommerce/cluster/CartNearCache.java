@@ -0,0 +1,292 @@
+package com.onebox.ecommerce.cluster;
+
+import com.onebox.ecommerce.config.CartProperties;
+import com.onebox.ecommerce.model.CartResponse;
+import com.onebox.ecommerce.model.Product;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Copies of carts this node read from their owners, so repeated reads of a hot cart through a node that does not own
+ * it skip the hop, with {@code cart.cluster.near-cache.enabled=true}. Bounded by {@code max-carts} and by the
+ * estimated heap of the copies, {@code max-size}, the least recently read going first.
+ * <p>
+ * A copy carries its cart's version. For {@code max-staleness} after it was fetched it is served as is, then it is
+ * revalidated with a conditional read, which costs the owner a version comparison and a few bytes when nothing
+ * changed. Owners tell every member about changes, see CartInvalidations, and writes through this node drop its copy
+ * at once, so copies rarely get that old: max-staleness bounds how stale a read gets when an invalidation is lost.
+ * A read that misses puts a placeholder before asking the owner, which remembers the versions invalidations name
+ * meanwhile, so an invalidation arriving while the read is on its way keeps an older copy out of the cache without
+ * turning away the copy the read brings when that is as new.
+ */
+@Component
+@ConditionalOnProperty(prefix = "cart.cluster", name = "enabled", havingValue = "true")
+public class CartNearCache {
+
+    @FunctionalInterface
+    interface Loader {
+        /**
+         * @param cached the copy to revalidate, null if there is none
+         * @return the cart as its owner has it, {@code cached} itself if it did not change
+         */
+        CartResponse load(CartResponse cached);
+    }
+
+    private final boolean enabled;
+    private final int maxCarts;
+    private final long maxBytes;
+    private final long maxStalenessNanos;
+
+    private final Map<Integer, Entry> entries = new ConcurrentHashMap<>();
+
+    // Cached copies, least recently read first, guarded by lock. Placeholders are only in entries
+    private final ReentrantLock lock = new ReentrantLock();
+    private Entry head;
+    private Entry tail;
+    private volatile int linked;
+    private volatile long bytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public CartNearCache(CartProperties cartProperties) {
+        CartProperties.NearCache properties = cartProperties.getCluster().getNearCache();
+        this.enabled = properties.isEnabled();
+        this.maxCarts = properties.getMaxCarts();
+        this.maxBytes = properties.getMaxSize().toBytes();
+        this.maxStalenessNanos = properties.getMaxStaleness().toNanos();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the copy of the cart if it is fresh, else the cart {@code loader} gives, cached
+     * @throws RuntimeException what {@code loader} throws, e.g. CartNotFoundException, after dropping the copy
+     */
+    CartResponse get(int cartId, Loader loader) {
+        Entry entry = entries.get(cartId);
+        CartResponse cached = entry == null ? null : entry.cart;
+        if (cached != null && System.nanoTime() - entry.validatedAt < maxStalenessNanos) {
+            hits.increment();
+            // Like TinyLfuCache, a busy lock costs some precision of the order rather than latency
+            if (lock.tryLock()) {
+                try {
+                    if (entry.linked) {
+                        unlink(entry);
+                        link(entry);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+            return cached;
+        }
+        if (entry == null) {
+            Entry placeholder = new Entry(cartId, null, 0);
+            Entry raced = entries.putIfAbsent(cartId, placeholder);
+            entry = raced == null ? placeholder : raced;
+            cached = entry.cart;
+        }
+        (cached == null ? misses : stale).increment();
+
+        CartResponse loaded;
+        try {
+            loaded = loader.load(cached);
+        } catch (RuntimeException e) {
+            // Gone, or the owner could not tell, either way the copy is no good any more
+            remove(cartId, entry);
+            throw e;
+        }
+        store(cartId, entry, new Entry(cartId, loaded, weigh(loaded)));
+        return loaded;
+    }
+
+    /**
+     * Drops the copy of the cart unless it is at {@code version} or newer
+     *
+     * @param version the cart's version after the change, -1 to drop the copy whatever its version
+     */
+    void invalidate(int cartId, long version) {
+        Entry entry = entries.get(cartId);
+        if (entry == null || version >= 0 && entry.cart != null && entry.cart.getVersion() >= version) {
+            return;
+        }
+        if (entry.cart == null) {
+            // Loading: whether the copy on its way is older is only known once it arrives
+            lock.lock();
+            try {
+                if (entries.get(cartId) != entry) {
+                    // Loaded or dropped meanwhile
+                    invalidate(cartId, version);
+                    return;
+                }
+                entry.invalidatedVersion = Math.max(entry.invalidatedVersion, version < 0 ? Long.MAX_VALUE : version);
+            } finally {
+                lock.unlock();
+            }
+            return;
+        }
+        if (remove(cartId, entry)) {
+            invalidations.increment();
+        }
+    }
+
+    /**
+     * Drops every copy when the members change: this node may own some of the carts now, and go on to change them
+     * without invalidating copies it reads no more, or lose them again later
+     */
+    @EventListener
+    void onRingChange(ClusterMembership.RingChange change) {
+        lock.lock();
+        try {
+            entries.clear();
+            // Readers may still hold entries, which must not look cached any more
+            while (head != null) {
+                unlink(head);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        return linked;
+    }
+
+    public long estimatedBytes() {
+        return bytes;
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return lookups that found a copy older than max-staleness and asked the owner whether it changed
+     */
+    public long staleCount() {
+        return stale.sum();
+    }
+
+    public long invalidationCount() {
+        return invalidations.sum();
+    }
+
+    private void store(int cartId, Entry expected, Entry fresh) {
+        lock.lock();
+        try {
+            if (fresh.cart.getVersion() < expected.invalidatedVersion) {
+                // Changed again while it was loading
+                if (entries.remove(cartId, expected)) {
+                    invalidations.increment();
+                }
+                return;
+            }
+            if (!entries.replace(cartId, expected, fresh)) {
+                // Dropped while it was loading
+                return;
+            }
+            if (expected.linked) {
+                unlink(expected);
+            }
+            link(fresh);
+            while (linked > maxCarts || bytes > maxBytes) {
+                Entry eldest = head;
+                unlink(eldest);
+                entries.remove(eldest.cartId, eldest);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean remove(int cartId, Entry entry) {
+        lock.lock();
+        try {
+            if (!entries.remove(cartId, entry)) {
+                return false;
+            }
+            if (entry.linked) {
+                unlink(entry);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void link(Entry entry) {
+        entry.previous = tail;
+        entry.next = null;
+        if (tail == null) {
+            head = entry;
+        } else {
+            tail.next = entry;
+        }
+        tail = entry;
+        entry.linked = true;
+        linked++;
+        bytes += entry.weight;
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.previous == null) {
+            head = entry.next;
+        } else {
+            entry.previous.next = entry.next;
+        }
+        if (entry.next == null) {
+            tail = entry.previous;
+        } else {
+            entry.next.previous = entry.previous;
+        }
+        entry.previous = null;
+        entry.next = null;
+        entry.linked = false;
+        linked--;
+        bytes -= entry.weight;
+    }
+
+    // Rough heap of a copy: the response and its map, and per line a product, a map entry and the description
+    private static long weigh(CartResponse cart) {
+        long weight = 128;
+        for (Product product : cart.getProducts().values()) {
+            String description = product.getDescription();
+            weight += 96 + (description == null ? 0 : description.length());
+        }
+        return weight;
+    }
+
+    private static final class Entry {
+        private final int cartId;
+        // Null for a placeholder of a cart being loaded
+        private final CartResponse cart;
+        private final long weight;
+        private final long validatedAt = System.nanoTime();
+        // Of a placeholder, the newest version an invalidation named while it was loading; guarded by lock
+        private long invalidatedVersion = -1;
+        private Entry previous;
+        private Entry next;
+        private boolean linked;
+
+        private Entry(int cartId, CartResponse cart, long weight) {
+            this.cartId = cartId;
+            this.cart = cart;
+            this.weight = weight;
+        }
+    }
+}
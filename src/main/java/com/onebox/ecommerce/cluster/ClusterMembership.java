@@ -0,0 +1,362 @@
+package com.onebox.ecommerce.cluster;
+
+import com.onebox.ecommerce.config.CartProperties;
+import com.onebox.ecommerce.exception.CartServiceCustomException;
+import com.onebox.ecommerce.model.Cart;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntPredicate;
+
+/**
+ * Members of the cluster and which of them owns which cart, through a ConsistentHashRing over the member names.
+ * Members come from {@code cart.cluster.members} and change at runtime through the cartcluster actuator endpoint,
+ * which passes the new members on to every node.
+ * <p>
+ * Ids must stay unique across the cluster although every node creates carts on its own. A node only gives new carts
+ * ids it owns, so two nodes never pick the same id while they agree on the ring. When the ring changes, a node gains
+ * ids its previous owner may have given out already; it only starts giving out such ids once every other member has
+ * sent its HANDOFF_DONE for the new ring, which carries the highest id the member issued, and then only ids above all
+ * of those. Until then it keeps to the ids it owned before and still owns, and forwards creates when there are none,
+ * as on startup, when it owned nothing before.
+ */
+@Component
+@ConditionalOnProperty(prefix = "cart.cluster", name = "enabled", havingValue = "true")
+@Log4j2
+public class ClusterMembership {
+
+    private static final Duration SETTLING_RETRY_AFTER = Duration.ofSeconds(1);
+    private static final int RINGS_REMEMBERED = 16;
+
+    private final CartProperties.Cluster properties;
+    private final ApplicationEventPublisher eventPublisher;
+    private final String self;
+
+    private final Map<String, PeerClient> peers = new ConcurrentHashMap<>();
+
+    // Guards changes of the state. A lock rather than synchronized, peer requests wait on it on virtual threads
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // HANDOFF_DONE received per ring id, with the highest id each member issued. Kept for the last few rings, a
+    // member may be done with a ring before this node applied it
+    private final Map<Long, Map<String, Integer>> handoffsDone = new LinkedHashMap<>();
+
+    private volatile State state;
+
+    /**
+     * @param ring the members now
+     * @param addresses where each member takes peer connections
+     * @param previous the members before the last change, on startup the members other than this node, null while
+     * unknown or once every handoff is done
+     * @param awaiting members, and members that left, whose HANDOFF_DONE for the ring has not arrived yet
+     * @param issuedThrough the highest id a member that sent its HANDOFF_DONE has issued
+     */
+    record State(ConsistentHashRing ring, Map<String, InetSocketAddress> addresses, ConsistentHashRing previous,
+                 Set<String> awaiting, int issuedThrough) {
+    }
+
+    public ClusterMembership(CartProperties cartProperties, ApplicationEventPublisher eventPublisher) {
+        this.properties = cartProperties.getCluster();
+        this.eventPublisher = eventPublisher;
+        this.self = properties.getNodeId();
+        Map<String, InetSocketAddress> addresses = parse(properties.getMembers());
+        if (self == null || !addresses.containsKey(self)) {
+            throw new IllegalStateException("cart.cluster.node-id " + self + " is not one of cart.cluster.members "
+                    + properties.getMembers());
+        }
+        // This node may have owned none of the ids before, only the others' handoffs tell what they issued. Until
+        // they are done, the carts it owns may still be with them: a node joining takes its carts from the others
+        Set<String> others = new HashSet<>(addresses.keySet());
+        others.remove(self);
+        ConsistentHashRing previous = others.isEmpty() ? null
+                : new ConsistentHashRing(others, properties.getVirtualNodes());
+        changeRing(new ConsistentHashRing(addresses.keySet(), properties.getVirtualNodes()), addresses, null, previous,
+                0);
+    }
+
+    /**
+     * Starts the first handoff once the node serves peer requests: carts recovered from disk that others own move
+     * to them, and the others learn which ids this node issued
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    void start() {
+        eventPublisher.publishEvent(new RingChange(state.ring()));
+    }
+
+    public String self() {
+        return self;
+    }
+
+    /**
+     * @return where this node takes peer connections, as configured on startup
+     */
+    InetSocketAddress address() {
+        return parse(properties.getMembers()).get(self);
+    }
+
+    public ConsistentHashRing ring() {
+        return state.ring();
+    }
+
+    /**
+     * @return the ring before the last change while its handoffs are running, else null
+     */
+    public ConsistentHashRing previousRing() {
+        return state.previous();
+    }
+
+    public boolean isLocal(int cartId) {
+        return self.equals(state.ring().ownerOf(cartId));
+    }
+
+    /**
+     * @return whether carts may be moving between nodes, because not every member has finished its handoff
+     */
+    public boolean settling() {
+        return !state.awaiting().isEmpty();
+    }
+
+    public Set<String> awaitingHandoffs() {
+        return state.awaiting();
+    }
+
+    /**
+     * @return whether this node can give new carts an id at all right now, else creates go to another node
+     */
+    public boolean canIssueIds() {
+        return canIssueIds(state);
+    }
+
+    /**
+     * @return the ids this node may give new carts, following the membership as it changes
+     * @throws CartServiceCustomException 503 CLUSTER_SETTLING from the predicate if a change leaves the node without
+     * any, rather than looking for one forever
+     */
+    public IntPredicate issuableIds() {
+        return cartId -> {
+            State current = state;
+            if (!canIssueIds(current)) {
+                throw settlingException();
+            }
+            if (!self.equals(current.ring().ownerOf(cartId))) {
+                return false;
+            }
+            ConsistentHashRing previous = current.previous();
+            return previous != null && self.equals(previous.ownerOf(cartId))
+                    || current.awaiting().isEmpty() && cartId > current.issuedThrough();
+        };
+    }
+
+    /**
+     * @return the connection pool of the peer, or null if it is not a member
+     */
+    PeerClient peer(String node) {
+        return peers.get(node);
+    }
+
+    /**
+     * @return the members other than this node
+     */
+    List<PeerClient> peers() {
+        return state.ring().nodes().stream().filter(node -> !node.equals(self)).map(peers::get).toList();
+    }
+
+    /**
+     * Replaces the members on this node and every other node, the ones leaving included, so they hand off their
+     * carts. A node that can not be reached keeps the old members until it is told again. The others are told
+     * without holding the lock, they may be sending this node their handoffs meanwhile.
+     *
+     * @return the nodes that could not be told
+     * @throws IllegalArgumentException if a member is malformed
+     */
+    public List<String> changeMembers(List<String> members) {
+        Map<String, PeerClient> targets;
+        lock.lock();
+        try {
+            targets = new LinkedHashMap<>(peers);
+            apply(members);
+            targets.putAll(peers);
+        } finally {
+            lock.unlock();
+        }
+        List<String> unreachable = new ArrayList<>();
+        for (PeerClient peer : targets.values()) {
+            try {
+                peer.call(0, out -> {
+                    out.writeByte(PeerProtocol.MEMBERS);
+                    out.writeByte(0);
+                    PeerProtocol.writeVarint(out, members.size());
+                    for (String member : members) {
+                        PeerProtocol.writeString(out, member);
+                    }
+                }, (type, in) -> null);
+            } catch (CartServiceCustomException e) {
+                log.warn("Could not tell node {} about the new members: {}", peer.node(), e.getMessage());
+                unreachable.add(peer.node());
+            }
+        }
+        return unreachable;
+    }
+
+    /**
+     * Replaces the members on this node only, keeping the carts whose owner stays the same where they are
+     *
+     * @throws IllegalArgumentException if a member is malformed
+     */
+    void apply(List<String> members) {
+        Map<String, InetSocketAddress> addresses = parse(members);
+        lock.lock();
+        try {
+            State current = state;
+            ConsistentHashRing ring = new ConsistentHashRing(addresses.keySet(), properties.getVirtualNodes());
+            if (ring.id() == current.ring().id() && addresses.equals(current.addresses())) {
+                return;
+            }
+            // Ids stay safe to issue only if owned under every ring since the cluster last settled
+            ConsistentHashRing previous = current.awaiting().isEmpty() ? current.ring() : null;
+            changeRing(ring, addresses, current.ring(), previous, current.issuedThrough());
+            log.info("Cluster members changed from {} to {}", current.ring(), ring);
+            eventPublisher.publishEvent(new RingChange(ring));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records that {@code node} moved every cart it held and the ring gives to others
+     */
+    void handoffDone(long ringId, String node, int issuedThrough) {
+        lock.lock();
+        try {
+            handoffsDone.computeIfAbsent(ringId, id -> new HashMap<>()).merge(node, issuedThrough, Math::max);
+            if (handoffsDone.size() > RINGS_REMEMBERED) {
+                handoffsDone.remove(handoffsDone.keySet().iterator().next());
+            }
+            if (ringId == state.ring().id()) {
+                settle();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the highest id this node has issued, for the HANDOFF_DONE it sends
+     */
+    int issuedThrough() {
+        return Cart.idsIssuedThrough();
+    }
+
+    static CartServiceCustomException settlingException() {
+        return new CartServiceCustomException("The cluster is moving carts between its members",
+                "CLUSTER_SETTLING", HttpStatus.SERVICE_UNAVAILABLE, SETTLING_RETRY_AFTER);
+    }
+
+    @PreDestroy
+    void close() {
+        peers.values().forEach(PeerClient::close);
+    }
+
+    private void changeRing(ConsistentHashRing ring, Map<String, InetSocketAddress> addresses,
+                            ConsistentHashRing before, ConsistentHashRing previous, int issuedThrough) {
+        // Members leaving issued ids too, and hand their carts to the others
+        Set<String> awaiting = new HashSet<>(ring.nodes());
+        if (before != null) {
+            awaiting.addAll(before.nodes());
+        }
+        awaiting.remove(self);
+        state = new State(ring, addresses, previous, Set.copyOf(awaiting), issuedThrough);
+        settle();
+        updatePeers();
+    }
+
+    private boolean canIssueIds(State current) {
+        return current.ring().contains(self)
+                && (current.awaiting().isEmpty() || current.previous() != null && current.previous().contains(self));
+    }
+
+    // Takes in the handoffs done for the current ring
+    private void settle() {
+        State current = state;
+        Map<String, Integer> done = handoffsDone.getOrDefault(current.ring().id(), Map.of());
+        Set<String> awaiting = new HashSet<>(current.awaiting());
+        int issuedThrough = current.issuedThrough();
+        for (Map.Entry<String, Integer> entry : done.entrySet()) {
+            if (awaiting.remove(entry.getKey())) {
+                issuedThrough = Math.max(issuedThrough, entry.getValue());
+            }
+        }
+        if (awaiting.size() == current.awaiting().size()) {
+            return;
+        }
+        if (awaiting.isEmpty()) {
+            // Saves skipping every id up to the others' highest one by one
+            Cart.reserveIdsThrough(issuedThrough);
+            log.info("Every member finished its handoff for {}", current.ring());
+        }
+        state = new State(current.ring(), current.addresses(), awaiting.isEmpty() ? null : current.previous(),
+                Set.copyOf(awaiting), issuedThrough);
+    }
+
+    private void updatePeers() {
+        Map<String, InetSocketAddress> addresses = state.addresses();
+        peers.entrySet().removeIf(peer -> {
+            boolean stale = !peer.getValue().address().equals(addresses.get(peer.getKey()));
+            if (stale) {
+                peer.getValue().close();
+            }
+            return stale;
+        });
+        addresses.forEach((node, address) -> {
+            if (!node.equals(self)) {
+                peers.computeIfAbsent(node, name -> new PeerClient(name, address,
+                        properties.getConnectionsPerPeer(), properties.getTimeout()));
+            }
+        });
+    }
+
+    static Map<String, InetSocketAddress> parse(List<String> members) {
+        Map<String, InetSocketAddress> addresses = new LinkedHashMap<>();
+        for (String member : members) {
+            int equals = member.indexOf('=');
+            int colon = member.lastIndexOf(':');
+            if (equals < 1 || colon < equals + 2 || colon == member.length() - 1) {
+                throw new IllegalArgumentException("Expected a member as name=host:port: " + member);
+            }
+            try {
+                int port = Integer.parseInt(member.substring(colon + 1).trim());
+                addresses.put(member.substring(0, equals).trim(),
+                        new InetSocketAddress(member.substring(equals + 1, colon).trim(), port));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Expected a member as name=host:port: " + member, e);
+            }
+        }
+        if (addresses.isEmpty()) {
+            throw new IllegalArgumentException("A cluster needs at least one member");
+        }
+        return addresses;
+    }
+
+    /**
+     * Published when the ring changes, and once on startup
+     */
+    public record RingChange(ConsistentHashRing ring) {
+    }
+}
@@ -0,0 +1,300 @@
+package com.onebox.ecommerce.cluster;
+
+import com.onebox.ecommerce.exception.CartNotFoundException;
+import com.onebox.ecommerce.exception.CartServiceCustomException;
+import com.onebox.ecommerce.model.CartDeltaResponse;
+import com.onebox.ecommerce.model.CartIfModified;
+import com.onebox.ecommerce.model.CartLineChange;
+import com.onebox.ecommerce.model.CartOperation;
+import com.onebox.ecommerce.model.CartOperationResult;
+import com.onebox.ecommerce.model.CartResponse;
+import com.onebox.ecommerce.model.CartVersionCondition;
+import com.onebox.ecommerce.model.Product;
+import com.onebox.ecommerce.service.CartService;
+import com.onebox.ecommerce.service.CartServiceImpl;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongPredicate;
+import java.util.function.Supplier;
+
+/**
+ * CartService of a clustered node, the one CartController and the reactive front end call with
+ * {@code cart.cluster.enabled=true}. Operations on carts this node owns run on the local CartServiceImpl, the others
+ * go to their owner over PeerClient, so any node answers any request. Creates run locally, with an id this node owns,
+ * see ClusterMembership; while it has none to give they go to another member.
+ * <p>
+ * With the near cache enabled, reads of carts owned by others are served from CartNearCache, and writes through this
+ * node drop its copy once the owner applied them.
+ * <p>
+ * While carts move after a ring change, a cart may still be at its previous owner: an owner missing a cart asks the
+ * previous owner to answer from what it holds, as a node does that is asked after a request was forwarded
+ * {@value #MAX_HOPS} times, so a request never travels in circles. If the previous owner no longer has the cart either,
+ * it may have been handed off meanwhile, and the owner looks once more.
+ */
+@Service
+@Primary
+@ConditionalOnProperty(prefix = "cart.cluster", name = "enabled", havingValue = "true")
+public class ClusteredCartService implements CartService {
+
+    static final int MAX_HOPS = 2;
+
+    @Autowired
+    private CartServiceImpl localCartService;
+
+    @Autowired
+    private ClusterMembership membership;
+
+    @Autowired
+    private CartNearCache nearCache;
+
+    @Override
+    public CartResponse createCart() {
+        return createCart(0);
+    }
+
+    @Override
+    public CartResponse getCart(int cartId) {
+        return getCart(cartId, 0);
+    }
+
+    @Override
+    public CartIfModified getCartIfModified(int cartId, LongPredicate notModified) {
+        return getCartIfModified(cartId, notModified, 0);
+    }
+
+    @Override
+    public CartResponse addProductsToCart(int cartId, Map<Integer, Product> products, LongPredicate ifMatch) {
+        return addProductsToCart(cartId, products, ifMatch, 0);
+    }
+
+    @Override
+    public CartDeltaResponse updateCartLines(int cartId, List<CartLineChange> changes, LongPredicate ifMatch) {
+        return updateCartLines(cartId, changes, ifMatch, 0);
+    }
+
+    @Override
+    public void deleteCart(int cartId) {
+        deleteCart(cartId, 0);
+    }
+
+    /**
+     * Evicts the carts of this node, every node runs its own sweep
+     */
+    @Override
+    public void deleteInactiveCarts() {
+        localCartService.deleteInactiveCarts();
+    }
+
+    /**
+     * Runs the batch here, every operation going to the owner of its cart
+     */
+    @Override
+    public List<CartOperationResult> executeBatch(List<CartOperation> operations) {
+        return localCartService.executeBatch(operations, this);
+    }
+
+    CartResponse createCart(int hops) {
+        if (membership.canIssueIds()) {
+            try {
+                return localCartService.createCart(membership.issuableIds());
+            } catch (CartServiceCustomException e) {
+                // The members changed while looking for an id, another node may have one
+                if (hops > 0 || !"CLUSTER_SETTLING".equals(e.getErrorCode())) {
+                    throw e;
+                }
+            }
+        }
+        if (hops > 0) {
+            throw ClusterMembership.settlingException();
+        }
+        List<PeerClient> peers = membership.peers();
+        CartServiceCustomException failure = ClusterMembership.settlingException();
+        int first = peers.isEmpty() ? 0 : ThreadLocalRandom.current().nextInt(peers.size());
+        for (int i = 0; i < peers.size(); i++) {
+            try {
+                return peers.get((first + i) % peers.size()).call(0, out -> {
+                    out.writeByte(PeerProtocol.CREATE);
+                    out.writeByte(hops + 1);
+                }, ClusteredCartService::cart);
+            } catch (CartServiceCustomException e) {
+                if (e.getStatus() != HttpStatus.SERVICE_UNAVAILABLE) {
+                    throw e;
+                }
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    CartResponse getCart(int cartId, int hops) {
+        if (nearCached(cartId, hops)) {
+            // A stale copy is revalidated by version, the owner only sends the cart if it changed
+            return nearCache.get(cartId, cached -> {
+                if (cached == null) {
+                    return routeGet(cartId, hops);
+                }
+                CartIfModified current = routeGetIfModified(cartId,
+                        new CartVersionCondition(false, new long[]{cached.getVersion()}), hops);
+                return current.isModified() ? current.cart() : cached;
+            });
+        }
+        return routeGet(cartId, hops);
+    }
+
+    CartIfModified getCartIfModified(int cartId, LongPredicate notModified, int hops) {
+        if (nearCached(cartId, hops)) {
+            CartResponse cart = getCart(cartId, hops);
+            return notModified.test(cart.getVersion())
+                    ? CartIfModified.notModified(cart.getVersion())
+                    : CartIfModified.modified(cart);
+        }
+        return routeGetIfModified(cartId, notModified, hops);
+    }
+
+    CartResponse addProductsToCart(int cartId, Map<Integer, Product> products, LongPredicate ifMatch, int hops) {
+        try {
+            return routeAddProducts(cartId, products, ifMatch, hops);
+        } finally {
+            forgetCopy(cartId);
+        }
+    }
+
+    CartDeltaResponse updateCartLines(int cartId, List<CartLineChange> changes, LongPredicate ifMatch, int hops) {
+        try {
+            return routeUpdateLines(cartId, changes, ifMatch, hops);
+        } finally {
+            forgetCopy(cartId);
+        }
+    }
+
+    void deleteCart(int cartId, int hops) {
+        try {
+            routeDelete(cartId, hops);
+        } finally {
+            forgetCopy(cartId);
+        }
+    }
+
+    // Only requests from clients, the ones forwarded here are for carts this node should own
+    private boolean nearCached(int cartId, int hops) {
+        return hops == 0 && nearCache.isEnabled() && !membership.isLocal(cartId);
+    }
+
+    // Also when the write failed: it may have been applied before the answer got lost
+    private void forgetCopy(int cartId) {
+        if (nearCache.isEnabled()) {
+            nearCache.invalidate(cartId, -1);
+        }
+    }
+
+    private CartResponse routeGet(int cartId, int hops) {
+        return route(cartId, hops, () -> localCartService.getCart(cartId), PeerProtocol.GET,
+                out -> PeerProtocol.writeVarint(out, cartId), ClusteredCartService::cart);
+    }
+
+    private CartIfModified routeGetIfModified(int cartId, LongPredicate notModified, int hops) {
+        return route(cartId, hops, () -> localCartService.getCartIfModified(cartId, notModified),
+                PeerProtocol.GET_IF_NEWER, out -> {
+                    PeerProtocol.writeVarint(out, cartId);
+                    PeerProtocol.writeCondition(out, notModified);
+                }, (type, in) -> type == PeerProtocol.NOT_MODIFIED
+                        ? CartIfModified.notModified(PeerProtocol.readVarlong(in))
+                        : CartIfModified.modified(cart(type, in)));
+    }
+
+    private CartResponse routeAddProducts(int cartId, Map<Integer, Product> products, LongPredicate ifMatch,
+                                          int hops) {
+        return route(cartId, hops, () -> localCartService.addProductsToCart(cartId, products, ifMatch),
+                PeerProtocol.ADD_PRODUCTS, out -> {
+                    PeerProtocol.writeVarint(out, cartId);
+                    PeerProtocol.writeCondition(out, ifMatch);
+                    PeerProtocol.writeProducts(out, products);
+                }, ClusteredCartService::cart);
+    }
+
+    private CartDeltaResponse routeUpdateLines(int cartId, List<CartLineChange> changes, LongPredicate ifMatch,
+                                               int hops) {
+        return route(cartId, hops, () -> localCartService.updateCartLines(cartId, changes, ifMatch),
+                PeerProtocol.UPDATE_LINES, out -> {
+                    PeerProtocol.writeVarint(out, cartId);
+                    PeerProtocol.writeCondition(out, ifMatch);
+                    PeerProtocol.writeChanges(out, changes);
+                }, (type, in) -> {
+                    expect(PeerProtocol.DELTA, type);
+                    return PeerProtocol.readDelta(in);
+                });
+    }
+
+    private void routeDelete(int cartId, int hops) {
+        route(cartId, hops, () -> {
+            localCartService.deleteCart(cartId);
+            return null;
+        }, PeerProtocol.DELETE, out -> PeerProtocol.writeVarint(out, cartId), (type, in) -> {
+            expect(PeerProtocol.OK, type);
+            return null;
+        });
+    }
+
+    private <T> T route(int cartId, int hops, Supplier<T> locally, byte operation, PeerClient.RequestWriter request,
+                        PeerClient.ResponseReader<T> response) {
+        String owner = membership.ring().ownerOf(cartId);
+        if (!membership.self().equals(owner)) {
+            return hops < MAX_HOPS ? forward(owner, cartId, operation, hops + 1, request, response) : locally.get();
+        }
+        try {
+            return locally.get();
+        } catch (CartNotFoundException notFound) {
+            // Not handed off to this node yet, or gone for good
+            ConsistentHashRing previous = membership.previousRing();
+            String previousOwner = previous == null ? null : previous.ownerOf(cartId);
+            if (hops >= MAX_HOPS || previousOwner == null || previousOwner.equals(owner)) {
+                throw notFound;
+            }
+            try {
+                // Its ring already names this node, it must not send the request back here
+                return forward(previousOwner, cartId, operation, MAX_HOPS, request, response);
+            } catch (CartNotFoundException handedOff) {
+                return locally.get();
+            } catch (CartServiceCustomException unreachable) {
+                if (!"PEER_UNAVAILABLE".equals(unreachable.getErrorCode())) {
+                    throw unreachable;
+                }
+                throw notFound;
+            }
+        }
+    }
+
+    // hops is the count the node receives
+    private <T> T forward(String node, int cartId, byte operation, int hops, PeerClient.RequestWriter request,
+                          PeerClient.ResponseReader<T> response) {
+        PeerClient peer = membership.peer(node);
+        if (peer == null) {
+            throw new CartNotFoundException(cartId);
+        }
+        return peer.call(cartId, out -> {
+            out.writeByte(operation);
+            out.writeByte(hops);
+            request.write(out);
+        }, response);
+    }
+
+    private static CartResponse cart(byte type, DataInputStream in) throws IOException {
+        expect(PeerProtocol.CART, type);
+        return PeerProtocol.readCartResponse(in);
+    }
+
+    private static void expect(byte expected, byte type) throws IOException {
+        if (type != expected) {
+            throw new IOException("Unexpected response type " + type + ", expected " + expected);
+        }
+    }
+}
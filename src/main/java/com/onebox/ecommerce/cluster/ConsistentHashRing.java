@@ -0,0 +1,107 @@
+package com.onebox.ecommerce.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Maps cart ids to the nodes owning them. Every node puts {@code virtualNodes} points on a ring of 64 bit hashes, and
+ * a cart belongs to the node of the first point at or after the hash of its id, wrapping around. A node joining or
+ * leaving only moves the carts between its points and the ones before them, about one n-th of all carts, and the
+ * many points per node keep the shares even. Immutable, and the same on every node given the same members.
+ */
+public final class ConsistentHashRing {
+
+    private final List<String> nodes;
+    private final int virtualNodes;
+
+    // Points ascending, and the index in nodes of each point's node
+    private final long[] points;
+    private final int[] owners;
+
+    public ConsistentHashRing(Collection<String> nodes, int virtualNodes) {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("A node needs at least one virtual node: " + virtualNodes);
+        }
+        this.nodes = nodes.stream().distinct().sorted().toList();
+        this.virtualNodes = virtualNodes;
+
+        long[] hashes = new long[this.nodes.size() * virtualNodes];
+        for (int node = 0; node < this.nodes.size(); node++) {
+            long nodeHash = hash(this.nodes.get(node));
+            for (int replica = 0; replica < virtualNodes; replica++) {
+                hashes[node * virtualNodes + replica] = mix(nodeHash + replica * 0x9E3779B97F4A7C15L);
+            }
+        }
+        int[] order = IntStream.range(0, hashes.length).boxed()
+                .sorted(Comparator.comparingLong(point -> hashes[point]))
+                .mapToInt(Integer::intValue)
+                .toArray();
+        this.points = new long[order.length];
+        this.owners = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            points[i] = hashes[order[i]];
+            owners[i] = order[i] / virtualNodes;
+        }
+    }
+
+    /**
+     * @return the node owning the cart, or null if the ring has no nodes
+     */
+    public String ownerOf(int cartId) {
+        if (points.length == 0) {
+            return null;
+        }
+        int point = Arrays.binarySearch(points, mix(cartId));
+        if (point < 0) {
+            point = -point - 1;
+        }
+        return nodes.get(owners[point == points.length ? 0 : point]);
+    }
+
+    /**
+     * @return the nodes, sorted by name
+     */
+    public List<String> nodes() {
+        return nodes;
+    }
+
+    public boolean contains(String node) {
+        return nodes.contains(node);
+    }
+
+    /**
+     * @return a fingerprint of the nodes and virtual nodes, equal on two nodes only if their rings are
+     */
+    public long id() {
+        long id = virtualNodes;
+        for (String node : nodes) {
+            id = mix(id * 31 + hash(node));
+        }
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return nodes + " with " + virtualNodes + " virtual nodes each";
+    }
+
+    // 64 bit FNV-1a, stable across JVMs unlike String.hashCode's 32 bits
+    private static long hash(String node) {
+        long hash = 0xCBF29CE484222325L;
+        for (byte b : node.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xFF)) * 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    // SplitMix64 finalizer, spreads consecutive ids and replicas over the whole ring
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+}
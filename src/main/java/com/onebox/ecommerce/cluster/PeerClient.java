@@ -0,0 +1,182 @@
+package com.onebox.ecommerce.cluster;
+
+import com.onebox.ecommerce.exception.CartServiceCustomException;
+import org.springframework.http.HttpStatus;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connections to one peer. Up to {@code connections} of them are open at once, each carrying one request at a time,
+ * and a connection goes back to the pool after its response was read, so steady traffic pays for no connects.
+ * Requests beyond the pool size wait for a connection up to the timeout. A connection failing is closed along with
+ * the idle ones, which most likely broke with it, e.g. when the peer restarted. Thread safe.
+ */
+final class PeerClient implements AutoCloseable {
+
+    @FunctionalInterface
+    interface RequestWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    @FunctionalInterface
+    interface ResponseReader<T> {
+        /**
+         * @param type the response type, anything but ERROR
+         */
+        T read(byte type, DataInputStream in) throws IOException;
+    }
+
+    private static final Duration RETRY_AFTER = Duration.ofSeconds(1);
+
+    private final String node;
+    private final InetSocketAddress address;
+    private final int timeoutMillis;
+    private final Semaphore permits;
+    private final BlockingQueue<Connection> idle;
+    private volatile boolean closed;
+
+    PeerClient(String node, InetSocketAddress address, int connections, Duration timeout) {
+        this.node = node;
+        this.address = address;
+        this.timeoutMillis = (int) Math.max(1, timeout.toMillis());
+        this.permits = new Semaphore(connections);
+        this.idle = new ArrayBlockingQueue<>(connections);
+    }
+
+    String node() {
+        return node;
+    }
+
+    InetSocketAddress address() {
+        return address;
+    }
+
+    /**
+     * Sends a request and reads its response
+     *
+     * @param cartId the cart the request is about, for the CartNotFoundException of a missing one
+     * @throws CartServiceCustomException the error the peer answered with, or 503 PEER_UNAVAILABLE if it could not
+     * be reached or did not answer in time
+     */
+    <T> T call(int cartId, RequestWriter request, ResponseReader<T> response) {
+        Connection connection = null;
+        try {
+            if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw unavailable("no connection to it freed up in time", null);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw unavailable("interrupted while waiting for a connection", e);
+        }
+        try {
+            connection = idle.poll();
+            if (connection == null) {
+                connection = connect();
+            }
+            request.write(connection.out);
+            connection.out.flush();
+            byte type = connection.in.readByte();
+            if (type == PeerProtocol.ERROR) {
+                CartServiceCustomException error = PeerProtocol.readError(connection.in, cartId);
+                release(connection);
+                throw error;
+            }
+            T result = response.read(type, connection.in);
+            release(connection);
+            return result;
+        } catch (IOException e) {
+            discard(connection);
+            throw unavailable(e.getMessage(), e);
+        } catch (RuntimeException e) {
+            // The response may be half read, the connection can not be reused
+            if (!(e instanceof CartServiceCustomException)) {
+                discard(connection);
+            }
+            throw e;
+        } finally {
+            permits.release();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Connection connection;
+        while ((connection = idle.poll()) != null) {
+            connection.close();
+        }
+    }
+
+    private Connection connect() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(address, timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+            Connection connection = new Connection(socket);
+            connection.out.writeInt(PeerProtocol.MAGIC);
+            connection.out.writeInt(PeerProtocol.VERSION);
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private void release(Connection connection) {
+        if (closed || !idle.offer(connection)) {
+            connection.close();
+        }
+    }
+
+    private void discard(Connection connection) {
+        if (connection != null) {
+            connection.close();
+        }
+        Connection stale;
+        while ((stale = idle.poll()) != null) {
+            stale.close();
+        }
+    }
+
+    private CartServiceCustomException unavailable(String reason, Exception cause) {
+        CartServiceCustomException exception = new CartServiceCustomException(
+                "Node " + node + " at " + address + " is unavailable: " + reason,
+                "PEER_UNAVAILABLE", HttpStatus.SERVICE_UNAVAILABLE, RETRY_AFTER);
+        if (cause != null) {
+            exception.initCause(cause);
+        }
+        return exception;
+    }
+
+    private static final class Connection {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        private Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 8192));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 8192));
+        }
+
+        private void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // nothing left to do with a connection that is broken anyway
+            }
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package com.onebox.ecommerce.cluster;
+
+import com.onebox.ecommerce.exception.CartNotFoundException;
+import com.onebox.ecommerce.exception.CartServiceCustomException;
+import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.model.CartDeltaResponse;
+import com.onebox.ecommerce.model.CartLineChange;
+import com.onebox.ecommerce.model.CartProducts;
+import com.onebox.ecommerce.model.CartResponse;
+import com.onebox.ecommerce.model.CartVersionCondition;
+import com.onebox.ecommerce.model.Product;
+import org.springframework.http.HttpStatus;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongPredicate;
+
+/**
+ * Binary protocol nodes forward cart requests and hand off carts with. A connection starts with the int magic
+ * "CPRT" and the int protocol version from the client, then carries one request and its response at a time:
+ * <pre>
+ * request   byte operation, byte hops (times the request was forwarded already), then per operation
+ *           CREATE         nothing
+ *           GET            varint cart id
+ *           GET_IF_NEWER   varint cart id, condition
+ *           ADD_PRODUCTS   varint cart id, condition, varint count, per product zigzag varint key, boolean
+ *                          present, and if present nullable int id, nullable string description, zigzag varint amount
+ *           UPDATE_LINES   varint cart id, condition, varint count, per change byte type, nullable ints product
+ *                          id and amount, nullable string description
+ *           DELETE         varint cart id
+ *           HANDOFF        varint count, per cart zigzag varint id, instant last updated, varlong version, varint
+ *                          lines, per line zigzag varints product id and amount, nullable string description
+ *           HANDOFF_DONE   long ring id, string node, varint highest cart id it issued
+ *           MEMBERS        varint count, strings name=host:port
+ *           INVALIDATE     varint count, per changed cart varint id and varlong version after the change plus one, 0
+ *                          for deleted carts
+ * response  byte OK, CART or DELTA followed by the cart or delta, NOT_MODIFIED followed by varlong version, or
+ *           ERROR followed by varint HTTP status, strings error code and message, and varlong Retry-After in milliseconds plus one, 0 for none
+ * instant   zigzag varlong epoch second, varint nanos
+ * condition byte 0 for none, 1 for any version, 2 followed by varint count and the varlong versions
+ * </pre>
+ * Ids, amounts and versions are varints, zigzag encoded where they may be negative, so most of them take one or two
+ * bytes. Nullable ints are a zigzag varlong of the value plus one, 0 for null; strings are a varint UTF-8 length plus
+ * one, 0 for null, and the bytes.
+ */
+final class PeerProtocol {
+
+    static final int MAGIC = 0x43505254; // "CPRT"
+    static final int VERSION = 2;
+
+    static final byte CREATE = 1;
+    static final byte GET = 2;
+    static final byte GET_IF_NEWER = 3;
+    static final byte ADD_PRODUCTS = 4;
+    static final byte UPDATE_LINES = 5;
+    static final byte DELETE = 6;
+    static final byte HANDOFF = 7;
+    static final byte HANDOFF_DONE = 8;
+    static final byte MEMBERS = 9;
+    static final byte INVALIDATE = 10;
+
+    static final byte OK = 0;
+    static final byte CART = 1;
+    static final byte DELTA = 2;
+    static final byte NOT_MODIFIED = 3;
+    static final byte ERROR = 4;
+
+    private static final byte NO_CONDITION = 0;
+    private static final byte ANY_VERSION = 1;
+    private static final byte VERSIONS = 2;
+
+    private static final CartLineChange.Type[] CHANGE_TYPES = CartLineChange.Type.values();
+
+    private PeerProtocol() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if the condition is not a CartVersionCondition, other predicates can not be sent
+     */
+    static void writeCondition(DataOutputStream out, LongPredicate condition) throws IOException {
+        if (condition == null) {
+            out.writeByte(NO_CONDITION);
+        } else if (!(condition instanceof CartVersionCondition versions)) {
+            throw new IllegalArgumentException("Only a CartVersionCondition can be forwarded, not " + condition);
+        } else if (versions.any()) {
+            out.writeByte(ANY_VERSION);
+        } else {
+            out.writeByte(VERSIONS);
+            writeVarint(out, versions.versions().length);
+            for (long version : versions.versions()) {
+                writeVarlong(out, version);
+            }
+        }
+    }
+
+    static CartVersionCondition readCondition(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        return switch (type) {
+            case NO_CONDITION -> null;
+            case ANY_VERSION -> CartVersionCondition.ANY;
+            case VERSIONS -> {
+                long[] versions = new long[count(in)];
+                for (int i = 0; i < versions.length; i++) {
+                    versions[i] = readVarlong(in);
+                }
+                yield new CartVersionCondition(false, versions);
+            }
+            default -> throw new IOException("Unknown condition type " + type);
+        };
+    }
+
+    // A request's products as sent by the client: keys and ids may differ, and values may be null
+    static void writeProducts(DataOutputStream out, Map<Integer, Product> products) throws IOException {
+        writeVarint(out, products.size());
+        for (Map.Entry<Integer, Product> entry : products.entrySet()) {
+            Product product = entry.getValue();
+            writeVarint(out, zigzag(entry.getKey()));
+            out.writeBoolean(product != null);
+            if (product != null) {
+                writeNullableInt(out, product.getId());
+                writeString(out, product.getDescription());
+                writeVarint(out, zigzag(product.getAmount()));
+            }
+        }
+    }
+
+    static Map<Integer, Product> readProducts(DataInputStream in) throws IOException {
+        int count = count(in);
+        Map<Integer, Product> products = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            int productId = unzigzag(readVarint(in));
+            products.put(productId, in.readBoolean()
+                    ? new Product(readNullableInt(in), readString(in), unzigzag(readVarint(in)))
+                    : null);
+        }
+        return products;
+    }
+
+    static void writeChanges(DataOutputStream out, List<CartLineChange> changes) throws IOException {
+        writeVarint(out, changes.size());
+        for (CartLineChange change : changes) {
+            out.writeByte(change.getType() == null ? 0 : change.getType().ordinal() + 1);
+            writeNullableInt(out, change.getProductId());
+            writeNullableInt(out, change.getAmount());
+            writeString(out, change.getDescription());
+        }
+    }
+
+    static List<CartLineChange> readChanges(DataInputStream in) throws IOException {
+        int count = count(in);
+        List<CartLineChange> changes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int type = in.readUnsignedByte();
+            if (type > CHANGE_TYPES.length) {
+                throw new IOException("Unknown line change type " + type);
+            }
+            changes.add(new CartLineChange(type == 0 ? null : CHANGE_TYPES[type - 1], readNullableInt(in),
+                    readNullableInt(in), readString(in)));
+        }
+        return changes;
+    }
+
+    static void writeCartResponse(DataOutputStream out, CartResponse cart) throws IOException {
+        writeVarint(out, zigzag(cart.getId()));
+        writeInstant(out, cart.getLastUpdated());
+        writeVarlong(out, cart.getVersion());
+        writeLines(out, cart.getProducts());
+    }
+
+    /**
+     * @return the cart, its lines in a snapshot like the ones of a local cart
+     */
+    static CartResponse readCartResponse(DataInputStream in) throws IOException {
+        int cartId = unzigzag(readVarint(in));
+        Instant lastUpdated = readInstant(in);
+        long version = readVarlong(in);
+        CartProducts products = readLines(in);
+        return new CartResponse(cartId, products.snapshot(), lastUpdated, version);
+    }
+
+    static void writeDelta(DataOutputStream out, CartDeltaResponse delta) throws IOException {
+        writeVarint(out, zigzag(delta.getId()));
+        writeVarlong(out, delta.getVersion());
+        writeInstant(out, delta.getLastUpdated());
+        writeLines(out, delta.getProducts());
+        writeVarint(out, delta.getRemoved().size());
+        for (int productId : delta.getRemoved()) {
+            writeVarint(out, zigzag(productId));
+        }
+    }
+
+    static CartDeltaResponse readDelta(DataInputStream in) throws IOException {
+        int cartId = unzigzag(readVarint(in));
+        long version = readVarlong(in);
+        Instant lastUpdated = readInstant(in);
+        int lines = count(in);
+        Map<Integer, Product> products = new LinkedHashMap<>();
+        for (int i = 0; i < lines; i++) {
+            int productId = unzigzag(readVarint(in));
+            int amount = unzigzag(readVarint(in));
+            products.put(productId, new Product(productId, readString(in), amount));
+        }
+        int removedCount = count(in);
+        List<Integer> removed = new ArrayList<>(removedCount);
+        for (int i = 0; i < removedCount; i++) {
+            removed.add(unzigzag(readVarint(in)));
+        }
+        return new CartDeltaResponse(cartId, version, lastUpdated, products, removed);
+    }
+
+    /**
+     * Encodes a cart being handed off. Must run under the cart's lock, or on a cart nobody else can reach.
+     */
+    static void writeCart(DataOutputStream out, Cart cart) throws IOException {
+        CartProducts products = cart.getProducts();
+        writeVarint(out, zigzag(cart.getId()));
+        writeInstant(out, cart.getLastUpdated());
+        writeVarlong(out, cart.getVersion());
+        writeVarint(out, products.size());
+        for (int position = 0; position < products.size(); position++) {
+            writeVarint(out, zigzag(products.productIdAt(position)));
+            writeVarint(out, zigzag(products.amountAt(position)));
+            writeString(out, products.descriptionAt(position));
+        }
+    }
+
+    static Cart readCart(DataInputStream in) throws IOException {
+        Cart cart = new Cart(unzigzag(readVarint(in)), readInstant(in));
+        cart.setVersion(readVarlong(in));
+        int lines = count(in);
+        CartProducts products = cart.getProducts();
+        for (int i = 0; i < lines; i++) {
+            int productId = unzigzag(readVarint(in));
+            int amount = unzigzag(readVarint(in));
+            products.put(productId, readString(in), amount);
+        }
+        return cart;
+    }
+
+    static void writeError(DataOutputStream out, CartServiceCustomException exception) throws IOException {
+        out.writeByte(ERROR);
+        writeVarint(out, exception.getStatus().value());
+        writeString(out, exception.getErrorCode());
+        writeString(out, exception.getMessage());
+        writeVarlong(out, exception.getRetryAfter() == null ? 0 : exception.getRetryAfter().toMillis() + 1);
+    }
+
+    /**
+     * @return the error the peer answered with, a CartNotFoundException for {@code cartId} if the cart was missing
+     */
+    static CartServiceCustomException readError(DataInputStream in, int cartId) throws IOException {
+        HttpStatus status = HttpStatus.resolve(readVarint(in));
+        String errorCode = readString(in);
+        String message = readString(in);
+        long retryAfter = readVarlong(in);
+        if (CartNotFoundException.ERROR_CODE.equals(errorCode)) {
+            return new CartNotFoundException(cartId);
+        }
+        return new CartServiceCustomException(message, errorCode,
+                status == null ? HttpStatus.INTERNAL_SERVER_ERROR : status,
+                retryAfter == 0 ? null : Duration.ofMillis(retryAfter - 1));
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            writeVarint(out, 0);
+            return;
+        }
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, utf8.length + 1);
+        out.write(utf8);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = readVarint(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        return new String(in.readNBytes(checkLength(length)), StandardCharsets.UTF_8);
+    }
+
+    static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    static void writeVarlong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarlong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    static int count(DataInputStream in) throws IOException {
+        return checkLength(readVarint(in));
+    }
+
+    // Lines of a response, the key is the product id
+    private static void writeLines(DataOutputStream out, Map<Integer, Product> products) throws IOException {
+        writeVarint(out, products.size());
+        for (Map.Entry<Integer, Product> entry : products.entrySet()) {
+            writeVarint(out, zigzag(entry.getKey()));
+            writeVarint(out, zigzag(entry.getValue().getAmount()));
+            writeString(out, entry.getValue().getDescription());
+        }
+    }
+
+    private static CartProducts readLines(DataInputStream in) throws IOException {
+        int lines = count(in);
+        CartProducts products = new CartProducts();
+        for (int i = 0; i < lines; i++) {
+            int productId = unzigzag(readVarint(in));
+            int amount = unzigzag(readVarint(in));
+            products.put(productId, readString(in), amount);
+        }
+        return products;
+    }
+
+    private static void writeInstant(DataOutputStream out, Instant instant) throws IOException {
+        writeVarlong(out, zigzag(instant.getEpochSecond()));
+        writeVarint(out, instant.getNano());
+    }
+
+    private static Instant readInstant(DataInputStream in) throws IOException {
+        return Instant.ofEpochSecond(unzigzag(readVarlong(in)), readVarint(in));
+    }
+
+    private static void writeNullableInt(DataOutputStream out, Integer value) throws IOException {
+        writeVarlong(out, value == null ? 0 : zigzag((long) value) + 1);
+    }
+
+    private static Integer readNullableInt(DataInputStream in) throws IOException {
+        long value = readVarlong(in);
+        return value == 0 ? null : (int) unzigzag(value - 1);
+    }
+
+    // A corrupt or hostile length must not make the reader allocate gigabytes
+    private static int checkLength(int length) throws IOException {
+        if (length < 0 || length > 1 << 24) {
+            throw new IOException("Malformed length " + length);
+        }
+        return length;
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,193 @@
+package com.onebox.ecommerce.cluster;
+
+import com.onebox.ecommerce.exception.CartServiceCustomException;
+import com.onebox.ecommerce.model.CartDeltaResponse;
+import com.onebox.ecommerce.model.CartIfModified;
+import com.onebox.ecommerce.model.CartResponse;
+import com.onebox.ecommerce.model.CartVersionCondition;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the requests of the other nodes, see PeerProtocol, on the host and port this node's entry of
+ * {@code cart.cluster.members} names, and only there. Every connection gets a virtual thread, which blocks on the
+ * socket between requests, so idle pooled connections cost a few kilobytes each.
+ * <p>
+ * The protocol has no authentication: whoever reaches the port can change the members, store carts or delete them.
+ * The address must be on a network only the nodes can reach.
+ */
+@Component
+@ConditionalOnProperty(prefix = "cart.cluster", name = "enabled", havingValue = "true")
+@Log4j2
+public class PeerServer {
+
+    @Autowired
+    private ClusteredCartService clusteredCartService;
+
+    @Autowired
+    private ClusterMembership membership;
+
+    @Autowired
+    private CartHandoff cartHandoff;
+
+    @Autowired
+    private CartNearCache nearCache;
+
+    private final ExecutorService connections = Executors.newVirtualThreadPerTaskExecutor();
+    private ServerSocket serverSocket;
+
+    @PostConstruct
+    void start() throws IOException {
+        InetSocketAddress address = membership.address();
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        if (address.isUnresolved()) {
+            throw new IOException("Cannot resolve the peer address of node " + membership.self() + ": " + address);
+        }
+        serverSocket.bind(address);
+        Thread.ofPlatform().name("cart-peer-acceptor").daemon().start(this::accept);
+        log.info("Node {} takes peer connections on {}", membership.self(), address);
+    }
+
+    @PreDestroy
+    void stop() throws IOException {
+        serverSocket.close();
+        connections.shutdownNow();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                connections.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    log.warn("Could not accept a peer connection", e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 8192));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 8192));
+            if (in.readInt() != PeerProtocol.MAGIC || in.readInt() != PeerProtocol.VERSION) {
+                log.warn("Closing connection from {}, which does not speak version {} of the peer protocol",
+                        socket.getRemoteSocketAddress(), PeerProtocol.VERSION);
+                return;
+            }
+            int operation;
+            while ((operation = in.read()) >= 0) {
+                handle((byte) operation, in.readUnsignedByte(), in, out);
+                out.flush();
+            }
+        } catch (EOFException | SocketException e) {
+            // the peer went away
+        } catch (IOException e) {
+            log.warn("Closing connection from {}: {}", socket.getRemoteSocketAddress(), e.getMessage());
+        }
+    }
+
+    // The request is read completely before anything runs, so an error answer leaves the connection in step
+    private void handle(byte operation, int hops, DataInputStream in, DataOutputStream out) throws IOException {
+        try {
+            switch (operation) {
+                case PeerProtocol.CREATE -> writeCart(out, clusteredCartService.createCart(hops));
+                case PeerProtocol.GET -> writeCart(out,
+                        clusteredCartService.getCart(PeerProtocol.readVarint(in), hops));
+                case PeerProtocol.GET_IF_NEWER -> {
+                    int cartId = PeerProtocol.readVarint(in);
+                    CartIfModified cart = clusteredCartService.getCartIfModified(cartId,
+                            PeerProtocol.readCondition(in), hops);
+                    if (cart.isModified()) {
+                        writeCart(out, cart.cart());
+                    } else {
+                        out.writeByte(PeerProtocol.NOT_MODIFIED);
+                        PeerProtocol.writeVarlong(out, cart.version());
+                    }
+                }
+                case PeerProtocol.ADD_PRODUCTS -> {
+                    int cartId = PeerProtocol.readVarint(in);
+                    CartVersionCondition ifMatch = PeerProtocol.readCondition(in);
+                    writeCart(out, clusteredCartService.addProductsToCart(cartId, PeerProtocol.readProducts(in),
+                            ifMatch, hops));
+                }
+                case PeerProtocol.UPDATE_LINES -> {
+                    int cartId = PeerProtocol.readVarint(in);
+                    CartVersionCondition ifMatch = PeerProtocol.readCondition(in);
+                    CartDeltaResponse delta = clusteredCartService.updateCartLines(cartId,
+                            PeerProtocol.readChanges(in), ifMatch, hops);
+                    out.writeByte(PeerProtocol.DELTA);
+                    PeerProtocol.writeDelta(out, delta);
+                }
+                case PeerProtocol.DELETE -> {
+                    clusteredCartService.deleteCart(PeerProtocol.readVarint(in), hops);
+                    out.writeByte(PeerProtocol.OK);
+                }
+                case PeerProtocol.HANDOFF -> {
+                    cartHandoff.receive(in);
+                    out.writeByte(PeerProtocol.OK);
+                }
+                case PeerProtocol.HANDOFF_DONE -> {
+                    long ringId = in.readLong();
+                    String node = PeerProtocol.readString(in);
+                    membership.handoffDone(ringId, node, PeerProtocol.readVarint(in));
+                    out.writeByte(PeerProtocol.OK);
+                }
+                case PeerProtocol.MEMBERS -> {
+                    int count = PeerProtocol.count(in);
+                    List<String> members = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        members.add(PeerProtocol.readString(in));
+                    }
+                    membership.apply(members);
+                    out.writeByte(PeerProtocol.OK);
+                }
+                case PeerProtocol.INVALIDATE -> {
+                    int count = PeerProtocol.count(in);
+                    for (int i = 0; i < count; i++) {
+                        nearCache.invalidate(PeerProtocol.readVarint(in), PeerProtocol.readVarlong(in) - 1);
+                    }
+                    out.writeByte(PeerProtocol.OK);
+                }
+                default -> throw new IOException("Unknown operation " + operation);
+            }
+        } catch (CartServiceCustomException e) {
+            PeerProtocol.writeError(out, e);
+        } catch (IllegalArgumentException e) {
+            PeerProtocol.writeError(out, new CartServiceCustomException(e.getMessage(), "INVALID_REQUEST",
+                    HttpStatus.BAD_REQUEST));
+        } catch (RuntimeException e) {
+            log.error("Peer request {} failed", operation, e);
+            PeerProtocol.writeError(out, new CartServiceCustomException(String.valueOf(e.getMessage()),
+                    "INTERNAL_ERROR", HttpStatus.INTERNAL_SERVER_ERROR));
+        }
+    }
+
+    private static void writeCart(DataOutputStream out, CartResponse cart) throws IOException {
+        out.writeByte(PeerProtocol.CART);
+        PeerProtocol.writeCartResponse(out, cart);
+    }
+}
@@ -0,0 +1,27 @@
+package com.onebox.ecommerce.config;
+
+import com.onebox.ecommerce.repository.CartRepository;
+import com.onebox.ecommerce.repository.journal.JournaledCartRepository;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import java.io.IOException;
+
+/**
+ * With {@code cart.journal.enabled=true} the storage engine chosen by {@code cart.storage.type} is wrapped in a
+ * JournaledCartRepository, which becomes the CartRepository the service sees.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "cart.journal", name = "enabled", havingValue = "true")
+public class CartJournalConfig {
+
+    @Bean
+    @Primary
+    public JournaledCartRepository journaledCartRepository(CartRepository cartRepository,
+                                                           CartProperties cartProperties) throws IOException {
+        // Spring does not offer a bean to its own factory method, so cartRepository is the storage engine
+        return new JournaledCartRepository(cartRepository, cartProperties.getJournal());
+    }
+}
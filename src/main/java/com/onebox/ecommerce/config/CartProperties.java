@@ -0,0 +1,249 @@
+package com.onebox.ecommerce.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tunables of the cart service, bound from the {@code cart.*} properties
+ */
+@Data
+@ConfigurationProperties(prefix = "cart")
+public class CartProperties {
+
+    private final Eviction eviction = new Eviction();
+
+    private final Storage storage = new Storage();
+
+    private final Journal journal = new Journal();
+
+    private final Batch batch = new Batch();
+
+    private final Lines lines = new Lines();
+
+    private final Catalog catalog = new Catalog();
+
+    private final Transfer transfer = new Transfer();
+
+    private final Limits limits = new Limits();
+
+    private final Cluster cluster = new Cluster();
+
+    private final Changes changes = new Changes();
+
+    private final Index index = new Index();
+
+    @Data
+    public static class Eviction {
+
+        // Run the sweep on a schedule, see SchedulingConfig
+        private boolean scheduled = true;
+
+        // Carts not updated for this long are deleted
+        private Duration inactivity = Duration.ofMinutes(10);
+
+        // Width of an expiry index bucket and interval between sweeps, carts are evicted at most two of these late
+        private Duration precision = Duration.ofSeconds(5);
+
+        private final Adaptive adaptive = new Adaptive();
+    }
+
+    @Data
+    public static class Adaptive {
+
+        // Shorten the inactivity period while the heap fills up, see CartEvictionPolicy
+        private boolean enabled = true;
+
+        // Share of the maximum heap in use after a GC from which the inactivity period starts shrinking
+        private double highWatermark = 0.7;
+
+        // Share from which it is down to minInactivity, and every GC triggers a sweep without waiting for the next
+        private double criticalWatermark = 0.9;
+
+        // Shortest inactivity period carts get, however full the heap
+        private Duration minInactivity = Duration.ofMinutes(1);
+    }
+
+    @Data
+    public static class Storage {
+
+        // Storage engine behind CartRepository: in-memory, off-heap or sharded
+        private String type = "in-memory";
+
+        private final OffHeap offHeap = new OffHeap();
+
+        private final Sharded sharded = new Sharded();
+    }
+
+    @Data
+    public static class OffHeap {
+
+        // Product lines per fixed size block, carts with more lines chain further blocks
+        private int linesPerBlock = 8;
+
+        // Size of each direct buffer blocks are carved from, allocated as the population grows
+        private DataSize segmentSize = DataSize.ofMegabytes(64);
+    }
+
+    @Data
+    public static class Sharded {
+
+        // Shards, each with its own writer thread, rounded up to a power of two; 0 for one per core
+        private int shards = 0;
+    }
+
+    @Data
+    public static class Journal {
+
+        // Persist carts across restarts with a journal and periodic snapshots
+        private boolean enabled = false;
+
+        private Path directory = Path.of("data/journal");
+
+        // Return from a change only once it is on disk; off trades the changes of the last flush interval for latency
+        private boolean awaitFsync = true;
+
+        // How often the journal is written and forced when nobody waits for it
+        private Duration flushInterval = Duration.ofMillis(10);
+
+        // Interval between snapshots, after which older journal segments are deleted
+        private Duration snapshotInterval = Duration.ofMinutes(10);
+    }
+
+    @Data
+    public static class Batch {
+
+        // Larger batches are rejected as a whole with 413
+        private int maxOperations = 1000;
+    }
+
+    @Data
+    public static class Lines {
+
+        // Line updates with more changes are rejected as a whole with 413
+        private int maxChanges = 1000;
+    }
+
+    @Data
+    public static class Catalog {
+
+        // File of id,description lines giving the descriptions of the products carts reference, none by default
+        private Path file;
+
+        // Descriptions kept on the heap, the most popular products' ones; the others are read from the file
+        private int cacheSize = 10_000;
+    }
+
+    @Data
+    public static class Transfer {
+
+        // Where export files are written and imported from, requests only name files inside it
+        private Path directory = Path.of("data/transfer");
+
+        // Export file imported on startup, e.g. for a warm restart from another instance; none by default
+        private String importOnStartup;
+    }
+
+    @Data
+    public static class Limits {
+
+        // Adds and updates that would grow a cart past this many lines are rejected with 422; 0 for no limit
+        private int maxLinesPerCart = 1000;
+
+        // Creates are rejected with 503 while this many carts are live; 0 for no limit
+        private int maxCarts = 10_000_000;
+
+        // Sustained requests per second of one client, rejected with 429 beyond it; 0 for no rate limiting
+        private int requestsPerSecond = 0;
+
+        // Requests a client may send at once on top of its rate, after being idle
+        private int burst = 50;
+
+        // Header naming the client, e.g. set by a gateway in front of the service; the remote address otherwise
+        private String clientHeader;
+
+        // Requests in progress at once, further ones are rejected with 503 instead of queueing; 0 for no limit
+        private int maxConcurrentRequests = 0;
+    }
+
+    @Data
+    public static class Cluster {
+
+        // Spread the carts over the members by consistent hashing of their ids, see ClusterMembership
+        private boolean enabled = false;
+
+        // Name of this node, one of the members
+        private String nodeId;
+
+        // Members as name=host:port, the address peers reach each other's binary protocol on
+        private List<String> members = new ArrayList<>();
+
+        // Points per member on the hash ring, more spread the carts more evenly
+        private int virtualNodes = 128;
+
+        // Open connections kept to each peer, requests beyond them wait for one to be returned
+        private int connectionsPerPeer = 8;
+
+        // Connect and read timeout of requests to peers
+        private Duration timeout = Duration.ofSeconds(2);
+
+        // Carts moved to a new owner per message when the members change
+        private int handoffBatch = 256;
+
+        private final NearCache nearCache = new NearCache();
+    }
+
+    @Data
+    public static class NearCache {
+
+        // Keep copies of carts read through this node but owned by others, see CartNearCache. Same on every member
+        private boolean enabled = false;
+
+        // Copies kept at most, the least recently read go first
+        private int maxCarts = 10_000;
+
+        // Estimated heap the copies take at most
+        private DataSize maxSize = DataSize.ofMegabytes(16);
+
+        // A copy is served without asking the owner for this long after it was fetched or revalidated, the bound on
+        // how stale a read is when an invalidation gets lost
+        private Duration maxStaleness = Duration.ofSeconds(1);
+    }
+
+    @Data
+    public static class Changes {
+
+        // Latest changes kept for streams to read and resume from, rounded up to a power of two, see CartChangeLog
+        private int bufferSize = 65_536;
+
+        // How often every stream looks for new changes, all changes since are sent as one write
+        private Duration batchInterval = Duration.ofMillis(100);
+
+        // Changes sent per write at most, a stream further behind catches up over the next writes
+        private int maxBatch = 1000;
+
+        // Streams open at once, further ones are rejected with 503
+        private int maxStreams = 100;
+
+        // Streams are closed after this long, clients reconnect with the last sequence number they got
+        private Duration streamTimeout = Duration.ofMinutes(10);
+
+        // A stream with no changes for this long gets a heartbeat, so proxies and clients see it is alive
+        private Duration heartbeat = Duration.ofSeconds(15);
+    }
+
+    @Data
+    public static class Index {
+
+        // Maintain the secondary indexes of the cartindex actuator endpoint, see CartQueryIndex
+        private boolean enabled = false;
+
+        // Width of the last update windows carts are counted in, the precision of idle time queries
+        private Duration idlePrecision = Duration.ofSeconds(10);
+    }
+}
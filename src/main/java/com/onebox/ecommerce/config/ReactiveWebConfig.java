@@ -0,0 +1,29 @@
+package com.onebox.ecommerce.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.onebox.ecommerce.json.CartResponseEncoder;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Setup of the WebFlux front end, active with {@code spring.main.web-application-type=reactive}
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveWebConfig {
+
+    // Spring Boot would pick Tomcat since Spring MVC brings it along; Netty serves every connection from a few
+    // event loop threads instead of a thread per request
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    @Bean
+    public CodecCustomizer cartResponseCodecCustomizer(ObjectMapper objectMapper) {
+        return configurer -> configurer.customCodecs().register(new CartResponseEncoder(objectMapper));
+    }
+}
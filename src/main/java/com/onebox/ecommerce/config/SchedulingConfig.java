@@ -0,0 +1,16 @@
+package com.onebox.ecommerce.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * We delete inactive carts on a schedule. Setting {@code cart.eviction.scheduled=false} leaves the sweep
+ * to whoever calls {@code CartService.deleteInactiveCarts()}, which benchmarks rely on. Journal snapshots
+ * ({@code cart.journal.enabled=true}) are scheduled here as well.
+ */
+@Configuration
+@EnableScheduling
+@ConditionalOnProperty(prefix = "cart.eviction", name = "scheduled", havingValue = "true", matchIfMissing = true)
+public class SchedulingConfig {
+}
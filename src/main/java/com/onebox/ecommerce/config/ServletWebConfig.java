@@ -0,0 +1,26 @@
+package com.onebox.ecommerce.config;
+
+import com.onebox.ecommerce.controller.CartAdmissionInterceptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Setup of the Spring MVC front end, the default {@code spring.main.web-application-type=servlet}
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class ServletWebConfig implements WebMvcConfigurer {
+
+    @Autowired
+    private CartAdmissionInterceptor cartAdmissionInterceptor;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        // Change streams last for minutes, they are limited by cart.changes.max-streams instead
+        registry.addInterceptor(cartAdmissionInterceptor).addPathPatterns("/carts", "/carts/**")
+                .excludePathPatterns("/carts/changes");
+    }
+}
@@ -0,0 +1,40 @@
+package com.onebox.ecommerce.controller;
+
+import com.onebox.ecommerce.service.CartAdmissionControl;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+/**
+ * Admits cart requests through CartAdmissionControl before the body is read. A rejection is thrown, so
+ * RestResponseEntityExceptionHandler answers it like any other error of the API.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class CartAdmissionInterceptor implements HandlerInterceptor {
+
+    @Autowired
+    private CartAdmissionControl cartAdmissionControl;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        cartAdmissionControl.admit(client(request));
+        return true;
+    }
+
+    // Only called for requests preHandle admitted
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception exception) {
+        cartAdmissionControl.release();
+    }
+
+    private String client(HttpServletRequest request) {
+        String header = cartAdmissionControl.clientHeader();
+        String client = header == null ? null : request.getHeader(header);
+        return client != null ? client : request.getRemoteAddr();
+    }
+}
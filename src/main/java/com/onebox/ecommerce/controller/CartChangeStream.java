@@ -0,0 +1,129 @@
+package com.onebox.ecommerce.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.onebox.ecommerce.config.CartProperties;
+import com.onebox.ecommerce.model.CartChangeEvent;
+import com.onebox.ecommerce.service.CartChange;
+import com.onebox.ecommerce.service.CartChangeLog;
+import org.springframework.http.MediaType;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One consumer's position in the CartChangeLog. Every poll turns the changes made since the previous one into a
+ * single write, server-sent events or one JSON object per line, so a busy stream costs a write per batch interval
+ * rather than one per change. Polled by one thread at a time, which only polls again once the previous write went
+ * out: a slow consumer holds back its own stream and nobody else's, and skips what the log no longer holds.
+ */
+final class CartChangeStream {
+
+    private static final byte[] SSE_HEARTBEAT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NDJSON_HEARTBEAT = "\n".getBytes(StandardCharsets.UTF_8);
+
+    private final CartChangeLog cartChangeLog;
+    private final ObjectMapper objectMapper;
+    private final boolean ndjson;
+    private final int maxBatch;
+    private final long heartbeatNanos;
+    private final Duration batchInterval;
+    private final Duration timeout;
+    private final Runnable onClose;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private long next;
+    private long lastWrite;
+
+    CartChangeStream(CartChangeLog cartChangeLog, ObjectMapper objectMapper, CartProperties.Changes properties,
+                     boolean ndjson, long from, Runnable onClose) {
+        this.cartChangeLog = cartChangeLog;
+        this.objectMapper = objectMapper;
+        this.ndjson = ndjson;
+        this.maxBatch = properties.getMaxBatch();
+        this.heartbeatNanos = properties.getHeartbeat().toNanos();
+        this.batchInterval = properties.getBatchInterval();
+        this.timeout = properties.getStreamTimeout();
+        this.onClose = onClose;
+        this.next = from;
+        // The first poll sends a heartbeat if there is nothing else, so the response starts at once
+        this.lastWrite = System.nanoTime() - heartbeatNanos;
+    }
+
+    MediaType contentType() {
+        return ndjson ? MediaType.APPLICATION_NDJSON : MediaType.TEXT_EVENT_STREAM;
+    }
+
+    Duration batchInterval() {
+        return batchInterval;
+    }
+
+    Duration timeout() {
+        return timeout;
+    }
+
+    /**
+     * @return the changes since the previous poll, a heartbeat when it is due, null when there is nothing to write
+     */
+    byte[] poll() {
+        CartChangeLog.Batch batch = cartChangeLog.read(next, maxBatch);
+        next = batch.next();
+        long now = System.nanoTime();
+        if (batch.isEmpty()) {
+            if (now - lastWrite < heartbeatNanos) {
+                return null;
+            }
+            lastWrite = now;
+            return ndjson ? NDJSON_HEARTBEAT : SSE_HEARTBEAT;
+        }
+        lastWrite = now;
+        StringBuilder frames = new StringBuilder(256 * (batch.events().size() + 1));
+        if (batch.missed() != 0) {
+            append(frames, null, "gap", CartChangeEvent.builder()
+                    .type("GAP")
+                    .missed(batch.missed() < 0 ? null : batch.missed())
+                    .build());
+        }
+        for (CartChangeLog.Event event : batch.events()) {
+            CartChange change = event.change();
+            append(frames, event.sequence(), change.type().name().toLowerCase(), CartChangeEvent.builder()
+                    .sequence(event.sequence())
+                    .type(change.type().name())
+                    .cartId(change.cartId())
+                    .version(change.version() < 0 ? null : change.version())
+                    .timestamp(change.timestamp())
+                    .products(change.products().isEmpty() ? null : change.products())
+                    .removed(change.removed().isEmpty() ? null : change.removed())
+                    .build());
+        }
+        return frames.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    boolean isClosed() {
+        return closed.get();
+    }
+
+    void close() {
+        if (closed.compareAndSet(false, true)) {
+            onClose.run();
+        }
+    }
+
+    private void append(StringBuilder frames, Long sequence, String name, CartChangeEvent event) {
+        String json;
+        try {
+            json = objectMapper.writeValueAsString(event);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not write change event", e);
+        }
+        if (ndjson) {
+            frames.append(json).append('\n');
+            return;
+        }
+        if (sequence != null) {
+            frames.append("id:").append(sequence).append('\n');
+        }
+        frames.append("event:").append(name).append('\n').append("data:").append(json).append("\n\n");
+    }
+}
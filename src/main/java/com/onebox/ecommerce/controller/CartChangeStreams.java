@@ -0,0 +1,89 @@
+package com.onebox.ecommerce.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.onebox.ecommerce.config.CartProperties;
+import com.onebox.ecommerce.exception.CartServiceCustomException;
+import com.onebox.ecommerce.service.CartChangeLog;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Opens the change streams of {@code GET /carts/changes} for CartController and ReactiveCartController, which only
+ * differ in how they wait between polls and write the frames. Streams are counted against
+ * {@code cart.changes.max-streams}.
+ */
+@Component
+public class CartChangeStreams {
+
+    private static final Duration RETRY_AFTER = Duration.ofSeconds(5);
+
+    @Autowired
+    private CartChangeLog cartChangeLog;
+
+    @Autowired
+    private CartProperties cartProperties;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final AtomicInteger open = new AtomicInteger();
+
+    /**
+     * @param accept the request's Accept header, NDJSON if it names {@code application/x-ndjson} before
+     * {@code text/event-stream}, else SSE
+     * @param lastEventId the SSE client's Last-Event-ID header, resumed after if there is one
+     * @param after sequence number to resume after when there is no Last-Event-ID, null to start with the next change
+     * @throws CartServiceCustomException 503 if max-streams streams are already open
+     */
+    CartChangeStream open(String accept, String lastEventId, Long after) {
+        int maxStreams = cartProperties.getChanges().getMaxStreams();
+        if (open.incrementAndGet() > maxStreams) {
+            open.decrementAndGet();
+            throw new CartServiceCustomException("All " + maxStreams + " change streams are in use",
+                    "TOO_MANY_STREAMS", HttpStatus.SERVICE_UNAVAILABLE, RETRY_AFTER);
+        }
+        long from;
+        try {
+            from = lastEventId != null ? Long.parseLong(lastEventId.trim()) + 1
+                    : after != null ? after + 1 : cartChangeLog.next();
+        } catch (NumberFormatException e) {
+            open.decrementAndGet();
+            throw new CartServiceCustomException("Invalid Last-Event-ID " + lastEventId, "INVALID_LAST_EVENT_ID",
+                    HttpStatus.BAD_REQUEST);
+        }
+        return new CartChangeStream(cartChangeLog, objectMapper, cartProperties.getChanges(), ndjson(accept), from,
+                open::decrementAndGet);
+    }
+
+    public int openStreams() {
+        return open.get();
+    }
+
+    private static boolean ndjson(String accept) {
+        if (accept == null) {
+            return false;
+        }
+        List<MediaType> mediaTypes;
+        try {
+            mediaTypes = MediaType.parseMediaTypes(accept);
+        } catch (InvalidMediaTypeException e) {
+            return false;
+        }
+        for (MediaType mediaType : mediaTypes) {
+            if (mediaType.isCompatibleWith(MediaType.TEXT_EVENT_STREAM) && !mediaType.isWildcardType()) {
+                return false;
+            }
+            if (mediaType.isCompatibleWith(MediaType.APPLICATION_NDJSON) && !mediaType.isWildcardType()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
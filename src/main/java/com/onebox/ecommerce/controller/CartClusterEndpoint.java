@@ -0,0 +1,62 @@
+package com.onebox.ecommerce.controller;
+
+import com.onebox.ecommerce.cluster.ClusterMembership;
+import com.onebox.ecommerce.repository.CartRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.actuate.endpoint.web.WebEndpointResponse;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Actuator endpoint of a clustered node: {@code GET /actuator/cartcluster} shows the members and whether carts are
+ * still moving between them, {@code POST /actuator/cartcluster} with {@code {"members": "a=host1:7400,b=host2:7400"}}
+ * changes the members on every node, the old and the new ones. A node being removed hands its carts to the others
+ * and must keep running until {@code GET} on the others no longer lists it as awaited. Only reachable once added to
+ * {@code management.endpoints.web.exposure.include}.
+ */
+@Component
+@Endpoint(id = "cartcluster")
+@ConditionalOnProperty(prefix = "cart.cluster", name = "enabled", havingValue = "true")
+public class CartClusterEndpoint {
+
+    @Autowired
+    private ClusterMembership membership;
+
+    @Autowired
+    private CartRepository cartRepository;
+
+    @ReadOperation
+    public Map<String, Object> cluster() {
+        Map<String, Object> cluster = new LinkedHashMap<>();
+        cluster.put("node", membership.self());
+        cluster.put("members", membership.ring().nodes());
+        cluster.put("awaitingHandoffs", membership.awaitingHandoffs());
+        cluster.put("canCreateCarts", membership.canIssueIds());
+        cluster.put("localCarts", cartRepository.count());
+        return cluster;
+    }
+
+    @WriteOperation
+    public WebEndpointResponse<Object> changeMembers(String members) {
+        List<String> parsed = members == null ? List.of() : Arrays.stream(members.split(","))
+                .map(String::trim)
+                .filter(member -> !member.isEmpty())
+                .toList();
+        try {
+            List<String> unreachable = membership.changeMembers(parsed);
+            Map<String, Object> result = cluster();
+            result.put("unreachable", unreachable);
+            return new WebEndpointResponse<>(result);
+        } catch (IllegalArgumentException e) {
+            return new WebEndpointResponse<>(e.getMessage(), WebEndpointResponse.STATUS_BAD_REQUEST);
+        }
+    }
+}
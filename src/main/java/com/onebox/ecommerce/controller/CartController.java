@@ -1,5 +1,10 @@
 package com.onebox.ecommerce.controller;
 
+import com.onebox.ecommerce.model.CartDeltaResponse;
+import com.onebox.ecommerce.model.CartIfModified;
+import com.onebox.ecommerce.model.CartLineChange;
+import com.onebox.ecommerce.model.CartOperation;
+import com.onebox.ecommerce.model.CartOperationResult;
 import com.onebox.ecommerce.model.CartResponse;
 import com.onebox.ecommerce.model.Product;
 import com.onebox.ecommerce.service.CartService;
@@ -9,52 +14,97 @@ import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.io.IOException;
+import java.util.List;
 import java.util.Map;
+import java.util.function.LongPredicate;
 
 @RestController
 @RequestMapping("/carts")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @Tag(name = "Cart Controller", description = "APIs for managing shopping carts")
 public class CartController {
 
     @Autowired private CartService cartService;
 
+    @Autowired private CartChangeStreams cartChangeStreams;
+
     @PostMapping
     @Operation(summary = "Create a new cart", description = "Creates a new shopping cart and returns its details.")
-    @ApiResponse(responseCode = "201", description = "Cart successfully created")
+    @ApiResponses({
+            @ApiResponse(responseCode = "201", description = "Cart successfully created"),
+            @ApiResponse(responseCode = "503", description = "Cart limit reached, see Retry-After")
+    })
     public ResponseEntity<CartResponse> createCart(){
         CartResponse cartResponse = cartService.createCart();
         return new ResponseEntity<>(cartResponse, HttpStatus.CREATED);
     }
 
     @GetMapping("/{id}")
-    @Operation(summary = "Get cart details", description = "Retrieves the details of a cart based on its ID.")
+    @Operation(summary = "Get cart details", description = "Retrieves the details of a cart based on its ID. The "
+            + "ETag is the cart's version: with If-None-Match naming it the cart is not sent again.")
     @ApiResponses({
             @ApiResponse(responseCode = "302", description = "Cart found"),
+            @ApiResponse(responseCode = "304", description = "Cart unchanged since the version in If-None-Match"),
             @ApiResponse(responseCode = "404", description = "Cart not found")
     })
     public ResponseEntity<CartResponse> getCart(
             @Parameter(description = "ID of the cart to retrieve", required = true)
-            @PathVariable("id") int cartId){
-        CartResponse cartResponse = cartService.getCart(cartId);
-        return new ResponseEntity<>(cartResponse, HttpStatus.FOUND);
+            @PathVariable("id") int cartId,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch){
+        LongPredicate notModified = CartETags.ifNoneMatch(ifNoneMatch);
+        if (notModified == null) {
+            return withETag(HttpStatus.FOUND, cartService.getCart(cartId));
+        }
+        return ifModified(cartService.getCartIfModified(cartId, notModified));
     }
 
     @PostMapping("/{id}")
     @Operation(summary = "Add products to cart", description = "Adds products to the specified cart.")
     @ApiResponses({
             @ApiResponse(responseCode = "200", description = "Products successfully added to cart"),
-            @ApiResponse(responseCode = "404", description = "Cart not found")
+            @ApiResponse(responseCode = "404", description = "Cart not found"),
+            @ApiResponse(responseCode = "412", description = "Cart no longer at the version in If-Match"),
+            @ApiResponse(responseCode = "422", description = "Cart would exceed the line limit")
     })
 
     public ResponseEntity<CartResponse> addProductsToCart(
             @Parameter(description = "ID of the cart to update", required = true)
             @PathVariable("id") int cartId,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
             @RequestBody Map<Integer, Product> products){
-        CartResponse cartResponse = cartService.addProductsToCart(cartId, products);
-        return new ResponseEntity<>(cartResponse, HttpStatus.OK);
+        CartResponse cartResponse = cartService.addProductsToCart(cartId, products, CartETags.ifMatch(ifMatch));
+        return withETag(HttpStatus.OK, cartResponse);
+    }
+
+    @PatchMapping("/{id}")
+    @Operation(summary = "Update cart lines",
+            description = "Sets, increments, decrements or removes lines of the specified cart. The changes apply "
+                    + "atomically and in order, and only the lines that changed are returned, with the new cart "
+                    + "version.")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Changes applied"),
+            @ApiResponse(responseCode = "400", description = "Invalid change"),
+            @ApiResponse(responseCode = "404", description = "Cart not found"),
+            @ApiResponse(responseCode = "412", description = "Cart no longer at the version in If-Match"),
+            @ApiResponse(responseCode = "413", description = "Too many changes in the request"),
+            @ApiResponse(responseCode = "422", description = "Cart would exceed the line limit")
+    })
+    public ResponseEntity<CartDeltaResponse> updateCartLines(
+            @Parameter(description = "ID of the cart to update", required = true)
+            @PathVariable("id") int cartId,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+            @RequestBody List<CartLineChange> changes){
+        CartDeltaResponse delta = cartService.updateCartLines(cartId, changes, CartETags.ifMatch(ifMatch));
+        return ResponseEntity.ok().eTag(CartETags.of(delta.getVersion())).body(delta);
     }
 
     @DeleteMapping("/{id}")
@@ -71,4 +121,71 @@ public class CartController {
         return ResponseEntity.ok().build(); // we return 200 OK
     }
 
+    @PostMapping("/batch")
+    @Operation(summary = "Execute a batch of cart operations",
+            description = "Executes mixed operations across many carts in one request. Operations on the same cart "
+                    + "run in request order, operations on different carts in parallel. Returns one result per "
+                    + "operation, in request order, each with the status the single endpoint would have returned.")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Batch executed, see every result for its outcome"),
+            @ApiResponse(responseCode = "413", description = "Too many operations in the batch")
+    })
+    public ResponseEntity<List<CartOperationResult>> executeBatch(@RequestBody List<CartOperation> operations){
+        return ResponseEntity.ok(cartService.executeBatch(operations));
+    }
+
+    @GetMapping(value = "/changes", produces = {MediaType.TEXT_EVENT_STREAM_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    @Operation(summary = "Stream cart changes",
+            description = "Streams every change made to carts from now on, as server-sent events or, with Accept "
+                    + "application/x-ndjson, one JSON object per line. Changes are numbered; a client resumes after "
+                    + "the last one it got with Last-Event-ID or the after parameter, and is sent a GAP event with "
+                    + "the number of changes it missed if they are no longer kept.")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Stream open until the stream timeout"),
+            @ApiResponse(responseCode = "503", description = "Too many streams open, see Retry-After")
+    })
+    public ResponseEntity<ResponseBodyEmitter> streamChanges(
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+            @Parameter(description = "Sequence number of the last change the client got")
+            @RequestParam(value = "after", required = false) Long after){
+        CartChangeStream stream = cartChangeStreams.open(accept, lastEventId, after);
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(stream.timeout().toMillis());
+        emitter.onTimeout(emitter::complete);
+        emitter.onCompletion(stream::close);
+        emitter.onError(error -> stream.close());
+        // Writes block while the client is slow, on a thread of the stream's own rather than one serving requests
+        Thread.ofVirtual().name("cart-changes").start(() -> pump(stream, emitter));
+        return ResponseEntity.ok().contentType(stream.contentType()).body(emitter);
+    }
+
+    private static void pump(CartChangeStream stream, ResponseBodyEmitter emitter) {
+        try {
+            while (!stream.isClosed()) {
+                byte[] frames = stream.poll();
+                if (frames != null) {
+                    emitter.send(frames, MediaType.APPLICATION_OCTET_STREAM);
+                }
+                Thread.sleep(stream.batchInterval());
+            }
+        } catch (IOException | IllegalStateException e) {
+            // The client went away or the stream timed out
+        } catch (InterruptedException e) {
+            emitter.complete();
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static ResponseEntity<CartResponse> withETag(HttpStatus status, CartResponse cartResponse) {
+        return ResponseEntity.status(status).eTag(CartETags.of(cartResponse.getVersion())).body(cartResponse);
+    }
+
+    // A 304 names the version the cart is at, whichever of the client's tags matched it, * included
+    private static ResponseEntity<CartResponse> ifModified(CartIfModified cart) {
+        return cart.isModified()
+                ? withETag(HttpStatus.FOUND, cart.cart())
+                : ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(CartETags.of(cart.version())).build();
+    }
+
 }
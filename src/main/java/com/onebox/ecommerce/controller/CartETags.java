@@ -0,0 +1,57 @@
+package com.onebox.ecommerce.controller;
+
+import com.onebox.ecommerce.model.CartVersionCondition;
+
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+
+/**
+ * Entity tags of carts. A cart's tag is its version, which every update increases, so comparing tags never
+ * needs the cart's body: {@code "7"} is the seventh state of the cart.
+ */
+final class CartETags {
+
+    private CartETags() {
+    }
+
+    static String of(long version) {
+        return "\"" + version + "\"";
+    }
+
+    /**
+     * @return the versions an {@code If-None-Match} header matches, compared weakly, or {@code null} without a header
+     */
+    static LongPredicate ifNoneMatch(String header) {
+        return matcher(header, true);
+    }
+
+    /**
+     * @return the versions an {@code If-Match} header matches, compared strongly, or {@code null} without a header
+     */
+    static LongPredicate ifMatch(String header) {
+        return matcher(header, false);
+    }
+
+    private static LongPredicate matcher(String header, boolean weak) {
+        if (header == null) {
+            return null;
+        }
+        if (header.trim().equals("*")) {
+            return CartVersionCondition.ANY;
+        }
+        // Tags this application never issued match no version: a 200 for If-None-Match, a 412 for If-Match
+        return new CartVersionCondition(false, versions(header, weak));
+    }
+
+    private static long[] versions(String header, boolean weak) {
+        return Arrays.stream(header.split(","))
+                .map(String::trim)
+                .filter(tag -> weak || !tag.startsWith("W/"))
+                .map(tag -> tag.startsWith("W/") ? tag.substring(2) : tag)
+                .filter(tag -> tag.length() > 2 && tag.startsWith("\"") && tag.endsWith("\""))
+                .map(tag -> tag.substring(1, tag.length() - 1))
+                .filter(tag -> tag.chars().allMatch(Character::isDigit) && tag.length() < 19)
+                .mapToLong(Long::parseLong)
+                .toArray();
+    }
+}
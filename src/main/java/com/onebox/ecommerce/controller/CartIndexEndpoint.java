@@ -0,0 +1,59 @@
+package com.onebox.ecommerce.controller;
+
+import com.onebox.ecommerce.service.CartQueryIndex;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Actuator endpoint answering questions about the whole cart population from CartQueryIndex, without visiting the
+ * carts. {@code GET /actuator/cartindex?top=10&idleMinutes=5} gives the carts and products indexed, the top products
+ * by carts holding them and by amount, the carts idle for {@code idleMinutes} and the histogram of idle time;
+ * {@code GET /actuator/cartindex/42?carts=100} the totals of product 42 and up to 100 carts holding it. Per node in
+ * clustered mode. Only reachable once added to {@code management.endpoints.web.exposure.include}.
+ */
+@Component
+@Endpoint(id = "cartindex")
+@ConditionalOnProperty(prefix = "cart.index", name = "enabled", havingValue = "true")
+public class CartIndexEndpoint {
+
+    private static final int DEFAULT_TOP = 10;
+
+    @Autowired
+    private CartQueryIndex cartQueryIndex;
+
+    @ReadOperation
+    public Map<String, Object> summary(@Nullable Integer top, @Nullable Integer idleMinutes) {
+        int limit = top == null ? DEFAULT_TOP : Math.max(0, top);
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("carts", cartQueryIndex.cartCount());
+        summary.put("products", cartQueryIndex.productCount());
+        summary.put("topProductsByCarts", cartQueryIndex.topProducts(limit, false));
+        summary.put("topProductsByAmount", cartQueryIndex.topProducts(limit, true));
+        if (idleMinutes != null) {
+            summary.put("idleMinutes", idleMinutes);
+            summary.put("idleCarts", cartQueryIndex.idleCarts(Duration.ofMinutes(idleMinutes)));
+        }
+        summary.put("idleHistogram", cartQueryIndex.idleHistogram());
+        return summary;
+    }
+
+    @ReadOperation
+    public Map<String, Object> product(@Selector int productId, @Nullable Integer carts) {
+        CartQueryIndex.ProductTotals totals = cartQueryIndex.product(productId);
+        Map<String, Object> product = new LinkedHashMap<>();
+        product.put("productId", productId);
+        product.put("carts", totals.carts());
+        product.put("amount", totals.amount());
+        product.put("cartIds", cartQueryIndex.cartsWith(productId, carts == null ? DEFAULT_TOP : Math.max(0, carts)));
+        return product;
+    }
+}
@@ -0,0 +1,39 @@
+package com.onebox.ecommerce.controller;
+
+import com.onebox.ecommerce.service.CartTransferService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.actuate.endpoint.web.WebEndpointResponse;
+import org.springframework.stereotype.Component;
+
+/**
+ * Actuator endpoint exporting and importing the cart population: {@code POST /actuator/carttransfer/export} or
+ * {@code /import} with a body of {@code {"file": "carts.bin"}}, a file in {@code cart.transfer.directory}. Only
+ * reachable once added to {@code management.endpoints.web.exposure.include}, like any operation that is not meant for
+ * the public.
+ */
+@Component
+@Endpoint(id = "carttransfer")
+public class CartTransferEndpoint {
+
+    @Autowired
+    private CartTransferService cartTransferService;
+
+    @WriteOperation
+    public WebEndpointResponse<Object> transfer(@Selector String action, String file) {
+        try {
+            return switch (action) {
+                case "export" -> new WebEndpointResponse<>(cartTransferService.exportCarts(file));
+                case "import" -> new WebEndpointResponse<>(cartTransferService.importCarts(file));
+                default -> new WebEndpointResponse<>("Unknown action " + action + ", expected export or import",
+                        WebEndpointResponse.STATUS_BAD_REQUEST);
+            };
+        } catch (IllegalArgumentException e) {
+            return new WebEndpointResponse<>(e.getMessage(), WebEndpointResponse.STATUS_BAD_REQUEST);
+        } catch (IllegalStateException e) {
+            return new WebEndpointResponse<>(e.getMessage(), 409);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.onebox.ecommerce.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.onebox.ecommerce.exception.CartServiceCustomException;
+import com.onebox.ecommerce.metrics.CartMetrics;
+import com.onebox.ecommerce.model.CartErrorResponse;
+import com.onebox.ecommerce.service.CartAdmissionControl;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+
+/**
+ * WebFlux counterpart of {@link CartAdmissionInterceptor}. Errors of web filters never reach the controller
+ * advice, so a rejection is answered here, with the same body ReactiveResponseEntityExceptionHandler would send.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveCartAdmissionFilter implements WebFilter {
+
+    @Autowired
+    private CartAdmissionControl cartAdmissionControl;
+
+    @Autowired
+    private CartMetrics cartMetrics;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        String path = exchange.getRequest().getPath().pathWithinApplication().value();
+        // Change streams last for minutes, they are limited by cart.changes.max-streams instead
+        if (!path.equals("/carts") && !path.startsWith("/carts/") || path.equals("/carts/changes")) {
+            return chain.filter(exchange);
+        }
+        try {
+            cartAdmissionControl.admit(client(exchange.getRequest()));
+        } catch (CartServiceCustomException exception) {
+            return reject(exchange.getResponse(), exception);
+        }
+        return chain.filter(exchange).doFinally(signal -> cartAdmissionControl.release());
+    }
+
+    private Mono<Void> reject(ServerHttpResponse response, CartServiceCustomException exception) {
+        cartMetrics.recordError(exception.getErrorCode());
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(CartErrorResponse.builder()
+                    .errorMessage(exception.getMessage())
+                    .errorCode(exception.getErrorCode())
+                    .build());
+        } catch (JsonProcessingException e) {
+            return Mono.error(e);
+        }
+        response.setStatusCode(exception.getStatus());
+        response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+        if (exception.getRetryAfter() != null) {
+            response.getHeaders().set(HttpHeaders.RETRY_AFTER, exception.retryAfterHeader());
+        }
+        return response.writeWith(Mono.just(response.bufferFactory().wrap(body)));
+    }
+
+    private String client(ServerHttpRequest request) {
+        String header = cartAdmissionControl.clientHeader();
+        String client = header == null ? null : request.getHeaders().getFirst(header);
+        if (client != null) {
+            return client;
+        }
+        InetSocketAddress remoteAddress = request.getRemoteAddress();
+        return remoteAddress == null ? "unknown" : remoteAddress.getHostString();
+    }
+}
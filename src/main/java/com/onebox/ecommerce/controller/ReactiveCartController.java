@@ -0,0 +1,116 @@
+package com.onebox.ecommerce.controller;
+
+import com.onebox.ecommerce.model.CartDeltaResponse;
+import com.onebox.ecommerce.model.CartIfModified;
+import com.onebox.ecommerce.model.CartLineChange;
+import com.onebox.ecommerce.model.CartOperation;
+import com.onebox.ecommerce.model.CartOperationResult;
+import com.onebox.ecommerce.model.CartResponse;
+import com.onebox.ecommerce.model.Product;
+import com.onebox.ecommerce.service.ReactiveCartService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongPredicate;
+
+/**
+ * WebFlux variant of {@link CartController}, with the same paths, statuses and bodies. Active instead of it when
+ * the application runs as a reactive web application ({@code spring.main.web-application-type=reactive}).
+ */
+@RestController
+@RequestMapping("/carts")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveCartController {
+
+    @Autowired private ReactiveCartService cartService;
+
+    @Autowired private CartChangeStreams cartChangeStreams;
+
+    @PostMapping
+    public Mono<ResponseEntity<CartResponse>> createCart(){
+        return cartService.createCart()
+                .map(cartResponse -> new ResponseEntity<>(cartResponse, HttpStatus.CREATED));
+    }
+
+    @GetMapping("/{id}")
+    public Mono<ResponseEntity<CartResponse>> getCart(
+            @PathVariable("id") int cartId,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch){
+        LongPredicate notModified = CartETags.ifNoneMatch(ifNoneMatch);
+        if (notModified == null) {
+            return cartService.getCart(cartId).map(cartResponse -> withETag(HttpStatus.FOUND, cartResponse));
+        }
+        return cartService.getCartIfModified(cartId, notModified).map(ReactiveCartController::ifModified);
+    }
+
+    @PostMapping("/{id}")
+    public Mono<ResponseEntity<CartResponse>> addProductsToCart(
+            @PathVariable("id") int cartId,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+            @RequestBody Map<Integer, Product> products){
+        return cartService.addProductsToCart(cartId, products, CartETags.ifMatch(ifMatch))
+                .map(cartResponse -> withETag(HttpStatus.OK, cartResponse));
+    }
+
+    @PatchMapping("/{id}")
+    public Mono<ResponseEntity<CartDeltaResponse>> updateCartLines(
+            @PathVariable("id") int cartId,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+            @RequestBody List<CartLineChange> changes){
+        return cartService.updateCartLines(cartId, changes, CartETags.ifMatch(ifMatch))
+                .map(delta -> ResponseEntity.ok().eTag(CartETags.of(delta.getVersion())).body(delta));
+    }
+
+    @DeleteMapping("/{id}")
+    public Mono<ResponseEntity<CartResponse>> deleteCart(@PathVariable("id") int cartId){
+        return cartService.deleteCart(cartId)
+                .then(Mono.fromSupplier(() -> ResponseEntity.ok().<CartResponse>build()));
+    }
+
+    @PostMapping("/batch")
+    public Flux<CartOperationResult> executeBatch(@RequestBody List<CartOperation> operations){
+        return cartService.executeBatch(operations);
+    }
+
+    @GetMapping(value = "/changes", produces = {MediaType.TEXT_EVENT_STREAM_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<Flux<byte[]>> streamChanges(
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+            @RequestParam(value = "after", required = false) Long after){
+        CartChangeStream stream = cartChangeStreams.open(accept, lastEventId, after);
+        Flux<byte[]> frames = Flux.interval(Duration.ZERO, stream.batchInterval())
+                // Only polls when the client took the previous write, ticks in between are dropped, not queued
+                .onBackpressureDrop()
+                .<byte[]>handle((tick, sink) -> {
+                    byte[] polled = stream.poll();
+                    if (polled != null) {
+                        sink.next(polled);
+                    }
+                })
+                .take(stream.timeout())
+                .doFinally(signal -> stream.close());
+        return ResponseEntity.ok().contentType(stream.contentType()).body(frames);
+    }
+
+    private static ResponseEntity<CartResponse> withETag(HttpStatus status, CartResponse cartResponse) {
+        return ResponseEntity.status(status).eTag(CartETags.of(cartResponse.getVersion())).body(cartResponse);
+    }
+
+    // A 304 names the version the cart is at, whichever of the client's tags matched it, * included
+    private static ResponseEntity<CartResponse> ifModified(CartIfModified cart) {
+        return cart.isModified()
+                ? withETag(HttpStatus.FOUND, cart.cart())
+                : ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(CartETags.of(cart.version())).build();
+    }
+
+}
@@ -0,0 +1,54 @@
+package com.onebox.ecommerce.exception;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Pre-serialized CartErrorResponse bodies of frequent errors: the constant parts are encoded once, and a response
+ * only costs copying them around the digits of the cart id into a byte array sized up front. The output is exactly
+ * what Jackson writes for the same CartErrorResponse.
+ */
+public final class CartErrorBodies {
+
+    private static final String NOT_FOUND_MESSAGE_PREFIX = "Cart with given id: ";
+    private static final String NOT_FOUND_MESSAGE_SUFFIX = " was not found";
+
+    private static final byte[] NOT_FOUND_PREFIX =
+            ("{\"errorMessage\":\"" + NOT_FOUND_MESSAGE_PREFIX).getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NOT_FOUND_SUFFIX = (NOT_FOUND_MESSAGE_SUFFIX + "\",\"errorCode\":\""
+            + CartNotFoundException.ERROR_CODE + "\"}").getBytes(StandardCharsets.UTF_8);
+
+    private CartErrorBodies() {
+    }
+
+    /**
+     * @return the JSON body of a CART_NOT_FOUND error
+     */
+    public static byte[] notFound(int cartId) {
+        long value = cartId;
+        boolean negative = value < 0;
+        if (negative) {
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        int idLength = digits + (negative ? 1 : 0);
+        byte[] body = new byte[NOT_FOUND_PREFIX.length + idLength + NOT_FOUND_SUFFIX.length];
+        System.arraycopy(NOT_FOUND_PREFIX, 0, body, 0, NOT_FOUND_PREFIX.length);
+        int position = NOT_FOUND_PREFIX.length + idLength;
+        System.arraycopy(NOT_FOUND_SUFFIX, 0, body, position, NOT_FOUND_SUFFIX.length);
+        do {
+            body[--position] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        if (negative) {
+            body[--position] = '-';
+        }
+        return body;
+    }
+
+    static String notFoundMessage(int cartId) {
+        return NOT_FOUND_MESSAGE_PREFIX + cartId + NOT_FOUND_MESSAGE_SUFFIX;
+    }
+}
@@ -0,0 +1,30 @@
+package com.onebox.ecommerce.exception;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * The cart id names no cart, the most frequent error of the API: clients and bots keep asking for carts that
+ * expired. Filling in a stack trace is most of what an exception costs, and nobody reads one for a 404, so this one
+ * has none; its message is only built if somebody asks for it. The exception handlers answer it with a body from
+ * {@link CartErrorBodies} rather than serializing a CartErrorResponse.
+ */
+public class CartNotFoundException extends CartServiceCustomException {
+
+    public static final String ERROR_CODE = "CART_NOT_FOUND";
+
+    private final int cartId;
+
+    public CartNotFoundException(int cartId) {
+        super(null, ERROR_CODE, HttpStatus.NOT_FOUND, false);
+        this.cartId = cartId;
+    }
+
+    public int getCartId() {
+        return cartId;
+    }
+
+    @Override
+    public String getMessage() {
+        return CartErrorBodies.notFoundMessage(cartId);
+    }
+}
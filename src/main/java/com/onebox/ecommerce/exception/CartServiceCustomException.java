@@ -1,6 +1,9 @@
 package com.onebox.ecommerce.exception;
 
 import lombok.Data;
+import org.springframework.http.HttpStatus;
+
+import java.time.Duration;
 
 /**
  * Custom class for handling RuntimeExceptions
@@ -10,8 +13,42 @@ public class CartServiceCustomException extends RuntimeException {
 
     private String errorCode;
 
+    private HttpStatus status;
+
+    // When the client may try again, sent as Retry-After; null if trying again will not help
+    private Duration retryAfter;
+
     public CartServiceCustomException(String message, String errorCode){
+        this(message, errorCode, HttpStatus.NOT_FOUND);
+    }
+
+    public CartServiceCustomException(String message, String errorCode, HttpStatus status){
         super(message);
         this.errorCode = errorCode;
+        this.status = status;
+    }
+
+    // For errors frequent and dull enough not to be worth a stack trace, see CartNotFoundException
+    protected CartServiceCustomException(String message, String errorCode, HttpStatus status,
+                                         boolean writableStackTrace){
+        super(message, null, false, writableStackTrace);
+        this.errorCode = errorCode;
+        this.status = status;
+    }
+
+    public CartServiceCustomException(String message, String errorCode, HttpStatus status, Duration retryAfter){
+        this(message, errorCode, status);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return the Retry-After header value, whole seconds rounded up, or null if there is none
+     */
+    public String retryAfterHeader() {
+        if (retryAfter == null) {
+            return null;
+        }
+        long seconds = retryAfter.toSeconds() + (retryAfter.toNanosPart() > 0 ? 1 : 0);
+        return String.valueOf(Math.max(1, seconds));
     }
 }
@@ -0,0 +1,46 @@
+package com.onebox.ecommerce.exception;
+
+import com.onebox.ecommerce.metrics.CartMetrics;
+import com.onebox.ecommerce.model.CartErrorResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.reactive.result.method.annotation.ResponseEntityExceptionHandler;
+
+/**
+ * WebFlux counterpart of {@link RestResponseEntityExceptionHandler}
+ */
+@ControllerAdvice
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveResponseEntityExceptionHandler extends ResponseEntityExceptionHandler {
+
+    @Autowired
+    private CartMetrics cartMetrics;
+
+    // Answered from a pre-serialized body, misses are most of the errors
+    @ExceptionHandler(CartNotFoundException.class)
+    public ResponseEntity<byte[]> handleCartNotFoundException(CartNotFoundException exception){
+        cartMetrics.recordError(CartNotFoundException.ERROR_CODE);
+        return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(CartErrorBodies.notFound(exception.getCartId()));
+    }
+
+    @ExceptionHandler(CartServiceCustomException.class)
+    public ResponseEntity<CartErrorResponse> handleCartServiceException(CartServiceCustomException exception){
+        cartMetrics.recordError(exception.getErrorCode());
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(exception.getStatus());
+        if (exception.getRetryAfter() != null) {
+            response.header(HttpHeaders.RETRY_AFTER, exception.retryAfterHeader());
+        }
+        return response.body(CartErrorResponse.builder()
+                .errorMessage(exception.getMessage())
+                .errorCode(exception.getErrorCode())
+                .build());
+    }
+}
@@ -1,20 +1,43 @@
 package com.onebox.ecommerce.exception;
 
+import com.onebox.ecommerce.metrics.CartMetrics;
 import com.onebox.ecommerce.model.CartErrorResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExceptionHandler;
 
 @ControllerAdvice
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class RestResponseEntityExceptionHandler extends ResponseEntityExceptionHandler {
 
+    @Autowired
+    private CartMetrics cartMetrics;
+
+    // Answered from a pre-serialized body, misses are most of the errors
+    @ExceptionHandler(CartNotFoundException.class)
+    public ResponseEntity<byte[]> handleCartNotFoundException(CartNotFoundException exception){
+        cartMetrics.recordError(CartNotFoundException.ERROR_CODE);
+        return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(CartErrorBodies.notFound(exception.getCartId()));
+    }
+
     @ExceptionHandler(CartServiceCustomException.class)
     public ResponseEntity<CartErrorResponse> handleVideogameServiceException(CartServiceCustomException exception){
-        return new ResponseEntity<>(CartErrorResponse.builder()
+        cartMetrics.recordError(exception.getErrorCode());
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(exception.getStatus());
+        if (exception.getRetryAfter() != null) {
+            response.header(HttpHeaders.RETRY_AFTER, exception.retryAfterHeader());
+        }
+        return response.body(CartErrorResponse.builder()
                 .errorMessage(exception.getMessage())
                 .errorCode(exception.getErrorCode())
-                .build(), HttpStatus.NOT_FOUND);
+                .build());
     }
 }
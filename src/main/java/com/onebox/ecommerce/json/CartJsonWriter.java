@@ -0,0 +1,142 @@
+package com.onebox.ecommerce.json;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.onebox.ecommerce.model.CartProductsSnapshot;
+import com.onebox.ecommerce.model.CartResponse;
+import com.onebox.ecommerce.model.Product;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Writes a CartResponse as JSON field by field with a streaming generator, instead of going through
+ * Jackson's reflective bean serializers. The output has the same shape as Jackson's default one:
+ * <pre>
+ * {"id":1,"products":{"1":{"id":1,"description":"God of War","amount":1}},"lastUpdated":"2024-04-06T12:34:56.789Z",
+ *  "version":3}
+ * </pre>
+ */
+public class CartJsonWriter {
+
+    // Product ids below this have their field name text and encoded bytes cached, so writing them allocates nothing
+    private static final int CACHED_FIELD_NAMES = 4096;
+
+    private static final SerializedString ID = new SerializedString("id");
+    private static final SerializedString PRODUCTS = new SerializedString("products");
+    private static final SerializedString DESCRIPTION = new SerializedString("description");
+    private static final SerializedString AMOUNT = new SerializedString("amount");
+    private static final SerializedString LAST_UPDATED = new SerializedString("lastUpdated");
+    private static final SerializedString VERSION = new SerializedString("version");
+
+    private static final AtomicReferenceArray<SerializedString> PRODUCT_FIELD_NAMES =
+            new AtomicReferenceArray<>(CACHED_FIELD_NAMES);
+
+    private final JsonFactory jsonFactory;
+
+    public CartJsonWriter(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+
+    /**
+     * Writes the cart to the stream without closing it
+     */
+    public void write(CartResponse cartResponse, OutputStream outputStream) throws IOException {
+        try (JsonGenerator generator = jsonFactory.createGenerator(outputStream, JsonEncoding.UTF8)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            write(cartResponse, generator);
+        }
+    }
+
+    public void write(CartResponse cartResponse, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        writeNumberField(generator, ID, cartResponse.getId());
+
+        Map<Integer, Product> products = cartResponse.getProducts();
+        generator.writeFieldName(PRODUCTS);
+        if (products == null) {
+            generator.writeNull();
+        } else {
+            generator.writeStartObject();
+            if (products instanceof CartProductsSnapshot snapshot) {
+                // Straight from the arrays, without a Product or an entry per line
+                for (int i = 0; i < snapshot.size(); i++) {
+                    writeProductFieldName(generator, snapshot.productIdAt(i));
+                    writeProduct(snapshot.productIdAt(i), snapshot.descriptionAt(i), snapshot.amountAt(i), generator);
+                }
+            } else {
+                for (Map.Entry<Integer, Product> entry : products.entrySet()) {
+                    writeProductFieldName(generator, entry.getKey());
+                    writeProduct(entry.getValue(), generator);
+                }
+            }
+            generator.writeEndObject();
+        }
+
+        Instant lastUpdated = cartResponse.getLastUpdated();
+        generator.writeFieldName(LAST_UPDATED);
+        if (lastUpdated == null) {
+            generator.writeNull();
+        } else {
+            // Same ISO-8601 text as Jackson's InstantSerializer
+            generator.writeString(lastUpdated.toString());
+        }
+        generator.writeFieldName(VERSION);
+        generator.writeNumber(cartResponse.getVersion());
+        generator.writeEndObject();
+    }
+
+    private void writeProduct(Product product, JsonGenerator generator) throws IOException {
+        if (product == null) {
+            generator.writeNull();
+            return;
+        }
+        generator.writeStartObject();
+        writeNumberField(generator, ID, product.getId());
+        generator.writeFieldName(DESCRIPTION);
+        generator.writeString(product.getDescription());
+        generator.writeFieldName(AMOUNT);
+        generator.writeNumber(product.getAmount());
+        generator.writeEndObject();
+    }
+
+    private void writeProduct(int productId, String description, int amount, JsonGenerator generator)
+            throws IOException {
+        generator.writeStartObject();
+        generator.writeFieldName(ID);
+        generator.writeNumber(productId);
+        generator.writeFieldName(DESCRIPTION);
+        generator.writeString(description);
+        generator.writeFieldName(AMOUNT);
+        generator.writeNumber(amount);
+        generator.writeEndObject();
+    }
+
+    private void writeProductFieldName(JsonGenerator generator, int productId) throws IOException {
+        if (productId < 0 || productId >= CACHED_FIELD_NAMES) {
+            generator.writeFieldName(String.valueOf(productId));
+            return;
+        }
+        SerializedString fieldName = PRODUCT_FIELD_NAMES.get(productId);
+        if (fieldName == null) {
+            // Racing threads may both create it, either copy is fine
+            fieldName = new SerializedString(String.valueOf(productId));
+            PRODUCT_FIELD_NAMES.lazySet(productId, fieldName);
+        }
+        generator.writeFieldName(fieldName);
+    }
+
+    private void writeNumberField(JsonGenerator generator, SerializedString name, Integer value) throws IOException {
+        generator.writeFieldName(name);
+        if (value == null) {
+            generator.writeNull();
+        } else {
+            generator.writeNumber(value.intValue());
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.onebox.ecommerce.json;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.onebox.ecommerce.model.CartResponse;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.AbstractSingleValueEncoder;
+import org.springframework.core.codec.EncodingException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.MediaType;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * WebFlux counterpart of {@link CartResponseHttpMessageConverter}: writes CartResponse bodies with
+ * {@link CartJsonWriter} straight into the response buffer, and leaves every other type to Jackson.
+ */
+public class CartResponseEncoder extends AbstractSingleValueEncoder<CartResponse> {
+
+    private final CartJsonWriter cartJsonWriter;
+
+    public CartResponseEncoder(ObjectMapper objectMapper) {
+        super(MediaType.APPLICATION_JSON, new MediaType("application", "*+json"));
+        this.cartJsonWriter = new CartJsonWriter(objectMapper.getFactory());
+    }
+
+    @Override
+    public boolean canEncode(ResolvableType elementType, MimeType mimeType) {
+        return elementType.toClass() == CartResponse.class && super.canEncode(elementType, mimeType);
+    }
+
+    @Override
+    protected Flux<DataBuffer> encode(CartResponse cartResponse, DataBufferFactory bufferFactory,
+                                      ResolvableType type, MimeType mimeType, Map<String, Object> hints) {
+        return Flux.just(encodeValue(cartResponse, bufferFactory, type, mimeType, hints));
+    }
+
+    @Override
+    public DataBuffer encodeValue(CartResponse cartResponse, DataBufferFactory bufferFactory,
+                                  ResolvableType valueType, MimeType mimeType, Map<String, Object> hints) {
+        DataBuffer buffer = bufferFactory.allocateBuffer(256);
+        try (OutputStream outputStream = buffer.asOutputStream()) {
+            cartJsonWriter.write(cartResponse, outputStream);
+            return buffer;
+        } catch (IOException e) {
+            DataBufferUtils.release(buffer);
+            throw new EncodingException("Could not write cart " + cartResponse.getId(), e);
+        }
+    }
+}
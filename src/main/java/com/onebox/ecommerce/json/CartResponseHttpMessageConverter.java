@@ -0,0 +1,51 @@
+package com.onebox.ecommerce.json;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.onebox.ecommerce.model.CartResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * Serializes CartResponse bodies straight into the response stream with {@link CartJsonWriter}. Spring Boot
+ * registers converter beans ahead of its defaults, so this one wins over the generic Jackson converter for
+ * carts and leaves every other type to it. Reading is left to Jackson as well.
+ */
+@Component
+public class CartResponseHttpMessageConverter extends AbstractHttpMessageConverter<CartResponse> {
+
+    private final CartJsonWriter cartJsonWriter;
+
+    // Shares the JsonFactory, and so its buffer recycling, with the application's ObjectMapper
+    @Autowired
+    public CartResponseHttpMessageConverter(ObjectMapper objectMapper) {
+        super(MediaType.APPLICATION_JSON, new MediaType("application", "*+json"));
+        this.cartJsonWriter = new CartJsonWriter(objectMapper.getFactory());
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return CartResponse.class == clazz;
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected CartResponse readInternal(Class<? extends CartResponse> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("CartResponse is only ever written", inputMessage);
+    }
+
+    @Override
+    protected void writeInternal(CartResponse cartResponse, HttpOutputMessage outputMessage) throws IOException {
+        cartJsonWriter.write(cartResponse, outputMessage.getBody());
+    }
+}
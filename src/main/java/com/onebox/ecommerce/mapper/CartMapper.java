@@ -0,0 +1,22 @@
+package com.onebox.ecommerce.mapper;
+
+import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.model.CartResponse;
+
+/**
+ * Hand-written Cart to CartResponse mapping, replacing the reflective BeanUtils.copyProperties
+ */
+public final class CartMapper {
+
+    private CartMapper() {
+    }
+
+    /**
+     * Must run under the cart's lock (or on a cart nobody else has seen yet): the products are copied so the
+     * response is a consistent snapshot that later updates cannot change while it is serialized.
+     */
+    public static CartResponse toCartResponse(Cart cart) {
+        return new CartResponse(
+                cart.getId(), cart.getProducts().snapshot(), cart.getLastUpdated(), cart.getVersion());
+    }
+}
@@ -0,0 +1,35 @@
+package com.onebox.ecommerce.metrics;
+
+import com.onebox.ecommerce.service.CartEvictionPolicy;
+import com.onebox.ecommerce.service.HeapPressureMonitor;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * What adaptive eviction goes by: {@code cart_heap_used_after_gc_ratio} and the inactivity period it derives from
+ * it, {@code cart_eviction_inactivity_seconds}. Evictions by reason are counted by CartMetrics.
+ */
+@Component
+public class CartEvictionMetrics implements MeterBinder {
+
+    @Autowired
+    private HeapPressureMonitor heapPressureMonitor;
+
+    @Autowired
+    private CartEvictionPolicy cartEvictionPolicy;
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("cart.heap.used.after.gc", heapPressureMonitor, HeapPressureMonitor::usedAfterGc)
+                .description("Share of the maximum heap in use after the last GC")
+                .baseUnit("ratio")
+                .register(registry);
+        Gauge.builder("cart.eviction.inactivity", cartEvictionPolicy, policy -> policy.inactivity().toMillis() / 1000.0)
+                .description("Inactivity period after which carts are evicted, shortened under heap pressure")
+                .baseUnit("seconds")
+                .register(registry);
+    }
+}
@@ -0,0 +1,112 @@
+package com.onebox.ecommerce.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters of the cart service, exposed through {@code /actuator/prometheus}. Every meter is registered once and
+ * kept in a field or map, so recording on the hot path is a lookup-free, lock-free update:
+ * <ul>
+ *     <li>{@code cart_operations_seconds{operation,outcome}}: latency histogram and count per operation</li>
+ *     <li>{@code cart_eviction_sweep_seconds}: duration of every eviction sweep</li>
+ *     <li>{@code cart_eviction_evicted}: carts deleted per sweep</li>
+ *     <li>{@code cart_evictions_total{reason}}: carts deleted by sweeps, by why they were</li>
+ *     <li>{@code cart_errors_total{code}}: errors answered by the API, e.g. CART_NOT_FOUND</li>
+ * </ul>
+ * Store level gauges are registered by CartRepositoryMetrics.
+ */
+@Component
+public class CartMetrics {
+
+    public enum Operation {
+        CREATE, GET, ADD, UPDATE, DELETE;
+
+        private final String tag = name().toLowerCase();
+    }
+
+    public enum EvictionReason {
+        // Inactive for the configured cart.eviction.inactivity
+        INACTIVITY,
+        // Inactive for less, evicted because the heap filled up and CartEvictionPolicy shortened the period
+        MEMORY_PRESSURE;
+
+        private final String tag = name().toLowerCase();
+    }
+
+    private final MeterRegistry registry;
+    private final Map<Operation, Timer> succeeded = new EnumMap<>(Operation.class);
+    private final Map<Operation, Timer> notFound = new EnumMap<>(Operation.class);
+    private final Timer evictionSweep;
+    private final DistributionSummary evictedPerSweep;
+    private final Map<EvictionReason, Counter> evictions = new EnumMap<>(EvictionReason.class);
+    private final Map<String, Counter> errors = new ConcurrentHashMap<>();
+
+    @Autowired
+    public CartMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        for (Operation operation : Operation.values()) {
+            succeeded.put(operation, operationTimer(operation, "success"));
+            notFound.put(operation, operationTimer(operation, "not_found"));
+        }
+        this.evictionSweep = Timer.builder("cart.eviction.sweep")
+                .description("Duration of an inactive cart eviction sweep")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.evictedPerSweep = DistributionSummary.builder("cart.eviction.evicted")
+                .description("Carts deleted for inactivity by one sweep")
+                .baseUnit("carts")
+                .register(registry);
+        for (EvictionReason reason : EvictionReason.values()) {
+            evictions.put(reason, Counter.builder("cart.evictions")
+                    .description("Carts deleted by eviction sweeps, by why they were")
+                    .tag("reason", reason.tag)
+                    .register(registry));
+        }
+    }
+
+    /**
+     * @param startNanos {@link System#nanoTime()} when the operation started
+     */
+    public void recordOperation(Operation operation, long startNanos, boolean found) {
+        (found ? succeeded : notFound).get(operation).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordEvictionSweep(long startNanos, int evicted) {
+        evictionSweep.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        evictedPerSweep.record(evicted);
+    }
+
+    public void recordEvictions(EvictionReason reason, int evicted) {
+        evictions.get(reason).increment(evicted);
+    }
+
+    public void recordError(String errorCode) {
+        Counter counter = errors.get(String.valueOf(errorCode));
+        if (counter != null) {
+            counter.increment();
+            return;
+        }
+        errors.computeIfAbsent(String.valueOf(errorCode), code -> Counter.builder("cart.errors")
+                .description("Errors answered by the cart API, by error code")
+                .tag("code", code)
+                .register(registry)).increment();
+    }
+
+    private Timer operationTimer(Operation operation, String outcome) {
+        return Timer.builder("cart.operations")
+                .description("Latency of cart service operations")
+                .tag("operation", operation.tag)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+}
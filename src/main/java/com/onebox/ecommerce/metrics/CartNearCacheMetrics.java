@@ -0,0 +1,58 @@
+package com.onebox.ecommerce.metrics;
+
+import com.onebox.ecommerce.cluster.CartInvalidations;
+import com.onebox.ecommerce.cluster.CartNearCache;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Efficiency of the near cache of a clustered node: {@code cart_near_cache_lookups_total} by {@code result} (hit,
+ * miss, or stale for a copy revalidated with its owner), {@code cart_near_cache_carts},
+ * {@code cart_near_cache_bytes}, {@code cart_near_cache_invalidations_total} received and
+ * {@code cart_near_cache_invalidations_dropped_total} not sent to the other members.
+ */
+@Component
+@ConditionalOnProperty(prefix = "cart.cluster", name = "enabled", havingValue = "true")
+public class CartNearCacheMetrics implements MeterBinder {
+
+    @Autowired
+    private CartNearCache nearCache;
+
+    @Autowired
+    private CartInvalidations cartInvalidations;
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("cart.near.cache.lookups", nearCache, CartNearCache::hitCount)
+                .description("Near cache lookups by whether a fresh copy was cached")
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("cart.near.cache.lookups", nearCache, CartNearCache::missCount)
+                .description("Near cache lookups by whether a fresh copy was cached")
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("cart.near.cache.lookups", nearCache, CartNearCache::staleCount)
+                .description("Near cache lookups by whether a fresh copy was cached")
+                .tag("result", "stale")
+                .register(registry);
+        Gauge.builder("cart.near.cache.carts", nearCache, CartNearCache::size)
+                .description("Copies of carts owned by other nodes held in the near cache")
+                .register(registry);
+        Gauge.builder("cart.near.cache.bytes", nearCache, CartNearCache::estimatedBytes)
+                .description("Estimated heap taken by the near cache")
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder("cart.near.cache.invalidations", nearCache, CartNearCache::invalidationCount)
+                .description("Copies dropped because their cart changed")
+                .register(registry);
+        FunctionCounter.builder("cart.near.cache.invalidations.dropped", cartInvalidations,
+                        CartInvalidations::droppedCount)
+                .description("Changes not sent to the other nodes because they could not keep up")
+                .register(registry);
+    }
+}
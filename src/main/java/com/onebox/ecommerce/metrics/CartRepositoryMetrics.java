@@ -0,0 +1,33 @@
+package com.onebox.ecommerce.metrics;
+
+import com.onebox.ecommerce.repository.CartRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Gauges of the cart store, read only when metrics are scraped: {@code cart_carts}, {@code cart_lines} and
+ * {@code cart_memory_estimated_bytes}.
+ */
+@Component
+public class CartRepositoryMetrics implements MeterBinder {
+
+    @Autowired
+    private CartRepository cartRepository;
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("cart.carts", cartRepository, CartRepository::count)
+                .description("Live carts")
+                .register(registry);
+        Gauge.builder("cart.lines", cartRepository, CartRepository::lineCount)
+                .description("Product lines across all live carts")
+                .register(registry);
+        Gauge.builder("cart.memory.estimated", cartRepository, CartRepository::estimatedBytes)
+                .description("Estimated memory taken by the stored carts")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+}
@@ -0,0 +1,38 @@
+package com.onebox.ecommerce.metrics;
+
+import com.onebox.ecommerce.catalog.ProductCatalog;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Size and cache efficiency of the product catalog: {@code cart_catalog_products}, {@code cart_catalog_cached} and
+ * {@code cart_catalog_lookups_total} by {@code result} (hit or miss).
+ */
+@Component
+public class ProductCatalogMetrics implements MeterBinder {
+
+    @Autowired
+    private ProductCatalog productCatalog;
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("cart.catalog.products", productCatalog, ProductCatalog::size)
+                .description("Products in the catalog")
+                .register(registry);
+        Gauge.builder("cart.catalog.cached", productCatalog, ProductCatalog::cachedCount)
+                .description("Product descriptions held in the catalog cache")
+                .register(registry);
+        FunctionCounter.builder("cart.catalog.lookups", productCatalog, ProductCatalog::cacheHitCount)
+                .description("Catalog lookups by whether the cache had the description")
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("cart.catalog.lookups", productCatalog, ProductCatalog::cacheMissCount)
+                .description("Catalog lookups by whether the cache had the description")
+                .tag("result", "miss")
+                .register(registry);
+    }
+}
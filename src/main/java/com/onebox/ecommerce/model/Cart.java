@@ -4,32 +4,79 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import lombok.Data;
 
 import java.time.Instant;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntPredicate;
 
 @Data
 @Schema(description = "Represents a shopping cart containing products")
 public class Cart {
 
-    private static final AtomicInteger idGenerator = new AtomicInteger(1);
+    private static final CartIdAllocator idAllocator = new CartIdAllocator(1);
 
     @Schema(description = "Unique identifier for the cart", example = "1")
     private Integer id;
 
+    // Only read or written through CartRepository.withCart
     @Schema(description = "Map of product IDs to Product objects")
-    private Map<Integer, Product> products = new HashMap<>();
+    private final CartProducts products = new CartProducts();
 
+    // Volatile because the eviction scheduler reads it without taking the cart's lock
     @Schema(description = "Timestamp of the last update", example = "2024-04-06T12:34:56.789Z")
-    private Instant lastUpdated;
+    private volatile Instant lastUpdated;
+
+    // Bumped by every update, so clients can tell which state of the cart a response or delta belongs to
+    @Schema(description = "Version of the cart, increased by every update", example = "3")
+    private long version;
 
     public Cart(){
-        this.id = idGenerator.getAndIncrement();
+        this.id = idAllocator.next();
+        this.lastUpdated = Instant.now();
+    }
+
+    /**
+     * Creates a cart whose id {@code acceptId} holds for, e.g. one this node owns in a cluster
+     */
+    public Cart(IntPredicate acceptId){
+        this.id = idAllocator.next(acceptId);
         this.lastUpdated = Instant.now();
     }
 
+    /**
+     * Rebuilds a cart that already has an id, e.g. one a storage engine keeps in serialized form
+     */
+    public Cart(int id, Instant lastUpdated){
+        this.id = id;
+        this.lastUpdated = lastUpdated;
+    }
+
+    /**
+     * Makes sure carts created from now on get ids above {@code cartId}, e.g. after carts were recovered from disk
+     */
+    public static void reserveIdsThrough(int cartId) {
+        idAllocator.reserveThrough(cartId);
+    }
+
+    /**
+     * @return an id that no cart created so far has an id above
+     */
+    public static int idsIssuedThrough() {
+        return idAllocator.issuedThrough();
+    }
+
+    /**
+     * Replaces all lines with the given products, keyed by product id
+     */
+    public void setProducts(Map<Integer, Product> products) {
+        this.products.clear();
+        this.products.putAll(products);
+    }
+
+    /**
+     * Records an update: the cart gets a new version and its inactivity period starts over
+     */
     public void updateInstant(){
         this.lastUpdated = Instant.now();
+        this.version++;
     }
 
 }
@@ -0,0 +1,47 @@
+package com.onebox.ecommerce.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Schema(description = "A change to a cart in the change stream, or a GAP where the stream skipped changes")
+public class CartChangeEvent {
+
+    @Schema(description = "Sequence number of the change, to resume the stream after it; absent for GAP",
+            example = "1042")
+    private Long sequence;
+
+    @Schema(description = "CREATED, UPDATED, DELETED, EXPIRED or GAP", example = "UPDATED")
+    private String type;
+
+    @Schema(description = "ID of the cart", example = "1")
+    private Integer cartId;
+
+    @Schema(description = "Version of the cart after the change, absent once it is deleted", example = "4")
+    private Long version;
+
+    @Schema(description = "When the change was made", example = "2024-04-06T12:34:56.789Z")
+    private Instant timestamp;
+
+    @Schema(description = "Lines added or changed, in their new state, keyed by product ID")
+    private Map<Integer, Product> products;
+
+    @Schema(description = "IDs of the products whose lines were removed")
+    private List<Integer> removed;
+
+    @Schema(description = "Changes skipped because the stream fell too far behind, absent if unknown after a restart",
+            example = "250")
+    private Long missed;
+}
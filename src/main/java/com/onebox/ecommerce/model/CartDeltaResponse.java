@@ -0,0 +1,35 @@
+package com.onebox.ecommerce.model;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Schema(description = "Outcome of an incremental update: only the lines that changed, and the new cart version")
+public class CartDeltaResponse {
+
+    @Schema(description = "Unique identifier for the cart", example = "1")
+    private Integer id;
+
+    @Schema(description = "Version of the cart after the update, unchanged if the update changed nothing",
+            example = "4")
+    private long version;
+
+    @Schema(description = "Timestamp of the last update", example = "2024-04-06T12:34:56.789Z")
+    private Instant lastUpdated;
+
+    @Schema(description = "Lines added or changed by the update, in their new state, keyed by product ID")
+    private Map<Integer, Product> products;
+
+    @Schema(description = "IDs of the products whose lines the update removed")
+    private List<Integer> removed;
+}
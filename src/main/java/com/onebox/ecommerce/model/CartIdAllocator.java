@@ -0,0 +1,114 @@
+package com.onebox.ecommerce.model;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntPredicate;
+
+/**
+ * Hands out cart ids without one shared counter every create contends on. Each stripe holds a block of
+ * {@value #BLOCK_SIZE} ids and threads pick a stripe by thread id, so only every {@value #BLOCK_SIZE}th create
+ * touches the global counter. Ids are unique and stay dense, but are not ordered across threads.
+ * <p>
+ * {@link #reserveThrough} raises a floor every id is checked against once taken from its stripe, so it holds for
+ * creates running meanwhile: a stripe still holding a block from below the floor drops it for a fresh one.
+ */
+final class CartIdAllocator {
+
+    static final int BLOCK_SIZE = 256;
+
+    // A stripe's range takes one long of every 64 byte cache line, so stripes never share a line
+    private static final int PADDING = 8;
+
+    private static final int DEFAULT_STRIPES =
+            Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 4 - 1) << 1;
+
+    // First id of the next block not given to a stripe yet
+    private final AtomicInteger nextBlock;
+
+    // Ids up to this one are never handed out any more, only ever raised
+    private final AtomicInteger reservedThrough;
+
+    // Per stripe the next id in the high and the end of its block (exclusive) in the low 32 bits
+    private final AtomicLongArray ranges;
+    private final int mask;
+
+    CartIdAllocator(int firstId) {
+        this(firstId, DEFAULT_STRIPES);
+    }
+
+    CartIdAllocator(int firstId, int stripes) {
+        if (Integer.bitCount(stripes) != 1) {
+            throw new IllegalArgumentException("Number of stripes must be a power of two: " + stripes);
+        }
+        this.nextBlock = new AtomicInteger(firstId);
+        this.reservedThrough = new AtomicInteger(firstId - 1);
+        this.ranges = new AtomicLongArray(stripes * PADDING);
+        this.mask = stripes - 1;
+    }
+
+    int next() {
+        int slot = stripeOf(Thread.currentThread().threadId()) * PADDING;
+        while (true) {
+            long range = ranges.get(slot);
+            int next = (int) (range >>> 32);
+            if (next < (int) range) {
+                long taken = range + (1L << 32);
+                if (ranges.compareAndSet(slot, range, taken)) {
+                    if (next > reservedThrough.get()) {
+                        return next;
+                    }
+                    // The block was claimed before a reservation, the rest of it is below the floor too
+                    ranges.compareAndSet(slot, taken, 0);
+                }
+                continue;
+            }
+            int start = nextBlock.getAndUpdate(first -> first < 0 ? first : first + BLOCK_SIZE);
+            if (start < 0 || start > Integer.MAX_VALUE - BLOCK_SIZE) {
+                nextBlock.set(Integer.MIN_VALUE);
+                throw new IllegalStateException("Cart ids exhausted");
+            }
+            // Another thread of the stripe may have refilled it meanwhile, the block is then dropped
+            if (ranges.compareAndSet(slot, range, range(start + 1, start + BLOCK_SIZE))
+                    && start > reservedThrough.get()) {
+                return start;
+            }
+        }
+    }
+
+    /**
+     * @return the next id {@code accept} holds for, the ids it rejects are skipped for good
+     */
+    int next(IntPredicate accept) {
+        while (true) {
+            int id = next();
+            if (accept.test(id)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * @return an id no id handed out so far is above, whichever stripe it came from
+     */
+    int issuedThrough() {
+        int first = nextBlock.get();
+        return first < 0 ? Integer.MAX_VALUE : first - 1;
+    }
+
+    /**
+     * Makes sure ids handed out once this returns are above {@code cartId}, also to threads taking ids meanwhile
+     */
+    void reserveThrough(int cartId) {
+        reservedThrough.accumulateAndGet(cartId, Math::max);
+        nextBlock.accumulateAndGet(cartId + 1, (first, floor) -> first < 0 ? first : Math.max(first, floor));
+    }
+
+    private int stripeOf(long threadId) {
+        long hash = threadId * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & mask;
+    }
+
+    private static long range(int next, int end) {
+        return (long) next << 32 | end & 0xFFFFFFFFL;
+    }
+}
@@ -0,0 +1,23 @@
+package com.onebox.ecommerce.model;
+
+/**
+ * Answer to a conditional read of a cart: the cart if the client's versions do not include its current one, else
+ * only that version, which the 304 names in its ETag.
+ *
+ * @param cart the cart, null if not modified
+ * @param version the cart's current version
+ */
+public record CartIfModified(CartResponse cart, long version) {
+
+    public static CartIfModified modified(CartResponse cart) {
+        return new CartIfModified(cart, cart.getVersion());
+    }
+
+    public static CartIfModified notModified(long version) {
+        return new CartIfModified(null, version);
+    }
+
+    public boolean isModified() {
+        return cart != null;
+    }
+}
@@ -0,0 +1,39 @@
+package com.onebox.ecommerce.model;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Schema(description = "One change to a line of a cart, part of an incremental update")
+public class CartLineChange {
+
+    public enum Type {
+        // Adds the line or replaces its description and amount
+        SET,
+        // Adds to the amount, adding the line if the cart does not have it yet
+        INCREMENT,
+        // Subtracts from the amount, removing the line once it reaches zero
+        DECREMENT,
+        // Removes the line, if the cart has it
+        REMOVE
+    }
+
+    @Schema(description = "Change to apply", example = "INCREMENT")
+    private Type type;
+
+    @Schema(description = "Product whose line changes", example = "1")
+    private Integer productId;
+
+    @Schema(description = "Amount to set, add or subtract, at least 1, not used by REMOVE", example = "2")
+    private Integer amount;
+
+    @Schema(description = "Description of the product, used by SET and by an INCREMENT that adds the line; "
+            + "an INCREMENT without one keeps the current description", example = "God of War")
+    private String description;
+}
@@ -0,0 +1,30 @@
+package com.onebox.ecommerce.model;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Schema(description = "One operation of a batch request")
+public class CartOperation {
+
+    public enum Type {
+        CREATE, GET, ADD_PRODUCTS, DELETE
+    }
+
+    @Schema(description = "Operation to perform", example = "ADD_PRODUCTS")
+    private Type type;
+
+    @Schema(description = "Cart the operation applies to, not used by CREATE", example = "1")
+    private Integer cartId;
+
+    @Schema(description = "Products to add, keyed by product ID, only used by ADD_PRODUCTS")
+    private Map<Integer, Product> products;
+}
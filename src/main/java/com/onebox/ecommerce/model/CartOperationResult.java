@@ -0,0 +1,26 @@
+package com.onebox.ecommerce.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Schema(description = "Outcome of one batch operation, at the same position as the operation in the request")
+public class CartOperationResult {
+
+    @Schema(description = "HTTP status the single cart endpoint would have answered with", example = "200")
+    private int status;
+
+    @Schema(description = "Cart after the operation, absent for DELETE and on errors")
+    private CartResponse cart;
+
+    @Schema(description = "Why the operation failed, absent on success")
+    private CartErrorResponse error;
+}
@@ -0,0 +1,261 @@
+package com.onebox.ecommerce.model;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Compact product lines of a cart: product id, description and amount held in three parallel arrays in
+ * insertion order, instead of a HashMap of boxed ids to Product objects. A line costs 12 bytes plus array
+ * slack, against roughly 80 for a HashMap node, an Integer key and a Product.
+ * <p>
+ * Small carts are scanned linearly. Once a cart grows past {@value #INDEX_THRESHOLD} lines an open addressing
+ * index from product id to line position is built next to the arrays, so large B2B carts keep constant time
+ * lookups. Descriptions are interned, so a title shared by millions of carts is stored once. Lines of catalog
+ * products usually have no description of their own, the ProductCatalog supplies it: the description array is
+ * only allocated once a line has one.
+ * <p>
+ * Not thread safe, carts are only accessed through CartRepository.withCart.
+ */
+public final class CartProducts {
+
+    private static final int INDEX_THRESHOLD = 32;
+    private static final int[] NO_INTS = new int[0];
+    private static final String[] NO_STRINGS = new String[0];
+
+    private int[] productIds = NO_INTS;
+    private int[] amounts = NO_INTS;
+    // Empty until a line has a description, then as long as productIds
+    private String[] descriptions = NO_STRINGS;
+    private int size;
+
+    // Linear probing table of line position + 1, 0 marks a free slot. Null while the cart is small
+    private int[] index;
+
+    // Bumped by every change, lets storage engines tell whether a cart needs writing back
+    private int modCount;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int modCount() {
+        return modCount;
+    }
+
+    /**
+     * @return the position of the product's line, or -1 if the cart does not contain the product
+     */
+    public int positionOf(int productId) {
+        if (index == null) {
+            for (int position = 0; position < size; position++) {
+                if (productIds[position] == productId) {
+                    return position;
+                }
+            }
+            return -1;
+        }
+        int mask = index.length - 1;
+        for (int slot = hash(productId) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+            if (productIds[index[slot] - 1] == productId) {
+                return index[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    public boolean contains(int productId) {
+        return positionOf(productId) >= 0;
+    }
+
+    public int productIdAt(int position) {
+        return productIds[position];
+    }
+
+    public int amountAt(int position) {
+        return amounts[position];
+    }
+
+    public String descriptionAt(int position) {
+        return position < descriptions.length ? descriptions[position] : null;
+    }
+
+    /**
+     * Adds the line, or replaces the description and amount of an existing one
+     */
+    public void put(int productId, String description, int amount) {
+        int position = positionOf(productId);
+        if (position < 0) {
+            position = append(productId);
+        }
+        if (description != null && descriptions.length == 0) {
+            descriptions = new String[productIds.length];
+        }
+        if (descriptions.length > 0) {
+            descriptions[position] = intern(description);
+        }
+        amounts[position] = amount;
+        modCount++;
+    }
+
+    /**
+     * Adds or replaces a line per entry, keyed by the map key. Null products carry nothing to store and are skipped.
+     */
+    public void putAll(Map<Integer, Product> products) {
+        products.forEach((productId, product) -> {
+            if (product != null) {
+                put(productId, product.getDescription(), product.getAmount());
+            }
+        });
+    }
+
+    /**
+     * @return {@code true} if the cart contained the product
+     */
+    public boolean remove(int productId) {
+        int position = positionOf(productId);
+        if (position < 0) {
+            return false;
+        }
+        int last = size - 1;
+        if (index != null) {
+            unindex(position);
+            if (position != last) {
+                index[slotOf(last)] = position + 1;
+            }
+        }
+        // The last line fills the gap, so the arrays stay dense
+        productIds[position] = productIds[last];
+        amounts[position] = amounts[last];
+        if (descriptions.length > 0) {
+            descriptions[position] = descriptions[last];
+            descriptions[last] = null;
+        }
+        size = last;
+        modCount++;
+        return true;
+    }
+
+    public void clear() {
+        productIds = NO_INTS;
+        amounts = NO_INTS;
+        descriptions = NO_STRINGS;
+        index = null;
+        size = 0;
+        modCount++;
+    }
+
+    /**
+     * Copies the lines into an immutable snapshot trimmed to size
+     */
+    public CartProductsSnapshot snapshot() {
+        return CartProductsSnapshot.of(
+                Arrays.copyOf(productIds, size), Arrays.copyOf(descriptions, size), Arrays.copyOf(amounts, size));
+    }
+
+    private int append(int productId) {
+        if (size == productIds.length) {
+            int capacity = Math.max(2, size + (size >> 1) + 1);
+            productIds = Arrays.copyOf(productIds, capacity);
+            amounts = Arrays.copyOf(amounts, capacity);
+            if (descriptions.length > 0) {
+                descriptions = Arrays.copyOf(descriptions, capacity);
+            }
+        }
+        int position = size++;
+        productIds[position] = productId;
+        if (index != null && size * 2 > index.length) {
+            rebuildIndex(index.length * 2);
+        } else if (index != null) {
+            insertIntoIndex(position);
+        } else if (size > INDEX_THRESHOLD) {
+            rebuildIndex(Integer.highestOneBit(size * 4 - 1));
+        }
+        return position;
+    }
+
+    private void rebuildIndex(int capacity) {
+        index = new int[capacity];
+        for (int position = 0; position < size; position++) {
+            insertIntoIndex(position);
+        }
+    }
+
+    private void insertIntoIndex(int position) {
+        int mask = index.length - 1;
+        int slot = hash(productIds[position]) & mask;
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = position + 1;
+    }
+
+    private int slotOf(int position) {
+        int mask = index.length - 1;
+        int slot = hash(productIds[position]) & mask;
+        while (index[slot] != position + 1) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    // Backward shift deletion, keeps every probe chain unbroken without tombstones
+    private void unindex(int position) {
+        int mask = index.length - 1;
+        int hole = slotOf(position);
+        for (int next = (hole + 1) & mask; index[next] != 0; next = (next + 1) & mask) {
+            int home = hash(productIds[index[next] - 1]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                index[hole] = index[next];
+                hole = next;
+            }
+        }
+        index[hole] = 0;
+    }
+
+    private static int hash(int productId) {
+        int hash = productId * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static String intern(String description) {
+        return description == null ? null : description.intern();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof CartProducts that) || that.size != size) {
+            return false;
+        }
+        for (int position = 0; position < size; position++) {
+            int thatPosition = that.positionOf(productIds[position]);
+            if (thatPosition < 0 || that.amounts[thatPosition] != amounts[position]
+                    || !Objects.equals(that.descriptionAt(thatPosition), descriptionAt(position))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        // Order independent, like the lines themselves
+        int hashCode = 0;
+        for (int position = 0; position < size; position++) {
+            hashCode += productIds[position] ^ amounts[position] ^ Objects.hashCode(descriptionAt(position));
+        }
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+}
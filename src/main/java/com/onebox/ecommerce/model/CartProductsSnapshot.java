@@ -0,0 +1,131 @@
+package com.onebox.ecommerce.model;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+/**
+ * Immutable copy of a cart's lines for a CartResponse, held in the same parallel arrays as CartProducts.
+ * CartJsonWriter walks the arrays directly, everyone else sees a regular read-only Map whose Product values
+ * are created on access.
+ */
+public final class CartProductsSnapshot extends AbstractMap<Integer, Product> {
+
+    private static final CartProductsSnapshot EMPTY = new CartProductsSnapshot(new int[0], new String[0], new int[0]);
+
+    private final int[] productIds;
+    private final String[] descriptions;
+    private final int[] amounts;
+
+    private CartProductsSnapshot(int[] productIds, String[] descriptions, int[] amounts) {
+        this.productIds = productIds;
+        this.descriptions = descriptions;
+        this.amounts = amounts;
+    }
+
+    // Takes ownership of the arrays
+    static CartProductsSnapshot of(int[] productIds, String[] descriptions, int[] amounts) {
+        return productIds.length == 0 ? EMPTY : new CartProductsSnapshot(productIds, descriptions, amounts);
+    }
+
+    @Override
+    public int size() {
+        return productIds.length;
+    }
+
+    public int productIdAt(int index) {
+        return productIds[index];
+    }
+
+    public String descriptionAt(int index) {
+        return descriptions[index];
+    }
+
+    public int amountAt(int index) {
+        return amounts[index];
+    }
+
+    /**
+     * @return a snapshot whose lines without a description of their own have the one {@code descriptionOf} gives
+     * their product, or this snapshot if it has none to give
+     */
+    public CartProductsSnapshot withDescriptions(IntFunction<String> descriptionOf) {
+        String[] described = null;
+        for (int i = 0; i < productIds.length; i++) {
+            if (descriptions[i] != null) {
+                continue;
+            }
+            String description = descriptionOf.apply(productIds[i]);
+            if (description != null) {
+                if (described == null) {
+                    described = descriptions.clone();
+                }
+                described[i] = description;
+            }
+        }
+        return described == null ? this : new CartProductsSnapshot(productIds, described, amounts);
+    }
+
+    @Override
+    public Product get(Object key) {
+        int index = indexOf(key);
+        return index < 0 ? null : productAt(index);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public Set<Entry<Integer, Product>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<Integer, Product>> iterator() {
+                return new Iterator<>() {
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < productIds.length;
+                    }
+
+                    @Override
+                    public Entry<Integer, Product> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<Integer, Product> entry = new SimpleImmutableEntry<>(productIds[next], productAt(next));
+                        next++;
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return productIds.length;
+            }
+        };
+    }
+
+    private Product productAt(int index) {
+        return new Product(productIds[index], descriptions[index], amounts[index]);
+    }
+
+    // Responses are read once or twice, a scan beats building a hash index for them
+    private int indexOf(Object key) {
+        if (!(key instanceof Integer productId)) {
+            return -1;
+        }
+        for (int i = 0; i < productIds.length; i++) {
+            if (productIds[i] == productId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -25,4 +25,7 @@ public class CartResponse {
 
     @Schema(description = "Timestamp of the last update", example = "2024-04-06T12:34:56.789Z")
     private Instant lastUpdated;
+
+    @Schema(description = "Version of the cart, increased by every update", example = "3")
+    private long version;
 }
@@ -0,0 +1,30 @@
+package com.onebox.ecommerce.model;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Schema(description = "Outcome of exporting or importing the cart population")
+public class CartTransferResponse {
+
+    @Schema(description = "Export file, relative to cart.transfer.directory", example = "carts.bin")
+    private String file;
+
+    @Schema(description = "Carts exported or imported", example = "10000000")
+    private long carts;
+
+    @Schema(description = "Product lines of those carts", example = "30000000")
+    private long lines;
+
+    @Schema(description = "Size of the export file", example = "171966303")
+    private long bytes;
+
+    @Schema(description = "Time taken, including checking the file before an import", example = "5231")
+    private long millis;
+}
@@ -0,0 +1,26 @@
+package com.onebox.ecommerce.model;
+
+import java.util.function.LongPredicate;
+
+/**
+ * Versions of a cart an {@code If-Match} or {@code If-None-Match} header names: every version for {@code *}, else
+ * the listed ones. A value rather than a lambda, so a conditional request can be forwarded to the node that owns
+ * the cart and tested there.
+ */
+public record CartVersionCondition(boolean any, long[] versions) implements LongPredicate {
+
+    public static final CartVersionCondition ANY = new CartVersionCondition(true, new long[0]);
+
+    @Override
+    public boolean test(long version) {
+        if (any) {
+            return true;
+        }
+        for (long listed : versions) {
+            if (listed == version) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,33 +1,82 @@
 package com.onebox.ecommerce.repository;
 
 import com.onebox.ecommerce.model.Cart;
-import org.springframework.stereotype.Repository;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.time.Instant;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
 
-@Repository
-public class CartRepository{
+/**
+ * Storage contract of CartServiceImpl. The engine is chosen with {@code cart.storage.type}: {@code in-memory}
+ * (default, InMemoryCartRepository), {@code off-heap} (OffHeapCartRepository) or {@code sharded}
+ * (ShardedCartRepository).
+ * <p>
+ * Implementations are thread safe. Everything done through {@link #withCart(int, Function)} on one cart is atomic
+ * with respect to other calls on the same cart.
+ */
+public interface CartRepository {
 
-    private final Map<Integer, Cart> carts = new HashMap<>();
-
-    public Cart createCart() {
-        // Empty cart without products yet
-        Cart cart = new Cart();
-        carts.put(cart.getId(), cart);
-        return cart;
+    /**
+     * Creates and stores an empty cart
+     *
+     * @return the new cart, only safe to read until it is shared through its id
+     */
+    default Cart createCart() {
+        return createCart(cartId -> true);
     }
 
-    public Cart getCart(int cartId) {
-        return carts.get(cartId);
-    }
+    /**
+     * Creates and stores an empty cart with an id {@code acceptId} holds for, skipping the ids it rejects
+     *
+     * @return the new cart, only safe to read until it is shared through its id
+     */
+    Cart createCart(IntPredicate acceptId);
 
-    public void deleteCart(int cartId) {
-        carts.remove(cartId);
-    }
+    /**
+     * Runs the given action against the cart while no other call can touch it. The action may read or mutate the
+     * cart, but must not retain it once it returns: engines are free to hand out a copy and store it back.
+     *
+     * @return the action result, or {@code null} if the cart does not exist
+     */
+    <T> T withCart(int cartId, Function<Cart, T> action);
 
-    public Map<Integer, Cart> getCarts() {
-        return carts;
-    }
+    /**
+     * Stores a cart rebuilt from persistent state or an export file as is, replacing any cart with the same id.
+     * Meant for recovery and imports, not for carts of requests.
+     */
+    void restoreCart(Cart cart);
+
+    /**
+     * @return {@code true} if the cart existed and was removed
+     */
+    boolean deleteCart(int cartId);
+
+    /**
+     * Removes the cart only if it has not been updated after {@code cutoff}, so a cart touched between the
+     * inactivity check and the removal survives.
+     *
+     * @return {@code true} if the cart was removed
+     */
+    boolean deleteCartIfInactive(int cartId, Instant cutoff);
+
+    /**
+     * @return the number of live carts
+     */
+    int count();
+
+    /**
+     * @return the number of product lines across all live carts
+     */
+    long lineCount();
+
+    /**
+     * @return a rough estimate of the memory the stored carts take, in bytes
+     */
+    long estimatedBytes();
 
+    /**
+     * Visits the id of every live cart. Weakly consistent: carts created or deleted meanwhile may or may not be seen.
+     */
+    void forEachCartId(IntConsumer action);
 }
@@ -0,0 +1,148 @@
+package com.onebox.ecommerce.repository;
+
+import com.onebox.ecommerce.model.Cart;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+/**
+ * Carts indexed directly by id. Cart ids are handed out densely, so instead of hashing boxed keys the id is split
+ * into a page and an offset into an array of {@value #PAGE_SIZE} slots: a lookup is two array reads and no
+ * allocation. Pages are created on first use and dropped again once their last cart is removed, so the ranges
+ * of ids long evicted cost nothing. The highest page stays, because new ids are handed out there and dropping it
+ * would allocate a fresh page for every create following a delete.
+ * <p>
+ * Lookups need no lock. Writers of the same id must be serialized by the caller, writers of different ids in
+ * the same page may run concurrently.
+ */
+final class CartSlots {
+
+    private static final int PAGE_SHIFT = 16;
+    static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    // Enough pages for every non-negative int id
+    private final AtomicReferenceArray<Page> pages = new AtomicReferenceArray<>(1 << (Integer.SIZE - 1 - PAGE_SHIFT));
+    private final LongAdder size = new LongAdder();
+    private final AtomicInteger highestPage = new AtomicInteger(-1);
+
+    /**
+     * @return the cart, or {@code null} if there is none with the id
+     */
+    Cart get(int cartId) {
+        if (cartId < 0) {
+            return null;
+        }
+        Page page = pages.get(cartId >>> PAGE_SHIFT);
+        return page == null ? null : page.slots.get(cartId & PAGE_MASK);
+    }
+
+    /**
+     * @return the cart previously stored under the cart's id, or {@code null}
+     */
+    Cart put(Cart cart) {
+        return put(cart.getId(), cart);
+    }
+
+    /**
+     * Stores the cart under {@code cartId} rather than its own id, e.g. under its id within a shard
+     *
+     * @return the cart previously stored under {@code cartId}, or {@code null}
+     */
+    Cart put(int cartId, Cart cart) {
+        if (cartId < 0) {
+            throw new IllegalArgumentException("Cart id must not be negative: " + cartId);
+        }
+        Page page = acquirePage(cartId >>> PAGE_SHIFT);
+        Cart previous = page.slots.getAndSet(cartId & PAGE_MASK, cart);
+        if (previous == null) {
+            size.increment();
+        } else {
+            page.live.decrementAndGet(); // the slot was counted already, and the page stays live through our cart
+        }
+        return previous;
+    }
+
+    /**
+     * @return the removed cart, or {@code null} if there was none with the id
+     */
+    Cart remove(int cartId) {
+        if (cartId < 0) {
+            return null;
+        }
+        int index = cartId >>> PAGE_SHIFT;
+        Page page = pages.get(index);
+        Cart removed = page == null ? null : page.slots.getAndSet(cartId & PAGE_MASK, null);
+        if (removed == null) {
+            return null;
+        }
+        size.decrement();
+        if (page.live.decrementAndGet() == 0 && index < highestPage.get()
+                && page.live.compareAndSet(0, Page.RETIRED)) {
+            pages.compareAndSet(index, page, null);
+        }
+        return removed;
+    }
+
+    int size() {
+        return size.intValue();
+    }
+
+    void forEachCartId(IntConsumer action) {
+        for (int index = 0; index < pages.length(); index++) {
+            Page page = pages.get(index);
+            if (page == null) {
+                continue;
+            }
+            int firstId = index << PAGE_SHIFT;
+            for (int offset = 0; offset < PAGE_SIZE; offset++) {
+                if (page.slots.get(offset) != null) {
+                    action.accept(firstId + offset);
+                }
+            }
+        }
+    }
+
+    // Returns a page with one more live slot counted, creating it or replacing a retired one as needed
+    private Page acquirePage(int index) {
+        while (true) {
+            Page page = pages.get(index);
+            if (page == null) {
+                Page created = new Page();
+                created.live.set(1);
+                if (pages.compareAndSet(index, null, created)) {
+                    highestPage.accumulateAndGet(index, Math::max);
+                    return created;
+                }
+            } else if (page.acquire()) {
+                return page;
+            } else {
+                pages.compareAndSet(index, page, null);
+            }
+        }
+    }
+
+    private static final class Page {
+
+        // Set once the page emptied and is on its way out, it then never takes a cart again
+        static final int RETIRED = -1;
+
+        final AtomicReferenceArray<Cart> slots = new AtomicReferenceArray<>(PAGE_SIZE);
+
+        // Occupied slots plus puts in progress
+        final AtomicInteger live = new AtomicInteger();
+
+        boolean acquire() {
+            int current;
+            do {
+                current = live.get();
+                if (current == RETIRED) {
+                    return false;
+                }
+            } while (!live.compareAndSet(current, current + 1));
+            return true;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.onebox.ecommerce.repository;
+
+import com.onebox.ecommerce.model.CartProducts;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Numbers every distinct product description stored in a cart line, so serialized carts store a 4 byte id instead of
+ * the text. Id 0 stands for a missing description. Entries are counted by the lines referencing them and removed with
+ * the last one, their ids reused, so the dictionary holds the distinct descriptions of the live carts: descriptions
+ * of deleted and expired carts do not stay on the heap.
+ * <p>
+ * Lines are acquired and released a cart at a time under one lock. Reads take no lock: an id read from a cart's
+ * blocks under the cart's lock is still referenced by that line, so its slot can not be freed meanwhile.
+ */
+final class DescriptionDictionary {
+
+    private static final int[] NONE = new int[0];
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // Guarded by lock
+    private final Map<String, Integer> ids = new HashMap<>();
+    private int[] references = new int[1024];
+    private int[] freeIds = new int[64];
+    private int freeCount;
+    private int nextId = 1;
+
+    // Grown by copying under the lock; slots are written before their id is stored in a cart's blocks
+    private volatile String[] descriptions = new String[1024];
+
+    /**
+     * Takes a reference per line with a description
+     *
+     * @return the description id of every line, 0 for lines without one
+     */
+    int[] acquire(CartProducts products) {
+        int lines = products.size();
+        if (!hasDescriptions(products)) {
+            return lines == 0 ? NONE : new int[lines];
+        }
+        int[] lineIds = new int[lines];
+        lock.lock();
+        try {
+            for (int line = 0; line < lines; line++) {
+                String description = products.descriptionAt(line);
+                if (description != null) {
+                    int id = ids.computeIfAbsent(description, this::newId);
+                    references[id]++;
+                    lineIds[line] = id;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return lineIds;
+    }
+
+    /**
+     * Drops a reference per id other than 0, removing descriptions no line references any more
+     */
+    void release(int[] lineIds) {
+        if (!hasIds(lineIds)) {
+            return;
+        }
+        lock.lock();
+        try {
+            for (int id : lineIds) {
+                if (id != 0 && --references[id] == 0) {
+                    ids.remove(descriptions[id]);
+                    descriptions[id] = null;
+                    if (freeCount == freeIds.length) {
+                        freeIds = Arrays.copyOf(freeIds, freeIds.length * 2);
+                    }
+                    freeIds[freeCount++] = id;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    String descriptionOf(int id) {
+        return id == 0 ? null : descriptions[id];
+    }
+
+    /**
+     * @return distinct descriptions referenced by at least one line
+     */
+    int size() {
+        lock.lock();
+        try {
+            return ids.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called under the lock
+    private int newId(String description) {
+        int id;
+        if (freeCount > 0) {
+            id = freeIds[--freeCount];
+        } else {
+            id = nextId++;
+            if (id == references.length) {
+                references = Arrays.copyOf(references, references.length * 2);
+                descriptions = Arrays.copyOf(descriptions, descriptions.length * 2);
+            }
+        }
+        descriptions[id] = description;
+        return id;
+    }
+
+    private static boolean hasIds(int[] lineIds) {
+        for (int id : lineIds) {
+            if (id != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasDescriptions(CartProducts products) {
+        for (int line = 0; line < products.size(); line++) {
+            if (products.descriptionAt(line) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
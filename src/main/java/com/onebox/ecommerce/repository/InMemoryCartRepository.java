@@ -0,0 +1,142 @@
+package com.onebox.ecommerce.repository;
+
+import com.onebox.ecommerce.model.Cart;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * Default cart store, keeping every cart as an object on the Java heap. This is what
+ * {@code cart.storage.type=in-memory} selects.
+ * <p>
+ * Carts live in {@link CartSlots}, an array indexed by cart id, and every read or mutation of a cart's contents
+ * happens under one of the striped locks chosen by cart id. A batch of products is therefore applied atomically
+ * and cannot race with a delete or an eviction.
+ */
+@Repository
+@ConditionalOnProperty(prefix = "cart.storage", name = "type", havingValue = "in-memory", matchIfMissing = true)
+public class InMemoryCartRepository implements CartRepository {
+
+    // Heap retained per cart and per product line, as measured by the benchmarks' CartFootprintReport
+    private static final long BYTES_PER_CART = 110;
+    private static final long BYTES_PER_LINE = 16;
+
+    private final CartSlots carts = new CartSlots();
+    private final StripedLocks locks;
+    private final LongAdder lines = new LongAdder();
+
+    public InMemoryCartRepository() {
+        this(StripedLocks.DEFAULT_STRIPES);
+    }
+
+    InMemoryCartRepository(int stripes) {
+        this.locks = new StripedLocks(stripes);
+    }
+
+    @Override
+    public Cart createCart(IntPredicate acceptId) {
+        // Empty cart without products yet, ids are unique so no lock is needed to publish it
+        Cart cart = new Cart(acceptId);
+        carts.put(cart);
+        return cart;
+    }
+
+    /**
+     * @return the live cart, whose contents must only be read through {@link #withCart(int, Function)}
+     */
+    public Cart getCart(int cartId) {
+        return carts.get(cartId);
+    }
+
+    @Override
+    public <T> T withCart(int cartId, Function<Cart, T> action) {
+        ReentrantLock lock = locks.lockFor(cartId);
+        lock.lock();
+        try {
+            Cart cart = carts.get(cartId);
+            if (cart == null) {
+                return null;
+            }
+            int linesBefore = cart.getProducts().size();
+            try {
+                return action.apply(cart);
+            } finally {
+                lines.add(cart.getProducts().size() - linesBefore);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void restoreCart(Cart cart) {
+        ReentrantLock lock = locks.lockFor(cart.getId());
+        lock.lock();
+        try {
+            Cart previous = carts.put(cart);
+            lines.add(cart.getProducts().size() - (previous == null ? 0 : previous.getProducts().size()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean deleteCart(int cartId) {
+        ReentrantLock lock = locks.lockFor(cartId);
+        lock.lock();
+        try {
+            Cart removed = carts.remove(cartId);
+            if (removed == null) {
+                return false;
+            }
+            lines.add(-removed.getProducts().size());
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean deleteCartIfInactive(int cartId, Instant cutoff) {
+        ReentrantLock lock = locks.lockFor(cartId);
+        lock.lock();
+        try {
+            Cart cart = carts.get(cartId);
+            if (cart == null || cart.getLastUpdated().isAfter(cutoff)) {
+                return false;
+            }
+            carts.remove(cartId);
+            lines.add(-cart.getProducts().size());
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int count() {
+        return carts.size();
+    }
+
+    @Override
+    public long lineCount() {
+        return lines.sum();
+    }
+
+    @Override
+    public long estimatedBytes() {
+        return carts.size() * BYTES_PER_CART + lines.sum() * BYTES_PER_LINE;
+    }
+
+    @Override
+    public void forEachCartId(IntConsumer action) {
+        carts.forEachCartId(action);
+    }
+
+}
@@ -0,0 +1,424 @@
+package com.onebox.ecommerce.repository;
+
+import com.onebox.ecommerce.config.CartProperties;
+import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.model.CartProducts;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * Cart store keeping carts outside the Java heap, selected with {@code cart.storage.type=off-heap}. The heap
+ * only holds a few large primitive arrays per lock stripe and the description dictionary, so GC pauses no
+ * longer grow with the cart population.
+ * <p>
+ * Carts are serialized into fixed size blocks carved from direct ByteBuffers. The head block of a cart holds
+ * its header and first lines; carts with more lines than fit chain further blocks. {@link #withCart} decodes
+ * the cart into a short-lived Cart object and writes it back only if the action changed it.
+ * <p>
+ * Direct memory is capped by {@code -XX:MaxDirectMemorySize}, which defaults to the maximum heap size; raise it
+ * for large populations.
+ */
+@Repository
+@ConditionalOnProperty(prefix = "cart.storage", name = "type", havingValue = "off-heap")
+@Log4j2
+public class OffHeapCartRepository implements CartRepository {
+
+    // Block layout, offsets in bytes from the start of the block
+    private static final int NEXT_BLOCK = 0;    // int, next block of the cart, 0 for none
+    private static final int CART_ID = 4;       // int, head block only
+    private static final int EPOCH_SECOND = 8;  // long, last update, head block only
+    private static final int NANO = 16;         // int, last update, head block only
+    private static final int LINE_COUNT = 20;   // int, lines of the whole cart, head block only
+    private static final int VERSION = 24;      // long, cart version, head block only
+    private static final int LINES = 32;        // lines: int product id, int amount, int description id
+    private static final int LINE_BYTES = 12;
+
+    // Key and value slots of IntIntMap, at a load factor between 1/4 and 1/2
+    private static final int BYTES_PER_INDEX_ENTRY = 24;
+
+    private final int linesPerBlock;
+    private final StripedLocks locks;
+    // Per stripe, cart id to head block, guarded by the stripe's lock
+    private final IntIntMap[] heads;
+    private final BlockAllocator blocks;
+    private final DescriptionDictionary descriptions = new DescriptionDictionary();
+    private final AtomicInteger count = new AtomicInteger();
+    private final LongAdder lines = new LongAdder();
+
+    @Autowired
+    public OffHeapCartRepository(CartProperties cartProperties) {
+        this(cartProperties.getStorage().getOffHeap().getLinesPerBlock(),
+                Math.toIntExact(cartProperties.getStorage().getOffHeap().getSegmentSize().toBytes()),
+                StripedLocks.DEFAULT_STRIPES);
+    }
+
+    OffHeapCartRepository(int linesPerBlock, int segmentBytes, int stripes) {
+        if (linesPerBlock < 1) {
+            throw new IllegalArgumentException("A block must hold at least one line: " + linesPerBlock);
+        }
+        this.linesPerBlock = linesPerBlock;
+        this.blocks = new BlockAllocator(LINES + linesPerBlock * LINE_BYTES, segmentBytes);
+        this.locks = new StripedLocks(stripes);
+        this.heads = new IntIntMap[stripes];
+        for (int stripe = 0; stripe < stripes; stripe++) {
+            heads[stripe] = new IntIntMap(16);
+        }
+        log.info("Storing carts off-heap in blocks of {} bytes, {} lines each", blocks.blockBytes, linesPerBlock);
+    }
+
+    @Override
+    public Cart createCart(IntPredicate acceptId) {
+        Cart cart = new Cart(acceptId);
+        int head = blocks.allocate();
+        ReentrantLock lock = locks.lockFor(cart.getId());
+        lock.lock();
+        try {
+            write(cart, head, 0);
+            heads[locks.stripeOf(cart.getId())].put(cart.getId(), head);
+        } finally {
+            lock.unlock();
+        }
+        count.incrementAndGet();
+        return cart;
+    }
+
+    @Override
+    public <T> T withCart(int cartId, Function<Cart, T> action) {
+        ReentrantLock lock = locks.lockFor(cartId);
+        lock.lock();
+        try {
+            int head = heads[locks.stripeOf(cartId)].get(cartId);
+            if (head == 0) {
+                return null;
+            }
+            Cart cart = read(head);
+            int modCount = cart.getProducts().modCount();
+            int linesBefore = cart.getProducts().size();
+            Instant lastUpdated = cart.getLastUpdated();
+            long version = cart.getVersion();
+            T result = action.apply(cart);
+            if (modCount != cart.getProducts().modCount() || !lastUpdated.equals(cart.getLastUpdated())
+                    || version != cart.getVersion()) {
+                write(cart, head, linesBefore);
+                lines.add(cart.getProducts().size() - linesBefore);
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void restoreCart(Cart cart) {
+        ReentrantLock lock = locks.lockFor(cart.getId());
+        lock.lock();
+        try {
+            IntIntMap stripeHeads = heads[locks.stripeOf(cart.getId())];
+            int head = stripeHeads.get(cart.getId());
+            int stored = 0;
+            if (head == 0) {
+                head = blocks.allocate();
+                stripeHeads.put(cart.getId(), head);
+                count.incrementAndGet();
+            } else {
+                stored = lineCount(head);
+                lines.add(-stored);
+            }
+            write(cart, head, stored);
+            lines.add(cart.getProducts().size());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean deleteCart(int cartId) {
+        ReentrantLock lock = locks.lockFor(cartId);
+        lock.lock();
+        try {
+            int head = heads[locks.stripeOf(cartId)].remove(cartId);
+            if (head == 0) {
+                return false;
+            }
+            delete(head);
+        } finally {
+            lock.unlock();
+        }
+        count.decrementAndGet();
+        return true;
+    }
+
+    @Override
+    public boolean deleteCartIfInactive(int cartId, Instant cutoff) {
+        ReentrantLock lock = locks.lockFor(cartId);
+        lock.lock();
+        try {
+            IntIntMap stripeHeads = heads[locks.stripeOf(cartId)];
+            int head = stripeHeads.get(cartId);
+            if (head == 0 || lastUpdated(head).isAfter(cutoff)) {
+                return false;
+            }
+            stripeHeads.remove(cartId);
+            delete(head);
+        } finally {
+            lock.unlock();
+        }
+        count.decrementAndGet();
+        return true;
+    }
+
+    @Override
+    public int count() {
+        return count.get();
+    }
+
+    @Override
+    public long lineCount() {
+        return lines.sum();
+    }
+
+    /**
+     * Direct memory reserved for blocks, plus the heap index of head blocks
+     */
+    @Override
+    public long estimatedBytes() {
+        return blocks.reservedBytes() + count.get() * BYTES_PER_INDEX_ENTRY;
+    }
+
+    @Override
+    public void forEachCartId(IntConsumer action) {
+        for (int stripe = 0; stripe < locks.stripes(); stripe++) {
+            int[] cartIds;
+            ReentrantLock lock = locks.lockAt(stripe);
+            lock.lock();
+            try {
+                cartIds = heads[stripe].keys();
+            } finally {
+                lock.unlock();
+            }
+            for (int cartId : cartIds) {
+                action.accept(cartId);
+            }
+        }
+    }
+
+    /**
+     * @return bytes of direct memory reserved for blocks
+     */
+    public long reservedBytes() {
+        return blocks.reservedBytes();
+    }
+
+    /**
+     * @return distinct descriptions of the stored lines, the ones the heap holds
+     */
+    public int descriptionCount() {
+        return descriptions.size();
+    }
+
+    /**
+     * @return blocks currently holding cart data
+     */
+    public int blocksInUse() {
+        return blocks.inUse();
+    }
+
+    private Cart read(int head) {
+        ByteBuffer buffer = blocks.buffer(head);
+        int base = blocks.offset(head);
+        Cart cart = new Cart(buffer.getInt(base + CART_ID),
+                Instant.ofEpochSecond(buffer.getLong(base + EPOCH_SECOND), buffer.getInt(base + NANO)));
+        cart.setVersion(buffer.getLong(base + VERSION));
+        int lines = buffer.getInt(base + LINE_COUNT);
+        CartProducts products = cart.getProducts();
+        int block = head;
+        for (int line = 0; line < lines; ) {
+            buffer = blocks.buffer(block);
+            base = blocks.offset(block);
+            int inBlock = Math.min(linesPerBlock, lines - line);
+            for (int i = 0; i < inBlock; i++, line++) {
+                int at = base + LINES + i * LINE_BYTES;
+                products.put(buffer.getInt(at), descriptions.descriptionOf(buffer.getInt(at + 8)), buffer.getInt(at + 4));
+            }
+            block = buffer.getInt(base + NEXT_BLOCK);
+        }
+        return cart;
+    }
+
+    private int lineCount(int head) {
+        return blocks.buffer(head).getInt(blocks.offset(head) + LINE_COUNT);
+    }
+
+    private Instant lastUpdated(int head) {
+        ByteBuffer buffer = blocks.buffer(head);
+        int base = blocks.offset(head);
+        return Instant.ofEpochSecond(buffer.getLong(base + EPOCH_SECOND), buffer.getInt(base + NANO));
+    }
+
+    private void delete(int head) {
+        int stored = lineCount(head);
+        lines.add(-stored);
+        descriptions.release(descriptionIds(head, stored));
+        freeChain(head);
+    }
+
+    /**
+     * Reuses the cart's chain, growing or trimming it to the number of lines. The descriptions of the new lines are
+     * acquired before those of the lines they replace are released, so unchanged ones keep their ids.
+     *
+     * @param stored lines the chain holds, 0 for a new head block
+     */
+    private void write(Cart cart, int head, int stored) {
+        CartProducts products = cart.getProducts();
+        int lines = products.size();
+        int[] previousIds = descriptionIds(head, stored);
+        int[] lineIds = descriptions.acquire(products);
+        ByteBuffer buffer = blocks.buffer(head);
+        int base = blocks.offset(head);
+        buffer.putInt(base + CART_ID, cart.getId());
+        buffer.putLong(base + EPOCH_SECOND, cart.getLastUpdated().getEpochSecond());
+        buffer.putInt(base + NANO, cart.getLastUpdated().getNano());
+        buffer.putInt(base + LINE_COUNT, lines);
+        buffer.putLong(base + VERSION, cart.getVersion());
+
+        int block = head;
+        int line = 0;
+        while (true) {
+            buffer = blocks.buffer(block);
+            base = blocks.offset(block);
+            int inBlock = Math.min(linesPerBlock, lines - line);
+            for (int i = 0; i < inBlock; i++, line++) {
+                int at = base + LINES + i * LINE_BYTES;
+                buffer.putInt(at, products.productIdAt(line));
+                buffer.putInt(at + 4, products.amountAt(line));
+                buffer.putInt(at + 8, lineIds[line]);
+            }
+            int next = buffer.getInt(base + NEXT_BLOCK);
+            if (line == lines) {
+                buffer.putInt(base + NEXT_BLOCK, 0);
+                freeChain(next);
+                descriptions.release(previousIds);
+                return;
+            }
+            if (next == 0) {
+                next = blocks.allocate();
+                buffer.putInt(base + NEXT_BLOCK, next);
+            }
+            block = next;
+        }
+    }
+
+    private int[] descriptionIds(int head, int stored) {
+        int[] ids = new int[stored];
+        int block = head;
+        for (int line = 0; line < stored; ) {
+            ByteBuffer buffer = blocks.buffer(block);
+            int base = blocks.offset(block);
+            int inBlock = Math.min(linesPerBlock, stored - line);
+            for (int i = 0; i < inBlock; i++, line++) {
+                ids[line] = buffer.getInt(base + LINES + i * LINE_BYTES + 8);
+            }
+            block = buffer.getInt(base + NEXT_BLOCK);
+        }
+        return ids;
+    }
+
+    private void freeChain(int block) {
+        while (block != 0) {
+            int next = blocks.buffer(block).getInt(blocks.offset(block) + NEXT_BLOCK);
+            blocks.free(block);
+            block = next;
+        }
+    }
+
+    /**
+     * Hands out fixed size blocks numbered from 1, carved from direct buffers allocated on demand. Freed blocks
+     * are reused before new ones are carved.
+     */
+    private static final class BlockAllocator {
+
+        private final int blockBytes;
+        private final int blocksPerSegment;
+        private final ReentrantLock lock = new ReentrantLock();
+
+        // Only ever grows, by copy under the lock
+        private volatile ByteBuffer[] segments = new ByteBuffer[0];
+        private int[] freeBlocks = new int[1024];
+        private int freeCount;
+        private int nextBlock = 1;
+
+        BlockAllocator(int blockBytes, int segmentBytes) {
+            if (segmentBytes < blockBytes) {
+                throw new IllegalArgumentException("Segments of " + segmentBytes + " bytes can not hold a block");
+            }
+            this.blockBytes = blockBytes;
+            this.blocksPerSegment = segmentBytes / blockBytes;
+        }
+
+        int allocate() {
+            int block;
+            lock.lock();
+            try {
+                if (freeCount > 0) {
+                    block = freeBlocks[--freeCount];
+                } else {
+                    block = nextBlock++;
+                    if (block / blocksPerSegment == segments.length) {
+                        ByteBuffer[] grown = Arrays.copyOf(segments, segments.length + 1);
+                        grown[segments.length] = ByteBuffer.allocateDirect(blocksPerSegment * blockBytes);
+                        segments = grown;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            buffer(block).putInt(offset(block) + NEXT_BLOCK, 0);
+            return block;
+        }
+
+        void free(int block) {
+            lock.lock();
+            try {
+                if (freeCount == freeBlocks.length) {
+                    freeBlocks = Arrays.copyOf(freeBlocks, freeBlocks.length * 2);
+                }
+                freeBlocks[freeCount++] = block;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        ByteBuffer buffer(int block) {
+            return segments[block / blocksPerSegment];
+        }
+
+        int offset(int block) {
+            return (block % blocksPerSegment) * blockBytes;
+        }
+
+        long reservedBytes() {
+            return (long) segments.length * blocksPerSegment * blockBytes;
+        }
+
+        int inUse() {
+            lock.lock();
+            try {
+                return nextBlock - 1 - freeCount;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package com.onebox.ecommerce.repository;
+
+import com.onebox.ecommerce.config.CartProperties;
+import com.onebox.ecommerce.model.Cart;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * Cart store splitting the carts into shards by cart id, selected with {@code cart.storage.type=sharded}. Every
+ * shard is owned by one writer thread: callers queue an operation and park until the writer has run it, so carts
+ * are only ever touched by the thread of their shard and need no locks. The writer drains its queue in one go
+ * after waking up, so under load many operations share one wake-up and stay in the shard's warm caches.
+ * <p>
+ * Reads are queued too, since the actions passed to {@link #withCart} may mutate the cart. Queues are unbounded,
+ * but every caller waits for its own operation, so a queue never holds more operations than there are callers.
+ * An action running on a shard thread may call the repository again; operations on its own shard then run
+ * inline, while waiting for another shard could deadlock and is not supported.
+ */
+@Repository
+@ConditionalOnProperty(prefix = "cart.storage", name = "type", havingValue = "sharded")
+@Log4j2
+public class ShardedCartRepository implements CartRepository, AutoCloseable {
+
+    // Heap retained per cart and per product line, like InMemoryCartRepository
+    private static final long BYTES_PER_CART = 110;
+    private static final long BYTES_PER_LINE = 16;
+
+    // Polls before parking, so a busy writer or caller skips the wake-up; pointless with a single core
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 200 : 0;
+
+    private final Shard[] shards;
+    private final int shardBits;
+
+    @Autowired
+    public ShardedCartRepository(CartProperties cartProperties) {
+        this(cartProperties.getStorage().getSharded().getShards());
+    }
+
+    /**
+     * @param shards number of shards and writer threads, rounded up to a power of two; 0 for one per core
+     */
+    ShardedCartRepository(int shards) {
+        int count = shards > 0 ? shards : Runtime.getRuntime().availableProcessors();
+        count = Integer.highestOneBit(Math.max(1, count) * 2 - 1);
+        this.shardBits = Integer.numberOfTrailingZeros(count);
+        this.shards = new Shard[count];
+        for (int shard = 0; shard < count; shard++) {
+            this.shards[shard] = new Shard(shard);
+        }
+        log.info("Storing carts in {} shards with one writer thread each", count);
+    }
+
+    @Override
+    public Cart createCart(IntPredicate acceptId) {
+        Cart cart = new Cart(acceptId);
+        shardOf(cart.getId()).call(shard -> shard.carts.put(localId(cart.getId()), cart));
+        return cart;
+    }
+
+    @Override
+    public <T> T withCart(int cartId, Function<Cart, T> action) {
+        return shardOf(cartId).call(shard -> {
+            Cart cart = shard.carts.get(localId(cartId));
+            if (cart == null) {
+                return null;
+            }
+            int linesBefore = cart.getProducts().size();
+            try {
+                return action.apply(cart);
+            } finally {
+                shard.lines += cart.getProducts().size() - linesBefore;
+            }
+        });
+    }
+
+    @Override
+    public void restoreCart(Cart cart) {
+        shardOf(cart.getId()).call(shard -> {
+            Cart previous = shard.carts.put(localId(cart.getId()), cart);
+            shard.lines += cart.getProducts().size() - (previous == null ? 0 : previous.getProducts().size());
+            return null;
+        });
+    }
+
+    @Override
+    public boolean deleteCart(int cartId) {
+        return shardOf(cartId).call(shard -> shard.remove(localId(cartId)));
+    }
+
+    @Override
+    public boolean deleteCartIfInactive(int cartId, Instant cutoff) {
+        return shardOf(cartId).call(shard -> {
+            Cart cart = shard.carts.get(localId(cartId));
+            return cart != null && !cart.getLastUpdated().isAfter(cutoff) && shard.remove(localId(cartId));
+        });
+    }
+
+    @Override
+    public int count() {
+        int count = 0;
+        for (Shard shard : shards) {
+            count += shard.carts.size();
+        }
+        return count;
+    }
+
+    @Override
+    public long lineCount() {
+        long lines = 0;
+        for (Shard shard : shards) {
+            lines += shard.lines;
+        }
+        return lines;
+    }
+
+    @Override
+    public long estimatedBytes() {
+        return count() * BYTES_PER_CART + lineCount() * BYTES_PER_LINE;
+    }
+
+    @Override
+    public void forEachCartId(IntConsumer action) {
+        // CartSlots lookups are safe from any thread, the writers keep going meanwhile
+        for (Shard shard : shards) {
+            shard.carts.forEachCartId(localId -> action.accept(localId << shardBits | shard.index));
+        }
+    }
+
+    int shards() {
+        return shards.length;
+    }
+
+    /**
+     * Stops the writer threads once they have run every operation queued so far
+     */
+    @Override
+    public void close() throws InterruptedException {
+        for (Shard shard : shards) {
+            shard.stop();
+        }
+        for (Shard shard : shards) {
+            shard.writer.join();
+        }
+    }
+
+    private Shard shardOf(int cartId) {
+        return shards[cartId & (shards.length - 1)];
+    }
+
+    // Ids are dense, and so are the ids within a shard once its bits are shifted out
+    private int localId(int cartId) {
+        return cartId >>> shardBits;
+    }
+
+    private static final class Shard {
+
+        final int index;
+        final Thread writer;
+        final ConcurrentLinkedQueue<Operation<?>> queue = new ConcurrentLinkedQueue<>();
+
+        // Only written by the writer thread, lookups from other threads are for forEachCartId and count
+        final CartSlots carts = new CartSlots();
+
+        // Single writer, so a volatile is enough for other threads to read a current sum
+        volatile long lines;
+
+        // Set while the writer is parked or about to park, so callers know to wake it up
+        volatile boolean idle;
+        volatile boolean stopped;
+
+        Shard(int index) {
+            this.index = index;
+            this.writer = Thread.ofPlatform().name("cart-shard-" + index).daemon().start(this::run);
+        }
+
+        <T> T call(Function<Shard, T> action) {
+            if (Thread.currentThread() == writer) {
+                return action.apply(this);
+            }
+            if (stopped) {
+                throw new IllegalStateException("Cart shard " + index + " is closed");
+            }
+            Operation<T> operation = new Operation<>(action);
+            queue.offer(operation);
+            if (idle) {
+                LockSupport.unpark(writer);
+            }
+            return operation.await();
+        }
+
+        boolean remove(int localId) {
+            Cart removed = carts.remove(localId);
+            if (removed == null) {
+                return false;
+            }
+            lines -= removed.getProducts().size();
+            return true;
+        }
+
+        void stop() {
+            stopped = true;
+            LockSupport.unpark(writer);
+        }
+
+        private void run() {
+            while (true) {
+                Operation<?> operation = queue.poll();
+                if (operation != null) {
+                    operation.run(this);
+                    continue;
+                }
+                if (stopped) {
+                    return;
+                }
+                if (spinUntilQueued()) {
+                    continue;
+                }
+                idle = true;
+                // A caller that queued before seeing idle did not unpark us, so look once more before parking
+                if (queue.isEmpty() && !stopped) {
+                    LockSupport.park(this);
+                }
+                idle = false;
+            }
+        }
+
+        private boolean spinUntilQueued() {
+            for (int spin = 0; spin < SPINS; spin++) {
+                if (!queue.isEmpty()) {
+                    return true;
+                }
+                Thread.onSpinWait();
+            }
+            return false;
+        }
+    }
+
+    private static final class Operation<T> {
+
+        private final Function<Shard, T> action;
+        private final Thread caller = Thread.currentThread();
+        private T result;
+        private Throwable failure;
+        private volatile boolean done;
+
+        Operation(Function<Shard, T> action) {
+            this.action = action;
+        }
+
+        void run(Shard shard) {
+            try {
+                result = action.apply(shard);
+            } catch (Throwable e) {
+                failure = e;
+            }
+            done = true;
+            LockSupport.unpark(caller);
+        }
+
+        T await() {
+            for (int spin = 0; spin < SPINS && !done; spin++) {
+                Thread.onSpinWait();
+            }
+            boolean interrupted = false;
+            while (!done) {
+                LockSupport.park(this);
+                // The operation is queued already and cannot be taken back, so interrupts wait until it ran
+                interrupted |= Thread.interrupted();
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure instanceof RuntimeException e) {
+                throw e;
+            }
+            if (failure instanceof Error e) {
+                throw e;
+            }
+            if (failure != null) {
+                throw new IllegalStateException(failure);
+            }
+            return result;
+        }
+    }
+}
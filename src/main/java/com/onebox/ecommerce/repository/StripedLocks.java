@@ -0,0 +1,45 @@
+package com.onebox.ecommerce.repository;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed set of locks a cart id is mapped to. Requests on different carts almost never share a stripe, while
+ * requests on the same cart are serialized. ReentrantLock rather than synchronized keeps virtual threads from
+ * pinning their carrier while they wait.
+ */
+final class StripedLocks {
+
+    // One stripe per few carts in flight per core; a power of two so the stripe is a mask away
+    static final int DEFAULT_STRIPES =
+            Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 16 - 1) << 1;
+
+    private final ReentrantLock[] locks;
+    private final int mask;
+
+    StripedLocks(int stripes) {
+        if (Integer.bitCount(stripes) != 1) {
+            throw new IllegalArgumentException("Number of stripes must be a power of two: " + stripes);
+        }
+        this.locks = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        this.mask = stripes - 1;
+    }
+
+    int stripes() {
+        return locks.length;
+    }
+
+    int stripeOf(int cartId) {
+        return cartId & mask;
+    }
+
+    ReentrantLock lockFor(int cartId) {
+        return locks[stripeOf(cartId)];
+    }
+
+    ReentrantLock lockAt(int stripe) {
+        return locks[stripe];
+    }
+}
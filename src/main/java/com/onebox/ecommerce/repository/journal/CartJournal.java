@@ -0,0 +1,267 @@
+package com.onebox.ecommerce.repository.journal;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only journal split in numbered segment files, with group commit: appenders only copy their records into
+ * the pending batch, and a single writer thread writes everything pending and forces it to disk with one fsync.
+ * The more appenders wait, the bigger the batch, so the cost of fsync is shared instead of paid per record.
+ * <p>
+ * When nobody waits for durability, the writer is given a flush interval instead and only wakes up once per
+ * interval, writing and forcing everything appended meanwhile.
+ * <p>
+ * However the writer stops other than by {@link #close()}, be it an I/O error, any other exception or an interrupt,
+ * it records a failure first, so appenders waiting for it are woken with an exception instead of waiting forever.
+ */
+@Log4j2
+final class CartJournal implements AutoCloseable {
+
+    private static final int BATCH_BYTES = 64 << 10;
+
+    private final Path directory;
+    // 0 when appenders wait for durability and the writer should flush as soon as anything is pending
+    private final long flushIntervalNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition pending = lock.newCondition();
+    private final Condition written = lock.newCondition();
+    private final Thread writer;
+
+    // Guarded by lock. The last batch takes new records
+    private ArrayDeque<Batch> batches = new ArrayDeque<>();
+    private long segment;
+    private long appended;
+    private long durable;
+    private long openSegment;
+    private boolean closed;
+    private Throwable failure;
+
+    // Owned by the writer thread
+    private FileChannel channel;
+    private long channelSegment;
+
+    /**
+     * @param flushInterval how long the writer lets records accumulate, {@link Duration#ZERO} to flush immediately
+     */
+    CartJournal(Path directory, long segment, Duration flushInterval) {
+        this.directory = directory;
+        this.segment = segment;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.writer = Thread.ofPlatform().name("cart-journal-writer").daemon().start(this::writeBatches);
+    }
+
+    static Path segmentFile(Path directory, long segment) {
+        return directory.resolve("journal-" + segment + ".log");
+    }
+
+    /**
+     * Queues the complete records of {@code records} for writing
+     *
+     * @return a ticket to pass to {@link #awaitDurable(long)}
+     */
+    long append(RecordBuffer records) {
+        lock.lock();
+        try {
+            checkOpen();
+            Batch batch = batches.peekLast();
+            if (batch == null || batch.segment != segment) {
+                batch = new Batch(segment, new RecordBuffer(Math.max(BATCH_BYTES, records.size())));
+                batches.addLast(batch);
+            }
+            batch.records.putRecords(records);
+            appended += records.records();
+            if (flushIntervalNanos == 0) {
+                pending.signal();
+            }
+            return appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Fails if records can no longer be appended, so a caller may check before making the change they record
+     */
+    void checkWritable() {
+        lock.lock();
+        try {
+            checkOpen();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until every record up to the ticket is on disk
+     */
+    void awaitDurable(long ticket) {
+        lock.lock();
+        try {
+            while (durable < ticket) {
+                checkFailure();
+                written.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts a new segment. Records appended before the call are in older segments, the ones after it in the new
+     * segment, which is open once this returns.
+     *
+     * @return the number of the new segment
+     */
+    long rotate() {
+        lock.lock();
+        try {
+            checkOpen();
+            segment++;
+            batches.addLast(new Batch(segment, new RecordBuffer(BATCH_BYTES)));
+            pending.signal();
+            while (openSegment < segment) {
+                checkFailure();
+                written.awaitUninterruptibly();
+            }
+            return segment;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeBatches() {
+        Throwable stopped = null;
+        try {
+            while (true) {
+                ArrayDeque<Batch> drained;
+                long upTo;
+                lock.lock();
+                try {
+                    if (flushIntervalNanos > 0 && !closed) {
+                        // Woken early only by rotate and close
+                        pending.awaitNanos(flushIntervalNanos);
+                    }
+                    while (batches.isEmpty() && !closed) {
+                        if (flushIntervalNanos > 0) {
+                            pending.awaitNanos(flushIntervalNanos);
+                        } else {
+                            pending.awaitUninterruptibly();
+                        }
+                    }
+                    if (batches.isEmpty()) {
+                        return;
+                    }
+                    drained = batches;
+                    batches = new ArrayDeque<>();
+                    upTo = appended;
+                } finally {
+                    lock.unlock();
+                }
+
+                for (Batch batch : drained) {
+                    if (channel == null || batch.segment != channelSegment) {
+                        openChannel(batch.segment);
+                    }
+                    ByteBuffer bytes = batch.records.contents();
+                    while (bytes.hasRemaining()) {
+                        channel.write(bytes);
+                    }
+                }
+                channel.force(false);
+
+                lock.lock();
+                try {
+                    durable = upTo;
+                    openSegment = channelSegment;
+                    written.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } catch (InterruptedException e) {
+            stopped = e;
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            stopped = e;
+        } catch (RuntimeException | Error e) {
+            stopped = e;
+            throw e;
+        } finally {
+            closeChannel();
+            if (stopped != null) {
+                log.error("Cart journal failed, changes are no longer persisted", stopped);
+                lock.lock();
+                try {
+                    failure = stopped;
+                    written.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    private void openChannel(long newSegment) throws IOException {
+        if (channel != null) {
+            channel.force(false);
+            channel.close();
+        }
+        channel = FileChannel.open(segmentFile(directory, newSegment),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        channelSegment = newSegment;
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Could not close cart journal segment {}", channelSegment, e);
+            }
+        }
+    }
+
+    private void checkOpen() {
+        checkFailure();
+        if (closed) {
+            throw new IllegalStateException("Cart journal is closed");
+        }
+    }
+
+    private void checkFailure() {
+        if (failure instanceof IOException e) {
+            throw new UncheckedIOException("Cart journal failed", e);
+        }
+        if (failure != null) {
+            throw new IllegalStateException("Cart journal writer stopped", failure);
+        }
+    }
+
+    /**
+     * Writes what is pending and stops the writer
+     */
+    @Override
+    public void close() throws InterruptedException {
+        lock.lock();
+        try {
+            closed = true;
+            pending.signal();
+        } finally {
+            lock.unlock();
+        }
+        writer.join();
+    }
+
+    private record Batch(long segment, RecordBuffer records) {
+    }
+}
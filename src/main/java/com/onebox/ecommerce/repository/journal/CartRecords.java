@@ -0,0 +1,93 @@
+package com.onebox.ecommerce.repository.journal;
+
+import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.model.CartProducts;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * Encoding of the journal and snapshot records. An image record carries the whole state of a cart, so replaying
+ * it is idempotent and the snapshot can overlap with the journal that follows it.
+ */
+final class CartRecords {
+
+    // Cart id, last update
+    static final byte CREATE = 1;
+    // Cart id, last update, lines of product id, amount and description. Written before carts had versions,
+    // still read as version 0
+    static final byte UNVERSIONED_IMAGE = 2;
+    // Cart id
+    static final byte DELETE = 3;
+    // Cart id, deleted for inactivity
+    static final byte EXPIRE = 4;
+    // Cart id, last update, version, lines of product id, amount and description
+    static final byte IMAGE = 5;
+
+    private CartRecords() {
+    }
+
+    static void writeCreate(RecordBuffer buffer, Cart cart) {
+        buffer.begin(CREATE);
+        buffer.putInt(cart.getId());
+        writeInstant(buffer, cart.getLastUpdated());
+        buffer.end();
+    }
+
+    static void writeImage(RecordBuffer buffer, Cart cart) {
+        buffer.begin(IMAGE);
+        buffer.putInt(cart.getId());
+        writeInstant(buffer, cart.getLastUpdated());
+        buffer.putLong(cart.getVersion());
+        CartProducts products = cart.getProducts();
+        buffer.putInt(products.size());
+        for (int position = 0; position < products.size(); position++) {
+            buffer.putInt(products.productIdAt(position));
+            buffer.putInt(products.amountAt(position));
+            buffer.putString(products.descriptionAt(position));
+        }
+        buffer.end();
+    }
+
+    static void writeDelete(RecordBuffer buffer, byte type, int cartId) {
+        buffer.begin(type);
+        buffer.putInt(cartId);
+        buffer.end();
+    }
+
+    /**
+     * Reads a CREATE, IMAGE or UNVERSIONED_IMAGE payload, positioned after the type, into a cart
+     */
+    static Cart readCart(ByteBuffer payload, byte type) {
+        Cart cart = new Cart(payload.getInt(), Instant.ofEpochSecond(payload.getLong(), payload.getInt()));
+        if (type == IMAGE) {
+            cart.setVersion(payload.getLong());
+        }
+        if (type != CREATE) {
+            CartProducts products = cart.getProducts();
+            int lines = payload.getInt();
+            for (int line = 0; line < lines; line++) {
+                int productId = payload.getInt();
+                int amount = payload.getInt();
+                products.put(productId, readString(payload), amount);
+            }
+        }
+        return cart;
+    }
+
+    private static void writeInstant(RecordBuffer buffer, Instant instant) {
+        buffer.putLong(instant.getEpochSecond());
+        buffer.putInt(instant.getNano());
+    }
+
+    private static String readString(ByteBuffer payload) {
+        int length = payload.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
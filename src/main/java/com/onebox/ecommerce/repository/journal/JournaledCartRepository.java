@@ -0,0 +1,358 @@
+package com.onebox.ecommerce.repository.journal;
+
+import com.onebox.ecommerce.config.CartProperties;
+import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.repository.CartRepository;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Makes any CartRepository survive restarts, enabled with {@code cart.journal.enabled=true}. Every change is
+ * appended to a journal on disk (see CartJournal), and a snapshot of all carts is written periodically so the
+ * journal can be truncated. On startup the latest snapshot is loaded and the journal written after it replayed.
+ * <p>
+ * With {@code cart.journal.await-fsync=true} (default) a call returns only once its change is on disk. Otherwise
+ * it returns right away, the journal is flushed every {@code cart.journal.flush-interval} and a crash may lose the
+ * changes of the last interval.
+ * <p>
+ * Once the journal has failed, every call is rejected before it touches a cart. Changes are only journaled after
+ * they are made, so a change made anyway would be applied and published to listeners while its caller is told it
+ * failed. {@code withCart} cannot tell reads from changes beforehand, so reads through it are rejected as well.
+ * <p>
+ * Files in the directory: {@code snapshot-N.bin} holds every cart as of the moment segment N was started, and
+ * {@code journal-N.log} the changes made while segment N was current.
+ */
+@Log4j2
+public class JournaledCartRepository implements CartRepository, AutoCloseable {
+
+    private static final Pattern SEGMENT_FILE = Pattern.compile("journal-(\\d+)\\.log");
+    private static final Pattern SNAPSHOT_FILE = Pattern.compile("snapshot-(\\d+)\\.bin");
+
+    // Snapshot records are copied into the mapped file a batch at a time, outside the cart locks
+    private static final int BATCH_BYTES = 1 << 20;
+
+    private final CartRepository delegate;
+    private final Path directory;
+    private final boolean awaitFsync;
+    private final CartJournal journal;
+    private final ReentrantLock snapshotLock = new ReentrantLock();
+
+    public JournaledCartRepository(CartRepository delegate, CartProperties.Journal properties) throws IOException {
+        this.delegate = delegate;
+        this.directory = properties.getDirectory();
+        this.awaitFsync = properties.isAwaitFsync();
+        Files.createDirectories(directory);
+        long lastSegment = recover();
+        this.journal = new CartJournal(directory, lastSegment + 1,
+                awaitFsync ? Duration.ZERO : properties.getFlushInterval());
+    }
+
+    @Override
+    public Cart createCart(IntPredicate acceptId) {
+        journal.checkWritable();
+        Cart cart = delegate.createCart(acceptId);
+        RecordBuffer records = scratch();
+        CartRecords.writeCreate(records, cart);
+        awaitDurable(journal.append(records));
+        return cart;
+    }
+
+    @Override
+    public <T> T withCart(int cartId, Function<Cart, T> action) {
+        journal.checkWritable();
+        long[] ticket = new long[1];
+        T result = delegate.withCart(cartId, cart -> {
+            int modCount = cart.getProducts().modCount();
+            Instant lastUpdated = cart.getLastUpdated();
+            long version = cart.getVersion();
+            T actionResult = action.apply(cart);
+            if (modCount != cart.getProducts().modCount() || !lastUpdated.equals(cart.getLastUpdated())
+                    || version != cart.getVersion()) {
+                // Appended under the cart's lock, so the journal sees the changes of a cart in order
+                RecordBuffer records = scratch();
+                CartRecords.writeImage(records, cart);
+                ticket[0] = journal.append(records);
+            }
+            return actionResult;
+        });
+        awaitDurable(ticket[0]);
+        return result;
+    }
+
+    @Override
+    public void restoreCart(Cart cart) {
+        journal.checkWritable();
+        delegate.restoreCart(cart);
+        RecordBuffer records = scratch();
+        CartRecords.writeImage(records, cart);
+        awaitDurable(journal.append(records));
+    }
+
+    @Override
+    public boolean deleteCart(int cartId) {
+        journal.checkWritable();
+        return delete(delegate.deleteCart(cartId), CartRecords.DELETE, cartId);
+    }
+
+    @Override
+    public boolean deleteCartIfInactive(int cartId, Instant cutoff) {
+        journal.checkWritable();
+        return delete(delegate.deleteCartIfInactive(cartId, cutoff), CartRecords.EXPIRE, cartId);
+    }
+
+    @Override
+    public int count() {
+        return delegate.count();
+    }
+
+    @Override
+    public long lineCount() {
+        return delegate.lineCount();
+    }
+
+    @Override
+    public long estimatedBytes() {
+        return delegate.estimatedBytes();
+    }
+
+    @Override
+    public void forEachCartId(IntConsumer action) {
+        delegate.forEachCartId(action);
+    }
+
+    /**
+     * Writes a snapshot of every cart and drops the journal segments and snapshots it supersedes
+     */
+    @Scheduled(fixedDelayString = "${cart.journal.snapshot-interval:10m}",
+            initialDelayString = "${cart.journal.snapshot-interval:10m}")
+    public void snapshot() {
+        snapshotLock.lock();
+        try {
+            long start = System.nanoTime();
+            // Changes made while the snapshot is written land in the new segment too, replaying them is harmless
+            long segment = journal.rotate();
+            Path temporary = directory.resolve("snapshot-" + segment + ".tmp");
+            int carts;
+            try (SnapshotWriter writer = new SnapshotWriter(temporary)) {
+                RecordBuffer records = new RecordBuffer(BATCH_BYTES);
+                delegate.forEachCartId(cartId -> {
+                    delegate.withCart(cartId, cart -> {
+                        CartRecords.writeImage(records, cart);
+                        return null;
+                    });
+                    if (records.size() >= BATCH_BYTES) {
+                        writeSnapshotRecords(writer, records);
+                    }
+                });
+                writeSnapshotRecords(writer, records);
+                writer.finish();
+                carts = writer.carts();
+            }
+            Files.move(temporary, directory.resolve("snapshot-" + segment + ".bin"), StandardCopyOption.ATOMIC_MOVE);
+            deleteFilesBefore(segment);
+            log.info("Cart snapshot {} written with {} carts in {} ms", segment, carts,
+                    (System.nanoTime() - start) / 1_000_000);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write cart snapshot", e);
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    /**
+     * Snapshots, so the next start does not have to replay the journal, and stops the journal
+     */
+    @Override
+    public void close() throws InterruptedException {
+        try {
+            snapshot();
+        } catch (RuntimeException e) {
+            log.error("Could not snapshot carts on shutdown, the journal will be replayed instead", e);
+        }
+        journal.close();
+    }
+
+    private static void writeSnapshotRecords(SnapshotWriter writer, RecordBuffer records) {
+        try {
+            writer.write(records);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        records.clear();
+    }
+
+    private boolean delete(boolean deleted, byte type, int cartId) {
+        // Nothing can change a deleted cart any more, so the record may follow the delete outside its lock
+        if (deleted) {
+            RecordBuffer records = scratch();
+            CartRecords.writeDelete(records, type, cartId);
+            awaitDurable(journal.append(records));
+        }
+        return deleted;
+    }
+
+    private void awaitDurable(long ticket) {
+        if (awaitFsync && ticket > 0) {
+            journal.awaitDurable(ticket);
+        }
+    }
+
+    // A fresh buffer per change: with virtual threads every request runs on a new thread, so a thread local
+    // cache would allocate just as much and keep it reachable longer
+    private static RecordBuffer scratch() {
+        return new RecordBuffer(256);
+    }
+
+    /**
+     * Loads the latest snapshot and replays the journal segments from it on
+     *
+     * @return the highest segment found on disk
+     */
+    private long recover() throws IOException {
+        long start = System.nanoTime();
+        try (Stream<Path> leftovers = Files.list(directory)) {
+            for (Path leftover : leftovers.filter(file -> file.toString().endsWith(".tmp")).toList()) {
+                Files.delete(leftover);
+            }
+        }
+        List<Long> snapshots = numberedFiles(SNAPSHOT_FILE);
+        List<Long> segments = numberedFiles(SEGMENT_FILE);
+        long snapshot = snapshots.isEmpty() ? 0 : snapshots.get(snapshots.size() - 1);
+
+        int maxCartId = 0;
+        int carts = 0;
+        if (snapshot > 0) {
+            maxCartId = loadSnapshot(directory.resolve("snapshot-" + snapshot + ".bin"));
+            carts = delegate.count();
+        }
+        long records = 0;
+        for (long segment : segments) {
+            if (segment >= snapshot) {
+                long[] replayed = replay(CartJournal.segmentFile(directory, segment));
+                maxCartId = Math.max(maxCartId, (int) replayed[0]);
+                records += replayed[1];
+            }
+        }
+        Cart.reserveIdsThrough(maxCartId);
+
+        long lastSegment = Math.max(snapshot, segments.isEmpty() ? 0 : segments.get(segments.size() - 1));
+        log.info("Recovered {} carts from {} ({} from snapshot {}, {} journal records) in {} ms",
+                delegate.count(), directory, carts, snapshot, records, (System.nanoTime() - start) / 1_000_000);
+        return lastSegment;
+    }
+
+    // Returns the highest cart id
+    private int loadSnapshot(Path file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(SnapshotWriter.HEADER_BYTES);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // reads the whole header
+            }
+        }
+        header.flip();
+        if (header.remaining() < SnapshotWriter.HEADER_BYTES || header.getInt() != SnapshotWriter.MAGIC) {
+            throw new IOException("Not a cart snapshot: " + file);
+        }
+        int version = header.getInt();
+        if (version < 1 || version > SnapshotWriter.VERSION) {
+            throw new IOException("Unsupported cart snapshot version " + version + ": " + file);
+        }
+        int carts = header.getInt();
+        int maxCartId = 0;
+        try (RecordReader reader = new RecordReader(file, SnapshotWriter.HEADER_BYTES)) {
+            for (int i = 0; i < carts; i++) {
+                ByteBuffer payload = reader.next();
+                byte type = payload == null ? 0 : payload.get();
+                if (type != CartRecords.IMAGE && type != CartRecords.UNVERSIONED_IMAGE) {
+                    throw new IOException("Corrupt cart snapshot " + file + " at cart " + i);
+                }
+                Cart cart = CartRecords.readCart(payload, type);
+                delegate.restoreCart(cart);
+                maxCartId = Math.max(maxCartId, cart.getId());
+            }
+        }
+        return maxCartId;
+    }
+
+    // Returns the highest cart id and the number of records
+    private long[] replay(Path file) throws IOException {
+        int maxCartId = 0;
+        long records = 0;
+        try (RecordReader reader = new RecordReader(file, 0)) {
+            ByteBuffer payload;
+            while ((payload = reader.next()) != null) {
+                byte type = payload.get();
+                int cartId;
+                switch (type) {
+                    case CartRecords.CREATE -> {
+                        Cart cart = CartRecords.readCart(payload, type);
+                        cartId = cart.getId();
+                        // The snapshot may already hold the cart with products
+                        if (delegate.withCart(cartId, existing -> Boolean.TRUE) == null) {
+                            delegate.restoreCart(cart);
+                        }
+                    }
+                    case CartRecords.IMAGE, CartRecords.UNVERSIONED_IMAGE -> {
+                        Cart cart = CartRecords.readCart(payload, type);
+                        cartId = cart.getId();
+                        delegate.restoreCart(cart);
+                    }
+                    case CartRecords.DELETE, CartRecords.EXPIRE -> {
+                        cartId = payload.getInt();
+                        delegate.deleteCart(cartId);
+                    }
+                    default -> throw new IOException("Unknown record type " + type + " in " + file);
+                }
+                maxCartId = Math.max(maxCartId, cartId);
+                records++;
+            }
+            if (reader.position() < reader.size()) {
+                // A crash in the middle of a write, nothing after it was acknowledged
+                log.warn("Ignoring {} bytes of torn journal tail in {}", reader.size() - reader.position(), file);
+            }
+        }
+        return new long[]{maxCartId, records};
+    }
+
+    private List<Long> numberedFiles(Pattern pattern) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> pattern.matcher(file.getFileName().toString()))
+                    .filter(Matcher::matches)
+                    .map(matcher -> Long.parseLong(matcher.group(1)))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private void deleteFilesBefore(long segment) throws IOException {
+        for (long older : numberedFiles(SEGMENT_FILE)) {
+            if (older < segment) {
+                Files.deleteIfExists(CartJournal.segmentFile(directory, older));
+            }
+        }
+        for (long older : numberedFiles(SNAPSHOT_FILE)) {
+            if (older < segment) {
+                Files.deleteIfExists(directory.resolve("snapshot-" + older + ".bin"));
+            }
+        }
+    }
+}
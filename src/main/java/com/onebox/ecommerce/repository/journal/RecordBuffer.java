@@ -0,0 +1,112 @@
+package com.onebox.ecommerce.repository.journal;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * Growable byte array records are encoded into. A record is framed as {@code [int length][payload][int crc]},
+ * where the payload starts with the record type and the CRC-32C covers the payload, so a torn or corrupt tail
+ * is detected on recovery. Values are big endian, like ByteBuffer reads them back. Not thread safe.
+ */
+final class RecordBuffer {
+
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private byte[] bytes;
+    private int size;
+    private int recordStart;
+    private int records;
+
+    RecordBuffer(int capacity) {
+        this.bytes = new byte[capacity];
+    }
+
+    void begin(byte type) {
+        recordStart = size;
+        ensure(5);
+        size += 4;
+        bytes[size++] = type;
+    }
+
+    void end() {
+        int length = size - recordStart - 4;
+        INT.set(bytes, recordStart, length);
+        CRC32C crc = new CRC32C();
+        crc.update(bytes, recordStart + 4, length);
+        putInt((int) crc.getValue());
+        records++;
+    }
+
+    void putInt(int value) {
+        ensure(4);
+        INT.set(bytes, size, value);
+        size += 4;
+    }
+
+    void putLong(long value) {
+        ensure(8);
+        LONG.set(bytes, size, value);
+        size += 8;
+    }
+
+    /**
+     * Writes the UTF-8 bytes prefixed by their length, -1 standing for {@code null}
+     */
+    void putString(String value) {
+        if (value == null) {
+            putInt(-1);
+            return;
+        }
+        byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+        putInt(encoded.length);
+        ensure(encoded.length);
+        System.arraycopy(encoded, 0, bytes, size, encoded.length);
+        size += encoded.length;
+    }
+
+    /**
+     * Appends the complete records of another buffer
+     */
+    void putRecords(RecordBuffer other) {
+        ensure(other.size);
+        System.arraycopy(other.bytes, 0, bytes, size, other.size);
+        size += other.size;
+        records += other.records;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int records() {
+        return records;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        size = 0;
+        records = 0;
+    }
+
+    /**
+     * @return a buffer over the encoded bytes, valid until the next change
+     */
+    ByteBuffer contents() {
+        return ByteBuffer.wrap(bytes, 0, size);
+    }
+
+    private void ensure(int extra) {
+        if (size + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(size + extra, bytes.length * 2));
+        }
+    }
+}
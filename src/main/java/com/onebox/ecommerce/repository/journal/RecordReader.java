@@ -0,0 +1,77 @@
+package com.onebox.ecommerce.repository.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Reads records framed by RecordBuffer from a memory-mapped file, a window at a time so files over 2 GB work.
+ */
+final class RecordReader implements AutoCloseable {
+
+    private static final int WINDOW_BYTES = 64 << 20;
+
+    private final FileChannel channel;
+    private final long size;
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    RecordReader(Path file, long offset) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.size = channel.size();
+        this.windowStart = offset;
+    }
+
+    /**
+     * @return the payload of the next record, starting with its type, or {@code null} at the end of the file or at
+     * a torn or corrupt record
+     */
+    ByteBuffer next() throws IOException {
+        if (!ensure(4)) {
+            return null;
+        }
+        int length = window.getInt();
+        if (length <= 0 || !ensure((long) length + 4)) {
+            return null;
+        }
+        ByteBuffer payload = window.slice(window.position(), length);
+        window.position(window.position() + length);
+        CRC32C crc = new CRC32C();
+        crc.update(payload.duplicate());
+        if ((int) crc.getValue() != window.getInt()) {
+            return null;
+        }
+        return payload;
+    }
+
+    long position() {
+        return window == null ? windowStart : windowStart + window.position();
+    }
+
+    long size() {
+        return size;
+    }
+
+    private boolean ensure(long bytes) throws IOException {
+        if (window != null && window.remaining() >= bytes) {
+            return true;
+        }
+        long position = position();
+        if (position + bytes > size) {
+            return false;
+        }
+        windowStart = position;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                Math.min(size - position, Math.max(WINDOW_BYTES, bytes)));
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,209 @@
+package com.onebox.ecommerce.repository.transfer;
+
+import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.model.CartProducts;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Reads back the carts of a file written by CartExportWriter, one at a time through a direct buffer refilled from
+ * the file channel, so files far larger than the heap stream through it. The trailer is only checked once every
+ * cart was read: run {@link #verify(Path)} first to reject a truncated or corrupt file before importing any of it.
+ * Not thread safe.
+ */
+public final class CartExportReader implements AutoCloseable {
+
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final CRC32C crc = new CRC32C();
+    private final List<String> descriptions = new ArrayList<>();
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).flip();
+    // Start of the bytes of the buffer not added to the CRC yet
+    private int unchecked;
+    private int previousCartId;
+    private int maxCartId;
+    private long carts;
+    private long lines;
+    private boolean ended;
+
+    public CartExportReader(Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ensure(8);
+            int magic = buffer.getInt();
+            int version = buffer.getInt();
+            if (magic != CartExportWriter.MAGIC || version != CartExportWriter.VERSION) {
+                throw new IOException(file + " is not a cart export of format version " + CartExportWriter.VERSION);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the whole file and checks its trailer
+     */
+    public static Contents verify(Path file) throws IOException {
+        try (CartExportReader reader = new CartExportReader(file)) {
+            while (reader.next() != null) {
+                // only decoded to be checked
+            }
+            return new Contents(reader.carts, reader.lines, reader.maxCartId);
+        }
+    }
+
+    /**
+     * @return the next cart, or null once the trailer was read and matched what came before it
+     */
+    public Cart next() throws IOException {
+        while (!ended) {
+            ensure(1);
+            byte type = buffer.get();
+            switch (type) {
+                case CartExportWriter.DESCRIPTION -> {
+                    int length = varint();
+                    if (length < 0) {
+                        throw new IOException("Malformed description length in " + file);
+                    }
+                    ensure(length);
+                    byte[] utf8 = new byte[length];
+                    buffer.get(utf8);
+                    descriptions.add(new String(utf8, StandardCharsets.UTF_8));
+                }
+                case CartExportWriter.CART -> {
+                    return readCart();
+                }
+                case CartExportWriter.END -> readTrailer();
+                default -> throw new IOException("Unknown record type " + type + " in " + file);
+            }
+        }
+        return null;
+    }
+
+    public long carts() {
+        return carts;
+    }
+
+    public long lines() {
+        return lines;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private Cart readCart() throws IOException {
+        int cartId = previousCartId + unzigzag(varint());
+        Instant lastUpdated = Instant.ofEpochSecond(unzigzag(varlong()), varint());
+        Cart cart = new Cart(cartId, lastUpdated);
+        cart.setVersion(varlong());
+        int lineCount = varint();
+        CartProducts products = cart.getProducts();
+        for (int line = 0; line < lineCount; line++) {
+            int productId = unzigzag(varint());
+            int amount = unzigzag(varint());
+            int description = varint();
+            if (description < 0 || description > descriptions.size()) {
+                throw new IOException("Unknown description " + description + " in " + file);
+            }
+            products.put(productId, description == 0 ? null : descriptions.get(description - 1), amount);
+        }
+        previousCartId = cartId;
+        maxCartId = Math.max(maxCartId, cartId);
+        carts++;
+        lines += lineCount;
+        return cart;
+    }
+
+    private void readTrailer() throws IOException {
+        long expectedCarts = varlong();
+        long expectedLines = varlong();
+        checksum();
+        ensure(4);
+        int expectedCrc = buffer.getInt();
+        if (expectedCarts != carts || expectedLines != lines || expectedCrc != (int) crc.getValue()) {
+            throw new IOException(file + " is corrupt: its trailer does not match its contents");
+        }
+        ended = true;
+    }
+
+    // Refills the buffer until it holds at least length unread bytes
+    private void ensure(int length) throws IOException {
+        if (buffer.remaining() >= length) {
+            return;
+        }
+        checksum();
+        if (length > buffer.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocateDirect(length);
+            larger.put(buffer);
+            buffer = larger;
+        } else {
+            buffer.compact();
+        }
+        unchecked = 0;
+        while (buffer.position() < length) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException(file + " is truncated");
+            }
+        }
+        buffer.flip();
+    }
+
+    private void checksum() {
+        ByteBuffer read = buffer.duplicate();
+        read.position(unchecked).limit(buffer.position());
+        crc.update(read);
+        unchecked = buffer.position();
+    }
+
+    private int varint() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            ensure(1);
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in " + file);
+    }
+
+    private long varlong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            ensure(1);
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in " + file);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public record Contents(long carts, long lines, int maxCartId) {
+    }
+}
@@ -0,0 +1,187 @@
+package com.onebox.ecommerce.repository.transfer;
+
+import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.model.CartProductsSnapshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Streams carts into an export file, the format moving a cart population between instances:
+ * <pre>
+ * header       int magic "CEXP", int format version
+ * DESCRIPTION  byte 1, varint length, UTF-8 bytes; numbered 1, 2, ... in order of appearance
+ * CART         byte 2, zigzag varint id delta from the previous cart, zigzag varlong epoch second, varint nanos,
+ *              varlong version, varint lines, then per line zigzag varint product id, zigzag varint amount and
+ *              varint description number (0 for none)
+ * END          byte 0, varlong carts, varlong lines, int CRC-32C of every byte before it
+ * </pre>
+ * Every description is written once, before the first cart that uses it, so neither side ever holds more than the
+ * distinct descriptions in memory, however many carts there are. Carts are ids ascending in practice, which makes
+ * most id deltas a single byte.
+ * <p>
+ * Lines of catalog products are exported with the catalog's description, which the caller fills into the lines it
+ * passes: the file is self-contained, and imports into an instance without the catalog, or with another one, keep
+ * every description.
+ * <p>
+ * Records are staged in a direct buffer and written to the file channel from there, without a copy through the
+ * heap. Appending never does I/O, so {@link #append(Cart)} can run under the cart's lock; {@link #flushIfFull()}
+ * writes the staged records and belongs outside it. Not thread safe.
+ */
+public final class CartExportWriter implements AutoCloseable {
+
+    static final int MAGIC = 0x43455850; // "CEXP"
+    static final int VERSION = 1;
+
+    static final byte END = 0;
+    static final byte DESCRIPTION = 1;
+    static final byte CART = 2;
+
+    private static final int FLUSH_BYTES = 1 << 20;
+
+    private final FileChannel channel;
+    private final CRC32C crc = new CRC32C();
+    private final Map<String, Integer> descriptions = new HashMap<>();
+    private ByteBuffer staged = ByteBuffer.allocateDirect(2 * FLUSH_BYTES);
+    private int previousCartId;
+    private long carts;
+    private long lines;
+    private long bytes;
+
+    public CartExportWriter(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        staged.putInt(MAGIC).putInt(VERSION);
+    }
+
+    /**
+     * Encodes the cart. Must run under the cart's lock, or on a cart nobody else can reach.
+     */
+    public void append(Cart cart) {
+        append(cart.getId(), cart.getLastUpdated(), cart.getVersion(), cart.getProducts().snapshot());
+    }
+
+    /**
+     * Encodes a copy of a cart taken under its lock
+     */
+    public void append(int cartId, Instant lastUpdated, long version, CartProductsSnapshot products) {
+        for (int position = 0; position < products.size(); position++) {
+            String description = products.descriptionAt(position);
+            if (description != null && !descriptions.containsKey(description)) {
+                byte[] utf8 = description.getBytes(StandardCharsets.UTF_8);
+                reserve(1 + 5 + utf8.length);
+                staged.put(DESCRIPTION);
+                putVarint(utf8.length);
+                staged.put(utf8);
+                descriptions.put(description, descriptions.size() + 1);
+            }
+        }
+
+        reserve(1 + 5 + 10 + 5 + 10 + 5 + products.size() * 15);
+        staged.put(CART);
+        putVarint(zigzag(cartId - previousCartId));
+        putVarlong(zigzag(lastUpdated.getEpochSecond()));
+        putVarint(lastUpdated.getNano());
+        putVarlong(version);
+        putVarint(products.size());
+        for (int position = 0; position < products.size(); position++) {
+            putVarint(zigzag(products.productIdAt(position)));
+            putVarint(zigzag(products.amountAt(position)));
+            String description = products.descriptionAt(position);
+            putVarint(description == null ? 0 : descriptions.get(description));
+        }
+        previousCartId = cartId;
+        carts++;
+        lines += products.size();
+    }
+
+    /**
+     * Writes the staged records to the file once there are enough of them to make a write worth it
+     */
+    public void flushIfFull() throws IOException {
+        if (staged.position() >= FLUSH_BYTES) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the trailer and forces the file to disk. The file is only importable once this returns.
+     */
+    public void finish() throws IOException {
+        reserve(1 + 10 + 10);
+        staged.put(END);
+        putVarlong(carts);
+        putVarlong(lines);
+        flush();
+        staged.putInt((int) crc.getValue());
+        flush();
+        channel.force(true);
+    }
+
+    public long carts() {
+        return carts;
+    }
+
+    public long lines() {
+        return lines;
+    }
+
+    public long bytes() {
+        return bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void flush() throws IOException {
+        staged.flip();
+        crc.update(staged.duplicate());
+        while (staged.hasRemaining()) {
+            bytes += channel.write(staged);
+        }
+        staged.clear();
+    }
+
+    // Grows the staging buffer instead of writing, so append stays free of I/O
+    private void reserve(int length) {
+        if (staged.remaining() < length) {
+            ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(staged.capacity() * 2, staged.position() + length));
+            larger.put(staged.flip());
+            staged = larger;
+        }
+    }
+
+    private void putVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            staged.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        staged.put((byte) value);
+    }
+
+    private void putVarlong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            staged.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        staged.put((byte) value);
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+}
@@ -0,0 +1,81 @@
+package com.onebox.ecommerce.service;
+
+import com.onebox.ecommerce.config.CartProperties;
+import com.onebox.ecommerce.exception.CartServiceCustomException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides whether a request gets served at all, before it reads its body or touches a cart: a client over its rate
+ * gets 429 and a request beyond {@code cart.limits.max-concurrent-requests} gets 503, both with Retry-After. Turning
+ * requests away at the door keeps latency flat for everyone else, where queueing them would let one client fill the
+ * heap and the thread pool. Every admitted request must be released once it completes.
+ */
+@Component
+public class CartAdmissionControl {
+
+    // Buckets tracked before idle ones are dropped, a few MB at most
+    private static final int MAX_CLIENTS = 100_000;
+
+    // Retry-After of a request turned away for concurrency; requests take milliseconds, so any wait will do
+    private static final Duration OVERLOADED_RETRY_AFTER = Duration.ofSeconds(1);
+
+    private final ClientRateLimiter rateLimiter;
+    private final String clientHeader;
+    private final int maxConcurrentRequests;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    @Autowired
+    public CartAdmissionControl(CartProperties cartProperties) {
+        CartProperties.Limits limits = cartProperties.getLimits();
+        this.rateLimiter = limits.getRequestsPerSecond() > 0
+                ? new ClientRateLimiter(limits.getRequestsPerSecond(), limits.getBurst(), MAX_CLIENTS)
+                : null;
+        this.maxConcurrentRequests = limits.getMaxConcurrentRequests();
+        this.clientHeader = limits.getClientHeader() == null || limits.getClientHeader().isEmpty()
+                ? null : limits.getClientHeader();
+    }
+
+    /**
+     * @return the header naming the client of a request, or null to go by its remote address
+     */
+    public String clientHeader() {
+        return clientHeader;
+    }
+
+    /**
+     * @throws CartServiceCustomException with 429 if the client is over its rate, or 503 if too many requests are
+     *                                    in progress
+     */
+    public void admit(String client) {
+        if (rateLimiter != null) {
+            long waitNanos = rateLimiter.tryAcquire(client, System.nanoTime());
+            if (waitNanos > 0) {
+                throw new CartServiceCustomException("Too many requests from " + client, "RATE_LIMITED",
+                        HttpStatus.TOO_MANY_REQUESTS, Duration.ofNanos(waitNanos));
+            }
+        }
+        if (maxConcurrentRequests > 0 && inFlight.incrementAndGet() > maxConcurrentRequests) {
+            inFlight.decrementAndGet();
+            throw new CartServiceCustomException("Too many requests in progress, try again shortly", "OVERLOADED",
+                    HttpStatus.SERVICE_UNAVAILABLE, OVERLOADED_RETRY_AFTER);
+        }
+    }
+
+    /**
+     * Ends a request {@link #admit(String)} let through
+     */
+    public void release() {
+        if (maxConcurrentRequests > 0) {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+}
@@ -0,0 +1,52 @@
+package com.onebox.ecommerce.service;
+
+import com.onebox.ecommerce.model.Product;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A change CartServiceImpl made to a cart, passed to every CartChangeListener. Listeners may keep it and read it from
+ * other threads, CartChangeLog does, so it holds copies of the lines it was made with: the caller goes on to use its
+ * own, e.g. filling in catalog descriptions once the cart's lock is released.
+ *
+ * @param version the cart's version after the change, -1 for deleted and expired carts
+ * @param timestamp the cart's last update after the change, when it was deleted for deleted and expired carts
+ * @param products lines added or changed, with their amounts after the change, keyed by product ID. Descriptions of
+ * catalog products are null. Empty but for updates
+ * @param removed IDs of the products whose lines were removed, empty but for updates
+ */
+public record CartChange(Type type, int cartId, long version, Instant timestamp, Map<Integer, Product> products,
+                         List<Integer> removed) {
+
+    public CartChange {
+        products = copyOf(products);
+        removed = List.copyOf(removed);
+    }
+
+    public enum Type {
+        CREATED,
+        // Products added or lines changed
+        UPDATED,
+        DELETED,
+        // Deleted by deleteInactiveCarts
+        EXPIRED
+    }
+
+    // Adds may name products with no line, which changed nothing and are left out
+    private static Map<Integer, Product> copyOf(Map<Integer, Product> products) {
+        if (products.isEmpty()) {
+            return Map.of();
+        }
+        Map<Integer, Product> lines = new LinkedHashMap<>();
+        products.forEach((productId, product) -> {
+            if (product != null) {
+                lines.put(productId, new Product(product.getId(), product.getDescription(), product.getAmount()));
+            }
+        });
+        return Collections.unmodifiableMap(lines);
+    }
+}
@@ -0,0 +1,12 @@
+package com.onebox.ecommerce.service;
+
+/**
+ * Told about every change CartServiceImpl makes to a cart, e.g. to invalidate copies of it elsewhere. Every bean
+ * implementing it is called on the request thread, while the cart is still locked for creates and updates, so the
+ * changes of one cart arrive in the order they were made. It must be quick and never block: anything slow belongs
+ * on a queue of its own.
+ */
+public interface CartChangeListener {
+
+    void onCartChange(CartChange change);
+}
@@ -0,0 +1,107 @@
+package com.onebox.ecommerce.service;
+
+import com.onebox.ecommerce.config.CartProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The latest changes made to carts on this node, numbered from 1 in the order they were made, for the change streams
+ * of {@code GET /carts/changes} to read at their own pace. A ring of {@code cart.changes.buffer-size} slots: a change
+ * costs the request thread a sequence number and a slot write, never a lock, whatever the readers do, and a reader
+ * that falls further behind than the ring holds is told how many changes it missed instead of slowing writers down.
+ * <p>
+ * Numbers restart from 1 with the application, so a reader resuming from a number this log never gave out is told
+ * it missed an unknown number of changes.
+ */
+@Component
+public class CartChangeLog implements CartChangeListener {
+
+    public record Event(long sequence, CartChange change) {
+    }
+
+    /**
+     * @param events changes read, in order
+     * @param next sequence number to read from next
+     * @param missed changes no longer in the log that the reader skipped before these events, -1 if unknown
+     */
+    public record Batch(List<Event> events, long next, long missed) {
+
+        public boolean isEmpty() {
+            return events.isEmpty() && missed == 0;
+        }
+    }
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<Event> slots;
+    // Last sequence number given out, its event may not be in its slot yet
+    private final AtomicLong sequence = new AtomicLong();
+
+    public CartChangeLog(CartProperties cartProperties) {
+        int bufferSize = Math.max(2, cartProperties.getChanges().getBufferSize());
+        this.capacity = Integer.highestOneBit(bufferSize - 1) << 1;
+        this.mask = capacity - 1;
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    @Override
+    public void onCartChange(CartChange change) {
+        long next = sequence.incrementAndGet();
+        slots.set(index(next), new Event(next, change));
+    }
+
+    /**
+     * @return sequence number the next change gets
+     */
+    public long next() {
+        return sequence.get() + 1;
+    }
+
+    /**
+     * Reads changes from {@code from} on. Stops early at a change whose writer has taken its number but not written
+     * it yet, to be read on the next call.
+     *
+     * @param from sequence number of the first change to read
+     * @param max changes read at most
+     */
+    public Batch read(long from, int max) {
+        long last = sequence.get();
+        if (from > last + 1) {
+            return new Batch(List.of(), last + 1, -1);
+        }
+        long next = Math.max(1, from);
+        if (next > last) {
+            return new Batch(List.of(), next, 0);
+        }
+        List<Event> events = new ArrayList<>((int) Math.min(max, Math.min(last - next + 1, capacity)));
+        long missed = 0;
+        while (next <= last && events.size() < max) {
+            Event event = slots.get(index(next));
+            if (event == null || event.sequence() < next) {
+                break;
+            }
+            if (event.sequence() > next) {
+                // Overwritten, continue from the oldest change still in the ring
+                long oldest = sequence.get() - capacity + 1;
+                missed += oldest - next;
+                next = oldest;
+                continue;
+            }
+            events.add(event);
+            next++;
+        }
+        return new Batch(events, next, missed);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence & mask);
+    }
+}
@@ -0,0 +1,55 @@
+package com.onebox.ecommerce.service;
+
+import com.onebox.ecommerce.config.CartProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * How long carts may stay inactive, given how full the heap is. Up to the high watermark carts get the configured
+ * {@code cart.eviction.inactivity}; from there the period shrinks linearly with heap usage, down to
+ * {@code min-inactivity} at the critical watermark, and grows back the same way as usage drops. Since the expiry index
+ * is ordered by last update, a shorter period evicts the least recently updated carts first.
+ */
+@Component
+public class CartEvictionPolicy {
+
+    private final CartProperties cartProperties;
+    private final HeapPressureMonitor heapPressureMonitor;
+
+    @Autowired
+    public CartEvictionPolicy(CartProperties cartProperties, HeapPressureMonitor heapPressureMonitor) {
+        CartProperties.Adaptive adaptive = cartProperties.getEviction().getAdaptive();
+        if (adaptive.getHighWatermark() <= 0 || adaptive.getHighWatermark() >= adaptive.getCriticalWatermark()) {
+            throw new IllegalArgumentException("Expected 0 < high watermark < critical watermark, got "
+                    + adaptive.getHighWatermark() + " and " + adaptive.getCriticalWatermark());
+        }
+        this.cartProperties = cartProperties;
+        this.heapPressureMonitor = heapPressureMonitor;
+    }
+
+    /**
+     * @return the inactivity period carts get now, never longer than the configured one
+     */
+    public Duration inactivity() {
+        CartProperties.Eviction eviction = cartProperties.getEviction();
+        Duration configured = eviction.getInactivity();
+        CartProperties.Adaptive adaptive = eviction.getAdaptive();
+        if (!adaptive.isEnabled() || adaptive.getMinInactivity().compareTo(configured) >= 0) {
+            return configured;
+        }
+        double used = heapPressureMonitor.usedAfterGc();
+        if (used <= adaptive.getHighWatermark()) {
+            return configured;
+        }
+        if (used >= adaptive.getCriticalWatermark()) {
+            return adaptive.getMinInactivity();
+        }
+        double shrink = (used - adaptive.getHighWatermark())
+                / (adaptive.getCriticalWatermark() - adaptive.getHighWatermark());
+        long configuredMillis = configured.toMillis();
+        long minMillis = adaptive.getMinInactivity().toMillis();
+        return Duration.ofMillis(configuredMillis - Math.round((configuredMillis - minMillis) * shrink));
+    }
+}
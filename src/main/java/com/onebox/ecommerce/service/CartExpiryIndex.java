@@ -0,0 +1,99 @@
+package com.onebox.ecommerce.service;
+
+import com.onebox.ecommerce.config.CartProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.IntPredicate;
+
+/**
+ * Time-bucketed index of carts by their last update, so eviction only visits carts that are due.
+ * <p>
+ * Every bucket covers one precision window of {@code lastUpdated} values. Touching a cart adds its id
+ * to the bucket of the new timestamp and leaves the old entry behind: stale entries are dropped when
+ * their bucket is swept, because the cart is then either gone or survives the inactivity check. A cart
+ * touched again inside the same window is not re-added, so a busy cart costs at most one entry per
+ * window. Since buckets are keyed by update time rather than by deadline, changing the inactivity
+ * period never requires re-indexing. Old timestamps, as restored or handed off carts bring, may land in
+ * a bucket a sweep is removing; such a touch retries until its entry is in a bucket still in the index.
+ */
+@Component
+public class CartExpiryIndex {
+
+    private final long precisionMillis;
+
+    private final ConcurrentSkipListMap<Long, Set<Integer>> buckets = new ConcurrentSkipListMap<>();
+
+    @Autowired
+    public CartExpiryIndex(CartProperties cartProperties) {
+        this(cartProperties.getEviction().getPrecision());
+    }
+
+    public CartExpiryIndex(Duration precision) {
+        if (precision.toMillis() <= 0) {
+            throw new IllegalArgumentException("Expiry precision must be at least one millisecond: " + precision);
+        }
+        this.precisionMillis = precision.toMillis();
+    }
+
+    /**
+     * Records that the cart was last updated at {@code lastUpdated}.
+     *
+     * @param previous the update time the cart was indexed with before, or {@code null} for a new cart
+     */
+    public void touch(int cartId, Instant previous, Instant lastUpdated) {
+        long bucket = bucketOf(lastUpdated);
+        if (previous != null && bucketOf(previous) == bucket) {
+            return; // already indexed in this window
+        }
+        while (true) {
+            Set<Integer> carts = buckets.computeIfAbsent(bucket, key -> ConcurrentHashMap.newKeySet());
+            carts.add(cartId);
+            // A sweep that detached the bucket before the add may have iterated it already: add again to a fresh one
+            if (buckets.get(bucket) == carts) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes every bucket whose whole window is at or before {@code cutoff} and offers its carts to
+     * {@code expire}, which should delete the cart if it is still inactive.
+     *
+     * @return the number of carts {@code expire} reported as deleted
+     */
+    public int expire(Instant cutoff, IntPredicate expire) {
+        long lastDueBucket = Math.floorDiv(cutoff.toEpochMilli() + 1, precisionMillis) - 1;
+        int expired = 0;
+        Map.Entry<Long, Set<Integer>> bucket;
+        while ((bucket = buckets.firstEntry()) != null && bucket.getKey() <= lastDueBucket) {
+            // A sweep running at the same time may have claimed the bucket first
+            if (!buckets.remove(bucket.getKey(), bucket.getValue())) {
+                continue;
+            }
+            for (int cartId : bucket.getValue()) {
+                if (expire.test(cartId)) {
+                    expired++;
+                }
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * @return the number of entries in the index, including stale ones not swept yet
+     */
+    public long size() {
+        return buckets.values().stream().mapToLong(Set::size).sum();
+    }
+
+    private long bucketOf(Instant instant) {
+        return Math.floorDiv(instant.toEpochMilli(), precisionMillis);
+    }
+}
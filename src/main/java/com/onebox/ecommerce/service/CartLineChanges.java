@@ -0,0 +1,124 @@
+package com.onebox.ecommerce.service;
+
+import com.onebox.ecommerce.exception.CartServiceCustomException;
+import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.model.CartDeltaResponse;
+import com.onebox.ecommerce.model.CartLineChange;
+import com.onebox.ecommerce.model.CartProducts;
+import com.onebox.ecommerce.model.Product;
+import org.springframework.http.HttpStatus;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Applies incremental updates to a cart. The changes are first worked out on copies of the lines they touch, so
+ * an update that turns out invalid halfway, e.g. an amount overflowing, leaves the cart as it was; only then are
+ * they written to the cart. Changes to the same product apply in order.
+ */
+final class CartLineChanges {
+
+    private CartLineChanges() {
+    }
+
+    /**
+     * Rejects changes that are invalid whatever the cart holds, before the cart is locked
+     */
+    static void validate(List<CartLineChange> changes) {
+        for (CartLineChange change : changes) {
+            if (change == null || change.getType() == null || change.getProductId() == null) {
+                throw invalid("Every change needs a type and a productId");
+            }
+            if (change.getType() != CartLineChange.Type.REMOVE
+                    && (change.getAmount() == null || change.getAmount() < 1)) {
+                throw invalid(change.getType() + " of product " + change.getProductId() + " needs an amount of at "
+                        + "least 1");
+            }
+        }
+    }
+
+    /**
+     * Must run under the cart's lock. Gives the cart a new version only if a line actually changed.
+     *
+     * @param maxLines lines the cart may grow to, 0 for no limit; a cart already past it may still shrink
+     * @return the lines that changed
+     */
+    static CartDeltaResponse apply(Cart cart, List<CartLineChange> changes, int maxLines) {
+        CartProducts products = cart.getProducts();
+        Map<Integer, Product> before = new LinkedHashMap<>();
+        Map<Integer, Product> after = new LinkedHashMap<>();
+        for (CartLineChange change : changes) {
+            int productId = change.getProductId();
+            Product current = after.containsKey(productId) ? after.get(productId)
+                    : before.computeIfAbsent(productId, id -> line(products, id));
+            after.put(productId, next(current, change));
+        }
+        if (maxLines > 0) {
+            int growth = 0;
+            for (Map.Entry<Integer, Product> line : after.entrySet()) {
+                boolean held = before.get(line.getKey()) != null;
+                growth += (line.getValue() != null ? 1 : 0) - (held ? 1 : 0);
+            }
+            if (growth > 0 && products.size() + growth > maxLines) {
+                throw CartServiceImpl.tooManyLines(cart.getId(), maxLines);
+            }
+        }
+
+        Map<Integer, Product> changed = new LinkedHashMap<>();
+        List<Integer> removed = new ArrayList<>();
+        after.forEach((productId, line) -> {
+            if (Objects.equals(before.get(productId), line)) {
+                return;
+            }
+            if (line == null) {
+                products.remove(productId);
+                removed.add(productId);
+            } else {
+                products.put(productId, line.getDescription(), line.getAmount());
+                changed.put(productId, line);
+            }
+        });
+        if (!changed.isEmpty() || !removed.isEmpty()) {
+            cart.updateInstant();
+        }
+        return new CartDeltaResponse(cart.getId(), cart.getVersion(), cart.getLastUpdated(), changed, removed);
+    }
+
+    // The line after the change, null if the cart does not hold the product afterwards
+    private static Product next(Product current, CartLineChange change) {
+        int productId = change.getProductId();
+        return switch (change.getType()) {
+            case SET -> new Product(productId, change.getDescription(), change.getAmount());
+            case INCREMENT -> current == null
+                    ? new Product(productId, change.getDescription(), change.getAmount())
+                    : new Product(productId,
+                            change.getDescription() != null ? change.getDescription() : current.getDescription(),
+                            add(current.getAmount(), change.getAmount(), productId));
+            case DECREMENT -> current == null || current.getAmount() <= change.getAmount()
+                    ? null
+                    : new Product(productId, current.getDescription(), current.getAmount() - change.getAmount());
+            case REMOVE -> null;
+        };
+    }
+
+    private static Product line(CartProducts products, int productId) {
+        int position = products.positionOf(productId);
+        return position < 0 ? null
+                : new Product(productId, products.descriptionAt(position), products.amountAt(position));
+    }
+
+    private static int add(int amount, int increment, int productId) {
+        try {
+            return Math.addExact(amount, increment);
+        } catch (ArithmeticException e) {
+            throw invalid("Amount of product " + productId + " would overflow");
+        }
+    }
+
+    private static CartServiceCustomException invalid(String message) {
+        return new CartServiceCustomException(message, "INVALID_CHANGE", HttpStatus.BAD_REQUEST);
+    }
+}
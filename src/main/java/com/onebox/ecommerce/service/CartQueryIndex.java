@@ -0,0 +1,330 @@
+package com.onebox.ecommerce.service;
+
+import com.onebox.ecommerce.config.CartProperties;
+import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.model.CartProducts;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Secondary indexes over the carts of this node, with {@code cart.index.enabled=true}, so the cartindex actuator
+ * endpoint answers without visiting the carts: the carts holding every product with its running totals, products
+ * ranked by the carts holding them and by amount, and the number of carts per {@code idle-precision} window of last
+ * update. Every CartChange updates them at O(log n) per line it changed. A product's totals take constant time, the
+ * top k products O(k + log n), and idle carts time proportional to the number of windows, which eviction bounds by
+ * inactivity / idle-precision.
+ * <p>
+ * Carts stored without a change, recovered at startup, imported or handed over by another node, are indexed with
+ * {@link #index(Cart)}. The index keeps every cart's product ids and amounts and the set of carts of every product,
+ * some 60 bytes per line, which is why it is off by default. Queries are weakly consistent: a product being updated
+ * may be missing from a ranking for that long.
+ */
+@Component
+public class CartQueryIndex implements CartChangeListener {
+
+    public record ProductTotals(int productId, int carts, long amount) {
+    }
+
+    /**
+     * @param idleSeconds time since the latest update of the window's carts, the least idle of them
+     * @param carts carts last updated in the window
+     */
+    public record IdleWindow(long idleSeconds, long carts) {
+    }
+
+    private final boolean enabled;
+    private final long precisionMillis;
+
+    private final Map<Integer, IndexedCart> carts = new ConcurrentHashMap<>();
+    private final Map<Integer, ProductEntry> products = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<Rank> byCarts = new ConcurrentSkipListSet<>();
+    private final ConcurrentSkipListSet<Rank> byAmount = new ConcurrentSkipListSet<>();
+    // Carts by window of last update, windows without carts are removed
+    private final ConcurrentSkipListMap<Long, Long> windows = new ConcurrentSkipListMap<>();
+
+    public CartQueryIndex(CartProperties cartProperties) {
+        CartProperties.Index properties = cartProperties.getIndex();
+        this.enabled = properties.isEnabled();
+        this.precisionMillis = Math.max(1, properties.getIdlePrecision().toMillis());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void onCartChange(CartChange change) {
+        if (!enabled) {
+            return;
+        }
+        int cartId = change.cartId();
+        switch (change.type()) {
+            case CREATED -> carts.compute(cartId, (id, indexed) -> {
+                if (indexed != null) {
+                    unindex(cartId, indexed);
+                }
+                return newCart(change.timestamp());
+            });
+            case UPDATED -> carts.computeIfPresent(cartId, (id, indexed) -> {
+                change.products().forEach((productId, product) ->
+                        set(cartId, indexed, productId, product.getAmount()));
+                for (int productId : change.removed()) {
+                    int position = indexed.position(productId);
+                    if (position >= 0) {
+                        adjust(productId, cartId, indexed.amounts[position], false, 0);
+                        indexed.removeAt(position);
+                    }
+                }
+                touch(indexed, change.timestamp());
+                return indexed;
+            });
+            case DELETED, EXPIRED -> remove(cartId);
+        }
+    }
+
+    /**
+     * Indexes a cart stored without a CartChange, in place of what the index had for its id
+     */
+    public void index(Cart cart) {
+        if (!enabled) {
+            return;
+        }
+        int cartId = cart.getId();
+        carts.compute(cartId, (id, indexed) -> {
+            if (indexed != null) {
+                unindex(cartId, indexed);
+            }
+            IndexedCart fresh = newCart(cart.getLastUpdated());
+            CartProducts lines = cart.getProducts();
+            for (int position = 0; position < lines.size(); position++) {
+                set(cartId, fresh, lines.productIdAt(position), lines.amountAt(position));
+            }
+            return fresh;
+        });
+    }
+
+    /**
+     * Drops a cart deleted without a CartChange, e.g. handed over to another node
+     */
+    public void remove(int cartId) {
+        if (!enabled) {
+            return;
+        }
+        carts.computeIfPresent(cartId, (id, indexed) -> {
+            unindex(cartId, indexed);
+            return null;
+        });
+    }
+
+    public int cartCount() {
+        return carts.size();
+    }
+
+    /**
+     * @return products held by at least one cart
+     */
+    public int productCount() {
+        return byCarts.size();
+    }
+
+    public ProductTotals product(int productId) {
+        ProductEntry product = products.get(productId);
+        return product == null ? new ProductTotals(productId, 0, 0) : product.totals();
+    }
+
+    /**
+     * @return up to {@code limit} ids of carts holding the product, in no particular order
+     */
+    public List<Integer> cartsWith(int productId, int limit) {
+        ProductEntry product = products.get(productId);
+        return product == null ? List.of() : product.cartIds.stream().limit(limit).toList();
+    }
+
+    /**
+     * @param byAmount rank by the amount over all carts rather than by the carts holding the product
+     * @return the {@code limit} first products, ties by product id
+     */
+    public List<ProductTotals> topProducts(int limit, boolean byAmount) {
+        List<ProductTotals> top = new ArrayList<>(Math.min(limit, 100));
+        for (Rank rank : byAmount ? this.byAmount : byCarts) {
+            if (top.size() >= limit) {
+                break;
+            }
+            top.add(product(rank.productId()));
+        }
+        return top;
+    }
+
+    /**
+     * @return carts not updated for {@code idleFor}, to within idle-precision: carts in the window it ends in are
+     * not counted
+     */
+    public long idleCarts(Duration idleFor) {
+        long cutoff = windowOf(Instant.now().minus(idleFor));
+        return windows.headMap(cutoff).values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    /**
+     * @return carts per window of last update, least idle first
+     */
+    public List<IdleWindow> idleHistogram() {
+        long now = System.currentTimeMillis();
+        List<IdleWindow> histogram = new ArrayList<>();
+        windows.descendingMap().forEach((window, count) -> histogram.add(
+                new IdleWindow(Math.max(0, now - (window + 1) * precisionMillis) / 1000, count)));
+        return histogram;
+    }
+
+    private IndexedCart newCart(Instant lastUpdated) {
+        IndexedCart indexed = new IndexedCart(windowOf(lastUpdated));
+        windows.merge(indexed.window, 1L, Long::sum);
+        return indexed;
+    }
+
+    private void touch(IndexedCart indexed, Instant lastUpdated) {
+        long window = windowOf(lastUpdated);
+        if (window != indexed.window) {
+            leave(indexed.window);
+            windows.merge(window, 1L, Long::sum);
+            indexed.window = window;
+        }
+    }
+
+    private void unindex(int cartId, IndexedCart indexed) {
+        for (int position = 0; position < indexed.size; position++) {
+            adjust(indexed.productIds[position], cartId, indexed.amounts[position], false, 0);
+        }
+        leave(indexed.window);
+    }
+
+    private void leave(long window) {
+        windows.computeIfPresent(window, (key, count) -> count == 1 ? null : count - 1);
+    }
+
+    private void set(int cartId, IndexedCart indexed, int productId, int amount) {
+        int position = indexed.position(productId);
+        if (position >= 0) {
+            adjust(productId, cartId, indexed.amounts[position], true, amount);
+            indexed.amounts[position] = amount;
+        } else {
+            adjust(productId, cartId, null, true, amount);
+            indexed.insert(-position - 1, productId, amount);
+        }
+    }
+
+    /**
+     * @param previous the cart's amount of the product before, null if it did not hold it
+     */
+    private void adjust(int productId, int cartId, Integer previous, boolean holds, int amount) {
+        ProductEntry product = products.computeIfAbsent(productId, ProductEntry::new);
+        product.lock.lock();
+        try {
+            if (previous == null && holds) {
+                product.cartIds.add(cartId);
+                product.carts++;
+            } else if (previous != null && !holds) {
+                product.cartIds.remove(cartId);
+                product.carts--;
+            }
+            product.amount += (holds ? amount : 0) - (previous == null ? 0 : previous);
+
+            if (product.byCarts != null) {
+                byCarts.remove(product.byCarts);
+                byAmount.remove(product.byAmount);
+            }
+            if (product.carts > 0) {
+                product.byCarts = new Rank(product.carts, productId);
+                product.byAmount = new Rank(product.amount, productId);
+                byCarts.add(product.byCarts);
+                byAmount.add(product.byAmount);
+            } else {
+                product.byCarts = null;
+                product.byAmount = null;
+            }
+        } finally {
+            product.lock.unlock();
+        }
+    }
+
+    private long windowOf(Instant instant) {
+        return Math.floorDiv(instant.toEpochMilli(), precisionMillis);
+    }
+
+    // Highest value first, then lowest product id
+    private record Rank(long value, int productId) implements Comparable<Rank> {
+
+        @Override
+        public int compareTo(Rank other) {
+            int byValue = Long.compare(other.value, value);
+            return byValue != 0 ? byValue : Integer.compare(productId, other.productId);
+        }
+    }
+
+    // Totals of one product, kept once no cart holds it any more: products are far fewer than carts
+    private static final class ProductEntry {
+        private final int productId;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Set<Integer> cartIds = ConcurrentHashMap.newKeySet();
+        private volatile int carts;
+        private volatile long amount;
+        // Its current entries in the rankings, null while no cart holds it; guarded by lock
+        private Rank byCarts;
+        private Rank byAmount;
+
+        private ProductEntry(int productId) {
+            this.productId = productId;
+        }
+
+        private ProductTotals totals() {
+            return new ProductTotals(productId, carts, amount);
+        }
+    }
+
+    // The index's copy of a cart's lines, sorted by product id. Guarded by the lock of its entry in carts
+    private static final class IndexedCart {
+        private static final int[] NONE = new int[0];
+
+        private long window;
+        private int[] productIds = NONE;
+        private int[] amounts = NONE;
+        private int size;
+
+        private IndexedCart(long window) {
+            this.window = window;
+        }
+
+        private int position(int productId) {
+            return Arrays.binarySearch(productIds, 0, size, productId);
+        }
+
+        private void insert(int position, int productId, int amount) {
+            if (size == productIds.length) {
+                int capacity = Math.max(4, size * 2);
+                productIds = Arrays.copyOf(productIds, capacity);
+                amounts = Arrays.copyOf(amounts, capacity);
+            }
+            System.arraycopy(productIds, position, productIds, position + 1, size - position);
+            System.arraycopy(amounts, position, amounts, position + 1, size - position);
+            productIds[position] = productId;
+            amounts[position] = amount;
+            size++;
+        }
+
+        private void removeAt(int position) {
+            System.arraycopy(productIds, position + 1, productIds, position, size - position - 1);
+            System.arraycopy(amounts, position + 1, amounts, position, size - position - 1);
+            size--;
+        }
+    }
+}
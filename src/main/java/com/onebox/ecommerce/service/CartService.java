@@ -1,16 +1,43 @@
 package com.onebox.ecommerce.service;
 
-import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.model.CartDeltaResponse;
+import com.onebox.ecommerce.model.CartIfModified;
+import com.onebox.ecommerce.model.CartLineChange;
+import com.onebox.ecommerce.model.CartOperation;
+import com.onebox.ecommerce.model.CartOperationResult;
 import com.onebox.ecommerce.model.CartResponse;
 import com.onebox.ecommerce.model.Product;
 
 import java.util.List;
 import java.util.Map;
+import java.util.function.LongPredicate;
 
+/**
+ * Conditional variants take a predicate over the cart's version, tested under the cart's lock: {@code notModified}
+ * skips building the response, {@code ifMatch} rejects the update with 412 VERSION_MISMATCH unless it holds. A
+ * {@code null} predicate makes the operation unconditional.
+ */
 public interface CartService {
     CartResponse createCart();
     CartResponse getCart(int cartId);
-    CartResponse addProductsToCart(int cartId, Map<Integer, Product> products);
+
+    /**
+     * @return the cart, or only its version if {@code notModified} holds for it
+     */
+    CartIfModified getCartIfModified(int cartId, LongPredicate notModified);
+
+    CartResponse addProductsToCart(int cartId, Map<Integer, Product> products, LongPredicate ifMatch);
+    CartDeltaResponse updateCartLines(int cartId, List<CartLineChange> changes, LongPredicate ifMatch);
+
+    default CartResponse addProductsToCart(int cartId, Map<Integer, Product> products) {
+        return addProductsToCart(cartId, products, null);
+    }
+
+    default CartDeltaResponse updateCartLines(int cartId, List<CartLineChange> changes) {
+        return updateCartLines(cartId, changes, null);
+    }
+
     void deleteCart(int cartId);
     void deleteInactiveCarts();
+    List<CartOperationResult> executeBatch(List<CartOperation> operations);
 }
@@ -1,118 +1,503 @@
 package com.onebox.ecommerce.service;
 
+import com.onebox.ecommerce.catalog.ProductCatalog;
+import com.onebox.ecommerce.config.CartProperties;
+import com.onebox.ecommerce.exception.CartNotFoundException;
 import com.onebox.ecommerce.exception.CartServiceCustomException;
+import com.onebox.ecommerce.mapper.CartMapper;
+import com.onebox.ecommerce.metrics.CartMetrics;
 import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.model.CartDeltaResponse;
+import com.onebox.ecommerce.model.CartIfModified;
+import com.onebox.ecommerce.model.CartErrorResponse;
+import com.onebox.ecommerce.model.CartLineChange;
+import com.onebox.ecommerce.model.CartOperation;
+import com.onebox.ecommerce.model.CartOperationResult;
+import com.onebox.ecommerce.model.CartProductsSnapshot;
 import com.onebox.ecommerce.model.CartResponse;
 import com.onebox.ecommerce.model.Product;
 import com.onebox.ecommerce.repository.CartRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.log4j.Log4j2;
-import org.springframework.beans.BeanUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntPredicate;
+import java.util.function.LongPredicate;
 
 @Service
 @Log4j2
 public class CartServiceImpl implements CartService{
 
-    private static final int MINUTES = 10;
-    private static final int SECONDS = 60;
-    private static final int INACTIVITY_MILLISECONDS = MINUTES * SECONDS * 1000;
+    // Per-request lines, dropped with logging.level.cart.requests=OFF while everything else keeps logging
+    private static final Logger requestLog = LogManager.getLogger("cart.requests");
 
     @Autowired
     private CartRepository cartRepository;
 
+    @Autowired
+    private CartExpiryIndex cartExpiryIndex;
+
+    @Autowired
+    private CartQueryIndex cartQueryIndex;
+
+    @Autowired
+    private CartProperties cartProperties;
+
+    @Autowired
+    private CartMetrics cartMetrics;
+
+    @Autowired
+    private ProductCatalog productCatalog;
+
+    @Autowired
+    private CartEvictionPolicy cartEvictionPolicy;
+
+    @Autowired(required = false)
+    private List<CartChangeListener> changeListeners = List.of();
+
+    // Batch operations on different carts run in parallel. Virtual threads, since an operation may block on the
+    // journal and the number of carts in a batch is up to the client
+    private final ExecutorService batchExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    // Set while a sweep triggered by heap pressure runs, GCs keep coming meanwhile
+    private final AtomicBoolean pressureSweep = new AtomicBoolean();
+
+    /**
+     * Carts recovered by the repository at startup have to be indexed too, or they would never expire
+     */
+    @PostConstruct
+    void indexStoredCarts() {
+        cartRepository.forEachCartId(cartId -> cartRepository.withCart(cartId, cart -> {
+            cartExpiryIndex.touch(cartId, null, cart.getLastUpdated());
+            cartQueryIndex.index(cart);
+            return null;
+        }));
+    }
+
     @Override
     public CartResponse createCart() {
-        log.info("Creating new Cart...");
+        return createCart(null);
+    }
 
-        Cart cart = cartRepository.createCart();
+    /**
+     * Creates a cart whose id {@code acceptId} holds for, any id if it is {@code null}
+     */
+    public CartResponse createCart(IntPredicate acceptId) {
+        requestLog.info("Creating new Cart...");
 
-        log.info("Cart was created successfully");
+        // A soft limit: creates racing each other may all pass the check, but only by the number of them at once
+        int maxCarts = cartProperties.getLimits().getMaxCarts();
+        if (maxCarts > 0 && cartRepository.count() >= maxCarts) {
+            // Carts free up as inactive ones are evicted, one sweep later at the earliest
+            throw new CartServiceCustomException(
+                    "The limit of " + maxCarts + " carts is reached",
+                    "CART_LIMIT_REACHED", HttpStatus.SERVICE_UNAVAILABLE,
+                    cartProperties.getEviction().getPrecision());
+        }
 
-        CartResponse cartResponse = new CartResponse();
-        BeanUtils.copyProperties(cart, cartResponse);
+        long start = System.nanoTime();
+        Cart cart = acceptId == null ? cartRepository.createCart() : cartRepository.createCart(acceptId);
+        cartExpiryIndex.touch(cart.getId(), null, cart.getLastUpdated());
+        publish(CartChange.Type.CREATED, cart.getId(), cart.getVersion(), cart.getLastUpdated(), Map.of(), List.of());
+        cartMetrics.recordOperation(CartMetrics.Operation.CREATE, start, true);
 
-        return cartResponse;
+        requestLog.info("Cart was created successfully");
+
+        return CartMapper.toCartResponse(cart);
 
     }
 
     @Override
     public CartResponse getCart(int cartId) {
-        log.info("Get the cart for cartId: {}", cartId);
+        requestLog.info("Get the cart for cartId: {}", cartId);
 
-        Cart cart = Optional.ofNullable(cartRepository.getCart(cartId))
-                .orElseThrow(() -> new CartServiceCustomException(
-                        "Cart with given id: " + cartId + " was not found",
-                        "CART_NOT_FOUND"));
+        long start = System.nanoTime();
+        CartResponse found = cartRepository.withCart(cartId, CartMapper::toCartResponse);
+        cartMetrics.recordOperation(CartMetrics.Operation.GET, start, found != null);
 
-        log.info("Cart with given id: {} was found", cartId);
-
-        CartResponse cartResponse = new CartResponse();
+        if (found == null) {
+            throw new CartNotFoundException(cartId);
+        }
+        CartResponse cartResponse = describe(found);
 
-        BeanUtils.copyProperties(cart, cartResponse);
+        requestLog.info("Cart with given id: {} was found", cartId);
 
         return cartResponse;
     }
 
     @Override
-    public CartResponse addProductsToCart(int cartId, Map<Integer, Product> products) {
-        Cart cart = Optional.ofNullable(cartRepository.getCart(cartId))
-                .orElseThrow(() -> new CartServiceCustomException(
-                        "Cart with given id: " + cartId + " was not found",
-                        "CART_NOT_FOUND"));
+    public CartIfModified getCartIfModified(int cartId, LongPredicate notModified) {
+        requestLog.info("Get the cart for cartId: {} unless its version matches", cartId);
+
+        // A cart the client already has costs a version comparison, not a copy of its lines
+        long start = System.nanoTime();
+        CartIfModified found = cartRepository.withCart(cartId, cart -> notModified.test(cart.getVersion())
+                ? CartIfModified.notModified(cart.getVersion())
+                : CartIfModified.modified(CartMapper.toCartResponse(cart)));
+        cartMetrics.recordOperation(CartMetrics.Operation.GET, start, found != null);
 
-        products.forEach((id, product) -> cart.getProducts()
-                        .put(id, product));
+        if (found == null) {
+            throw new CartNotFoundException(cartId);
+        }
+        return found.isModified() ? CartIfModified.modified(describe(found.cart())) : found;
+    }
+
+    @Override
+    public CartResponse addProductsToCart(int cartId, Map<Integer, Product> products, LongPredicate ifMatch) {
+        int maxLines = cartProperties.getLimits().getMaxLinesPerCart();
+        if (maxLines > 0 && products.size() > maxLines) {
+            throw tooManyLines(cartId, maxLines);
+        }
+        // Catalog lookups may read the catalog file, so they happen before the cart is locked
+        Map<Integer, Product> lines = withCatalogDescriptions(products);
 
-        cart.updateInstant();
+        // The whole batch is applied under the cart's lock, so concurrent adds never lose products
+        long start = System.nanoTime();
+        CartResponse updated = cartRepository.withCart(cartId, cart -> {
+            checkVersion(cart, ifMatch);
+            if (maxLines > 0 && cart.getProducts().size() + newLines(cart, lines) > maxLines) {
+                throw tooManyLines(cartId, maxLines);
+            }
+            Instant previous = cart.getLastUpdated();
+            cart.getProducts().putAll(lines);
+            cart.updateInstant();
+            cartExpiryIndex.touch(cartId, previous, cart.getLastUpdated());
+            publish(CartChange.Type.UPDATED, cartId, cart.getVersion(), cart.getLastUpdated(), lines, List.of());
+            return CartMapper.toCartResponse(cart);
+        });
+        cartMetrics.recordOperation(CartMetrics.Operation.ADD, start, updated != null);
 
-        log.info("Products were successfully added to Cart with cartId: {} ", cartId);
+        if (updated == null) {
+            throw new CartNotFoundException(cartId);
+        }
+        CartResponse cartResponse = describe(updated);
 
-        CartResponse cartResponse = new CartResponse();
-        BeanUtils.copyProperties(cart, cartResponse);
+        requestLog.info("Products were successfully added to Cart with cartId: {} ", cartId);
 
         return cartResponse;
     }
 
+    @Override
+    public CartDeltaResponse updateCartLines(int cartId, List<CartLineChange> changes, LongPredicate ifMatch) {
+        int maxChanges = cartProperties.getLines().getMaxChanges();
+        if (changes.size() > maxChanges) {
+            throw new CartServiceCustomException(
+                    "Update of " + changes.size() + " lines exceeds the limit of " + maxChanges,
+                    "TOO_MANY_CHANGES", HttpStatus.PAYLOAD_TOO_LARGE);
+        }
+        CartLineChanges.validate(changes);
+        int maxLines = cartProperties.getLimits().getMaxLinesPerCart();
+        List<CartLineChange> lineChanges = withCatalogDescriptions(changes);
+
+        // Like an add, every change is applied under the cart's lock, and either all of them apply or none
+        long start = System.nanoTime();
+        CartDeltaResponse updated = cartRepository.withCart(cartId, cart -> {
+            checkVersion(cart, ifMatch);
+            Instant previous = cart.getLastUpdated();
+            long previousVersion = cart.getVersion();
+            CartDeltaResponse delta = CartLineChanges.apply(cart, lineChanges, maxLines);
+            if (cart.getVersion() != previousVersion) {
+                cartExpiryIndex.touch(cartId, previous, cart.getLastUpdated());
+                publish(CartChange.Type.UPDATED, cartId, cart.getVersion(), cart.getLastUpdated(), delta.getProducts(),
+                        delta.getRemoved());
+            }
+            return delta;
+        });
+        cartMetrics.recordOperation(CartMetrics.Operation.UPDATE, start, updated != null);
+
+        if (updated == null) {
+            throw new CartNotFoundException(cartId);
+        }
+        CartDeltaResponse cartDeltaResponse = describe(updated);
+
+        requestLog.info("{} line changes were applied to Cart with cartId: {}, now at version {}",
+                changes.size(), cartId, cartDeltaResponse.getVersion());
+
+        return cartDeltaResponse;
+    }
+
     @Override
     public void deleteCart(int cartId) {
-        log.info("Trying to delete Cart with cartId: {} ", cartId);
+        requestLog.info("Trying to delete Cart with cartId: {} ", cartId);
 
-        Cart cart = Optional.ofNullable(cartRepository.getCart(cartId))
-                .orElseThrow(() -> new CartServiceCustomException(
-                        "Cart with given id: " + cartId + " was not found",
-                        "CART_NOT_FOUND"));
+        long start = System.nanoTime();
+        boolean deleted = cartRepository.deleteCart(cartId);
+        cartMetrics.recordOperation(CartMetrics.Operation.DELETE, start, deleted);
 
-        cartRepository.deleteCart(cart.getId());
+        if (!deleted) {
+            throw new CartNotFoundException(cartId);
+        }
+        publish(CartChange.Type.DELETED, cartId, -1, Instant.now(), Map.of(), List.of());
 
-        log.info("Cart with cartId: {} was deleted", cartId);
+        requestLog.info("Cart with cartId: {} was deleted", cartId);
     }
 
     @Override
-    // We need to enable Scheduling in the Main.java file
-    @Scheduled(fixedRate = INACTIVITY_MILLISECONDS)
+    // Scheduling is enabled by SchedulingConfig unless cart.eviction.scheduled=false
+    @Scheduled(fixedRateString = "${cart.eviction.precision:5s}")
     public void deleteInactiveCarts(){
+        long start = System.nanoTime();
         Instant now = Instant.now();
+        Duration configured = cartProperties.getEviction().getInactivity();
+        Duration inactivity = cartEvictionPolicy.inactivity();
+
+        // Carts inactive for the configured period go first, then, if the heap is filling up, the carts only the
+        // shortened period makes due. Either way only carts indexed as last updated before the cutoff are visited,
+        // least recently updated first, and each one is deleted only if it was not updated since
+        int evicted = evict(now.minus(configured), CartMetrics.EvictionReason.INACTIVITY);
+        int evictedEarly = inactivity.compareTo(configured) < 0
+                ? evict(now.minus(inactivity), CartMetrics.EvictionReason.MEMORY_PRESSURE)
+                : 0;
+        cartMetrics.recordEvictionSweep(start, evicted + evictedEarly);
 
-        // Find carts with 10+ minutes of inactivity
-        Map<Integer, Cart> inactiveCarts = cartRepository.getCarts().entrySet().stream()
-                .filter(entry ->
-                        Duration.between(entry.getValue().getLastUpdated(), now).toMinutes() >= MINUTES)
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        // One line per sweep rather than per cart, a sweep may delete hundreds of thousands
+        if (evicted > 0) {
+            log.info("Deleted {} carts inactive for {} in {} ms", evicted, configured,
+                    (System.nanoTime() - start) / 1_000_000);
+        }
+        if (evictedEarly > 0) {
+            log.info("Deleted {} carts inactive for {} under heap pressure", evictedEarly, inactivity);
+        }
+    }
 
-        // Delete inactive carts
-        for (Map.Entry<Integer, Cart> entry : inactiveCarts.entrySet()) {
-            Cart cart = entry.getValue();
-            cartRepository.deleteCart(cart.getId());
-            log.info("Cart with cartId: {} was deleted due to inactivity", cart.getId());
+    /**
+     * A GC left the heap above the critical watermark: sweep now rather than at the next scheduled sweep
+     */
+    @EventListener
+    void onHeapPressure(HeapPressure heapPressure) {
+        if (pressureSweep.compareAndSet(false, true)) {
+            batchExecutor.execute(() -> {
+                try {
+                    deleteInactiveCarts();
+                } finally {
+                    pressureSweep.set(false);
+                }
+            });
         }
     }
 
+    private int evict(Instant cutoff, CartMetrics.EvictionReason reason) {
+        int evicted = cartExpiryIndex.expire(cutoff, cartId -> {
+            boolean deleted = cartRepository.deleteCartIfInactive(cartId, cutoff);
+            if (deleted) {
+                log.debug("Cart with cartId: {} was deleted due to {}", cartId, reason);
+                publish(CartChange.Type.EXPIRED, cartId, -1, Instant.now(), Map.of(), List.of());
+            }
+            return deleted;
+        });
+        cartMetrics.recordEvictions(reason, evicted);
+        return evicted;
+    }
+
+    @Override
+    public List<CartOperationResult> executeBatch(List<CartOperation> operations) {
+        return executeBatch(operations, this);
+    }
+
+    /**
+     * Runs the batch with every operation going through {@code service}, e.g. one routing it to the node owning the
+     * cart
+     */
+    public List<CartOperationResult> executeBatch(List<CartOperation> operations, CartService service) {
+        int maxOperations = cartProperties.getBatch().getMaxOperations();
+        if (operations.size() > maxOperations) {
+            throw new CartServiceCustomException(
+                    "Batch of " + operations.size() + " operations exceeds the limit of " + maxOperations,
+                    "BATCH_TOO_LARGE", HttpStatus.PAYLOAD_TOO_LARGE);
+        }
+        requestLog.info("Executing batch of {} operations", operations.size());
+
+        // Operations on the same cart run one after the other in request order, every group of them in parallel
+        // with the others. Creates and operations without a cart each form a group of their own.
+        List<List<Integer>> groups = new ArrayList<>();
+        Map<Integer, List<Integer>> groupsByCart = new LinkedHashMap<>();
+        for (int index = 0; index < operations.size(); index++) {
+            CartOperation operation = operations.get(index);
+            if (operation.getType() == CartOperation.Type.CREATE || operation.getCartId() == null) {
+                groups.add(List.of(index));
+            } else {
+                groupsByCart.computeIfAbsent(operation.getCartId(), cartId -> {
+                    List<Integer> group = new ArrayList<>();
+                    groups.add(group);
+                    return group;
+                }).add(index);
+            }
+        }
+
+        CartOperationResult[] results = new CartOperationResult[operations.size()];
+        if (groups.size() == 1) {
+            executeGroup(groups.get(0), operations, results, service);
+            return Arrays.asList(results);
+        }
+        List<Future<?>> futures = new ArrayList<>(groups.size());
+        for (List<Integer> group : groups) {
+            futures.add(batchExecutor.submit(() -> executeGroup(group, operations, results, service)));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            futures.forEach(future -> future.cancel(true));
+            throw new IllegalStateException("Interrupted while executing a batch", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Batch operation failed", e.getCause());
+        }
+        return Arrays.asList(results);
+    }
+
+    private void executeGroup(List<Integer> group, List<CartOperation> operations, CartOperationResult[] results,
+                              CartService service) {
+        for (int index : group) {
+            results[index] = execute(operations.get(index), service);
+        }
+    }
+
+    private CartOperationResult execute(CartOperation operation, CartService service) {
+        try {
+            if (operation.getType() == null
+                    || (operation.getType() != CartOperation.Type.CREATE && operation.getCartId() == null)) {
+                throw new CartServiceCustomException(
+                        "Operation needs a type, and a cartId unless it is CREATE", "INVALID_OPERATION",
+                        HttpStatus.BAD_REQUEST);
+            }
+            return switch (operation.getType()) {
+                case CREATE -> success(HttpStatus.CREATED, service.createCart());
+                case GET -> success(HttpStatus.FOUND, service.getCart(operation.getCartId()));
+                case ADD_PRODUCTS -> success(HttpStatus.OK, service.addProductsToCart(operation.getCartId(),
+                        operation.getProducts() == null ? Map.of() : operation.getProducts()));
+                case DELETE -> {
+                    service.deleteCart(operation.getCartId());
+                    yield success(HttpStatus.OK, null);
+                }
+            };
+        } catch (CartServiceCustomException exception) {
+            cartMetrics.recordError(exception.getErrorCode());
+            return failure(exception.getStatus(), exception.getMessage(), exception.getErrorCode());
+        } catch (RuntimeException exception) {
+            log.error("Batch operation {} failed", operation, exception);
+            cartMetrics.recordError("INTERNAL_ERROR");
+            return failure(HttpStatus.INTERNAL_SERVER_ERROR, exception.getMessage(), "INTERNAL_ERROR");
+        }
+    }
+
+    private void publish(CartChange.Type type, int cartId, long version, Instant timestamp,
+                         Map<Integer, Product> products, List<Integer> removed) {
+        if (!changeListeners.isEmpty()) {
+            CartChange change = new CartChange(type, cartId, version, timestamp, products, removed);
+            for (CartChangeListener listener : changeListeners) {
+                listener.onCartChange(change);
+            }
+        }
+    }
+
+    private static CartOperationResult success(HttpStatus status, CartResponse cartResponse) {
+        return CartOperationResult.builder()
+                .status(status.value())
+                .cart(cartResponse)
+                .build();
+    }
+
+    private static CartOperationResult failure(HttpStatus status, String message, String errorCode) {
+        return CartOperationResult.builder()
+                .status(status.value())
+                .error(CartErrorResponse.builder()
+                        .errorMessage(message)
+                        .errorCode(errorCode)
+                        .build())
+                .build();
+    }
+
+    // Lines of catalog products store no description when the catalog has the same one
+    private Map<Integer, Product> withCatalogDescriptions(Map<Integer, Product> products) {
+        if (productCatalog.isEmpty()) {
+            return products;
+        }
+        Map<Integer, Product> lines = new LinkedHashMap<>();
+        products.forEach((productId, product) -> lines.put(productId, product == null ? null : new Product(
+                product.getId(), productCatalog.descriptionToStore(productId, product.getDescription()),
+                product.getAmount())));
+        return lines;
+    }
+
+    private List<CartLineChange> withCatalogDescriptions(List<CartLineChange> changes) {
+        if (productCatalog.isEmpty()) {
+            return changes;
+        }
+        List<CartLineChange> lineChanges = new ArrayList<>(changes.size());
+        for (CartLineChange change : changes) {
+            lineChanges.add(new CartLineChange(change.getType(), change.getProductId(), change.getAmount(),
+                    productCatalog.descriptionToStore(change.getProductId(), change.getDescription())));
+        }
+        return lineChanges;
+    }
+
+    // Fills in the catalog's descriptions after the cart's lock is released
+    private CartResponse describe(CartResponse cartResponse) {
+        if (!productCatalog.isEmpty() && cartResponse.getProducts() instanceof CartProductsSnapshot snapshot) {
+            cartResponse.setProducts(snapshot.withDescriptions(productCatalog::description));
+        }
+        return cartResponse;
+    }
+
+    private CartDeltaResponse describe(CartDeltaResponse delta) {
+        if (!productCatalog.isEmpty()) {
+            delta.getProducts().values().stream()
+                    .filter(product -> product.getDescription() == null)
+                    .forEach(product -> product.setDescription(productCatalog.description(product.getId())));
+        }
+        return delta;
+    }
+
+    // Lines the products would add to the cart, rather than replace
+    private static int newLines(Cart cart, Map<Integer, Product> products) {
+        int newLines = 0;
+        for (Map.Entry<Integer, Product> entry : products.entrySet()) {
+            if (entry.getValue() != null && !cart.getProducts().contains(entry.getKey())) {
+                newLines++;
+            }
+        }
+        return newLines;
+    }
+
+    static CartServiceCustomException tooManyLines(int cartId, int maxLines) {
+        return new CartServiceCustomException(
+                "Cart with given id: " + cartId + " would exceed the limit of " + maxLines + " lines",
+                "LINE_LIMIT_EXCEEDED", HttpStatus.UNPROCESSABLE_ENTITY);
+    }
+
+    // Runs under the cart's lock before any change, so a rejected update leaves the cart as it was
+    private static void checkVersion(Cart cart, LongPredicate ifMatch) {
+        if (ifMatch != null && !ifMatch.test(cart.getVersion())) {
+            throw new CartServiceCustomException(
+                    "Cart with given id: " + cart.getId() + " is at version " + cart.getVersion(),
+                    "VERSION_MISMATCH", HttpStatus.PRECONDITION_FAILED);
+        }
+    }
+
+    @PreDestroy
+    void shutdownBatchExecutor() {
+        batchExecutor.shutdownNow();
+    }
+
 }
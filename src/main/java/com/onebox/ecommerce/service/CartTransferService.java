@@ -0,0 +1,184 @@
+package com.onebox.ecommerce.service;
+
+import com.onebox.ecommerce.catalog.ProductCatalog;
+import com.onebox.ecommerce.config.CartProperties;
+import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.model.CartProducts;
+import com.onebox.ecommerce.model.CartProductsSnapshot;
+import com.onebox.ecommerce.model.CartTransferResponse;
+import com.onebox.ecommerce.repository.CartRepository;
+import com.onebox.ecommerce.repository.transfer.CartExportReader;
+import com.onebox.ecommerce.repository.transfer.CartExportWriter;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Moves the whole cart population between instances through export files in {@code cart.transfer.directory}, see
+ * CartExportWriter for the format. Exports run alongside regular traffic and see every cart as it was when its turn
+ * came. Imports replace carts with the same ids and leave the others alone; a file is checked from end to end before
+ * the first of its carts is imported.
+ * <p>
+ * Exported lines of catalog products carry the catalog's description, so no catalog is needed to import them. An
+ * import drops the descriptions its own catalog has for the product, as adds do.
+ */
+@Service
+@Log4j2
+public class CartTransferService {
+
+    @Autowired
+    private CartRepository cartRepository;
+
+    @Autowired
+    private CartExpiryIndex cartExpiryIndex;
+
+    @Autowired
+    private CartQueryIndex cartQueryIndex;
+
+    @Autowired
+    private ProductCatalog productCatalog;
+
+    @Autowired
+    private CartProperties cartProperties;
+
+    // One transfer at a time, a second one would only compete for the disk
+    private final ReentrantLock transferLock = new ReentrantLock();
+
+    @PostConstruct
+    void importOnStartup() {
+        String file = cartProperties.getTransfer().getImportOnStartup();
+        if (file != null && !file.isBlank()) {
+            importCarts(file);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code file} is not a plain file name inside the transfer directory
+     * @throws IllegalStateException if another transfer is running
+     */
+    public CartTransferResponse exportCarts(String file) {
+        Path target = resolve(file);
+        lockTransfer();
+        long start = System.nanoTime();
+        // Written next to the target and moved over it at the end, so nobody imports a half written file
+        Path partial = target.resolveSibling(target.getFileName() + ".partial");
+        try {
+            Files.createDirectories(target.getParent());
+            try (CartExportWriter writer = new CartExportWriter(partial)) {
+                IOException[] failure = new IOException[1];
+                cartRepository.forEachCartId(cartId -> {
+                    if (failure[0] != null) {
+                        return;
+                    }
+                    // Catalog lookups may read the catalog file, so lines are copied under the lock and described after
+                    CartCopy copy = cartRepository.withCart(cartId, cart -> new CartCopy(
+                            cart.getId(), cart.getLastUpdated(), cart.getVersion(), cart.getProducts().snapshot()));
+                    if (copy == null) {
+                        return;
+                    }
+                    writer.append(copy.id(), copy.lastUpdated(), copy.version(), productCatalog.isEmpty()
+                            ? copy.lines() : copy.lines().withDescriptions(productCatalog::description));
+                    try {
+                        writer.flushIfFull();
+                    } catch (IOException e) {
+                        failure[0] = e;
+                    }
+                });
+                if (failure[0] != null) {
+                    throw failure[0];
+                }
+                writer.finish();
+                Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return finished("Exported", file, writer.carts(), writer.lines(), writer.bytes(), start);
+            }
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(partial);
+            } catch (IOException deleteFailure) {
+                e.addSuppressed(deleteFailure);
+            }
+            throw new UncheckedIOException("Could not export carts to " + target, e);
+        } finally {
+            transferLock.unlock();
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code file} is not a plain file name inside the transfer directory
+     * @throws IllegalStateException if another transfer is running
+     */
+    public CartTransferResponse importCarts(String file) {
+        Path source = resolve(file);
+        lockTransfer();
+        long start = System.nanoTime();
+        try {
+            CartExportReader.Contents contents = CartExportReader.verify(source);
+            // Carts created while the import runs must not take the ids of carts still to come
+            Cart.reserveIdsThrough(contents.maxCartId());
+            try (CartExportReader reader = new CartExportReader(source)) {
+                Cart cart;
+                while ((cart = reader.next()) != null) {
+                    withoutCatalogDescriptions(cart);
+                    cartRepository.restoreCart(cart);
+                    cartExpiryIndex.touch(cart.getId(), null, cart.getLastUpdated());
+                    cartQueryIndex.index(cart);
+                }
+                return finished("Imported", file, reader.carts(), reader.lines(), Files.size(source), start);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not import carts from " + source, e);
+        } finally {
+            transferLock.unlock();
+        }
+    }
+
+    // The cart is not in the repository yet, so the catalog can be read without holding anybody up
+    private void withoutCatalogDescriptions(Cart cart) {
+        if (productCatalog.isEmpty()) {
+            return;
+        }
+        CartProducts products = cart.getProducts();
+        for (int position = 0; position < products.size(); position++) {
+            String description = products.descriptionAt(position);
+            int productId = products.productIdAt(position);
+            if (description != null && productCatalog.descriptionToStore(productId, description) == null) {
+                products.put(productId, null, products.amountAt(position));
+            }
+        }
+    }
+
+    private Path resolve(String file) {
+        Path directory = cartProperties.getTransfer().getDirectory().toAbsolutePath().normalize();
+        Path resolved = file == null ? null : directory.resolve(file).normalize();
+        if (resolved == null || file.isBlank() || !directory.equals(resolved.getParent())) {
+            throw new IllegalArgumentException("Transfer files are named by a file name inside " + directory);
+        }
+        return resolved;
+    }
+
+    private void lockTransfer() {
+        if (!transferLock.tryLock()) {
+            throw new IllegalStateException("Another export or import is running");
+        }
+    }
+
+    private static CartTransferResponse finished(String action, String file, long carts, long lines, long bytes,
+                                                 long start) {
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        log.info("{} {} carts with {} lines, {} bytes, in {} ms ({} carts/s)", action, carts, lines, bytes, millis,
+                carts * 1000 / Math.max(1, millis));
+        return new CartTransferResponse(file, carts, lines, bytes, millis);
+    }
+
+    private record CartCopy(int id, Instant lastUpdated, long version, CartProductsSnapshot lines) {
+    }
+}
@@ -0,0 +1,94 @@
+package com.onebox.ecommerce.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Token bucket per client, kept as the single number the generic cell rate algorithm needs: the time at which the
+ * client's bucket will be full again. Taking a token is one compare-and-set on the client's own counter, so clients
+ * never contend with each other and a client only with its own concurrent requests.
+ * <p>
+ * A bucket that has refilled holds no state worth keeping. Once more than {@code maxClients} are tracked, full
+ * buckets are dropped by whichever thread gets there first, so clients that come and go do not grow the map forever.
+ * Every bucket is full again one burst after its last token was taken, so a scan runs at most once per burst: clients
+ * that are all still draining do not make every newcomer scan the map for nothing. A dropped bucket is marked dead
+ * first, and a request that fetched it just before starts over with a new one instead of taking its token from it.
+ */
+final class ClientRateLimiter {
+
+    private final long nanosPerToken;
+    // How far the bucket's full time may run ahead of now before the bucket counts as empty
+    private final long burstNanos;
+    private final int maxClients;
+
+    private static final long DEAD = Long.MIN_VALUE;
+
+    private final Map<String, AtomicLong> fullAt = new ConcurrentHashMap<>();
+    private final ReentrantLock purgeLock = new ReentrantLock();
+    // Guarded by purgeLock
+    private boolean purged;
+    private long lastPurgeNanos;
+
+    ClientRateLimiter(int tokensPerSecond, int burst, int maxClients) {
+        if (tokensPerSecond < 1 || burst < 1) {
+            throw new IllegalArgumentException("Rate and burst must be at least 1: " + tokensPerSecond + ", " + burst);
+        }
+        this.nanosPerToken = 1_000_000_000L / tokensPerSecond;
+        this.burstNanos = nanosPerToken * burst;
+        this.maxClients = maxClients;
+    }
+
+    /**
+     * @return 0 if the client had a token and it was taken, otherwise the nanoseconds until it gets one
+     */
+    long tryAcquire(String client, long nowNanos) {
+        AtomicLong bucket = fullAt.get(client);
+        if (bucket == null) {
+            bucket = fullAt.computeIfAbsent(client, key -> new AtomicLong(nowNanos));
+            if (fullAt.size() > maxClients) {
+                purge(nowNanos);
+            }
+        }
+        while (true) {
+            long full = bucket.get();
+            if (full == DEAD) {
+                fullAt.remove(client, bucket);
+                bucket = fullAt.computeIfAbsent(client, key -> new AtomicLong(nowNanos));
+                continue;
+            }
+            long next = Math.max(full, nowNanos) + nanosPerToken;
+            if (next - nowNanos > burstNanos) {
+                return next - nowNanos - burstNanos;
+            }
+            if (bucket.compareAndSet(full, next)) {
+                return 0;
+            }
+        }
+    }
+
+    int clients() {
+        return fullAt.size();
+    }
+
+    private void purge(long nowNanos) {
+        if (purgeLock.tryLock()) {
+            try {
+                if (purged && nowNanos - lastPurgeNanos < burstNanos) {
+                    return;
+                }
+                purged = true;
+                lastPurgeNanos = nowNanos;
+                fullAt.forEach((client, bucket) -> {
+                    long full = bucket.get();
+                    if (full != DEAD && full - nowNanos < 0 && bucket.compareAndSet(full, DEAD)) {
+                        fullAt.remove(client, bucket);
+                    }
+                });
+            } finally {
+                purgeLock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.onebox.ecommerce.service;
+
+/**
+ * Published by HeapPressureMonitor after every GC that leaves the heap at or above the critical watermark
+ *
+ * @param usedAfterGc share of the maximum heap still in use after the GC, 0 to 1
+ */
+public record HeapPressure(double usedAfterGc) {
+}
@@ -0,0 +1,127 @@
+package com.onebox.ecommerce.service;
+
+import com.onebox.ecommerce.config.CartProperties;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Follows how full the heap is from the GC notifications of the JVM: after every collection, the share of the
+ * maximum heap its heap pools still use. Heap usage sampled at any other time mostly measures garbage that is about
+ * to go; what a collection leaves behind is what the carts actually hold. Young collections leave the old
+ * generation's garbage in place, so the figure errs on the full side, which is the safe one to err on here.
+ * <p>
+ * Crossing the critical watermark is logged, and every collection at or above it publishes a {@link HeapPressure}
+ * event, so carts get evicted before the next scheduled sweep.
+ */
+@Component
+@Log4j2
+public class HeapPressureMonitor {
+
+    private final ApplicationEventPublisher eventPublisher;
+    private final boolean enabled;
+    private final double criticalWatermark;
+
+    private final Set<String> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+            .filter(pool -> pool.getType() == MemoryType.HEAP)
+            .map(MemoryPoolMXBean::getName)
+            .collect(Collectors.toUnmodifiableSet());
+    private final List<NotificationEmitter> emitters = new ArrayList<>();
+    private final NotificationListener listener = (notification, handback) -> onNotification(notification);
+
+    private volatile double usedAfterGc;
+    private volatile boolean critical;
+
+    @Autowired
+    public HeapPressureMonitor(CartProperties cartProperties, ApplicationEventPublisher eventPublisher) {
+        CartProperties.Adaptive adaptive = cartProperties.getEviction().getAdaptive();
+        this.eventPublisher = eventPublisher;
+        this.enabled = adaptive.isEnabled();
+        this.criticalWatermark = adaptive.getCriticalWatermark();
+    }
+
+    @PostConstruct
+    void start() {
+        if (!enabled) {
+            return;
+        }
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector instanceof NotificationEmitter emitter) {
+                emitter.addNotificationListener(listener, null, null);
+                emitters.add(emitter);
+            }
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        for (NotificationEmitter emitter : emitters) {
+            try {
+                emitter.removeNotificationListener(listener);
+            } catch (ListenerNotFoundException e) {
+                // already gone
+            }
+        }
+        emitters.clear();
+    }
+
+    /**
+     * @return share of the maximum heap in use after the last GC, 0 to 1; 0 until the first GC
+     */
+    public double usedAfterGc() {
+        return usedAfterGc;
+    }
+
+    void record(double usedAfterGc) {
+        this.usedAfterGc = usedAfterGc;
+        boolean wasCritical = critical;
+        critical = usedAfterGc >= criticalWatermark;
+        if (critical != wasCritical) {
+            if (critical) {
+                log.warn("Heap {}% full after GC, evicting carts early", Math.round(usedAfterGc * 100));
+            } else {
+                log.info("Heap back to {}% full after GC", Math.round(usedAfterGc * 100));
+            }
+        }
+        if (critical) {
+            eventPublisher.publishEvent(new HeapPressure(usedAfterGc));
+        }
+    }
+
+    private void onNotification(Notification notification) {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+            return;
+        }
+        GcInfo gcInfo = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData()).getGcInfo();
+        long used = 0;
+        for (Map.Entry<String, MemoryUsage> pool : gcInfo.getMemoryUsageAfterGc().entrySet()) {
+            if (heapPools.contains(pool.getKey())) {
+                used += pool.getValue().getUsed();
+            }
+        }
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        long max = heap.getMax() > 0 ? heap.getMax() : heap.getCommitted();
+        record((double) used / max);
+    }
+}
@@ -0,0 +1,29 @@
+package com.onebox.ecommerce.service;
+
+import com.onebox.ecommerce.model.CartDeltaResponse;
+import com.onebox.ecommerce.model.CartIfModified;
+import com.onebox.ecommerce.model.CartLineChange;
+import com.onebox.ecommerce.model.CartOperation;
+import com.onebox.ecommerce.model.CartOperationResult;
+import com.onebox.ecommerce.model.CartResponse;
+import com.onebox.ecommerce.model.Product;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongPredicate;
+
+/**
+ * Non-blocking counterpart of {@link CartService}, used by the WebFlux front end. Failures are signalled as
+ * errors of the returned publisher, with the same exceptions CartService throws.
+ */
+public interface ReactiveCartService {
+    Mono<CartResponse> createCart();
+    Mono<CartResponse> getCart(int cartId);
+    Mono<CartIfModified> getCartIfModified(int cartId, LongPredicate notModified);
+    Mono<CartResponse> addProductsToCart(int cartId, Map<Integer, Product> products, LongPredicate ifMatch);
+    Mono<CartDeltaResponse> updateCartLines(int cartId, List<CartLineChange> changes, LongPredicate ifMatch);
+    Mono<Void> deleteCart(int cartId);
+    Flux<CartOperationResult> executeBatch(List<CartOperation> operations);
+}
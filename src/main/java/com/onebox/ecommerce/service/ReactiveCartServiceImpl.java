@@ -0,0 +1,97 @@
+package com.onebox.ecommerce.service;
+
+import com.onebox.ecommerce.config.CartProperties;
+import com.onebox.ecommerce.model.CartDeltaResponse;
+import com.onebox.ecommerce.model.CartIfModified;
+import com.onebox.ecommerce.model.CartLineChange;
+import com.onebox.ecommerce.model.CartOperation;
+import com.onebox.ecommerce.model.CartOperationResult;
+import com.onebox.ecommerce.model.CartResponse;
+import com.onebox.ecommerce.model.Product;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongPredicate;
+
+/**
+ * Runs the operations of {@link CartService} for the WebFlux front end. With the in-memory and off-heap engines
+ * an operation only holds a cart's lock for a few microseconds, so it runs right on the event loop that received
+ * the request: no thread hop and no context switch. The journal awaiting fsync and the sharded engine park the
+ * calling thread, which must never happen on an event loop, and so do a clustered node forwarding an operation to
+ * its owner over a socket and a product catalog reading descriptions it does not cache from its file, so with any of
+ * them operations run on Reactor's bounded elastic scheduler instead. Batches always do, since they wait for their
+ * parallel groups.
+ */
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@Log4j2
+public class ReactiveCartServiceImpl implements ReactiveCartService {
+
+    private final CartService cartService;
+    private final Scheduler scheduler;
+
+    @Autowired
+    public ReactiveCartServiceImpl(CartService cartService, CartProperties cartProperties) {
+        this(cartService, blocks(cartProperties) ? Schedulers.boundedElastic() : Schedulers.immediate());
+        log.info("Running cart operations on {}", blocks(cartProperties) ? "bounded elastic threads" : "event loops");
+    }
+
+    ReactiveCartServiceImpl(CartService cartService, Scheduler scheduler) {
+        this.cartService = cartService;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public Mono<CartResponse> createCart() {
+        return Mono.fromCallable(cartService::createCart).subscribeOn(scheduler);
+    }
+
+    @Override
+    public Mono<CartResponse> getCart(int cartId) {
+        return Mono.fromCallable(() -> cartService.getCart(cartId)).subscribeOn(scheduler);
+    }
+
+    @Override
+    public Mono<CartIfModified> getCartIfModified(int cartId, LongPredicate notModified) {
+        return Mono.fromCallable(() -> cartService.getCartIfModified(cartId, notModified)).subscribeOn(scheduler);
+    }
+
+    @Override
+    public Mono<CartResponse> addProductsToCart(int cartId, Map<Integer, Product> products, LongPredicate ifMatch) {
+        return Mono.fromCallable(() -> cartService.addProductsToCart(cartId, products, ifMatch))
+                .subscribeOn(scheduler);
+    }
+
+    @Override
+    public Mono<CartDeltaResponse> updateCartLines(int cartId, List<CartLineChange> changes, LongPredicate ifMatch) {
+        return Mono.fromCallable(() -> cartService.updateCartLines(cartId, changes, ifMatch))
+                .subscribeOn(scheduler);
+    }
+
+    @Override
+    public Mono<Void> deleteCart(int cartId) {
+        return Mono.<Void>fromRunnable(() -> cartService.deleteCart(cartId)).subscribeOn(scheduler);
+    }
+
+    @Override
+    public Flux<CartOperationResult> executeBatch(List<CartOperation> operations) {
+        return Mono.fromCallable(() -> cartService.executeBatch(operations))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapIterable(results -> results);
+    }
+
+    private static boolean blocks(CartProperties cartProperties) {
+        return cartProperties.getJournal().isEnabled() && cartProperties.getJournal().isAwaitFsync()
+                || "sharded".equals(cartProperties.getStorage().getType())
+                || cartProperties.getCluster().isEnabled()
+                || cartProperties.getCatalog().getFile() != null;
+    }
+}
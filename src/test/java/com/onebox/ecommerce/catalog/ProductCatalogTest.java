@@ -0,0 +1,91 @@
+package com.onebox.ecommerce.catalog;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProductCatalogTest {
+
+    @TempDir
+    Path directory;
+
+    private ProductCatalog productCatalog;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (productCatalog != null) {
+            productCatalog.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Load - comments, blank lines and CRLF line ends are skipped, a repeated product keeps its last line")
+    void testLoad() throws IOException {
+        productCatalog = catalog("""
+                # id,description
+                1,God of War\r
+                2,Pokémon, Sun & Moon
+
+                -3,Returned item
+                1,God of War Ragnarök""");
+
+        assertEquals(3, productCatalog.size());
+        assertEquals("God of War Ragnarök", productCatalog.description(1));
+        assertEquals("Pokémon, Sun & Moon", productCatalog.description(2));
+        assertEquals("Returned item", productCatalog.description(-3));
+        assertNull(productCatalog.description(4));
+    }
+
+    @Test
+    @DisplayName("Description - every lookup of a product returns the same String")
+    void testDescriptionsAreShared() throws IOException {
+        productCatalog = catalog("1,God of War\n");
+
+        assertSame(productCatalog.description(1), productCatalog.description(1));
+        assertEquals(1, productCatalog.cachedCount());
+    }
+
+    @Test
+    @DisplayName("Description to store - none when the catalog has the same one")
+    void testDescriptionToStore() throws IOException {
+        productCatalog = catalog("1,God of War\n");
+
+        assertNull(productCatalog.descriptionToStore(1, "God of War"));
+        assertNull(productCatalog.descriptionToStore(1, null));
+        assertEquals("God of War (used)", productCatalog.descriptionToStore(1, "God of War (used)"));
+        assertEquals("Elden Ring", productCatalog.descriptionToStore(2, "Elden Ring"));
+    }
+
+    @Test
+    @DisplayName("Without a file - the catalog is empty and descriptions are stored as sent")
+    void testWithoutFile() {
+        productCatalog = new ProductCatalog(null, 10);
+
+        assertTrue(productCatalog.isEmpty());
+        assertNull(productCatalog.description(1));
+        assertEquals("God of War", productCatalog.descriptionToStore(1, "God of War"));
+    }
+
+    @Test
+    @DisplayName("Load - a line without an id is rejected")
+    void testMalformedLine() throws IOException {
+        Path file = Files.writeString(directory.resolve("catalog.csv"), "1,God of War\nElden Ring\n");
+
+        IllegalStateException exception = assertThrows(IllegalStateException.class, () ->
+                new ProductCatalog(file, 10));
+        assertTrue(exception.getMessage().contains("line 2"), exception.getMessage());
+    }
+
+    private ProductCatalog catalog(String content) throws IOException {
+        Path file = Files.writeString(directory.resolve("catalog.csv"), content, StandardCharsets.UTF_8);
+        return new ProductCatalog(file, 10);
+    }
+}
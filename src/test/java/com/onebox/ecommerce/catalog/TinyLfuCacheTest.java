@@ -0,0 +1,74 @@
+package com.onebox.ecommerce.catalog;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TinyLfuCacheTest {
+
+    @Test
+    @DisplayName("Get - loads a missing value once and caches it, null loads are not cached")
+    void testGetLoadsOnce() {
+        TinyLfuCache<String> cache = new TinyLfuCache<>(10);
+        AtomicInteger loads = new AtomicInteger();
+
+        assertEquals("1", cache.get(1, key -> { loads.incrementAndGet(); return String.valueOf(key); }));
+        assertEquals("1", cache.get(1, key -> { loads.incrementAndGet(); return String.valueOf(key); }));
+        assertNull(cache.get(2, key -> null));
+
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.hitCount());
+        assertEquals(2, cache.missCount());
+    }
+
+    @Test
+    @DisplayName("Eviction - the cache never holds more entries than its size")
+    void testBounded() {
+        TinyLfuCache<Integer> cache = new TinyLfuCache<>(100);
+        for (int key = 0; key < 10_000; key++) {
+            cache.get(key, Integer::valueOf);
+            assertTrue(cache.size() <= 100);
+        }
+        assertEquals(100, cache.size());
+    }
+
+    @Test
+    @DisplayName("Eviction - a scan of one-off keys does not flush the popular ones still asked for")
+    void testScanResistance() {
+        TinyLfuCache<Integer> cache = new TinyLfuCache<>(100);
+        for (int round = 0; round < 5; round++) {
+            for (int key = 0; key < 50; key++) {
+                cache.get(key, Integer::valueOf);
+            }
+        }
+
+        // A crawler walks a large catalog while customers keep buying the popular products
+        AtomicInteger reloaded = new AtomicInteger();
+        for (int key = 1_000; key < 11_000; key++) {
+            cache.get(key, Integer::valueOf);
+            cache.get(key % 50, missing -> { reloaded.incrementAndGet(); return missing; });
+        }
+
+        assertEquals(0, reloaded.get());
+    }
+
+    @Test
+    @DisplayName("A cache of one entry keeps the latest one")
+    void testSingleEntry() {
+        TinyLfuCache<Integer> cache = new TinyLfuCache<>(1);
+        cache.get(1, Integer::valueOf);
+        cache.get(2, Integer::valueOf);
+
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    @DisplayName("Size must be positive")
+    void testInvalidSize() {
+        assertThrows(IllegalArgumentException.class, () -> new TinyLfuCache<>(0));
+    }
+}
@@ -0,0 +1,98 @@
+package com.onebox.ecommerce.cluster;
+
+import com.onebox.ecommerce.config.CartProperties;
+import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.repository.CartRepository;
+import com.onebox.ecommerce.repository.InMemoryCartRepository;
+import com.onebox.ecommerce.service.CartExpiryIndex;
+import com.onebox.ecommerce.service.CartQueryIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CartHandoffTest {
+
+    private static final Instant NOW = Instant.parse("2025-04-06T12:00:00Z");
+
+    @Spy
+    private CartRepository cartRepository = new InMemoryCartRepository();
+
+    @Spy
+    private CartExpiryIndex cartExpiryIndex = new CartExpiryIndex(Duration.ofSeconds(5));
+
+    @Spy
+    private CartQueryIndex cartQueryIndex = new CartQueryIndex(new CartProperties());
+
+    @InjectMocks
+    private CartHandoff cartHandoff;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+    }
+
+    @Test
+    @DisplayName("Receive - carts this node does not have are stored")
+    void testReceiveNewCart() throws IOException {
+        cartHandoff.receive(message(cart(1, 3, "God of War", NOW)));
+
+        assertEquals(3, cartRepository.withCart(1, Cart::getVersion));
+        assertEquals("God of War", cartRepository.withCart(1, cart -> cart.getProducts().descriptionAt(0)));
+        assertEquals(1, cartExpiryIndex.size());
+    }
+
+    @Test
+    @DisplayName("Receive - a cart sent again replaces this node's copy only if it has a higher version")
+    void testReceiveAgain() throws IOException {
+        cartHandoff.receive(message(cart(1, 3, "God of War", NOW), cart(2, 3, "God of War", NOW)));
+        // Updated here after the first handoff
+        cartRepository.withCart(1, cart -> {
+            cart.getProducts().put(2, "Halo", 1);
+            cart.updateInstant();
+            return null;
+        });
+
+        // The previous owner took a write of its own to each before deleting them failed
+        cartHandoff.receive(message(cart(1, 4, "Hades", NOW.plusSeconds(1)),
+                cart(2, 4, "Hades", NOW.plusSeconds(60))));
+
+        assertEquals(Integer.valueOf(2), cartRepository.withCart(1, cart -> cart.getProducts().size()));
+        assertEquals("God of War", cartRepository.withCart(1, cart -> cart.getProducts().descriptionAt(0)));
+        assertEquals(4, cartRepository.withCart(2, Cart::getVersion));
+        assertEquals("Hades", cartRepository.withCart(2, cart -> cart.getProducts().descriptionAt(0)));
+        assertEquals(NOW.plusSeconds(60), cartRepository.withCart(2, Cart::getLastUpdated));
+        assertEquals(2, cartRepository.count());
+    }
+
+    private static Cart cart(int cartId, long version, String description, Instant lastUpdated) {
+        Cart cart = new Cart(cartId, lastUpdated);
+        cart.setVersion(version);
+        cart.getProducts().put(1, description, 1);
+        return cart;
+    }
+
+    // A HANDOFF message as PeerServer passes it on, after the operation and hops
+    private static DataInputStream message(Cart... carts) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        PeerProtocol.writeVarint(out, carts.length);
+        for (Cart cart : carts) {
+            PeerProtocol.writeCart(out, cart);
+        }
+        out.flush();
+        return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+}
@@ -0,0 +1,157 @@
+package com.onebox.ecommerce.cluster;
+
+import com.onebox.ecommerce.config.CartProperties;
+import com.onebox.ecommerce.exception.CartNotFoundException;
+import com.onebox.ecommerce.model.CartResponse;
+import com.onebox.ecommerce.model.Product;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CartNearCacheTest {
+
+    @Test
+    @DisplayName("A fresh copy is served without asking the owner, a stale one is revalidated by version")
+    void testFreshAndStale() throws InterruptedException {
+        CartNearCache nearCache = nearCache(100, DataSize.ofMegabytes(1), Duration.ofMillis(200));
+        AtomicInteger loads = new AtomicInteger();
+        CartResponse cart = cart(1, 3);
+
+        assertSame(cart, nearCache.get(1, cached -> {
+            assertNull(cached);
+            loads.incrementAndGet();
+            return cart;
+        }));
+        assertSame(cart, nearCache.get(1, cached -> fail("A fresh copy is served from the cache")));
+        Thread.sleep(250);
+        assertSame(cart, nearCache.get(1, cached -> {
+            assertSame(cart, cached);
+            loads.incrementAndGet();
+            return cached;
+        }));
+        assertSame(cart, nearCache.get(1, cached -> fail("Revalidated, so fresh again")));
+
+        assertEquals(2, loads.get());
+        assertEquals(2, nearCache.hitCount());
+        assertEquals(1, nearCache.missCount());
+        assertEquals(1, nearCache.staleCount());
+        assertEquals(1, nearCache.size());
+        assertTrue(nearCache.estimatedBytes() > 0);
+    }
+
+    @Test
+    @DisplayName("Invalidations drop copies older than the change, a deletion drops any")
+    void testInvalidate() {
+        CartNearCache nearCache = nearCache(100, DataSize.ofMegabytes(1), Duration.ofHours(1));
+        nearCache.get(1, cached -> cart(1, 3));
+
+        nearCache.invalidate(1, 3);
+        assertEquals(1, nearCache.size());
+        nearCache.invalidate(1, 4);
+        assertEquals(0, nearCache.size());
+
+        nearCache.get(1, cached -> cart(1, 4));
+        nearCache.invalidate(1, -1);
+        assertEquals(0, nearCache.size());
+        assertEquals(2, nearCache.invalidationCount());
+        assertEquals(0, nearCache.estimatedBytes());
+    }
+
+    @Test
+    @DisplayName("A change arriving while the copy is loading keeps an older copy out of the cache")
+    void testInvalidatedWhileLoading() {
+        CartNearCache nearCache = nearCache(100, DataSize.ofMegabytes(1), Duration.ofHours(1));
+
+        CartResponse loaded = nearCache.get(1, cached -> {
+            nearCache.invalidate(1, 4);
+            return cart(1, 3);
+        });
+
+        assertEquals(3, loaded.getVersion());
+        assertEquals(0, nearCache.size());
+        CartResponse newer = cart(1, 4);
+        assertSame(newer, nearCache.get(1, cached -> newer));
+
+        // A change the copy on its way already has does not keep it out
+        nearCache.get(2, cached -> {
+            nearCache.invalidate(2, 5);
+            return cart(2, 5);
+        });
+        assertEquals(2, nearCache.size());
+    }
+
+    @Test
+    @DisplayName("A cart the owner no longer has leaves the cache")
+    void testMissingCart() {
+        CartNearCache nearCache = nearCache(100, DataSize.ofMegabytes(1), Duration.ZERO);
+        nearCache.get(1, cached -> cart(1, 3));
+
+        assertThrows(CartNotFoundException.class, () -> nearCache.get(1, cached -> {
+            throw new CartNotFoundException(1);
+        }));
+
+        assertEquals(0, nearCache.size());
+        assertEquals(0, nearCache.estimatedBytes());
+    }
+
+    @Test
+    @DisplayName("Bounded by count and by size, the least recently read copies go first")
+    void testBounded() {
+        CartNearCache byCount = nearCache(3, DataSize.ofMegabytes(1), Duration.ofHours(1));
+        for (int cartId = 1; cartId <= 3; cartId++) {
+            int id = cartId;
+            byCount.get(cartId, cached -> cart(id, 1));
+        }
+        byCount.get(1, cached -> fail("Cached"));
+        byCount.get(4, cached -> cart(4, 1));
+
+        assertEquals(3, byCount.size());
+        byCount.get(1, cached -> fail("Read recently, so kept"));
+        assertEquals(2, byCount.get(2, cached -> cart(2, 2)).getVersion());
+
+        CartNearCache bySize = nearCache(100, DataSize.ofKilobytes(4), Duration.ofHours(1));
+        for (int cartId = 1; cartId <= 100; cartId++) {
+            int id = cartId;
+            bySize.get(cartId, cached -> cart(id, 1));
+        }
+        assertTrue(bySize.size() < 100);
+        assertTrue(bySize.estimatedBytes() <= 4096, bySize.estimatedBytes() + " bytes");
+    }
+
+    @Test
+    @DisplayName("A ring change drops every copy")
+    void testRingChange() {
+        CartNearCache nearCache = nearCache(100, DataSize.ofMegabytes(1), Duration.ofHours(1));
+        nearCache.get(1, cached -> cart(1, 1));
+        nearCache.get(2, cached -> cart(2, 1));
+
+        nearCache.onRingChange(new ClusterMembership.RingChange(new ConsistentHashRing(List.of("a"), 1)));
+
+        assertEquals(0, nearCache.size());
+        assertEquals(0, nearCache.estimatedBytes());
+        assertEquals(2, nearCache.get(1, cached -> cart(1, 2)).getVersion());
+    }
+
+    private static CartNearCache nearCache(int maxCarts, DataSize maxSize, Duration maxStaleness) {
+        CartProperties cartProperties = new CartProperties();
+        CartProperties.NearCache properties = cartProperties.getCluster().getNearCache();
+        properties.setEnabled(true);
+        properties.setMaxCarts(maxCarts);
+        properties.setMaxSize(maxSize);
+        properties.setMaxStaleness(maxStaleness);
+        return new CartNearCache(cartProperties);
+    }
+
+    private static CartResponse cart(int cartId, long version) {
+        return new CartResponse(cartId, Map.of(1, new Product(1, "God of War", 1), 2, new Product(2, "Halo", 2)),
+                Instant.now(), version);
+    }
+}
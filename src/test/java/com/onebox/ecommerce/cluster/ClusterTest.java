@@ -0,0 +1,330 @@
+package com.onebox.ecommerce.cluster;
+
+import com.onebox.ecommerce.EcommerceApplication;
+import com.onebox.ecommerce.exception.CartNotFoundException;
+import com.onebox.ecommerce.exception.CartServiceCustomException;
+import com.onebox.ecommerce.model.CartIfModified;
+import com.onebox.ecommerce.model.CartLineChange;
+import com.onebox.ecommerce.model.CartResponse;
+import com.onebox.ecommerce.model.CartVersionCondition;
+import com.onebox.ecommerce.model.Product;
+import com.onebox.ecommerce.repository.CartRepository;
+import com.onebox.ecommerce.service.CartService;
+import com.onebox.ecommerce.service.ReactiveCartService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.reactive.context.ReactiveWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Several nodes in one JVM, talking to each other over localhost
+public class ClusterTest {
+
+    private static final long SETTLE_TIMEOUT_MS = 30_000;
+
+    private final Map<String, ConfigurableApplicationContext> nodes = new LinkedHashMap<>();
+    private final Map<String, String> members = new LinkedHashMap<>();
+    private final List<String> options = new ArrayList<>();
+    // Nodes started with the WebFlux front end on a random port, the others without a web server
+    private final Set<String> reactive = new HashSet<>();
+
+    @AfterEach
+    void tearDown() {
+        nodes.values().forEach(ConfigurableApplicationContext::close);
+    }
+
+    @Test
+    @DisplayName("Any node serves any cart, which lives on its owner only")
+    void testRequestsReachTheOwner() throws Exception {
+        start("a", "b", "c");
+        // Peers are served on the member's own address, not on every interface
+        ServerSocket peerSocket = (ServerSocket) ReflectionTestUtils.getField(
+                nodes.get("a").getBean(PeerServer.class), "serverSocket");
+        assertTrue(peerSocket.getInetAddress().isLoopbackAddress(), peerSocket.toString());
+
+        List<CartResponse> created = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            created.add(service(List.of("a", "b", "c").get(i % 3)).createCart());
+        }
+        assertEquals(60, created.stream().map(CartResponse::getId).distinct().count());
+
+        for (CartResponse cart : created) {
+            int cartId = cart.getId();
+            service("b").addProductsToCart(cartId, Map.of(1, new Product(1, "God of War", 2)), null);
+            service("c").updateCartLines(cartId,
+                    List.of(new CartLineChange(CartLineChange.Type.INCREMENT, 1, 1, null)), null);
+            CartResponse read = service("a").getCart(cartId);
+            assertEquals(3, read.getProducts().get(1).getAmount());
+            assertEquals(2, read.getVersion());
+            assertEquals(List.of(ownerOf(cartId)), holders(cartId));
+        }
+
+        int cartId = created.get(0).getId();
+        CartServiceCustomException mismatch = assertThrows(CartServiceCustomException.class,
+                () -> service("b").addProductsToCart(cartId, Map.of(2, new Product(2, "Halo", 1)),
+                        new CartVersionCondition(false, new long[]{1})));
+        assertEquals(HttpStatus.PRECONDITION_FAILED, mismatch.getStatus());
+        CartIfModified unchanged = service("c").getCartIfModified(cartId, new CartVersionCondition(false,
+                new long[]{1, 2}));
+        assertFalse(unchanged.isModified());
+        assertEquals(2, unchanged.version());
+
+        service("c").deleteCart(cartId);
+        assertThrows(CartNotFoundException.class, () -> service("a").getCart(cartId));
+        assertEquals(59, localCarts("a") + localCarts("b") + localCarts("c"));
+    }
+
+    @Test
+    @DisplayName("Carts move to a node that joins and away from a node that leaves, and stay readable everywhere")
+    void testRebalance() throws Exception {
+        start("a", "b");
+        Map<Integer, Integer> amounts = new LinkedHashMap<>();
+        for (int i = 0; i < 300; i++) {
+            int cartId = service(i % 2 == 0 ? "a" : "b").createCart().getId();
+            service("a").addProductsToCart(cartId, Map.of(1, new Product(1, "God of War", i + 1)), null);
+            amounts.put(cartId, i + 1);
+        }
+
+        start("c");
+        List<String> joined = member("a", "b", "c");
+        assertEquals(List.of(), membership("a").changeMembers(joined));
+        awaitSettled();
+
+        assertTrue(localCarts("c") > 0);
+        assertAllReadable(amounts);
+        // New carts keep their ids unique while ids change owners
+        for (int i = 0; i < 30; i++) {
+            int cartId = service("c").createCart().getId();
+            assertNull(amounts.put(cartId, 0));
+        }
+
+        assertEquals(List.of(), membership("b").changeMembers(member("a", "c")));
+        awaitSettled();
+
+        assertEquals(0, localCarts("b"));
+        assertAllReadable(amounts);
+    }
+
+    @Test
+    @DisplayName("Rebalance - the new owner serves carts still at their previous owner while the handoff runs")
+    void testRequestsDuringHandoff() throws Exception {
+        start("a", "b");
+        List<Integer> cartIds = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            int cartId = service(i % 2 == 0 ? "a" : "b").createCart().getId();
+            service("a").addProductsToCart(cartId, Map.of(1, new Product(1, "God of War", 1)), null);
+            cartIds.add(cartId);
+        }
+        start("c");
+        // Handoffs run one after the other, so one queued first holds them up until it returns
+        CountDownLatch release = new CountDownLatch(1);
+        for (String node : List.of("a", "b")) {
+            ExecutorService handoffs = (ExecutorService) ReflectionTestUtils.getField(
+                    nodes.get(node).getBean(CartHandoff.class), "executor");
+            handoffs.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        try {
+            assertEquals(List.of(), membership("a").changeMembers(member("a", "b", "c")));
+            List<Integer> moving = cartIds.stream().filter(cartId -> ownerOf(cartId).equals("c")).toList();
+            assertTrue(moving.size() >= 4, "carts moving to c: " + moving);
+            assertEquals(0, localCarts("c"));
+
+            for (int cartId : moving) {
+                assertEquals(1, service("c").getCart(cartId).getProducts().get(1).getAmount());
+                service("c").addProductsToCart(cartId, Map.of(2, new Product(2, "Halo", 1)), null);
+                service("c").updateCartLines(cartId,
+                        List.of(new CartLineChange(CartLineChange.Type.INCREMENT, 1, 1, null)), null);
+                assertEquals(2, service("c").getCart(cartId).getProducts().get(1).getAmount());
+            }
+            int deleted = moving.get(0);
+            service("c").deleteCart(deleted);
+            assertThrows(CartNotFoundException.class, () -> service("c").getCart(deleted));
+            assertEquals(0, localCarts("c"));
+
+            release.countDown();
+            awaitSettled();
+            for (int cartId : moving.subList(1, moving.size())) {
+                assertEquals(List.of("c"), holders(cartId));
+                CartResponse read = service("a").getCart(cartId);
+                assertEquals(2, read.getProducts().get(1).getAmount());
+                assertEquals(1, read.getProducts().get(2).getAmount());
+            }
+            assertEquals(List.of(), holders(deleted));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    @DisplayName("Near cache - reads through another node are served from its copy, dropped once the cart changes")
+    void testNearCache() throws Exception {
+        options.addAll(List.of("--cart.cluster.near-cache.enabled=true", "--cart.cluster.near-cache.max-staleness=1h"));
+        start("a", "b");
+        CartNearCache nearCache = nodes.get("a").getBean(CartNearCache.class);
+        int cartId = service("b").createCart().getId();
+        service("a").addProductsToCart(cartId, Map.of(1, new Product(1, "God of War", 1)), null);
+
+        assertEquals("b", ownerOf(cartId));
+        assertEquals(1, service("a").getCart(cartId).getProducts().get(1).getAmount());
+        assertEquals(1, service("a").getCart(cartId).getProducts().get(1).getAmount());
+        assertFalse(service("a").getCartIfModified(cartId, new CartVersionCondition(false, new long[]{1}))
+                .isModified());
+        assertEquals(1, nearCache.missCount());
+        assertEquals(2, nearCache.hitCount());
+
+        // Changed through its owner, the copy goes once the owner's invalidation arrives
+        service("b").updateCartLines(cartId,
+                List.of(new CartLineChange(CartLineChange.Type.INCREMENT, 1, 2, null)), null);
+        awaitTrue(() -> service("a").getCart(cartId).getProducts().get(1).getAmount() == 3);
+        assertTrue(nearCache.invalidationCount() >= 1);
+
+        service("b").deleteCart(cartId);
+        awaitTrue(() -> {
+            try {
+                service("a").getCart(cartId);
+                return false;
+            } catch (CartNotFoundException e) {
+                return true;
+            }
+        });
+        assertEquals(0, nearCache.size());
+    }
+
+    @Test
+    @DisplayName("Reactive front end - requests for carts of other nodes are forwarded off the event loop")
+    void testReactiveFrontEnd() throws Exception {
+        reactive.add("a");
+        start("a", "b");
+        int cartId = service("b").createCart().getId();
+        assertEquals("b", ownerOf(cartId));
+
+        // PeerClient blocks on its socket, which must not happen on a Netty event loop
+        String thread = nodes.get("a").getBean(ReactiveCartService.class).getCart(cartId)
+                .map(cart -> Thread.currentThread().getName())
+                .block();
+        assertNotNull(thread);
+        assertTrue(thread.startsWith("boundedElastic"), thread);
+
+        int port = ((ReactiveWebServerApplicationContext) nodes.get("a")).getWebServer().getPort();
+        WebTestClient webTestClient = WebTestClient.bindToServer().baseUrl("http://127.0.0.1:" + port).build();
+        webTestClient.post().uri("/carts/{id}", cartId)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of("1", Map.of("id", 1, "description", "God of War", "amount", 2)))
+                .exchange()
+                .expectStatus().isOk();
+        webTestClient.get().uri("/carts/{id}", cartId)
+                .exchange()
+                .expectStatus().isFound()
+                .expectBody()
+                .jsonPath("$.products.1.amount").isEqualTo(2);
+        assertEquals(List.of("b"), holders(cartId));
+    }
+
+    private void assertAllReadable(Map<Integer, Integer> amounts) {
+        for (Map.Entry<Integer, Integer> cart : amounts.entrySet()) {
+            int cartId = cart.getKey();
+            for (String node : membership("a").ring().nodes()) {
+                CartResponse read = service(node).getCart(cartId);
+                int amount = read.getProducts().isEmpty() ? 0 : read.getProducts().get(1).getAmount();
+                assertEquals(cart.getValue(), amount);
+            }
+            assertEquals(List.of(ownerOf(cartId)), holders(cartId));
+        }
+        assertEquals(amounts.size(), nodes.keySet().stream().mapToLong(this::localCarts).sum());
+    }
+
+    private void start(String... names) throws IOException, InterruptedException {
+        for (String name : names) {
+            members.put(name, name + "=127.0.0.1:" + freePort());
+        }
+        List<String> all = List.copyOf(members.values());
+        for (String name : names) {
+            // As arguments, which take precedence over application.properties
+            nodes.put(name, new SpringApplicationBuilder(EcommerceApplication.class).run(Stream.concat(Stream.of(
+                    "--spring.main.web-application-type=" + (reactive.contains(name) ? "reactive" : "none"),
+                    "--server.port=0", "--spring.main.banner-mode=off",
+                    "--cart.cluster.enabled=true", "--cart.cluster.node-id=" + name,
+                    "--cart.cluster.members=" + String.join(",", all), "--cart.cluster.timeout=500ms",
+                    "--cart.cluster.handoff-batch=50", "--cart.eviction.scheduled=false",
+                    "--logging.level.cart.requests=OFF"), options.stream()).toArray(String[]::new)));
+        }
+        awaitSettled();
+    }
+
+    private void awaitSettled() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + SETTLE_TIMEOUT_MS;
+        Set<String> members = new HashSet<>(membership(nodes.keySet().iterator().next()).ring().nodes());
+        while (!members.stream().allMatch(node -> membership(node).canIssueIds()
+                && !membership(node).settling() && membership(node).ring().nodes().containsAll(members))) {
+            assertTrue(System.currentTimeMillis() < deadline, "The cluster did not settle");
+            Thread.sleep(50);
+        }
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + SETTLE_TIMEOUT_MS;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out");
+            Thread.sleep(20);
+        }
+    }
+
+    private List<String> member(String... names) {
+        return List.of(names).stream().map(members::get).toList();
+    }
+
+    private String ownerOf(int cartId) {
+        return membership("a").ring().ownerOf(cartId);
+    }
+
+    private List<String> holders(int cartId) {
+        return nodes.keySet().stream()
+                .filter(node -> nodes.get(node).getBean(CartRepository.class).withCart(cartId, cart -> cart) != null)
+                .collect(Collectors.toList());
+    }
+
+    private long localCarts(String node) {
+        return nodes.get(node).getBean(CartRepository.class).count();
+    }
+
+    private CartService service(String node) {
+        return nodes.get(node).getBean(CartService.class);
+    }
+
+    private ClusterMembership membership(String node) {
+        return nodes.get(node).getBean(ClusterMembership.class);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
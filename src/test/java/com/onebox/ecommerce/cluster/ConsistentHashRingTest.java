@@ -0,0 +1,62 @@
+package com.onebox.ecommerce.cluster;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConsistentHashRingTest {
+
+    private static final int CARTS = 100_000;
+
+    @Test
+    @DisplayName("Every node owns about the same share of the carts")
+    void testBalanced() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("a", "b", "c", "d"), 128);
+        Map<String, Integer> owned = new HashMap<>();
+        for (int cartId = 1; cartId <= CARTS; cartId++) {
+            owned.merge(ring.ownerOf(cartId), 1, Integer::sum);
+        }
+
+        assertEquals(4, owned.size());
+        owned.forEach((node, carts) -> assertTrue(carts > CARTS / 4 * 0.8 && carts < CARTS / 4 * 1.2,
+                node + " owns " + carts));
+    }
+
+    @Test
+    @DisplayName("A node joining takes about its share, and only from the others")
+    void testJoinMovesOneShare() {
+        ConsistentHashRing before = new ConsistentHashRing(List.of("a", "b", "c"), 128);
+        ConsistentHashRing after = new ConsistentHashRing(List.of("a", "b", "c", "d"), 128);
+        int moved = 0;
+        for (int cartId = 1; cartId <= CARTS; cartId++) {
+            String owner = after.ownerOf(cartId);
+            if (!owner.equals(before.ownerOf(cartId))) {
+                assertEquals("d", owner);
+                moved++;
+            }
+        }
+
+        assertTrue(moved > CARTS / 4 * 0.8 && moved < CARTS / 4 * 1.2, moved + " carts moved");
+    }
+
+    @Test
+    @DisplayName("The ring depends on the members only, not on their order")
+    void testSameMembersSameRing() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("c", "a", "b", "a"), 64);
+        ConsistentHashRing same = new ConsistentHashRing(List.of("a", "b", "c"), 64);
+
+        assertEquals(List.of("a", "b", "c"), ring.nodes());
+        assertEquals(same.id(), ring.id());
+        assertNotEquals(same.id(), new ConsistentHashRing(List.of("a", "b"), 64).id());
+        for (int cartId = -1000; cartId <= 1000; cartId++) {
+            assertEquals(same.ownerOf(cartId), ring.ownerOf(cartId));
+        }
+        assertTrue(ring.contains("b"));
+        assertFalse(ring.contains("d"));
+    }
+}
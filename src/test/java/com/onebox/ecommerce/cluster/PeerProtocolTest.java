@@ -0,0 +1,128 @@
+package com.onebox.ecommerce.cluster;
+
+import com.onebox.ecommerce.exception.CartNotFoundException;
+import com.onebox.ecommerce.exception.CartServiceCustomException;
+import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.model.CartDeltaResponse;
+import com.onebox.ecommerce.model.CartLineChange;
+import com.onebox.ecommerce.model.CartResponse;
+import com.onebox.ecommerce.model.CartVersionCondition;
+import com.onebox.ecommerce.model.Product;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PeerProtocolTest {
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+
+    @Test
+    @DisplayName("Round trip - a cart being handed off keeps its id, timestamp, version and lines")
+    void testCart() throws IOException {
+        Cart cart = new Cart(Integer.MAX_VALUE, Instant.parse("2025-04-06T12:00:00.123456789Z"));
+        cart.setVersion(42);
+        cart.getProducts().put(1, "God of War", 2);
+        cart.getProducts().put(-5, null, -1);
+        cart.getProducts().put(7, "Pokémon 🎮", Integer.MIN_VALUE);
+
+        PeerProtocol.writeCart(out, cart);
+
+        assertEquals(cart, PeerProtocol.readCart(in()));
+    }
+
+    @Test
+    @DisplayName("Round trip - responses and the bodies of forwarded requests")
+    void testResponsesAndRequests() throws IOException {
+        Map<Integer, Product> lines = new HashMap<>();
+        lines.put(1, new Product(1, "God of War", 2));
+        lines.put(3, new Product(3, null, 1));
+        CartResponse cart = new CartResponse(5, lines, Instant.parse("2025-04-06T12:00:00Z"), 9);
+        CartDeltaResponse delta = new CartDeltaResponse(5, 10, Instant.parse("2025-04-06T12:00:01Z"),
+                Map.of(1, new Product(1, "God of War", 3)), List.of(3, -4));
+        Map<Integer, Product> products = new LinkedHashMap<>();
+        products.put(1, new Product(2, "Mismatched id", -3));
+        products.put(4, null);
+        List<CartLineChange> changes = List.of(new CartLineChange(CartLineChange.Type.INCREMENT, 1, 2, null),
+                new CartLineChange(null, null, null, "No type"));
+
+        PeerProtocol.writeCartResponse(out, cart);
+        PeerProtocol.writeDelta(out, delta);
+        PeerProtocol.writeProducts(out, products);
+        PeerProtocol.writeChanges(out, changes);
+        PeerProtocol.writeCondition(out, null);
+        PeerProtocol.writeCondition(out, CartVersionCondition.ANY);
+        PeerProtocol.writeCondition(out, new CartVersionCondition(false, new long[]{3, Long.MAX_VALUE}));
+        DataInputStream in = in();
+
+        CartResponse readCart = PeerProtocol.readCartResponse(in);
+        assertEquals(cart.getId(), readCart.getId());
+        assertEquals(cart.getLastUpdated(), readCart.getLastUpdated());
+        assertEquals(cart.getVersion(), readCart.getVersion());
+        assertEquals(lines, new HashMap<>(readCart.getProducts()));
+        assertEquals(delta, PeerProtocol.readDelta(in));
+        assertEquals(products, PeerProtocol.readProducts(in));
+        assertEquals(changes, PeerProtocol.readChanges(in));
+        assertNull(PeerProtocol.readCondition(in));
+        assertSame(CartVersionCondition.ANY, PeerProtocol.readCondition(in));
+        CartVersionCondition versions = PeerProtocol.readCondition(in);
+        assertArrayEquals(new long[]{3, Long.MAX_VALUE}, versions.versions());
+        assertTrue(versions.test(3));
+        assertFalse(versions.test(4));
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    @DisplayName("Errors come back with their status, code and retry delay, a missing cart as CartNotFoundException")
+    void testErrors() throws IOException {
+        PeerProtocol.writeError(out, new CartServiceCustomException("Too many lines", "TOO_MANY_LINES",
+                HttpStatus.UNPROCESSABLE_ENTITY));
+        PeerProtocol.writeError(out, new CartServiceCustomException("Busy", "OVERLOADED",
+                HttpStatus.SERVICE_UNAVAILABLE, Duration.ZERO));
+        PeerProtocol.writeError(out, new CartNotFoundException(8));
+        DataInputStream in = in();
+
+        assertEquals(PeerProtocol.ERROR, in.readByte());
+        CartServiceCustomException tooManyLines = PeerProtocol.readError(in, 8);
+        assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, tooManyLines.getStatus());
+        assertEquals("TOO_MANY_LINES", tooManyLines.getErrorCode());
+        assertEquals("Too many lines", tooManyLines.getMessage());
+        assertNull(tooManyLines.getRetryAfter());
+        assertEquals(PeerProtocol.ERROR, in.readByte());
+        assertEquals(Duration.ZERO, PeerProtocol.readError(in, 8).getRetryAfter());
+        assertEquals(PeerProtocol.ERROR, in.readByte());
+        assertInstanceOf(CartNotFoundException.class, PeerProtocol.readError(in, 8));
+    }
+
+    @Test
+    @DisplayName("Only version conditions can be forwarded, and oversized or truncated messages are rejected")
+    void testRejected() throws IOException {
+        assertThrows(IllegalArgumentException.class, () -> PeerProtocol.writeCondition(out, version -> true));
+
+        PeerProtocol.writeVarint(out, Integer.MAX_VALUE);
+        assertThrows(IOException.class, () -> PeerProtocol.readString(in()));
+
+        bytes.reset();
+        PeerProtocol.writeVarint(out, 2);
+        out.writeByte(2);
+        assertThrows(IOException.class, () -> PeerProtocol.readProducts(in()));
+    }
+
+    private DataInputStream in() {
+        return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+}
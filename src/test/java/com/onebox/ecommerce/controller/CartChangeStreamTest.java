@@ -0,0 +1,152 @@
+package com.onebox.ecommerce.controller;
+
+import com.onebox.ecommerce.model.CartChangeEvent;
+import com.onebox.ecommerce.model.CartResponse;
+import com.onebox.ecommerce.model.Product;
+import com.onebox.ecommerce.service.CartService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.test.web.reactive.server.FluxExchangeResult;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The MVC controller on Tomcat, streaming the changes the real service makes
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"cart.eviction.scheduled=false", "cart.changes.batch-interval=20ms",
+                "cart.changes.heartbeat=200ms", "cart.changes.max-streams=2"})
+public class CartChangeStreamTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @Autowired
+    private CartService cartService;
+
+    @Autowired
+    private CartChangeStreams cartChangeStreams;
+
+    @AfterEach
+    void awaitStreamsClosed() throws InterruptedException {
+        // A client going away is noticed by the next write, a heartbeat at the latest
+        long deadline = System.currentTimeMillis() + TIMEOUT.toMillis();
+        while (cartChangeStreams.openStreams() > 0) {
+            assertTrue(System.currentTimeMillis() < deadline, "Streams were not closed");
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    @DisplayName("Server-sent events - every change from now on, numbered, with the lines it changed")
+    void testServerSentEvents() {
+        FluxExchangeResult<ServerSentEvent<CartChangeEvent>> result = webTestClient.get().uri("/carts/changes")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(new ParameterizedTypeReference<>() {
+                });
+        assertTrue(MediaType.TEXT_EVENT_STREAM.isCompatibleWith(result.getResponseHeaders().getContentType()));
+
+        CartResponse cart = cartService.createCart();
+        cartService.addProductsToCart(cart.getId(), Map.of(1, new Product(1, "God of War", 2)), null);
+        cartService.deleteCart(cart.getId());
+
+        Integer cartId = cart.getId();
+        List<ServerSentEvent<CartChangeEvent>> events = result.getResponseBody()
+                .filter(event -> event.data() != null && cartId.equals(event.data().getCartId()))
+                .take(3)
+                .collectList()
+                .block(TIMEOUT);
+        assertNotNull(events);
+        assertEquals(List.of("created", "updated", "deleted"), events.stream().map(ServerSentEvent::event).toList());
+        long first = Long.parseLong(events.get(0).id());
+        assertEquals(first + 2, Long.parseLong(events.get(2).id()));
+        assertEquals(first, events.get(0).data().getSequence());
+        CartChangeEvent updated = events.get(1).data();
+        assertEquals("UPDATED", updated.getType());
+        assertEquals(cart.getVersion() + 1, updated.getVersion());
+        assertEquals(2, updated.getProducts().get(1).getAmount());
+        assertNotNull(updated.getTimestamp());
+        assertNull(events.get(2).data().getVersion());
+    }
+
+    @Test
+    @DisplayName("NDJSON - resumes after the sequence number the client got last")
+    void testResumeNdjson() {
+        CartResponse cart = cartService.createCart();
+        CartResponse updated = cartService.addProductsToCart(cart.getId(),
+                Map.of(7, new Product(7, "Halo", 1)), null);
+        long created = sequenceOf(cart.getId(), "CREATED");
+
+        Flux<CartChangeEvent> events = webTestClient.get().uri("/carts/changes?after={after}", created)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .returnResult(CartChangeEvent.class)
+                .getResponseBody();
+
+        CartChangeEvent next = events.filter(event -> event.getCartId() != null).blockFirst(TIMEOUT);
+        assertNotNull(next);
+        assertEquals(created + 1, next.getSequence());
+        assertEquals(Integer.valueOf(cart.getId()), next.getCartId());
+        assertEquals(updated.getVersion(), next.getVersion());
+        assertEquals(1, next.getProducts().get(7).getAmount());
+    }
+
+    @Test
+    @DisplayName("Streams - past max-streams further ones get 503, and do not hold admission permits")
+    void testMaxStreams() {
+        List<Flux<String>> open = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            open.add(webTestClient.get().uri("/carts/changes")
+                    .exchange()
+                    .expectStatus().isOk()
+                    .returnResult(String.class)
+                    .getResponseBody());
+        }
+
+        webTestClient.get().uri("/carts/changes")
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.SERVICE_UNAVAILABLE)
+                .expectHeader().exists(HttpHeaders.RETRY_AFTER)
+                .expectBody()
+                .jsonPath("$.errorCode").isEqualTo("TOO_MANY_STREAMS");
+        webTestClient.post().uri("/carts")
+                .exchange()
+                .expectStatus().isCreated();
+
+        // Reading a little and cancelling closes the connections
+        open.forEach(body -> body.take(1).blockLast(TIMEOUT));
+    }
+
+    // Reads the change from the start of the log, which holds every change of this test class
+    private long sequenceOf(int cartId, String type) {
+        CartChangeEvent event = webTestClient.get().uri("/carts/changes?after=0")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .returnResult(CartChangeEvent.class)
+                .getResponseBody()
+                .filter(candidate -> Integer.valueOf(cartId).equals(candidate.getCartId())
+                        && type.equals(candidate.getType()))
+                .blockFirst(TIMEOUT);
+        assertNotNull(event);
+        return event.getSequence();
+    }
+}
@@ -1,32 +1,49 @@
 package com.onebox.ecommerce.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.onebox.ecommerce.exception.CartNotFoundException;
 import com.onebox.ecommerce.exception.CartServiceCustomException;
+import com.onebox.ecommerce.metrics.CartMetrics;
+import com.onebox.ecommerce.model.CartDeltaResponse;
+import com.onebox.ecommerce.model.CartErrorResponse;
+import com.onebox.ecommerce.model.CartIfModified;
+import com.onebox.ecommerce.model.CartLineChange;
+import com.onebox.ecommerce.model.CartOperation;
+import com.onebox.ecommerce.model.CartOperationResult;
 import com.onebox.ecommerce.model.CartResponse;
 import com.onebox.ecommerce.model.Product;
+import com.onebox.ecommerce.service.CartAdmissionControl;
 import com.onebox.ecommerce.service.CartService;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.ResultActions;
 
 // Mockito static imports
+import java.time.Duration;
 import java.time.Instant;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.LongPredicate;
 
 import static org.hamcrest.Matchers.*;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.hamcrest.CoreMatchers.is;
 
 @WebMvcTest(CartController.class)
@@ -38,6 +55,15 @@ public class CartControllerTest {
     @MockitoBean
     private CartService cartService;
 
+    @MockitoBean
+    private CartMetrics cartMetrics;
+
+    @MockitoBean
+    private CartAdmissionControl cartAdmissionControl;
+
+    @MockitoBean
+    private CartChangeStreams cartChangeStreams;
+
     @Autowired
     private ObjectMapper objectMapper;
 
@@ -84,7 +110,64 @@ public class CartControllerTest {
         response.andDo(print())  // Print response for debugging
                 .andExpect(status().isFound())
                 .andExpect(jsonPath("$.id").value(cartResponse.getId()))
-                .andExpect(jsonPath("$.products").isNotEmpty());
+                .andExpect(jsonPath("$.products").isNotEmpty())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + cartResponse.getVersion() + "\""));
+    }
+
+    @Test
+    @DisplayName("Get cart test - Not modified scenario")
+    void testGetCartNotModified() throws Exception {
+        // Mocking
+        int cartId = 1;
+        when(cartService.getCartIfModified(eq(cartId), any())).thenReturn(CartIfModified.notModified(4));
+        // Actual
+        ResultActions response = mockMvc.perform(get("/carts/{id}", cartId)
+                .header(HttpHeaders.IF_NONE_MATCH, "\"4\""));
+        // Verify
+        verify(cartService, never()).getCart(anyInt());
+        // Assertion
+        response.andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"4\""))
+                .andExpect(content().string(""));
+    }
+
+    @Test
+    @DisplayName("Get cart test - Not modified for a list of tags or *, the 304 names the version that matched")
+    void testGetCartNotModifiedSeveralTags() throws Exception {
+        // Mocking
+        int cartId = 1;
+        when(cartService.getCartIfModified(eq(cartId), any())).thenAnswer(invocation -> {
+            LongPredicate notModified = invocation.getArgument(1);
+            return notModified.test(4) ? CartIfModified.notModified(4) : CartIfModified.modified(cartResponse);
+        });
+        // Actual and assertion
+        for (String ifNoneMatch : List.of("\"3\", W/\"4\", \"5\"", "*")) {
+            mockMvc.perform(get("/carts/{id}", cartId)
+                            .header(HttpHeaders.IF_NONE_MATCH, ifNoneMatch))
+                    .andExpect(status().isNotModified())
+                    .andExpect(header().string(HttpHeaders.ETAG, "\"4\""))
+                    .andExpect(content().string(""));
+        }
+    }
+
+    @Test
+    @DisplayName("Get cart test - Modified since the version in If-None-Match")
+    void testGetCartModified() throws Exception {
+        // Mocking
+        cartResponse = getExistingCartResponse();
+        when(cartService.getCartIfModified(eq(cartResponse.getId()), any())).thenAnswer(invocation -> {
+            LongPredicate notModified = invocation.getArgument(1);
+            return notModified.test(cartResponse.getVersion())
+                    ? CartIfModified.notModified(cartResponse.getVersion())
+                    : CartIfModified.modified(cartResponse);
+        });
+        // Actual
+        ResultActions response = mockMvc.perform(get("/carts/{id}", cartResponse.getId())
+                .header(HttpHeaders.IF_NONE_MATCH, "\"1\", W/\"2\""));
+        // Assertion
+        response.andExpect(status().isFound())
+                .andExpect(jsonPath("$.products").isNotEmpty())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + cartResponse.getVersion() + "\""));
     }
 
 
@@ -103,6 +186,7 @@ public class CartControllerTest {
                 .contentType(MediaType.APPLICATION_JSON));
         // Verify
         verify(cartService, times(1)).getCart(notFoundCartId);
+        verify(cartMetrics, times(1)).recordError("CART_NOT_FOUND");
         // Assertion
         response.andDo(print())  // Print response for debugging
                 .andExpect(status().isNotFound())  // 404 Not Found
@@ -110,6 +194,51 @@ public class CartControllerTest {
                 .andExpect(jsonPath("$.errorCode").value("CART_NOT_FOUND"));
     }
 
+    @Test
+    @DisplayName("Get cart test - a miss is answered with the pre-serialized body")
+    void testGetCartNotFound() throws Exception {
+        when(cartService.getCart(7)).thenThrow(new CartNotFoundException(7));
+
+        mockMvc.perform(get("/carts/{id}", 7))
+                .andExpect(status().isNotFound())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(content().json(
+                        "{\"errorMessage\":\"Cart with given id: 7 was not found\",\"errorCode\":\"CART_NOT_FOUND\"}",
+                        true));
+        verify(cartMetrics, times(1)).recordError("CART_NOT_FOUND");
+    }
+
+    @Test
+    @DisplayName("Rejected requests - answered with 429 and Retry-After before reaching the service")
+    void testRequestRateLimited() throws Exception {
+        // Mocking
+        doThrow(new CartServiceCustomException("Too many requests from 127.0.0.1", "RATE_LIMITED",
+                HttpStatus.TOO_MANY_REQUESTS, Duration.ofMillis(1500)))
+                .when(cartAdmissionControl).admit("127.0.0.1");
+        // Actual
+        ResultActions response = mockMvc.perform(get("/carts/{id}", 1));
+        // Verify
+        verify(cartService, never()).getCart(anyInt());
+        verify(cartAdmissionControl, never()).release();
+        verify(cartMetrics, times(1)).recordError("RATE_LIMITED");
+        // Assertion
+        response.andExpect(status().isTooManyRequests())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "2"))
+                .andExpect(jsonPath("$.errorCode").value("RATE_LIMITED"));
+    }
+
+    @Test
+    @DisplayName("Admitted requests - released once they complete, failed or not")
+    void testRequestReleased() throws Exception {
+        when(cartService.getCart(1)).thenThrow(new CartServiceCustomException(
+                "Cart with given id: 1 was not found", "CART_NOT_FOUND"));
+
+        mockMvc.perform(get("/carts/{id}", 1)).andExpect(status().isNotFound());
+
+        verify(cartAdmissionControl, times(1)).admit("127.0.0.1");
+        verify(cartAdmissionControl, times(1)).release();
+    }
+
     @Test
     @DisplayName("Add products to cart test - Success scenario")
     void testAddProductsToCartSuccess() throws Exception {
@@ -120,7 +249,7 @@ public class CartControllerTest {
         products.put(1, new Product(1, "Final Fantasy VII", 1));
         products.put(2, new Product(2, "Bloodborne", 1));
         CartResponse cartResponse = getExistingCartResponse();
-        when(cartService.addProductsToCart(eq(cartId), anyMap())).thenReturn(cartResponse);
+        when(cartService.addProductsToCart(eq(cartId), anyMap(), isNull())).thenReturn(cartResponse);
 
         // Actual
         ResultActions response = mockMvc.perform(post(endpoint, cartId)
@@ -128,7 +257,7 @@ public class CartControllerTest {
                 .content(objectMapper.writeValueAsString(products)));
 
         // Verify
-        verify(cartService, times(1)).addProductsToCart(eq(cartId), anyMap());
+        verify(cartService, times(1)).addProductsToCart(eq(cartId), anyMap(), isNull());
 
         // Assert
         response.andDo(print())
@@ -137,6 +266,55 @@ public class CartControllerTest {
                 .andExpect(jsonPath("$.products").isNotEmpty());
     }
 
+    @Test
+    @DisplayName("Update cart lines test - Success scenario")
+    void testUpdateCartLinesSuccess() throws Exception {
+        // Mocking
+        int cartId = 1;
+        List<CartLineChange> changes = List.of(
+                new CartLineChange(CartLineChange.Type.INCREMENT, 1, 2, null),
+                new CartLineChange(CartLineChange.Type.REMOVE, 2, null, null));
+        CartDeltaResponse delta = new CartDeltaResponse(cartId, 5, Instant.now(),
+                Map.of(1, new Product(1, "Final Fantasy VII", 3)), List.of(2));
+        when(cartService.updateCartLines(eq(cartId), eq(changes), argThat(ifMatch -> ifMatch.test(4)))).thenReturn(delta);
+
+        // Actual
+        ResultActions response = mockMvc.perform(patch("/carts/{id}", cartId)
+                .header(HttpHeaders.IF_MATCH, "\"4\"")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(changes)));
+
+        // Verify
+        verify(cartService, times(1)).updateCartLines(eq(cartId), eq(changes), argThat(ifMatch -> ifMatch.test(4)));
+
+        // Assert
+        response.andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.version").value(5))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"5\""))
+                .andExpect(jsonPath("$.products.1.amount").value(3))
+                .andExpect(jsonPath("$.removed[0]").value(2));
+    }
+
+    @Test
+    @DisplayName("Add products to cart test - Version mismatch scenario")
+    void testAddProductsToCartVersionMismatch() throws Exception {
+        // Mocking
+        int cartId = 1;
+        when(cartService.addProductsToCart(eq(cartId), anyMap(), notNull()))
+                .thenThrow(new CartServiceCustomException(
+                        "Cart with given id: 1 is at version 5",
+                        "VERSION_MISMATCH", HttpStatus.PRECONDITION_FAILED));
+        // Actual
+        ResultActions response = mockMvc.perform(post("/carts/{id}", cartId)
+                .header(HttpHeaders.IF_MATCH, "\"4\"")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(Map.of(1, new Product(1, "Bloodborne", 1)))));
+        // Assertion
+        response.andExpect(status().isPreconditionFailed())
+                .andExpect(jsonPath("$.errorCode").value("VERSION_MISMATCH"));
+    }
+
     @Test
     @DisplayName("Add products to cart test - Cart not found scenario")
     void testAddProductsToCartCartNotFound() throws Exception {
@@ -146,7 +324,7 @@ public class CartControllerTest {
         Map<Integer, Product> products = new HashMap<>();
         products.put(101, new Product(1, "Age of Empires II", 1));
         products.put(102, new Product(2, "Commandos Beyond Call of Duty", 4));
-        when(cartService.addProductsToCart(eq(cartNotFoundId), anyMap()))
+        when(cartService.addProductsToCart(eq(cartNotFoundId), anyMap(), isNull()))
                 .thenThrow(new CartServiceCustomException("Cart with given id: " + cartNotFoundId + " was not found", "CART_NOT_FOUND"));
 
         // Actual
@@ -155,7 +333,7 @@ public class CartControllerTest {
                 .content(objectMapper.writeValueAsString(products)));
 
         // Verify
-        verify(cartService, times(1)).addProductsToCart(eq(cartNotFoundId), anyMap());
+        verify(cartService, times(1)).addProductsToCart(eq(cartNotFoundId), anyMap(), isNull());
 
         // Assert
         response.andDo(print())  // Print response for debugging
@@ -207,6 +385,37 @@ public class CartControllerTest {
                 .andExpect(jsonPath("$.errorCode").value("CART_NOT_FOUND"));
     }
 
+    @Test
+    @DisplayName("Batch test - one result per operation")
+    void testExecuteBatch() throws Exception {
+        // Mocking
+        String endpoint = "/carts/batch";
+        List<CartOperation> operations = List.of(
+                new CartOperation(CartOperation.Type.GET, 1, null),
+                new CartOperation(CartOperation.Type.DELETE, 2, null));
+        when(cartService.executeBatch(operations)).thenReturn(List.of(
+                new CartOperationResult(302, getExistingCartResponse(), null),
+                new CartOperationResult(404, null,
+                        new CartErrorResponse("Cart with given id: 2 was not found", "CART_NOT_FOUND"))));
+
+        // Actual
+        ResultActions response = mockMvc.perform(post(endpoint)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(operations)));
+
+        // Verify
+        verify(cartService, times(1)).executeBatch(operations);
+
+        // Assert
+        response.andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].status").value(302))
+                .andExpect(jsonPath("$[0].cart.id").value(1))
+                .andExpect(jsonPath("$[1].status").value(404))
+                .andExpect(jsonPath("$[1].cart").doesNotExist())
+                .andExpect(jsonPath("$[1].error.errorCode").value("CART_NOT_FOUND"));
+    }
+
     CartResponse getEmptyCartResponse(){
         CartResponse cartResponse = new CartResponse();
         cartResponse.setId(1);
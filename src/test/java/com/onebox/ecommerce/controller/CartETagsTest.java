@@ -0,0 +1,39 @@
+package com.onebox.ecommerce.controller;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.function.LongPredicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CartETagsTest {
+
+    @Test
+    @DisplayName("If-None-Match - lists and weak tags match their versions")
+    void testIfNoneMatch() {
+        LongPredicate notModified = CartETags.ifNoneMatch("\"3\", W/\"7\"");
+
+        assertTrue(notModified.test(3));
+        assertTrue(notModified.test(7));
+        assertFalse(notModified.test(4));
+        assertNull(CartETags.ifNoneMatch(null));
+        assertTrue(CartETags.ifNoneMatch("*").test(12));
+    }
+
+    @Test
+    @DisplayName("If-Match - weak tags never match")
+    void testIfMatch() {
+        assertTrue(CartETags.ifMatch("\"3\"").test(3));
+        assertFalse(CartETags.ifMatch("W/\"3\"").test(3));
+    }
+
+    @Test
+    @DisplayName("Tags this application never issued match no version")
+    void testForeignTags() {
+        LongPredicate ifMatch = CartETags.ifMatch("\"abc\", 3, \"\", \"99999999999999999999\"");
+
+        assertFalse(ifMatch.test(3));
+        assertFalse(CartETags.ifNoneMatch("\"abc\"").test(3));
+    }
+}
@@ -0,0 +1,226 @@
+package com.onebox.ecommerce.controller;
+
+import com.onebox.ecommerce.json.CartResponseEncoder;
+import com.onebox.ecommerce.model.CartChangeEvent;
+import com.onebox.ecommerce.model.CartResponse;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.embedded.netty.NettyWebServer;
+import org.springframework.boot.web.reactive.context.ReactiveWebServerApplicationContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.EncoderHttpMessageWriter;
+import org.springframework.http.codec.HttpMessageWriter;
+import org.springframework.http.codec.ServerCodecConfigurer;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The whole application in reactive mode on Netty, with the real service behind the controller
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"spring.main.web-application-type=reactive", "cart.eviction.scheduled=false",
+                "cart.limits.requests-per-second=1", "cart.limits.burst=50", "cart.limits.client-header=X-Client-Id"})
+public class ReactiveCartControllerTest {
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @Autowired
+    private ReactiveWebServerApplicationContext context;
+
+    @Autowired
+    private ServerCodecConfigurer serverCodecConfigurer;
+
+    @Test
+    @DisplayName("Reactive mode - served by Netty instead of the MVC controller")
+    void testServedByNetty() {
+        assertInstanceOf(NettyWebServer.class, context.getWebServer());
+        assertTrue(context.getBeansOfType(CartController.class).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Codecs - carts are written by CartResponseEncoder ahead of Jackson")
+    void testCartResponseEncoderComesFirst() {
+        List<HttpMessageWriter<?>> writers = serverCodecConfigurer.getWriters();
+
+        int cartEncoder = indexOfEncoder(writers, CartResponseEncoder.class);
+        int jacksonEncoder = indexOfEncoder(writers, Jackson2JsonEncoder.class);
+        assertTrue(cartEncoder >= 0 && cartEncoder < jacksonEncoder, writers.toString());
+    }
+
+    @Test
+    @DisplayName("Create, add products, get and delete - same statuses and bodies as the MVC controller")
+    void testCartLifecycle() {
+        CartResponse created = webTestClient.post().uri("/carts")
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody(CartResponse.class)
+                .returnResult().getResponseBody();
+        assertNotNull(created);
+        int cartId = created.getId();
+
+        webTestClient.post().uri("/carts/{id}", cartId)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of("1", Map.of("id", 1, "description", "Elden Ring", "amount", 2)))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.id").isEqualTo(cartId)
+                .jsonPath("$.products.1.description").isEqualTo("Elden Ring")
+                .jsonPath("$.products.1.amount").isEqualTo(2);
+
+        webTestClient.get().uri("/carts/{id}", cartId)
+                .exchange()
+                .expectStatus().isFound()
+                .expectBody()
+                .jsonPath("$.products.1.amount").isEqualTo(2);
+
+        webTestClient.delete().uri("/carts/{id}", cartId)
+                .exchange()
+                .expectStatus().isOk();
+
+        webTestClient.get().uri("/carts/{id}", cartId)
+                .exchange()
+                .expectStatus().isNotFound()
+                .expectBody()
+                .jsonPath("$.errorCode").isEqualTo("CART_NOT_FOUND");
+    }
+
+    @Test
+    @DisplayName("Conditional requests - 304 for the current version, 412 for an update against a stale one")
+    void testConditionalRequests() {
+        CartResponse created = webTestClient.post().uri("/carts")
+                .exchange()
+                .expectBody(CartResponse.class)
+                .returnResult().getResponseBody();
+        assertNotNull(created);
+        int cartId = created.getId();
+        String eTag = "\"" + created.getVersion() + "\"";
+
+        webTestClient.get().uri("/carts/{id}", cartId)
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, eTag)
+                .expectBody().isEmpty();
+        for (String ifNoneMatch : List.of("\"" + (created.getVersion() + 5) + "\", W/" + eTag, "*")) {
+            webTestClient.get().uri("/carts/{id}", cartId)
+                    .header(HttpHeaders.IF_NONE_MATCH, ifNoneMatch)
+                    .exchange()
+                    .expectStatus().isNotModified()
+                    .expectHeader().valueEquals(HttpHeaders.ETAG, eTag);
+        }
+
+        webTestClient.patch().uri("/carts/{id}", cartId)
+                .header(HttpHeaders.IF_MATCH, eTag)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(List.of(Map.of("type", "INCREMENT", "productId", 1, "amount", 2)))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, "\"" + (created.getVersion() + 1) + "\"");
+
+        webTestClient.post().uri("/carts/{id}", cartId)
+                .header(HttpHeaders.IF_MATCH, eTag)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of("2", Map.of("id", 2, "description", "Hades", "amount", 1)))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.PRECONDITION_FAILED)
+                .expectBody()
+                .jsonPath("$.errorCode").isEqualTo("VERSION_MISMATCH");
+
+        webTestClient.get().uri("/carts/{id}", cartId)
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus().isFound()
+                .expectBody()
+                .jsonPath("$.products.1.amount").isEqualTo(2)
+                .jsonPath("$.products.2").doesNotExist();
+    }
+
+    @Test
+    @DisplayName("Batch - one result per operation, in request order")
+    void testBatch() {
+        webTestClient.post().uri("/carts/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(List.of(Map.of("type", "CREATE"), Map.of("type", "GET", "cartId", Integer.MAX_VALUE)))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$[0].status").isEqualTo(201)
+                .jsonPath("$[1].status").isEqualTo(404);
+    }
+
+    @Test
+    @DisplayName("Rate limiting - a client past its burst is answered with 429 and Retry-After")
+    void testRateLimited() {
+        // The burst, and the odd token the bucket gained meanwhile
+        int admitted = 0;
+        while (webTestClient.get().uri("/carts/{id}", Integer.MAX_VALUE)
+                .header("X-Client-Id", "greedy")
+                .exchange()
+                .returnResult(String.class)
+                .getStatus() == HttpStatus.NOT_FOUND) {
+            admitted++;
+        }
+        assertTrue(admitted >= 50 && admitted < 100, "admitted " + admitted);
+
+        webTestClient.get().uri("/carts/{id}", Integer.MAX_VALUE)
+                .header("X-Client-Id", "greedy")
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.TOO_MANY_REQUESTS)
+                .expectHeader().valueEquals(HttpHeaders.RETRY_AFTER, "1")
+                .expectBody()
+                .jsonPath("$.errorCode").isEqualTo("RATE_LIMITED");
+        webTestClient.get().uri("/carts/{id}", Integer.MAX_VALUE)
+                .header("X-Client-Id", "patient")
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    @DisplayName("Change stream - changes are streamed as NDJSON, without holding an admission permit")
+    void testChangeStream() {
+        Flux<CartChangeEvent> events = webTestClient.get().uri("/carts/changes")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .returnResult(CartChangeEvent.class)
+                .getResponseBody();
+
+        CartResponse created = webTestClient.post().uri("/carts")
+                .exchange()
+                .expectBody(CartResponse.class)
+                .returnResult().getResponseBody();
+        assertNotNull(created);
+
+        CartChangeEvent event = events
+                .filter(candidate -> Integer.valueOf(created.getId()).equals(candidate.getCartId()))
+                .blockFirst(Duration.ofSeconds(10));
+        assertNotNull(event);
+        assertEquals("CREATED", event.getType());
+        assertEquals(created.getVersion(), event.getVersion());
+        assertNotNull(event.getSequence());
+    }
+
+    private static int indexOfEncoder(List<HttpMessageWriter<?>> writers, Class<?> encoderType) {
+        for (int i = 0; i < writers.size(); i++) {
+            if (writers.get(i) instanceof EncoderHttpMessageWriter<?> writer
+                    && encoderType.isInstance(writer.getEncoder())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.onebox.ecommerce.exception;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.onebox.ecommerce.model.CartErrorResponse;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CartErrorBodiesTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    @DisplayName("Not found - the same bytes Jackson writes for the error, whatever the id")
+    void testNotFoundMatchesJackson() throws Exception {
+        for (int cartId : new int[]{0, 7, 10, 99, 12345, -1, -100, Integer.MAX_VALUE, Integer.MIN_VALUE}) {
+            CartNotFoundException exception = new CartNotFoundException(cartId);
+            byte[] expected = objectMapper.writeValueAsBytes(CartErrorResponse.builder()
+                    .errorMessage(exception.getMessage())
+                    .errorCode(exception.getErrorCode())
+                    .build());
+
+            assertEquals(new String(expected, StandardCharsets.UTF_8),
+                    new String(CartErrorBodies.notFound(cartId), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    @DisplayName("Not found - no stack trace, and the message of the original exception")
+    void testNotFoundException() {
+        CartNotFoundException exception = new CartNotFoundException(42);
+
+        assertEquals(0, exception.getStackTrace().length);
+        assertEquals("Cart with given id: 42 was not found", exception.getMessage());
+        assertEquals("CART_NOT_FOUND", exception.getErrorCode());
+        assertEquals(404, exception.getStatus().value());
+    }
+}
@@ -0,0 +1,70 @@
+package com.onebox.ecommerce.json;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.onebox.ecommerce.mapper.CartMapper;
+import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.model.CartResponse;
+import com.onebox.ecommerce.model.Product;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CartJsonWriterTest {
+
+    // Configured like the ObjectMapper Spring Boot builds
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json()
+            .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .build();
+
+    private final CartJsonWriter cartJsonWriter = new CartJsonWriter(objectMapper.getFactory());
+
+    @Test
+    @DisplayName("Write cart - same JSON as Jackson")
+    void testWriteCartWithProducts() throws Exception {
+        Map<Integer, Product> products = new HashMap<>();
+        products.put(1, new Product(1, "Final Fantasy VII", 1));
+        products.put(2, new Product(2, "Bloodborne \"GOTY\"", 3));
+        products.put(3, new Product(3, null, 0));
+        CartResponse cartResponse = new CartResponse(7, products, Instant.parse("2024-04-06T12:34:56.789Z"), 12);
+
+        assertEquals(objectMapper.writeValueAsString(cartResponse), write(cartResponse));
+    }
+
+    @Test
+    @DisplayName("Write cart - empty and null fields")
+    void testWriteEmptyCart() throws Exception {
+        CartResponse emptyCart = new CartResponse(1, new HashMap<>(), Instant.parse("2024-04-06T12:00:00Z"), 0);
+        CartResponse nullCart = new CartResponse(null, null, null, 0);
+
+        assertEquals(objectMapper.writeValueAsString(emptyCart), write(emptyCart));
+        assertEquals(objectMapper.writeValueAsString(nullCart), write(nullCart));
+    }
+
+    @Test
+    @DisplayName("Write cart - snapshot taken by the mapper")
+    void testWriteCartSnapshot() throws Exception {
+        Cart cart = new Cart();
+        cart.getProducts().put(1, "Persona 5", 2);
+        cart.getProducts().put(2, null, 1);
+        CartResponse cartResponse = CartMapper.toCartResponse(cart);
+
+        assertEquals(objectMapper.writeValueAsString(cartResponse), write(cartResponse));
+        assertEquals(Map.of(1, new Product(1, "Persona 5", 2), 2, new Product(2, null, 1)), cartResponse.getProducts());
+    }
+
+    private String write(CartResponse cartResponse) throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        cartJsonWriter.write(cartResponse, outputStream);
+        return outputStream.toString(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,127 @@
+package com.onebox.ecommerce.model;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CartIdAllocatorTest {
+
+    @Test
+    @DisplayName("Next - ids are unique across threads and stay within the blocks handed out")
+    void testConcurrentIdsAreUniqueAndDense() throws Exception {
+        CartIdAllocator allocator = new CartIdAllocator(1, 4);
+        Set<Integer> ids = ConcurrentHashMap.newKeySet();
+        int threads = 8;
+        int idsPerThread = 10_000;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < idsPerThread; i++) {
+                        ids.add(allocator.next());
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(threads * idsPerThread, ids.size());
+        assertTrue(ids.stream().allMatch(id -> id >= 1));
+        // At most the unused rest of one block per stripe, plus blocks lost to a refill race
+        int highest = ids.stream().mapToInt(Integer::intValue).max().orElseThrow();
+        assertTrue(highest < threads * idsPerThread + 64 * CartIdAllocator.BLOCK_SIZE, "highest id " + highest);
+    }
+
+    @Test
+    @DisplayName("Reserve - ids handed out afterwards are above the reserved one")
+    void testReserveThrough() {
+        CartIdAllocator allocator = new CartIdAllocator(1, 4);
+        allocator.next();
+
+        allocator.reserveThrough(1_000);
+
+        assertEquals(1_001, allocator.next());
+    }
+
+    @Test
+    @DisplayName("Reserve - holds for threads taking ids meanwhile, even from blocks their stripes held before")
+    void testReserveWhileTakingIds() throws Exception {
+        CartIdAllocator allocator = new CartIdAllocator(1, 4);
+        AtomicInteger reserved = new AtomicInteger();
+        AtomicBoolean running = new AtomicBoolean(true);
+        int threads = 4;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                futures.add(executor.submit(() -> {
+                    int violations = 0;
+                    while (running.get()) {
+                        // Read before taking the id, so the reservation returned before the id was asked for
+                        int floor = reserved.get();
+                        if (allocator.next() <= floor) {
+                            violations++;
+                        }
+                    }
+                    return violations;
+                }));
+            }
+            for (int round = 1; round <= 200; round++) {
+                int cartId = allocator.issuedThrough() + CartIdAllocator.BLOCK_SIZE / 2;
+                allocator.reserveThrough(cartId);
+                reserved.set(cartId);
+                Thread.yield();
+            }
+            running.set(false);
+            for (Future<Integer> future : futures) {
+                assertEquals(0, future.get(30, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("Next - rejected ids are skipped, and no id handed out is above the issued mark")
+    void testNextAcceptedAndIssuedThrough() {
+        CartIdAllocator allocator = new CartIdAllocator(1, 4);
+
+        int first = allocator.next(id -> id % 3 == 0);
+        int second = allocator.next(id -> id % 3 == 0);
+
+        assertEquals(3, first);
+        assertEquals(6, second);
+        assertTrue(allocator.issuedThrough() >= second);
+        allocator.reserveThrough(allocator.issuedThrough());
+        assertTrue(allocator.next() > second);
+    }
+
+    @Test
+    @DisplayName("Next - running out of ids fails instead of wrapping around")
+    void testExhausted() {
+        CartIdAllocator allocator = new CartIdAllocator(Integer.MAX_VALUE - CartIdAllocator.BLOCK_SIZE / 2, 1);
+
+        assertThrows(IllegalStateException.class, allocator::next);
+        assertThrows(IllegalStateException.class, allocator::next);
+    }
+
+}
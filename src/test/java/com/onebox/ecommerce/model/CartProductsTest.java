@@ -0,0 +1,143 @@
+package com.onebox.ecommerce.model;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CartProductsTest {
+
+    private CartProducts cartProducts;
+
+    @BeforeEach
+    void setUp() {
+        cartProducts = new CartProducts();
+    }
+
+    @Test
+    @DisplayName("Put - adds new lines and replaces existing ones")
+    void testPutAndReplace() {
+        cartProducts.put(1, "Final Fantasy 7", 1);
+        cartProducts.put(2, "Elden Ring", 1);
+        cartProducts.put(1, "Final Fantasy 7", 3);
+
+        assertEquals(2, cartProducts.size());
+        assertEquals(3, cartProducts.amountAt(cartProducts.positionOf(1)));
+        assertEquals(-1, cartProducts.positionOf(3));
+    }
+
+    @Test
+    @DisplayName("Put all - keyed by the map key, null products skipped")
+    void testPutAll() {
+        Map<Integer, Product> products = new HashMap<>();
+        products.put(101, new Product(1, "Age of Empires II", 1));
+        products.put(102, null);
+
+        cartProducts.putAll(products);
+
+        assertEquals(1, cartProducts.size());
+        assertEquals(101, cartProducts.productIdAt(0));
+        assertEquals(Map.of(101, new Product(101, "Age of Empires II", 1)), cartProducts.snapshot());
+    }
+
+    @Test
+    @DisplayName("Descriptions - equal descriptions of different carts share one String")
+    void testDescriptionsAreInterned() {
+        CartProducts otherCart = new CartProducts();
+        cartProducts.put(1, new String("God of War"), 1);
+        otherCart.put(1, new String("God of War"), 2);
+
+        assertSame(cartProducts.descriptionAt(0), otherCart.descriptionAt(0));
+    }
+
+    @Test
+    @DisplayName("Descriptions - lines without one mix with lines that have one")
+    void testLinesWithoutDescriptions() {
+        for (int productId = 1; productId <= 5; productId++) {
+            cartProducts.put(productId, null, productId);
+        }
+        cartProducts.put(6, "Hades", 6);
+        cartProducts.put(7, null, 7);
+        cartProducts.remove(2);
+        cartProducts.put(1, "Celeste", 1);
+
+        assertNull(cartProducts.descriptionAt(cartProducts.positionOf(3)));
+        assertNull(cartProducts.descriptionAt(cartProducts.positionOf(7)));
+        assertEquals("Hades", cartProducts.descriptionAt(cartProducts.positionOf(6)));
+        assertEquals("Celeste", cartProducts.descriptionAt(cartProducts.positionOf(1)));
+        assertEquals(6, cartProducts.size());
+    }
+
+    @Test
+    @DisplayName("Snapshot with descriptions - only lines without a description of their own get one")
+    void testSnapshotWithDescriptions() {
+        cartProducts.put(1, null, 1);
+        cartProducts.put(2, "Special edition", 1);
+        cartProducts.put(3, null, 1);
+        CartProductsSnapshot snapshot = cartProducts.snapshot();
+
+        CartProductsSnapshot described = snapshot.withDescriptions(productId -> productId == 3 ? null : "Catalog");
+
+        assertEquals("Catalog", described.get(1).getDescription());
+        assertEquals("Special edition", described.get(2).getDescription());
+        assertNull(described.get(3).getDescription());
+        assertNull(snapshot.get(1).getDescription());
+        assertSame(snapshot, snapshot.withDescriptions(productId -> null));
+    }
+
+    @Test
+    @DisplayName("Random puts and removes - same content as a HashMap, with and without the index")
+    void testMatchesHashMap() {
+        Random random = new Random(42);
+        Map<Integer, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 20_000; i++) {
+            // Few distinct ids and frequent removes, so carts keep crossing the index threshold both ways
+            int productId = random.nextInt(128) - 32;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(productId) != null, cartProducts.remove(productId));
+            } else {
+                int amount = random.nextInt(10);
+                expected.put(productId, amount);
+                cartProducts.put(productId, "Product " + productId, amount);
+            }
+            assertEquals(expected.size(), cartProducts.size());
+        }
+        expected.forEach((productId, amount) ->
+                assertEquals(amount, cartProducts.amountAt(cartProducts.positionOf(productId))));
+    }
+
+    @Test
+    @DisplayName("Snapshot - later updates do not change it")
+    void testSnapshotIsImmutableCopy() {
+        cartProducts.put(1, "Persona 5", 1);
+        CartProductsSnapshot snapshot = cartProducts.snapshot();
+
+        cartProducts.put(1, "Persona 5", 5);
+        cartProducts.put(2, "Bloodborne", 1);
+
+        assertEquals(1, snapshot.size());
+        assertEquals(new Product(1, "Persona 5", 1), snapshot.get(1));
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.put(3, new Product()));
+    }
+
+    @Test
+    @DisplayName("Equals - independent of line order")
+    void testEquals() {
+        CartProducts otherCart = new CartProducts();
+        cartProducts.put(1, "Persona 5", 1);
+        cartProducts.put(2, "Bloodborne", 2);
+        otherCart.put(2, "Bloodborne", 2);
+        otherCart.put(1, "Persona 5", 1);
+
+        assertEquals(cartProducts, otherCart);
+        assertEquals(cartProducts.hashCode(), otherCart.hashCode());
+        otherCart.put(1, "Persona 5", 2);
+        assertNotEquals(cartProducts, otherCart);
+    }
+
+}
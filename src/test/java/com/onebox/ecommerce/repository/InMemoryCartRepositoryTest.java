@@ -0,0 +1,231 @@
+package com.onebox.ecommerce.repository;
+
+import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.model.CartProducts;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InMemoryCartRepositoryTest {
+
+    private static final int THREADS = 16;
+    private static final int OPERATIONS_PER_THREAD = 2_000;
+
+    private InMemoryCartRepository cartRepository;
+
+    @BeforeEach
+    void setUp() {
+        cartRepository = new InMemoryCartRepository();
+    }
+
+    @Test
+    @DisplayName("Concurrent creates - every cart is stored with a unique id")
+    void testConcurrentCreates() throws Exception {
+        Set<Integer> ids = ConcurrentHashMap.newKeySet();
+
+        runConcurrently(thread -> {
+            for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                ids.add(cartRepository.createCart().getId());
+            }
+        });
+
+        assertEquals(THREADS * OPERATIONS_PER_THREAD, ids.size());
+        assertEquals(THREADS * OPERATIONS_PER_THREAD, cartRepository.count());
+    }
+
+    @Test
+    @DisplayName("Concurrent adds to the same cart - no product is lost")
+    void testConcurrentAddsDoNotLoseProducts() throws Exception {
+        int cartId = cartRepository.createCart().getId();
+
+        runConcurrently(thread -> {
+            for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                int productId = thread * OPERATIONS_PER_THREAD + i;
+                cartRepository.withCart(cartId, cart -> {
+                    cart.getProducts().put(productId, "Product " + productId, 1);
+                    return cart;
+                });
+            }
+        });
+
+        int products = cartRepository.withCart(cartId, cart -> cart.getProducts().size());
+        assertEquals(THREADS * OPERATIONS_PER_THREAD, products);
+        assertEquals(products, cartRepository.lineCount());
+    }
+
+    @Test
+    @DisplayName("Concurrent read-modify-write on the same product - no update is lost")
+    void testConcurrentIncrementsDoNotLoseUpdates() throws Exception {
+        int cartId = cartRepository.createCart().getId();
+        cartRepository.withCart(cartId, cart -> {
+            cart.getProducts().put(1, "Elden Ring", 0);
+            return cart;
+        });
+
+        runConcurrently(thread -> {
+            for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                cartRepository.withCart(cartId, cart -> {
+                    CartProducts products = cart.getProducts();
+                    products.put(1, "Elden Ring", products.amountAt(products.positionOf(1)) + 1);
+                    return cart;
+                });
+            }
+        });
+
+        int amount = cartRepository.withCart(cartId, cart -> cart.getProducts().amountAt(0));
+        assertEquals(THREADS * OPERATIONS_PER_THREAD, amount);
+    }
+
+    @Test
+    @DisplayName("Eviction while carts are updated - no exception and touched carts survive")
+    void testEvictionRacingWithUpdates() throws Exception {
+        List<Integer> cartIds = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            Cart cart = cartRepository.createCart();
+            cart.setLastUpdated(Instant.EPOCH);
+            cartIds.add(cart.getId());
+        }
+        Instant cutoff = Instant.now().minusSeconds(600);
+        AtomicBoolean evicting = new AtomicBoolean(true);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> evictor = executor.submit(() -> {
+                while (evicting.get()) {
+                    cartRepository.forEachCartId(id -> cartRepository.deleteCartIfInactive(id, cutoff));
+                }
+            });
+            // Touch every even cart, an update that wins the race must keep the cart alive
+            Set<Integer> touched = ConcurrentHashMap.newKeySet();
+            executor.submit(() -> cartIds.stream()
+                    .filter(id -> id % 2 == 0)
+                    .forEach(id -> {
+                        if (cartRepository.withCart(id, cart -> {
+                            cart.updateInstant();
+                            return cart;
+                        }) != null) {
+                            touched.add(id);
+                        }
+                    })).get(30, TimeUnit.SECONDS);
+            evicting.set(false);
+            evictor.get(30, TimeUnit.SECONDS);
+
+            touched.forEach(id -> assertNotNull(cartRepository.getCart(id)));
+            cartIds.stream()
+                    .filter(id -> id % 2 != 0)
+                    .forEach(id -> assertNull(cartRepository.getCart(id)));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("Delete - only the first delete of a cart succeeds")
+    void testDeleteCart() {
+        int cartId = cartRepository.createCart().getId();
+
+        cartRepository.withCart(cartId, cart -> {
+            cart.getProducts().put(1, "Elden Ring", 1);
+            return cart;
+        });
+
+        assertTrue(cartRepository.deleteCart(cartId));
+        assertFalse(cartRepository.deleteCart(cartId));
+        assertNull(cartRepository.withCart(cartId, cart -> cart));
+        assertEquals(0, cartRepository.lineCount());
+    }
+
+    @Test
+    @DisplayName("Concurrent create and delete - carts sharing a page are neither lost nor resurrected")
+    void testConcurrentCreateAndDeleteChurn() throws Exception {
+        Set<Integer> kept = ConcurrentHashMap.newKeySet();
+
+        runConcurrently(thread -> {
+            for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                int cartId = cartRepository.createCart().getId();
+                if (i % 100 == 0) {
+                    kept.add(cartId);
+                } else {
+                    assertTrue(cartRepository.deleteCart(cartId));
+                }
+            }
+        });
+
+        assertEquals(kept.size(), cartRepository.count());
+        kept.forEach(id -> assertNotNull(cartRepository.getCart(id)));
+        Set<Integer> listed = new HashSet<>();
+        cartRepository.forEachCartId(listed::add);
+        assertEquals(kept, listed);
+    }
+
+    @Test
+    @DisplayName("Restore and delete far apart ids - emptied pages are dropped and come back on demand")
+    void testSparseIds() {
+        int farId = Integer.MAX_VALUE - 1;
+        cartRepository.restoreCart(new Cart(5, Instant.EPOCH));
+        cartRepository.restoreCart(new Cart(farId, Instant.EPOCH));
+
+        assertEquals(2, cartRepository.count());
+        assertTrue(cartRepository.deleteCart(5));
+        assertNull(cartRepository.getCart(5));
+        assertTrue(cartRepository.deleteCart(farId));
+        assertNull(cartRepository.getCart(farId));
+
+        cartRepository.restoreCart(new Cart(5, Instant.EPOCH));
+        cartRepository.restoreCart(new Cart(farId, Instant.EPOCH));
+        assertNotNull(cartRepository.getCart(5));
+        assertNotNull(cartRepository.getCart(farId));
+        assertEquals(2, cartRepository.count());
+    }
+
+    @Test
+    @DisplayName("Negative ids - never found")
+    void testNegativeId() {
+        assertNull(cartRepository.getCart(-1));
+        assertNull(cartRepository.withCart(-1, cart -> cart));
+        assertFalse(cartRepository.deleteCart(-1));
+    }
+
+    private void runConcurrently(ThreadTask task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                int threadIndex = thread;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    task.run(threadIndex);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @FunctionalInterface
+    private interface ThreadTask {
+        void run(int thread);
+    }
+
+}
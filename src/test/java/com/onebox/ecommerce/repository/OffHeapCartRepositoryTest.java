@@ -0,0 +1,218 @@
+package com.onebox.ecommerce.repository;
+
+import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.model.CartProducts;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OffHeapCartRepositoryTest {
+
+    private static final int LINES_PER_BLOCK = 4;
+
+    private OffHeapCartRepository cartRepository;
+
+    @BeforeEach
+    void setUp() {
+        // Small segments so the tests cross segment boundaries
+        cartRepository = new OffHeapCartRepository(LINES_PER_BLOCK, 1024, 16);
+    }
+
+    @Test
+    @DisplayName("Round trip - lines spanning several blocks are read back unchanged")
+    void testRoundTrip() {
+        Cart created = cartRepository.createCart();
+        cartRepository.withCart(created.getId(), cart -> {
+            for (int productId = 1; productId <= 10; productId++) {
+                cart.getProducts().put(productId, productId % 2 == 0 ? "Product " + productId : null, productId * 3);
+            }
+            cart.updateInstant();
+            return cart;
+        });
+
+        Cart stored = cartRepository.withCart(created.getId(), cart -> cart);
+
+        assertEquals(created.getId(), stored.getId());
+        assertEquals(1, stored.getVersion());
+        CartProducts products = stored.getProducts();
+        assertEquals(10, products.size());
+        for (int productId = 1; productId <= 10; productId++) {
+            int position = products.positionOf(productId);
+            assertEquals(productId * 3, products.amountAt(position));
+            assertEquals(productId % 2 == 0 ? "Product " + productId : null, products.descriptionAt(position));
+        }
+        assertEquals(3, cartRepository.blocksInUse());
+    }
+
+    @Test
+    @DisplayName("Shrinking a cart - blocks no longer needed are released and reused")
+    void testShrinkReleasesBlocks() {
+        int cartId = cartRepository.createCart().getId();
+        cartRepository.withCart(cartId, cart -> {
+            for (int productId = 1; productId <= 9; productId++) {
+                cart.getProducts().put(productId, "Product", 1);
+            }
+            return cart;
+        });
+        assertEquals(3, cartRepository.blocksInUse());
+
+        cartRepository.withCart(cartId, cart -> {
+            for (int productId = 1; productId <= 7; productId++) {
+                cart.getProducts().remove(productId);
+            }
+            return cart;
+        });
+        assertEquals(1, cartRepository.blocksInUse());
+        assertEquals(2, cartRepository.lineCount());
+        int remaining = cartRepository.withCart(cartId, cart -> cart.getProducts().size());
+        assertEquals(2, remaining);
+
+        long reserved = cartRepository.reservedBytes();
+        cartRepository.createCart();
+        cartRepository.createCart();
+        assertEquals(reserved, cartRepository.reservedBytes());
+    }
+
+    @Test
+    @DisplayName("Descriptions - kept while a line references them, dropped with the last one and their ids reused")
+    void testDescriptionsFollowLines() {
+        int first = cartRepository.createCart().getId();
+        int second = cartRepository.createCart().getId();
+        cartRepository.withCart(first, cart -> {
+            cart.getProducts().put(1, "Elden Ring", 1);
+            cart.getProducts().put(2, "Halo", 1);
+            return cart;
+        });
+        cartRepository.withCart(second, cart -> {
+            cart.getProducts().put(1, "Elden Ring", 3);
+            return cart;
+        });
+        assertEquals(2, cartRepository.descriptionCount());
+
+        // Amounts change, descriptions stay
+        cartRepository.withCart(first, cart -> {
+            cart.getProducts().put(1, "Elden Ring", 2);
+            cart.getProducts().remove(2);
+            return cart;
+        });
+        assertEquals(1, cartRepository.descriptionCount());
+
+        assertTrue(cartRepository.deleteCart(first));
+        assertEquals(1, cartRepository.descriptionCount());
+        assertEquals("Elden Ring", cartRepository.withCart(second, cart -> cart.getProducts().descriptionAt(0)));
+
+        Cart restored = new Cart(second, Instant.now());
+        restored.getProducts().put(7, "Doom", 1);
+        cartRepository.restoreCart(restored);
+        assertEquals(1, cartRepository.descriptionCount());
+        assertEquals("Doom", cartRepository.withCart(second, cart -> cart.getProducts().descriptionAt(0)));
+
+        cartRepository.withCart(second, cart -> {
+            cart.setLastUpdated(Instant.EPOCH);
+            return cart;
+        });
+        assertTrue(cartRepository.deleteCartIfInactive(second, Instant.now()));
+        assertEquals(0, cartRepository.descriptionCount());
+    }
+
+    @Test
+    @DisplayName("Read only action - the cart is not written back")
+    void testReadOnlyActionKeepsCart() {
+        int cartId = cartRepository.createCart().getId();
+
+        cartRepository.withCart(cartId, cart -> {
+            cart.getProducts().clear();
+            cart.getProducts().put(1, "Elden Ring", 2);
+            return cart;
+        });
+        Instant lastUpdated = cartRepository.withCart(cartId, Cart::getLastUpdated);
+
+        assertEquals(lastUpdated, cartRepository.withCart(cartId, Cart::getLastUpdated));
+        int products = cartRepository.withCart(cartId, cart -> cart.getProducts().size());
+        assertEquals(1, products);
+    }
+
+    @Test
+    @DisplayName("Delete if inactive - only carts last updated at or before the cutoff are deleted")
+    void testDeleteCartIfInactive() {
+        int inactive = cartRepository.createCart().getId();
+        int active = cartRepository.createCart().getId();
+        cartRepository.withCart(inactive, cart -> {
+            cart.setLastUpdated(Instant.EPOCH);
+            return cart;
+        });
+
+        Instant cutoff = Instant.now().minusSeconds(600);
+        assertTrue(cartRepository.deleteCartIfInactive(inactive, cutoff));
+        assertFalse(cartRepository.deleteCartIfInactive(active, cutoff));
+        assertEquals(1, cartRepository.count());
+        assertEquals(1, cartRepository.blocksInUse());
+
+        List<Integer> cartIds = new ArrayList<>();
+        cartRepository.forEachCartId(cartIds::add);
+        assertEquals(List.of(active), cartIds);
+    }
+
+    @Test
+    @DisplayName("Delete - only the first delete of a cart succeeds")
+    void testDeleteCart() {
+        int cartId = cartRepository.createCart().getId();
+
+        assertTrue(cartRepository.deleteCart(cartId));
+        assertFalse(cartRepository.deleteCart(cartId));
+        assertNull(cartRepository.withCart(cartId, cart -> cart));
+        assertEquals(0, cartRepository.count());
+        assertEquals(0, cartRepository.blocksInUse());
+    }
+
+    @Test
+    @DisplayName("Concurrent adds to the same cart - no product is lost")
+    void testConcurrentAddsDoNotLoseProducts() throws Exception {
+        int threads = 8;
+        int operations = 500;
+        int cartId = cartRepository.createCart().getId();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                int firstProductId = thread * operations;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < operations; i++) {
+                        int productId = firstProductId + i;
+                        cartRepository.withCart(cartId, cart -> {
+                            cart.getProducts().put(productId, "Product " + productId % 10, 1);
+                            return cart;
+                        });
+                        // Other carts churn blocks through the shared allocator meanwhile
+                        cartRepository.deleteCart(cartRepository.createCart().getId());
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        int products = cartRepository.withCart(cartId, cart -> cart.getProducts().size());
+        assertEquals(threads * operations, products);
+    }
+
+}
@@ -0,0 +1,126 @@
+package com.onebox.ecommerce.repository;
+
+import com.onebox.ecommerce.model.Cart;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShardedCartRepositoryTest {
+
+    private ShardedCartRepository cartRepository;
+
+    @BeforeEach
+    void setUp() {
+        cartRepository = new ShardedCartRepository(3);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        cartRepository.close();
+    }
+
+    @Test
+    @DisplayName("Shards - rounded up to a power of two")
+    void testShardCount() {
+        assertEquals(4, cartRepository.shards());
+    }
+
+    @Test
+    @DisplayName("Concurrent adds from many threads - every product lands, carts are listed with their global id")
+    void testConcurrentAdds() throws Exception {
+        List<Integer> cartIds = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            cartIds.add(cartRepository.createCart().getId());
+        }
+        int threads = 8;
+        int productsPerThread = 500;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                int firstProductId = thread * productsPerThread;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < productsPerThread; i++) {
+                        int productId = firstProductId + i;
+                        cartRepository.withCart(cartIds.get(i % cartIds.size()), cart -> {
+                            cart.getProducts().put(productId, "Product " + productId, 1);
+                            return cart;
+                        });
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(threads * productsPerThread, cartRepository.lineCount());
+        Set<Integer> listed = new HashSet<>();
+        cartRepository.forEachCartId(listed::add);
+        assertEquals(new HashSet<>(cartIds), listed);
+        assertEquals(cartIds.size(), cartRepository.count());
+    }
+
+    @Test
+    @DisplayName("Delete if inactive - only carts not updated after the cutoff are removed")
+    void testDeleteCartIfInactive() {
+        Instant cutoff = Instant.now().minusSeconds(600);
+        cartRepository.restoreCart(new Cart(10, Instant.EPOCH));
+        int activeId = cartRepository.createCart().getId();
+
+        assertTrue(cartRepository.deleteCartIfInactive(10, cutoff));
+        assertFalse(cartRepository.deleteCartIfInactive(10, cutoff));
+        assertFalse(cartRepository.deleteCartIfInactive(activeId, cutoff));
+        assertNotNull(cartRepository.withCart(activeId, cart -> cart));
+        assertTrue(cartRepository.deleteCart(activeId));
+        assertEquals(0, cartRepository.count());
+    }
+
+    @Test
+    @DisplayName("Failing action - the exception reaches the caller and the shard keeps serving")
+    void testFailingAction() {
+        int cartId = cartRepository.createCart().getId();
+
+        assertThrows(IllegalArgumentException.class, () -> cartRepository.withCart(cartId, cart -> {
+            throw new IllegalArgumentException("boom");
+        }));
+
+        assertNotNull(cartRepository.withCart(cartId, cart -> cart));
+    }
+
+    @Test
+    @DisplayName("Nested call on the cart's own shard - runs inline instead of deadlocking")
+    void testNestedCallOnOwnShard() {
+        int cartId = cartRepository.createCart().getId();
+
+        Boolean deleted = cartRepository.withCart(cartId, cart -> cartRepository.deleteCart(cartId));
+
+        assertTrue(deleted);
+        assertNull(cartRepository.withCart(cartId, cart -> cart));
+    }
+
+    @Test
+    @DisplayName("Closed repository - further calls fail")
+    void testClosed() throws InterruptedException {
+        cartRepository.close();
+
+        assertThrows(IllegalStateException.class, () -> cartRepository.createCart());
+    }
+
+}
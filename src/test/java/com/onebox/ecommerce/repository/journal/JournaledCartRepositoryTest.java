@@ -0,0 +1,218 @@
+package com.onebox.ecommerce.repository.journal;
+
+import com.onebox.ecommerce.config.CartProperties;
+import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.repository.CartRepository;
+import com.onebox.ecommerce.repository.InMemoryCartRepository;
+import com.onebox.ecommerce.repository.OffHeapCartRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JournaledCartRepositoryTest {
+
+    @TempDir
+    Path directory;
+
+    private CartProperties.Journal properties;
+    private JournaledCartRepository cartRepository;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        properties = new CartProperties().getJournal();
+        properties.setDirectory(directory);
+        cartRepository = new JournaledCartRepository(new InMemoryCartRepository(), properties);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        cartRepository.close();
+    }
+
+    @Test
+    @DisplayName("Restart - carts are recovered from the journal alone")
+    void testRecoverFromJournal() throws Exception {
+        int kept = createCartWithProducts(3);
+        int deleted = createCartWithProducts(2);
+        cartRepository.deleteCart(deleted);
+
+        CartRepository recovered = crashAndRecover(new InMemoryCartRepository());
+
+        assertEquals(1, recovered.count());
+        assertEquals(3, lines(recovered, kept));
+        assertEquals("Product 2", recovered.withCart(kept, cart -> cart.getProducts().descriptionAt(1)));
+        assertNull(recovered.withCart(deleted, cart -> cart));
+    }
+
+    @Test
+    @DisplayName("Restart - the snapshot plus the journal written after it rebuild every cart")
+    void testRecoverFromSnapshotAndJournal() throws Exception {
+        int beforeSnapshot = createCartWithProducts(2);
+        int expired = createCartWithProducts(1);
+        cartRepository.snapshot();
+        int afterSnapshot = createCartWithProducts(4);
+        cartRepository.withCart(beforeSnapshot, cart -> {
+            cart.getProducts().put(10, null, 7);
+            cart.updateInstant();
+            return cart;
+        });
+        cartRepository.withCart(expired, cart -> {
+            cart.setLastUpdated(Instant.EPOCH);
+            return cart;
+        });
+        assertTrue(cartRepository.deleteCartIfInactive(expired, Instant.now().minusSeconds(600)));
+
+        CartRepository recovered = crashAndRecover(new OffHeapCartRepository(new CartProperties()));
+
+        assertEquals(2, recovered.count());
+        assertEquals(3, lines(recovered, beforeSnapshot));
+        assertEquals(4, lines(recovered, afterSnapshot));
+        assertEquals(2, recovered.withCart(beforeSnapshot, Cart::getVersion));
+        assertEquals(1, recovered.withCart(afterSnapshot, Cart::getVersion));
+        assertNull(recovered.withCart(expired, cart -> cart));
+    }
+
+    @Test
+    @DisplayName("Snapshot - older journal segments and snapshots are deleted")
+    void testSnapshotTruncatesJournal() throws Exception {
+        createCartWithProducts(1);
+        cartRepository.snapshot();
+        createCartWithProducts(1);
+        cartRepository.snapshot();
+
+        assertEquals(List.of("journal-3.log", "snapshot-3.bin"), files());
+    }
+
+    @Test
+    @DisplayName("Restart - a torn record at the end of the journal is ignored")
+    void testTornTailIsIgnored() throws Exception {
+        int cartId = createCartWithProducts(2);
+        Files.write(directory.resolve("journal-1.log"), new byte[]{0, 0, 0, 42, 2, 0}, StandardOpenOption.APPEND);
+
+        crashAndRecover(new InMemoryCartRepository());
+
+        assertEquals(2, lines(cartRepository, cartId));
+    }
+
+    @Test
+    @DisplayName("Without awaiting fsync - changes reach the journal within the flush interval")
+    void testAsyncFlush() throws Exception {
+        cartRepository.close();
+        properties.setAwaitFsync(false);
+        cartRepository = new JournaledCartRepository(new InMemoryCartRepository(), properties);
+        int cartId = createCartWithProducts(2);
+
+        Thread.sleep(properties.getFlushInterval().multipliedBy(20).toMillis());
+        CartRepository recovered = crashAndRecover(new InMemoryCartRepository());
+
+        assertEquals(2, lines(recovered, cartId));
+    }
+
+    @Test
+    @DisplayName("Restart - new carts get ids above the recovered ones")
+    void testIdsAreNotReused() throws Exception {
+        int cartId = createCartWithProducts(1);
+
+        CartRepository recovered = crashAndRecover(new InMemoryCartRepository());
+
+        assertTrue(recovered.createCart().getId() > cartId);
+    }
+
+    @Test
+    @DisplayName("Failed journal - changes are rejected before they touch the cart")
+    void testFailedJournalRejectsChanges() throws Exception {
+        cartRepository.close();
+        InMemoryCartRepository engine = new InMemoryCartRepository();
+        cartRepository = new JournaledCartRepository(engine, properties);
+        int cartId = createCartWithProducts(2);
+        // The next segment cannot be created once the directory is gone
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+        assertThrows(UncheckedIOException.class, cartRepository::snapshot);
+
+        assertThrows(UncheckedIOException.class, () -> cartRepository.withCart(cartId, cart -> {
+            cart.getProducts().put(10, null, 7);
+            cart.updateInstant();
+            return cart;
+        }));
+        assertThrows(UncheckedIOException.class, () -> cartRepository.deleteCart(cartId));
+        assertThrows(UncheckedIOException.class, () -> cartRepository.createCart());
+
+        assertEquals(1, engine.count());
+        assertEquals(2, lines(engine, cartId));
+        assertEquals(1, engine.withCart(cartId, Cart::getVersion));
+    }
+
+    @Test
+    @DisplayName("Failed journal - a writer that stops unexpectedly fails later calls instead of leaving them hanging")
+    void testStoppedWriterFailsCalls() throws Exception {
+        cartRepository.close();
+        properties.setAwaitFsync(false);
+        cartRepository = new JournaledCartRepository(new InMemoryCartRepository(), properties);
+        Thread writer = Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().equals("cart-journal-writer") && thread.isAlive())
+                .findFirst()
+                .orElseThrow();
+
+        writer.interrupt();
+        writer.join(5_000);
+
+        assertFalse(writer.isAlive());
+        assertThrows(IllegalStateException.class, () -> cartRepository.createCart());
+    }
+
+    private static int lines(CartRepository repository, int cartId) {
+        return repository.withCart(cartId, cart -> cart.getProducts().size());
+    }
+
+    private int createCartWithProducts(int count) {
+        int cartId = cartRepository.createCart().getId();
+        cartRepository.withCart(cartId, cart -> {
+            for (int productId = 1; productId <= count; productId++) {
+                cart.getProducts().put(productId, "Product " + productId, productId);
+            }
+            cart.updateInstant();
+            return cart;
+        });
+        return cartId;
+    }
+
+    // Copies the files while the repository is running, as a crash would leave them, and recovers from the copy
+    private CartRepository crashAndRecover(CartRepository engine) throws Exception {
+        Path crashed = Files.createDirectory(directory.resolve("crashed"));
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.filter(Files::isRegularFile).toList()) {
+                Files.copy(file, crashed.resolve(file.getFileName()));
+            }
+        }
+        cartRepository.close();
+        properties.setDirectory(crashed);
+        cartRepository = new JournaledCartRepository(engine, properties);
+        return cartRepository;
+    }
+
+    private List<String> files() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return new ArrayList<>(files.map(file -> file.getFileName().toString()).sorted().toList());
+        }
+    }
+
+}
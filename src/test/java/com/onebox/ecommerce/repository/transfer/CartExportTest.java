@@ -0,0 +1,117 @@
+package com.onebox.ecommerce.repository.transfer;
+
+import com.onebox.ecommerce.model.Cart;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CartExportTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Round trip - ids, timestamps, versions and lines are read back unchanged")
+    void testRoundTrip() throws IOException {
+        List<Cart> carts = new ArrayList<>();
+        Cart first = new Cart(7, Instant.parse("2025-04-06T12:00:00.123456789Z"));
+        first.setVersion(42);
+        first.getProducts().put(1, "God of War", 2);
+        first.getProducts().put(-5, null, -1);
+        first.getProducts().put(Integer.MAX_VALUE, "Pokémon 🎮", Integer.MIN_VALUE);
+        carts.add(first);
+        carts.add(new Cart(3, Instant.EPOCH.minusSeconds(10)));
+        Cart third = new Cart(Integer.MAX_VALUE, Instant.parse("2025-04-06T12:00:00Z"));
+        third.getProducts().put(1, "God of War", 1);
+        carts.add(third);
+
+        Path file = export(carts);
+        CartExportReader.Contents contents = CartExportReader.verify(file);
+        List<Cart> read = importAll(file);
+
+        assertEquals(new CartExportReader.Contents(3, 4, Integer.MAX_VALUE), contents);
+        assertEquals(carts, read);
+        assertSame(read.get(0).getProducts().descriptionAt(0), read.get(2).getProducts().descriptionAt(0));
+    }
+
+    @Test
+    @DisplayName("Round trip - a cart larger than the buffers streams through")
+    void testLargeCart() throws IOException {
+        Cart cart = new Cart(1, Instant.now());
+        String longDescription = "x".repeat(3 << 20);
+        cart.getProducts().put(0, longDescription, 1);
+        for (int productId = 1; productId <= 200_000; productId++) {
+            cart.getProducts().put(productId, "Product " + productId % 100, productId);
+        }
+
+        List<Cart> read = importAll(export(List.of(cart)));
+
+        assertEquals(List.of(cart), read);
+    }
+
+    @Test
+    @DisplayName("Ids and descriptions repeat as varints and dictionary references, a small cart takes a few bytes")
+    void testCompact() throws IOException {
+        List<Cart> carts = new ArrayList<>();
+        for (int cartId = 1; cartId <= 1000; cartId++) {
+            Cart cart = new Cart(cartId, Instant.ofEpochSecond(1_700_000_000L));
+            cart.getProducts().put(cartId % 10, "Videogame title number " + cartId % 10, 1);
+            carts.add(cart);
+        }
+
+        long bytes = Files.size(export(carts));
+
+        assertTrue(bytes < 1000 * 16, bytes + " bytes");
+    }
+
+    @Test
+    @DisplayName("Verify - a truncated or corrupt file is rejected")
+    void testCorruptFiles() throws IOException {
+        Cart cart = new Cart(1, Instant.now());
+        cart.getProducts().put(1, "God of War", 1);
+        byte[] bytes = Files.readAllBytes(export(List.of(cart)));
+
+        Path truncated = Files.write(directory.resolve("truncated.bin"), Arrays.copyOf(bytes, bytes.length - 1));
+        byte[] flipped = bytes.clone();
+        flipped[12] ^= 1;
+        Path corrupt = Files.write(directory.resolve("corrupt.bin"), flipped);
+        Path foreign = Files.write(directory.resolve("foreign.bin"), new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+
+        assertThrows(IOException.class, () -> CartExportReader.verify(truncated));
+        assertThrows(IOException.class, () -> CartExportReader.verify(corrupt));
+        assertThrows(IOException.class, () -> CartExportReader.verify(foreign));
+    }
+
+    private Path export(List<Cart> carts) throws IOException {
+        Path file = directory.resolve("carts.bin");
+        try (CartExportWriter writer = new CartExportWriter(file)) {
+            for (Cart cart : carts) {
+                writer.append(cart);
+                writer.flushIfFull();
+            }
+            writer.finish();
+        }
+        return file;
+    }
+
+    private static List<Cart> importAll(Path file) throws IOException {
+        List<Cart> carts = new ArrayList<>();
+        try (CartExportReader reader = new CartExportReader(file)) {
+            Cart cart;
+            while ((cart = reader.next()) != null) {
+                carts.add(cart);
+            }
+        }
+        return carts;
+    }
+}
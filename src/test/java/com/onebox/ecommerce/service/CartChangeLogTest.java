@@ -0,0 +1,90 @@
+package com.onebox.ecommerce.service;
+
+import com.onebox.ecommerce.config.CartProperties;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CartChangeLogTest {
+
+    @Test
+    @DisplayName("Read - changes in the order they were made, numbered from 1, at most max per read")
+    void testRead() {
+        CartChangeLog cartChangeLog = cartChangeLog(16);
+        assertEquals(1, cartChangeLog.next());
+        for (int cartId = 1; cartId <= 5; cartId++) {
+            cartChangeLog.onCartChange(change(cartId));
+        }
+
+        CartChangeLog.Batch first = cartChangeLog.read(1, 3);
+        assertEquals(List.of(1L, 2L, 3L), sequences(first));
+        assertEquals(List.of(1, 2, 3), cartIds(first));
+        assertEquals(4, first.next());
+        assertEquals(0, first.missed());
+
+        CartChangeLog.Batch second = cartChangeLog.read(first.next(), 3);
+        assertEquals(List.of(4L, 5L), sequences(second));
+        assertEquals(6, second.next());
+
+        CartChangeLog.Batch caughtUp = cartChangeLog.read(second.next(), 3);
+        assertTrue(caughtUp.isEmpty());
+        assertEquals(6, caughtUp.next());
+        assertEquals(6, cartChangeLog.next());
+    }
+
+    @Test
+    @DisplayName("Read - a reader further behind than the ring holds is told how many changes it missed")
+    void testMissed() {
+        CartChangeLog cartChangeLog = cartChangeLog(10);
+        assertEquals(16, cartChangeLog.capacity());
+        for (int cartId = 1; cartId <= 20; cartId++) {
+            cartChangeLog.onCartChange(change(cartId));
+        }
+
+        CartChangeLog.Batch batch = cartChangeLog.read(2, 100);
+
+        assertEquals(3, batch.missed());
+        assertEquals(5, batch.events().get(0).sequence());
+        assertEquals(16, batch.events().size());
+        assertEquals(21, batch.next());
+        assertFalse(batch.isEmpty());
+    }
+
+    @Test
+    @DisplayName("Read - resuming from a number this log never gave out, e.g. after a restart, is an unknown gap")
+    void testResumeAfterRestart() {
+        CartChangeLog cartChangeLog = cartChangeLog(16);
+        cartChangeLog.onCartChange(change(1));
+
+        CartChangeLog.Batch batch = cartChangeLog.read(1000, 100);
+
+        assertEquals(-1, batch.missed());
+        assertTrue(batch.events().isEmpty());
+        assertEquals(2, batch.next());
+        cartChangeLog.onCartChange(change(2));
+        assertEquals(List.of(2L), sequences(cartChangeLog.read(batch.next(), 100)));
+    }
+
+    private static CartChangeLog cartChangeLog(int bufferSize) {
+        CartProperties cartProperties = new CartProperties();
+        cartProperties.getChanges().setBufferSize(bufferSize);
+        return new CartChangeLog(cartProperties);
+    }
+
+    private static CartChange change(int cartId) {
+        return new CartChange(CartChange.Type.CREATED, cartId, 0, Instant.now(), Map.of(), List.of());
+    }
+
+    private static List<Long> sequences(CartChangeLog.Batch batch) {
+        return batch.events().stream().map(CartChangeLog.Event::sequence).toList();
+    }
+
+    private static List<Integer> cartIds(CartChangeLog.Batch batch) {
+        return batch.events().stream().map(event -> event.change().cartId()).toList();
+    }
+}
@@ -0,0 +1,79 @@
+package com.onebox.ecommerce.service;
+
+import com.onebox.ecommerce.config.CartProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CartEvictionPolicyTest {
+
+    private final CartProperties cartProperties = new CartProperties();
+    private final List<Object> events = new ArrayList<>();
+    private HeapPressureMonitor heapPressureMonitor;
+    private CartEvictionPolicy cartEvictionPolicy;
+
+    @BeforeEach
+    void setUp() {
+        cartProperties.getEviction().setInactivity(Duration.ofMinutes(10));
+        cartProperties.getEviction().getAdaptive().setHighWatermark(0.6);
+        cartProperties.getEviction().getAdaptive().setCriticalWatermark(0.9);
+        cartProperties.getEviction().getAdaptive().setMinInactivity(Duration.ofMinutes(1));
+        heapPressureMonitor = new HeapPressureMonitor(cartProperties, events::add);
+        cartEvictionPolicy = new CartEvictionPolicy(cartProperties, heapPressureMonitor);
+    }
+
+    @Test
+    @DisplayName("Inactivity - shrinks linearly between the watermarks and grows back as the heap empties")
+    void testInactivityFollowsHeapUsage() {
+        assertEquals(Duration.ofMinutes(10), cartEvictionPolicy.inactivity());
+
+        heapPressureMonitor.record(0.6);
+        assertEquals(Duration.ofMinutes(10), cartEvictionPolicy.inactivity());
+
+        heapPressureMonitor.record(0.75);
+        assertEquals(Duration.ofSeconds(330), cartEvictionPolicy.inactivity());
+
+        heapPressureMonitor.record(0.95);
+        assertEquals(Duration.ofMinutes(1), cartEvictionPolicy.inactivity());
+
+        heapPressureMonitor.record(0.3);
+        assertEquals(Duration.ofMinutes(10), cartEvictionPolicy.inactivity());
+    }
+
+    @Test
+    @DisplayName("Inactivity - the configured period when adaptive eviction is off")
+    void testDisabled() {
+        cartProperties.getEviction().getAdaptive().setEnabled(false);
+        heapPressureMonitor.record(0.95);
+
+        assertEquals(Duration.ofMinutes(10), cartEvictionPolicy.inactivity());
+    }
+
+    @Test
+    @DisplayName("Heap pressure - every GC at or above the critical watermark is published")
+    void testHeapPressureEvents() {
+        heapPressureMonitor.record(0.89);
+        assertTrue(events.isEmpty());
+
+        heapPressureMonitor.record(0.9);
+        heapPressureMonitor.record(0.93);
+        heapPressureMonitor.record(0.5);
+
+        assertEquals(List.of(new HeapPressure(0.9), new HeapPressure(0.93)), events);
+    }
+
+    @Test
+    @DisplayName("Watermarks - a high watermark above the critical one is rejected")
+    void testInvalidWatermarks() {
+        cartProperties.getEviction().getAdaptive().setHighWatermark(0.95);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> new CartEvictionPolicy(cartProperties, heapPressureMonitor));
+    }
+}
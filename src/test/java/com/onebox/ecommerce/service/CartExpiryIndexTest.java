@@ -0,0 +1,114 @@
+package com.onebox.ecommerce.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CartExpiryIndexTest {
+
+    private static final Instant NOW = Instant.parse("2025-04-06T12:00:00Z");
+
+    private CartExpiryIndex cartExpiryIndex;
+
+    @BeforeEach
+    void setUp() {
+        cartExpiryIndex = new CartExpiryIndex(Duration.ofSeconds(10));
+    }
+
+    @Test
+    @DisplayName("Expire - only carts in fully due buckets are visited")
+    void testExpireVisitsOnlyDueCarts() {
+        cartExpiryIndex.touch(1, null, NOW.minusSeconds(700));
+        cartExpiryIndex.touch(2, null, NOW.minusSeconds(650));
+        cartExpiryIndex.touch(3, null, NOW.minusSeconds(60));
+        List<Integer> visited = new ArrayList<>();
+
+        int expired = cartExpiryIndex.expire(NOW.minusSeconds(600), cartId -> visited.add(cartId));
+
+        assertEquals(List.of(1, 2), visited);
+        assertEquals(2, expired);
+        assertEquals(1, cartExpiryIndex.size());
+    }
+
+    @Test
+    @DisplayName("Expire - a bucket straddling the cutoff waits for the next sweep")
+    void testExpireKeepsPartiallyDueBucket() {
+        Instant cutoff = NOW.minusSeconds(595); // halfway through a 10 second bucket
+        cartExpiryIndex.touch(1, null, cutoff.minusSeconds(5));
+        cartExpiryIndex.touch(2, null, cutoff.plusSeconds(3));
+
+        assertEquals(0, cartExpiryIndex.expire(cutoff, cartId -> true));
+        assertEquals(2, cartExpiryIndex.expire(cutoff.plusSeconds(10), cartId -> true));
+    }
+
+    @Test
+    @DisplayName("Touch - a cart touched within the same window is indexed once")
+    void testTouchWithinSameWindow() {
+        Instant created = NOW.minusSeconds(100);
+        cartExpiryIndex.touch(1, null, created);
+        cartExpiryIndex.touch(1, created, created.plusMillis(10));
+
+        assertEquals(1, cartExpiryIndex.size());
+    }
+
+    @Test
+    @DisplayName("Touch - a cart moved to a later window leaves a stale entry that the sweep drops")
+    void testTouchMovesCartToLaterWindow() {
+        Instant created = NOW.minusSeconds(700);
+        cartExpiryIndex.touch(1, null, created);
+        cartExpiryIndex.touch(1, created, NOW);
+        assertEquals(2, cartExpiryIndex.size());
+
+        // The repository refuses to delete the updated cart, the stale entry disappears anyway
+        assertEquals(0, cartExpiryIndex.expire(NOW.minusSeconds(600), cartId -> false));
+        assertEquals(1, cartExpiryIndex.size());
+    }
+
+    @Test
+    @DisplayName("Touch - carts touched with old timestamps during sweeps are all offered for expiry")
+    void testTouchRacingWithExpire() throws Exception {
+        Set<Integer> visited = ConcurrentHashMap.newKeySet();
+        AtomicBoolean running = new AtomicBoolean(true);
+        int carts = 50_000;
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> sweeper = executor.submit(() -> {
+                while (running.get()) {
+                    cartExpiryIndex.expire(NOW.minusSeconds(600), visited::add);
+                }
+            });
+            for (int cartId = 1; cartId <= carts; cartId++) {
+                cartExpiryIndex.touch(cartId, null, NOW.minusSeconds(700));
+            }
+            running.set(false);
+            sweeper.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        cartExpiryIndex.expire(NOW.minusSeconds(600), visited::add);
+
+        assertEquals(carts, visited.size());
+    }
+
+    @Test
+    @DisplayName("Precision must be positive")
+    void testInvalidPrecision() {
+        assertThrows(IllegalArgumentException.class, () -> new CartExpiryIndex(Duration.ZERO));
+    }
+
+}
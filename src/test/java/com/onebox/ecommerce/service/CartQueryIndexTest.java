@@ -0,0 +1,153 @@
+package com.onebox.ecommerce.service;
+
+import com.onebox.ecommerce.config.CartProperties;
+import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.model.Product;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CartQueryIndexTest {
+
+    private CartQueryIndex cartQueryIndex;
+
+    @BeforeEach
+    void setUp() {
+        CartProperties cartProperties = new CartProperties();
+        cartProperties.getIndex().setEnabled(true);
+        cartProperties.getIndex().setIdlePrecision(Duration.ofSeconds(10));
+        cartQueryIndex = new CartQueryIndex(cartProperties);
+    }
+
+    @Test
+    @DisplayName("Products - carts holding each product and its total amount follow adds, updates and deletes")
+    void testProductTotals() {
+        Instant now = Instant.now();
+        create(1, now);
+        create(2, now);
+        update(1, now, Map.of(42, 2, 7, 1), List.of());
+        update(2, now, Map.of(42, 3), List.of());
+
+        assertEquals(new CartQueryIndex.ProductTotals(42, 2, 5), cartQueryIndex.product(42));
+        assertEquals(Set.of(1, 2), new HashSet<>(cartQueryIndex.cartsWith(42, 10)));
+        assertEquals(1, cartQueryIndex.cartsWith(42, 1).size());
+
+        update(1, now, Map.of(42, 10), List.of(7));
+        assertEquals(new CartQueryIndex.ProductTotals(42, 2, 13), cartQueryIndex.product(42));
+        assertEquals(new CartQueryIndex.ProductTotals(7, 0, 0), cartQueryIndex.product(7));
+        assertEquals(1, cartQueryIndex.productCount());
+
+        delete(2);
+        assertEquals(new CartQueryIndex.ProductTotals(42, 1, 10), cartQueryIndex.product(42));
+        assertEquals(List.of(1), cartQueryIndex.cartsWith(42, 10));
+        assertEquals(1, cartQueryIndex.cartCount());
+    }
+
+    @Test
+    @DisplayName("Top products - ranked by carts holding them or by amount, ties by product id")
+    void testTopProducts() {
+        Instant now = Instant.now();
+        for (int cartId = 1; cartId <= 3; cartId++) {
+            create(cartId, now);
+        }
+        update(1, now, Map.of(1, 1, 2, 1, 3, 50), List.of());
+        update(2, now, Map.of(1, 1, 2, 1), List.of());
+        update(3, now, Map.of(1, 1), List.of());
+
+        assertEquals(List.of(1, 2), productIds(cartQueryIndex.topProducts(2, false)));
+        assertEquals(List.of(3, 1, 2), productIds(cartQueryIndex.topProducts(10, true)));
+
+        // Product 1 leaves two carts and drops behind product 2
+        update(2, now, Map.of(), List.of(1));
+        delete(3);
+        assertEquals(List.of(2, 1, 3), productIds(cartQueryIndex.topProducts(10, false)));
+        assertEquals(2, cartQueryIndex.product(2).carts());
+    }
+
+    @Test
+    @DisplayName("Idle carts - counted by window of last update, carts move windows when updated")
+    void testIdleCarts() {
+        Instant now = Instant.now();
+        create(1, now.minus(Duration.ofMinutes(20)));
+        create(2, now.minus(Duration.ofMinutes(8)));
+        create(3, now);
+
+        assertEquals(2, cartQueryIndex.idleCarts(Duration.ofMinutes(5)));
+        assertEquals(1, cartQueryIndex.idleCarts(Duration.ofMinutes(10)));
+        assertEquals(3, cartQueryIndex.idleHistogram().size());
+        CartQueryIndex.IdleWindow leastIdle = cartQueryIndex.idleHistogram().get(0);
+        assertEquals(1, leastIdle.carts());
+        assertTrue(leastIdle.idleSeconds() < 10);
+        assertTrue(cartQueryIndex.idleHistogram().get(2).idleSeconds() >= 20 * 60 - 10);
+
+        update(1, now, Map.of(1, 1), List.of());
+        cartQueryIndex.onCartChange(new CartChange(CartChange.Type.EXPIRED, 2, -1, now, Map.of(), List.of()));
+        assertEquals(0, cartQueryIndex.idleCarts(Duration.ofMinutes(5)));
+        assertEquals(List.of(2L),
+                cartQueryIndex.idleHistogram().stream().map(CartQueryIndex.IdleWindow::carts).toList());
+    }
+
+    @Test
+    @DisplayName("Index - carts stored without a change replace what the index had for them, or leave it")
+    void testIndexAndRemove() {
+        Instant now = Instant.now();
+        create(1, now);
+        update(1, now, Map.of(42, 1), List.of());
+
+        Cart restored = new Cart(1, now.minus(Duration.ofMinutes(30)));
+        restored.getProducts().put(7, null, 4);
+        restored.getProducts().put(42, null, 2);
+        cartQueryIndex.index(restored);
+
+        assertEquals(new CartQueryIndex.ProductTotals(42, 1, 2), cartQueryIndex.product(42));
+        assertEquals(new CartQueryIndex.ProductTotals(7, 1, 4), cartQueryIndex.product(7));
+        assertEquals(1, cartQueryIndex.idleCarts(Duration.ofMinutes(20)));
+
+        cartQueryIndex.remove(1);
+        assertEquals(0, cartQueryIndex.cartCount());
+        assertEquals(0, cartQueryIndex.productCount());
+        assertTrue(cartQueryIndex.idleHistogram().isEmpty());
+    }
+
+    @Test
+    @DisplayName("Disabled - changes are ignored")
+    void testDisabled() {
+        CartQueryIndex disabled = new CartQueryIndex(new CartProperties());
+
+        disabled.onCartChange(new CartChange(CartChange.Type.CREATED, 1, 0, Instant.now(), Map.of(), List.of()));
+
+        assertFalse(disabled.isEnabled());
+        assertEquals(0, disabled.cartCount());
+    }
+
+    private void create(int cartId, Instant timestamp) {
+        cartQueryIndex.onCartChange(new CartChange(CartChange.Type.CREATED, cartId, 0, timestamp, Map.of(),
+                List.of()));
+    }
+
+    private void update(int cartId, Instant timestamp, Map<Integer, Integer> amounts, List<Integer> removed) {
+        Map<Integer, Product> products = new LinkedHashMap<>();
+        amounts.forEach((productId, amount) -> products.put(productId, new Product(productId, null, amount)));
+        cartQueryIndex.onCartChange(new CartChange(CartChange.Type.UPDATED, cartId, 1, timestamp, products,
+                removed));
+    }
+
+    private void delete(int cartId) {
+        cartQueryIndex.onCartChange(new CartChange(CartChange.Type.DELETED, cartId, -1, Instant.now(), Map.of(),
+                List.of()));
+    }
+
+    private static List<Integer> productIds(List<CartQueryIndex.ProductTotals> totals) {
+        return totals.stream().map(CartQueryIndex.ProductTotals::productId).toList();
+    }
+}
@@ -1,20 +1,35 @@
 package com.onebox.ecommerce.service;
 
+import com.onebox.ecommerce.catalog.ProductCatalog;
+import com.onebox.ecommerce.config.CartProperties;
 import com.onebox.ecommerce.exception.CartServiceCustomException;
+import com.onebox.ecommerce.metrics.CartMetrics;
 import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.model.CartDeltaResponse;
+import com.onebox.ecommerce.model.CartIfModified;
+import com.onebox.ecommerce.model.CartLineChange;
+import com.onebox.ecommerce.model.CartOperation;
+import com.onebox.ecommerce.model.CartOperationResult;
 import com.onebox.ecommerce.model.CartResponse;
 import com.onebox.ecommerce.model.Product;
 import com.onebox.ecommerce.repository.CartRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -26,6 +41,34 @@ public class CartServiceImplTest {
     @Mock
     private CartRepository cartRepository;
 
+    @Spy
+    private CartProperties cartProperties = new CartProperties();
+
+    @Spy
+    private CartExpiryIndex cartExpiryIndex = new CartExpiryIndex(Duration.ofSeconds(5));
+
+    @Spy
+    private CartQueryIndex cartQueryIndex = new CartQueryIndex(cartProperties);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Spy
+    private CartMetrics cartMetrics = new CartMetrics(meterRegistry);
+
+    @Spy
+    private ProductCatalog productCatalog = new ProductCatalog(null, 10);
+
+    private final HeapPressureMonitor heapPressureMonitor = new HeapPressureMonitor(cartProperties, event -> {
+    });
+
+    @Spy
+    private CartEvictionPolicy cartEvictionPolicy = new CartEvictionPolicy(cartProperties, heapPressureMonitor);
+
+    private final List<CartChange> changes = new ArrayList<>();
+
+    @Spy
+    private List<CartChangeListener> changeListeners = new ArrayList<>(List.of(changes::add));
+
     @InjectMocks
     CartService cartService = new CartServiceImpl();
 
@@ -65,27 +108,41 @@ public class CartServiceImplTest {
     @DisplayName("Get Cart - Success Scenario")
     void testGetCartSuccess() {
         // Mocking
-        when(cartRepository.getCart(anyInt()))
-                .thenReturn(cart);
+        mockWithCart(cart);
         // Actual
         CartResponse cartResponse = cartService.getCart(cart.getId());
         // Verification
-        verify(cartRepository, times(1)).getCart(anyInt());
+        verify(cartRepository, times(1)).withCart(anyInt(), any());
         // Assert
         assertNotNull(cartResponse);
         assertEquals(cart.getId(), cartResponse.getId());
     }
 
+    @Test
+    @DisplayName("Get Cart - Exception Scenario")
+    void testGetNonExistentCart() {
+        int mockCartId = 3;
+        // Mocking
+        when(cartRepository.withCart(eq(mockCartId), any()))
+                .thenReturn(null);
+        // Actual
+        CartServiceCustomException exception = assertThrows(CartServiceCustomException.class, () ->
+                cartService.getCart(mockCartId));
+        // Assert
+        assertEquals("CART_NOT_FOUND", exception.getErrorCode());
+        assertEquals(1, meterRegistry.get("cart.operations")
+                .tags("operation", "get", "outcome", "not_found").timer().count());
+    }
+
     @Test
     @DisplayName("Add Products to Cart - Success Scenario")
     void addProductsToCart() {
         // Mocking
-        when(cartRepository.getCart(anyInt()))
-                .thenReturn(cart);
+        mockWithCart(cart);
         // Actual
         CartResponse cartResponse = cartService.addProductsToCart(cart.getId(), products);
         // Verification
-        verify(cartRepository, times(1)).getCart(anyInt());
+        verify(cartRepository, times(1)).withCart(anyInt(), any());
         // Assert
         assertNotNull(cartResponse);
         assertEquals(cart.getId(), cartResponse.getId());
@@ -95,18 +152,72 @@ public class CartServiceImplTest {
         assertTrue(cartResponse.getProducts().containsKey(3));  // Check if the Map contains the product with id 3
     }
 
+    @Test
+    @DisplayName("Get Cart if modified - a cart at the client's version is not mapped")
+    void testGetCartIfModified() {
+        mockWithCart(cart);
+        cart.getProducts().putAll(products);
+        long version = cart.getVersion();
+
+        CartIfModified unchanged = cartService.getCartIfModified(cart.getId(), known -> known == version);
+        cart.updateInstant();
+        CartIfModified changed = cartService.getCartIfModified(cart.getId(), known -> known == version);
+
+        assertFalse(unchanged.isModified());
+        assertEquals(version, unchanged.version());
+        assertTrue(changed.isModified());
+        assertEquals(version + 1, changed.cart().getVersion());
+        assertEquals(3, changed.cart().getProducts().size());
+    }
+
+    @Test
+    @DisplayName("Add Products to Cart - a stale If-Match version rejects the update")
+    void testAddProductsToCartVersionMismatch() {
+        mockWithCart(cart);
+        long version = cart.getVersion();
+
+        CartServiceCustomException exception = assertThrows(CartServiceCustomException.class, () ->
+                cartService.addProductsToCart(cart.getId(), products, known -> known == version - 1));
+
+        assertEquals("VERSION_MISMATCH", exception.getErrorCode());
+        assertEquals(HttpStatus.PRECONDITION_FAILED, exception.getStatus());
+        assertTrue(cart.getProducts().isEmpty());
+        assertEquals(version, cart.getVersion());
+
+        CartResponse cartResponse = cartService.addProductsToCart(cart.getId(), products, known -> known == version);
+        assertEquals(version + 1, cartResponse.getVersion());
+    }
+
+    @Test
+    @DisplayName("Add Products to Cart - lines of catalog products store no description, responses have the catalog's")
+    void addCatalogProductsToCart() {
+        mockWithCart(cart);
+        doReturn(false).when(productCatalog).isEmpty();
+        doReturn(null).when(productCatalog).description(anyInt());
+        doReturn("Final Fantasy 7").when(productCatalog).description(1);
+        doReturn("Elden Ring: Shadow of the Erdtree").when(productCatalog).description(2);
+
+        CartResponse cartResponse = cartService.addProductsToCart(cart.getId(), products);
+
+        assertNull(cart.getProducts().descriptionAt(cart.getProducts().positionOf(1)));
+        assertEquals("Elden Ring", cart.getProducts().descriptionAt(cart.getProducts().positionOf(2)));
+        assertEquals("Final Fantasy 7", cartResponse.getProducts().get(1).getDescription());
+        assertEquals("Elden Ring", cartResponse.getProducts().get(2).getDescription());
+        assertEquals("Persona 5", cartResponse.getProducts().get(3).getDescription());
+    }
+
     @Test
     @DisplayName("Add Products to Cart - Exception Scenario")
     void addProductsToNonExistentCart() {
         int mockCartId = 3;
         // Mocking
-        when(cartRepository.getCart(mockCartId))
+        when(cartRepository.withCart(eq(mockCartId), any()))
                 .thenReturn(null);
         // Actual
         CartServiceCustomException exception = assertThrows(CartServiceCustomException.class, () ->
                 cartService.addProductsToCart(mockCartId, products));
         // Verification
-        verify(cartRepository, times(1)).getCart(mockCartId);
+        verify(cartRepository, times(1)).withCart(eq(mockCartId), any());
         // Assert
         assertEquals("Cart with given id: " + mockCartId + " was not found", exception.getMessage());
     }
@@ -115,30 +226,101 @@ public class CartServiceImplTest {
     @DisplayName("Delete Cart Scenario")
     void testDeleteCart() {
         // Mocking
-        when(cartRepository.getCart(anyInt()))
-                .thenReturn(cart);
+        when(cartRepository.deleteCart(anyInt()))
+                .thenReturn(true);
         // Actual
-        CartResponse cartResponse = cartService.getCart(cart.getId());
-        cartRepository.deleteCart(cartResponse.getId());
+        cartService.deleteCart(cart.getId());
         // Verification
         verify(cartRepository, times(1)).deleteCart(cart.getId());
     }
 
+    @Test
+    @DisplayName("Delete Cart - Exception Scenario")
+    void testDeleteNonExistentCart() {
+        int mockCartId = 3;
+        // Mocking
+        when(cartRepository.deleteCart(mockCartId))
+                .thenReturn(false);
+        // Actual
+        CartServiceCustomException exception = assertThrows(CartServiceCustomException.class, () ->
+                cartService.deleteCart(mockCartId));
+        // Assert
+        assertEquals("Cart with given id: " + mockCartId + " was not found", exception.getMessage());
+    }
+
     @Test
     @DisplayName("Delete inactive carts - Success Scenario, cart with 10+ minutes of inactivity")
     void testDeleteInactiveCarts() {
         // Mock
         int inactivitySeconds = 1200;
-        Map<Integer, Cart> carts = getCartByInactivity(inactivitySeconds);
-        when(cartRepository.getCarts()).thenReturn(carts);
+        Cart inactiveCart = getCartByInactivity(inactivitySeconds);
+        when(cartRepository.deleteCartIfInactive(eq(inactiveCart.getId()), any())).thenReturn(true);
 
         // Actual
         cartService.deleteInactiveCarts();
 
         // Verify
-        int key = carts.keySet().iterator().next(); // we get idKey = 2 because @BeforeEach cart always has id = 1
-        verify(cartRepository, times(1)).deleteCart(key);
+        verify(cartRepository, times(1)).deleteCartIfInactive(eq(inactiveCart.getId()), any());
+        assertEquals(0, cartExpiryIndex.size());
+        assertEquals(1, meterRegistry.get("cart.eviction.evicted").summary().totalAmount());
+
+    }
+
+    @Test
+    @DisplayName("Change listeners - told about creates, updates that change the cart, deletes and expiries")
+    void testChangeListeners() {
+        when(cartRepository.createCart()).thenReturn(cart);
+        mockWithCart(cart);
+        when(cartRepository.deleteCart(cart.getId())).thenReturn(true);
+        Cart inactiveCart = getCartByInactivity(1200);
+        when(cartRepository.deleteCartIfInactive(eq(inactiveCart.getId()), any())).thenReturn(true);
+        long created = cart.getVersion();
+
+        cartService.createCart();
+        cartService.addProductsToCart(cart.getId(), products);
+        cartService.updateCartLines(cart.getId(), List.of(
+                new CartLineChange(CartLineChange.Type.INCREMENT, 1, 2, null),
+                new CartLineChange(CartLineChange.Type.DECREMENT, 1, 2, null)));
+        cartService.updateCartLines(cart.getId(), List.of(
+                new CartLineChange(CartLineChange.Type.SET, 1, 5, null),
+                new CartLineChange(CartLineChange.Type.REMOVE, 2, 0, null)));
+        cartService.deleteCart(cart.getId());
+        cartService.deleteInactiveCarts();
 
+        assertEquals(List.of(
+                List.of(CartChange.Type.CREATED, cart.getId(), created),
+                List.of(CartChange.Type.UPDATED, cart.getId(), created + 1),
+                List.of(CartChange.Type.UPDATED, cart.getId(), created + 2),
+                List.of(CartChange.Type.DELETED, cart.getId(), -1L),
+                List.of(CartChange.Type.EXPIRED, inactiveCart.getId(), -1L)),
+                changes.stream().map(change -> List.of(change.type(), change.cartId(), change.version())).toList());
+        assertEquals(products, changes.get(1).products());
+        assertEquals(5, changes.get(2).products().get(1).getAmount());
+        assertEquals(List.of(2), changes.get(2).removed());
+        assertEquals(cart.getLastUpdated(), changes.get(2).timestamp());
+        assertTrue(changes.get(3).products().isEmpty());
+    }
+
+    @Test
+    @DisplayName("Change listeners - changes hold their own copies of the lines, filling in responses leaves them")
+    void testChangesAreSnapshots() {
+        mockWithCart(cart);
+        Map<Integer, Product> added = new HashMap<>(Map.of(4, new Product(4, "Halo", 1)));
+        cartService.addProductsToCart(cart.getId(), added);
+        added.get(4).setAmount(9);
+        added.put(5, new Product(5, "Doom", 1));
+
+        doReturn(false).when(productCatalog).isEmpty();
+        doReturn(null).when(productCatalog).description(anyInt());
+        doReturn("Final Fantasy 7").when(productCatalog).description(1);
+        CartDeltaResponse delta = cartService.updateCartLines(cart.getId(),
+                List.of(new CartLineChange(CartLineChange.Type.SET, 1, 5, null)));
+
+        assertEquals(Map.of(4, new Product(4, "Halo", 1)), changes.get(0).products());
+        assertEquals("Final Fantasy 7", delta.getProducts().get(1).getDescription());
+        assertNull(changes.get(1).products().get(1).getDescription());
+        assertNotSame(delta.getProducts().get(1), changes.get(1).products().get(1));
+        assertThrows(UnsupportedOperationException.class, () -> changes.get(1).products().remove(1));
     }
 
     @Test
@@ -146,24 +328,271 @@ public class CartServiceImplTest {
     void testDeleteActiveCarts() {
         // Mock
         int inactivitySeconds = 100;
-        Map<Integer, Cart> carts = getCartByInactivity(inactivitySeconds);
-        when(cartRepository.getCarts()).thenReturn(carts);
+        Cart activeCart = getCartByInactivity(inactivitySeconds);
 
         // Actual
         cartService.deleteInactiveCarts();
 
-        // Verify
-        int key = carts.keySet().iterator().next(); // we get idKey = 2 because @BeforeEach cart always has id = 1
-        verify(cartRepository, never()).deleteCart(key);
+        // Verify, the active cart is not even visited
+        verify(cartRepository, never()).deleteCartIfInactive(eq(activeCart.getId()), any());
+        assertEquals(1, cartExpiryIndex.size());
+
+    }
+
+    @Test
+    @DisplayName("Delete inactive carts - under heap pressure carts inactive for less are evicted, by reason")
+    void testDeleteInactiveCartsUnderHeapPressure() {
+        Cart inactiveCart = getCartByInactivity(1200);
+        Cart recentCart = getCartByInactivity(180);
+        Cart activeCart = getCartByInactivity(10);
+        when(cartRepository.deleteCartIfInactive(anyInt(), any())).thenReturn(true);
+        heapPressureMonitor.record(0.95);
+
+        cartService.deleteInactiveCarts();
+
+        verify(cartRepository, times(1)).deleteCartIfInactive(eq(inactiveCart.getId()), any());
+        verify(cartRepository, times(1)).deleteCartIfInactive(eq(recentCart.getId()), any());
+        verify(cartRepository, never()).deleteCartIfInactive(eq(activeCart.getId()), any());
+        assertEquals(1, meterRegistry.get("cart.evictions").tag("reason", "inactivity").counter().count());
+        assertEquals(1, meterRegistry.get("cart.evictions").tag("reason", "memory_pressure").counter().count());
+    }
+
+    @Test
+    @DisplayName("Delete inactive carts - cart updated after it became inactive is kept")
+    void testDeleteInactiveCartTouchedAgain() {
+        // Mock
+        Cart cart = getCartByInactivity(1200);
+        mockWithCart(cart);
+
+        // Actual
+        cartService.addProductsToCart(cart.getId(), products);
+        cartService.deleteInactiveCarts();
+
+        // Verify, the stale index entry is offered to the repository, which keeps the updated cart
+        verify(cartRepository, times(1)).deleteCartIfInactive(eq(cart.getId()), any());
+        assertEquals(1, cartExpiryIndex.size());
+
+    }
+
+    @Test
+    @DisplayName("Execute batch - operations on one cart run in order, failures are reported per operation")
+    void testExecuteBatch() {
+        // Mock
+        int missingCartId = 3;
+        mockWithCart(cart);
+        doReturn(null).when(cartRepository).withCart(eq(missingCartId), any());
+        when(cartRepository.createCart()).thenReturn(new Cart());
+        when(cartRepository.deleteCart(cart.getId())).thenReturn(true);
+
+        // Actual
+        List<CartOperationResult> results = cartService.executeBatch(List.of(
+                new CartOperation(CartOperation.Type.ADD_PRODUCTS, cart.getId(), products),
+                new CartOperation(CartOperation.Type.GET, missingCartId, null),
+                new CartOperation(CartOperation.Type.CREATE, null, null),
+                new CartOperation(CartOperation.Type.GET, cart.getId(), null),
+                new CartOperation(CartOperation.Type.DELETE, cart.getId(), null),
+                new CartOperation(CartOperation.Type.GET, null, null)));
+
+        // Assert, the GET after the add sees its products
+        assertEquals(List.of(200, 404, 201, 302, 200, 400),
+                results.stream().map(CartOperationResult::getStatus).toList());
+        assertEquals(3, results.get(3).getCart().getProducts().size());
+        assertEquals("CART_NOT_FOUND", results.get(1).getError().getErrorCode());
+        assertEquals("INVALID_OPERATION", results.get(5).getError().getErrorCode());
+    }
+
+    @Test
+    @DisplayName("Execute batch - batches over the limit are rejected")
+    void testExecuteBatchTooLarge() {
+        cartProperties.getBatch().setMaxOperations(2);
+        List<CartOperation> operations = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            operations.add(new CartOperation(CartOperation.Type.CREATE, null, null));
+        }
+
+        CartServiceCustomException exception = assertThrows(CartServiceCustomException.class, () ->
+                cartService.executeBatch(operations));
+
+        assertEquals("BATCH_TOO_LARGE", exception.getErrorCode());
+        verify(cartRepository, never()).createCart();
+    }
+
+    @Test
+    @DisplayName("Update cart lines - only changed lines are returned, and the version moves once")
+    void testUpdateCartLines() {
+        mockWithCart(cart);
+        cart.getProducts().putAll(products);
+        long version = cart.getVersion();
+
+        CartDeltaResponse delta = cartService.updateCartLines(cart.getId(), List.of(
+                new CartLineChange(CartLineChange.Type.INCREMENT, 1, 2, null),
+                new CartLineChange(CartLineChange.Type.DECREMENT, 2, 1, null),
+                new CartLineChange(CartLineChange.Type.SET, 3, 1, "Persona 5"),
+                new CartLineChange(CartLineChange.Type.INCREMENT, 4, 1, "Hades"),
+                new CartLineChange(CartLineChange.Type.REMOVE, 5, null, null)));
+
+        assertEquals(Map.of(1, new Product(1, "Final Fantasy 7", 3), 4, new Product(4, "Hades", 1)),
+                delta.getProducts());
+        assertEquals(List.of(2), delta.getRemoved());
+        assertEquals(version + 1, delta.getVersion());
+        assertEquals(version + 1, cart.getVersion());
+        assertEquals(3, cart.getProducts().size());
+        assertEquals(1, meterRegistry.get("cart.operations")
+                .tags("operation", "update", "outcome", "success").timer().count());
+    }
+
+    @Test
+    @DisplayName("Update cart lines - changes that cancel out leave the cart and its version alone")
+    void testUpdateCartLinesWithoutEffect() {
+        mockWithCart(cart);
+        cart.getProducts().putAll(products);
+        long version = cart.getVersion();
+        Instant lastUpdated = cart.getLastUpdated();
+
+        CartDeltaResponse delta = cartService.updateCartLines(cart.getId(), List.of(
+                new CartLineChange(CartLineChange.Type.INCREMENT, 1, 2, null),
+                new CartLineChange(CartLineChange.Type.DECREMENT, 1, 2, null),
+                new CartLineChange(CartLineChange.Type.DECREMENT, 9, 1, null)));
+
+        assertTrue(delta.getProducts().isEmpty());
+        assertTrue(delta.getRemoved().isEmpty());
+        assertEquals(version, delta.getVersion());
+        assertEquals(lastUpdated, cart.getLastUpdated());
+    }
+
+    @Test
+    @DisplayName("Update cart lines - an overflowing amount rejects the whole update")
+    void testUpdateCartLinesOverflow() {
+        mockWithCart(cart);
+        cart.getProducts().putAll(products);
+        long version = cart.getVersion();
+
+        CartServiceCustomException exception = assertThrows(CartServiceCustomException.class, () ->
+                cartService.updateCartLines(cart.getId(), List.of(
+                        new CartLineChange(CartLineChange.Type.REMOVE, 2, null, null),
+                        new CartLineChange(CartLineChange.Type.INCREMENT, 1, Integer.MAX_VALUE, null))));
+
+        assertEquals("INVALID_CHANGE", exception.getErrorCode());
+        assertEquals(3, cart.getProducts().size());
+        assertEquals(version, cart.getVersion());
+    }
+
+    @Test
+    @DisplayName("Update cart lines - invalid changes are rejected before the cart is looked up")
+    void testUpdateCartLinesInvalid() {
+        CartServiceCustomException exception = assertThrows(CartServiceCustomException.class, () ->
+                cartService.updateCartLines(1, List.of(new CartLineChange(CartLineChange.Type.SET, 1, 0, "Hades"))));
+
+        assertEquals("INVALID_CHANGE", exception.getErrorCode());
+        verify(cartRepository, never()).withCart(anyInt(), any());
+    }
+
+    @Test
+    @DisplayName("Update cart lines - updates over the line changes limit are rejected, whatever the batch limit")
+    void testUpdateCartLinesTooManyChanges() {
+        cartProperties.getLines().setMaxChanges(1);
+        cartProperties.getBatch().setMaxOperations(10);
+
+        CartServiceCustomException exception = assertThrows(CartServiceCustomException.class, () ->
+                cartService.updateCartLines(1, List.of(
+                        new CartLineChange(CartLineChange.Type.REMOVE, 1, null, null),
+                        new CartLineChange(CartLineChange.Type.REMOVE, 2, null, null))));
+
+        assertEquals("TOO_MANY_CHANGES", exception.getErrorCode());
+        assertEquals(HttpStatus.PAYLOAD_TOO_LARGE, exception.getStatus());
+        verify(cartRepository, never()).withCart(anyInt(), any());
+    }
+
+    @Test
+    @DisplayName("Update cart lines - Exception Scenario")
+    void testUpdateLinesOfNonExistentCart() {
+        when(cartRepository.withCart(eq(3), any())).thenReturn(null);
+
+        CartServiceCustomException exception = assertThrows(CartServiceCustomException.class, () ->
+                cartService.updateCartLines(3, List.of(new CartLineChange(CartLineChange.Type.REMOVE, 1, null, null))));
+
+        assertEquals("CART_NOT_FOUND", exception.getErrorCode());
+    }
+
+    @Test
+    @DisplayName("Create Cart - rejected with 503 once the cart limit is reached")
+    void testCreateCartLimitReached() {
+        cartProperties.getLimits().setMaxCarts(2);
+        when(cartRepository.count()).thenReturn(2);
+
+        CartServiceCustomException exception = assertThrows(CartServiceCustomException.class,
+                () -> cartService.createCart());
+
+        assertEquals("CART_LIMIT_REACHED", exception.getErrorCode());
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, exception.getStatus());
+        assertEquals(cartProperties.getEviction().getPrecision(), exception.getRetryAfter());
+        verify(cartRepository, never()).createCart();
+    }
+
+    @Test
+    @DisplayName("Add Products to Cart - adds growing a cart past the line limit are rejected, replacing lines is not")
+    void testAddProductsLineLimit() {
+        cartProperties.getLimits().setMaxLinesPerCart(3);
+        mockWithCart(cart);
+        cart.getProducts().putAll(products);
+        long version = cart.getVersion();
+
+        CartServiceCustomException exception = assertThrows(CartServiceCustomException.class, () ->
+                cartService.addProductsToCart(cart.getId(), Map.of(4, new Product(4, "Hades", 1))));
+        assertEquals("LINE_LIMIT_EXCEEDED", exception.getErrorCode());
+        assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, exception.getStatus());
+        assertEquals(3, cart.getProducts().size());
+        assertEquals(version, cart.getVersion());
+
+        CartResponse cartResponse = cartService.addProductsToCart(cart.getId(), Map.of(1, new Product(1, null, 5)));
+        assertEquals(5, cartResponse.getProducts().get(1).getAmount());
+    }
+
+    @Test
+    @DisplayName("Add Products to Cart - requests with more products than the line limit never lock the cart")
+    void testAddProductsOverLineLimit() {
+        cartProperties.getLimits().setMaxLinesPerCart(2);
+
+        CartServiceCustomException exception = assertThrows(CartServiceCustomException.class, () ->
+                cartService.addProductsToCart(1, products));
+
+        assertEquals("LINE_LIMIT_EXCEEDED", exception.getErrorCode());
+        verify(cartRepository, never()).withCart(anyInt(), any());
+    }
+
+    @Test
+    @DisplayName("Update cart lines - growing past the line limit is rejected, shrinking an oversized cart is not")
+    void testUpdateCartLinesLineLimit() {
+        mockWithCart(cart);
+        cart.getProducts().putAll(products);
+        cartProperties.getLimits().setMaxLinesPerCart(2);
+
+        CartServiceCustomException exception = assertThrows(CartServiceCustomException.class, () ->
+                cartService.updateCartLines(cart.getId(), List.of(
+                        new CartLineChange(CartLineChange.Type.REMOVE, 1, null, null),
+                        new CartLineChange(CartLineChange.Type.SET, 4, 1, "Hades"),
+                        new CartLineChange(CartLineChange.Type.SET, 5, 1, "Celeste"))));
+        assertEquals("LINE_LIMIT_EXCEEDED", exception.getErrorCode());
+        assertEquals(3, cart.getProducts().size());
+
+        CartDeltaResponse delta = cartService.updateCartLines(cart.getId(), List.of(
+                new CartLineChange(CartLineChange.Type.REMOVE, 1, null, null),
+                new CartLineChange(CartLineChange.Type.SET, 4, 1, "Hades")));
+        assertEquals(List.of(1), delta.getRemoved());
+        assertEquals(3, cart.getProducts().size());
+    }
 
+    @SuppressWarnings("unchecked")
+    private void mockWithCart(Cart cart) {
+        when(cartRepository.withCart(anyInt(), any()))
+                .thenAnswer(invocation -> ((Function<Cart, ?>) invocation.getArgument(1)).apply(cart));
     }
 
-    private Map<Integer, Cart> getCartByInactivity(int seconds) {
-        Map<Integer, Cart> inactiveHashmapCart = new HashMap<>();
+    private Cart getCartByInactivity(int seconds) {
         Cart inactiveCart = new Cart();
         inactiveCart.setLastUpdated(Instant.now().minusSeconds(seconds)); // 20 minutes ago
-        inactiveHashmapCart.put(inactiveCart.getId(), inactiveCart);
-        return inactiveHashmapCart;
+        cartExpiryIndex.touch(inactiveCart.getId(), null, inactiveCart.getLastUpdated());
+        return inactiveCart;
     }
 
 }
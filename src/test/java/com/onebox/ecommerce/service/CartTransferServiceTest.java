@@ -0,0 +1,217 @@
+package com.onebox.ecommerce.service;
+
+import com.onebox.ecommerce.catalog.ProductCatalog;
+import com.onebox.ecommerce.config.CartProperties;
+import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.model.CartTransferResponse;
+import com.onebox.ecommerce.repository.CartRepository;
+import com.onebox.ecommerce.repository.InMemoryCartRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InjectMocks;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+
+public class CartTransferServiceTest {
+
+    @TempDir
+    Path directory;
+
+    @Spy
+    private CartRepository cartRepository = new InMemoryCartRepository();
+
+    @Spy
+    private CartExpiryIndex cartExpiryIndex = new CartExpiryIndex(Duration.ofSeconds(5));
+
+    @Spy
+    private CartQueryIndex cartQueryIndex = new CartQueryIndex(new CartProperties());
+
+    @Spy
+    private ProductCatalog productCatalog = new ProductCatalog(null, 10);
+
+    @Spy
+    private CartProperties cartProperties = new CartProperties();
+
+    @InjectMocks
+    private CartTransferService cartTransferService;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        cartProperties.getTransfer().setDirectory(directory);
+    }
+
+    @Test
+    @DisplayName("Export and import - every cart reaches the other instance, indexed for expiry")
+    void testExportAndImport() {
+        int[] cartIds = new int[100];
+        for (int i = 0; i < cartIds.length; i++) {
+            int index = i;
+            cartIds[i] = cartRepository.createCart().getId();
+            cartRepository.withCart(cartIds[i], cart -> {
+                cart.getProducts().put(index % 7, "Product " + index % 7, index);
+                cart.updateInstant();
+                return null;
+            });
+        }
+
+        CartTransferResponse exported = cartTransferService.exportCarts("carts.bin");
+        CartRepository target = new InMemoryCartRepository();
+        CartExpiryIndex targetIndex = new CartExpiryIndex(Duration.ofSeconds(5));
+        CartTransferResponse imported = otherInstance(target, targetIndex).importCarts("carts.bin");
+
+        assertEquals(100, exported.getCarts());
+        assertEquals(100, imported.getCarts());
+        assertEquals(100, imported.getLines());
+        assertTrue(Files.exists(directory.resolve("carts.bin")));
+        assertFalse(Files.exists(directory.resolve("carts.bin.partial")));
+        for (int cartId : cartIds) {
+            assertEquals(cartRepository.withCart(cartId, Cart::toString), target.withCart(cartId, Cart::toString));
+        }
+        assertEquals(100, targetIndex.size());
+        assertTrue(new Cart().getId() > cartIds[cartIds.length - 1]);
+    }
+
+    @Test
+    @DisplayName("Import - carts created while it runs never take the id of an imported cart")
+    void testCreateDuringImport() throws Exception {
+        // Another instance's carts, numbered like the next carts this one creates
+        int firstId = Cart.idsIssuedThrough() + 1;
+        int carts = 5_000;
+        for (int cartId = firstId; cartId < firstId + carts; cartId++) {
+            Cart cart = new Cart(cartId, Instant.now());
+            cart.getProducts().put(1, "God of War", 1);
+            cartRepository.restoreCart(cart);
+        }
+        cartTransferService.exportCarts("carts.bin");
+
+        CartRepository target = spy(new InMemoryCartRepository());
+        AtomicBoolean importing = new AtomicBoolean();
+        doAnswer(invocation -> {
+            importing.set(true);
+            return invocation.callRealMethod();
+        }).when(target).restoreCart(any());
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<List<Integer>>> creators = new ArrayList<>();
+            for (int thread = 0; thread < 2; thread++) {
+                creators.add(executor.submit(() -> {
+                    List<Integer> createdDuringImport = new ArrayList<>();
+                    while (running.get()) {
+                        boolean during = importing.get();
+                        int cartId = target.createCart().getId();
+                        if (during) {
+                            createdDuringImport.add(cartId);
+                        }
+                    }
+                    return createdDuringImport;
+                }));
+            }
+            otherInstance(target, new CartExpiryIndex(Duration.ofSeconds(5))).importCarts("carts.bin");
+            running.set(false);
+
+            for (Future<List<Integer>> creator : creators) {
+                for (int cartId : creator.get(30, TimeUnit.SECONDS)) {
+                    assertTrue(cartId >= firstId + carts, "cart " + cartId + " took an imported id");
+                    assertEquals(Boolean.TRUE, target.withCart(cartId, cart -> cart.getProducts().isEmpty()));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("Export and import - lines of catalog products keep their description, with or without the catalog")
+    void testExportCatalogProducts() {
+        doReturn(false).when(productCatalog).isEmpty();
+        doReturn(null).when(productCatalog).description(anyInt());
+        doReturn("Final Fantasy 7").when(productCatalog).description(1);
+        int cartId = cartRepository.createCart().getId();
+        cartRepository.withCart(cartId, cart -> {
+            cart.getProducts().put(1, null, 2);
+            cart.getProducts().put(2, "Hades", 1);
+            return null;
+        });
+
+        cartTransferService.exportCarts("carts.bin");
+        CartRepository withoutCatalog = new InMemoryCartRepository();
+        otherInstance(withoutCatalog, new CartExpiryIndex(Duration.ofSeconds(5)), new ProductCatalog(null, 10))
+                .importCarts("carts.bin");
+        CartRepository sameCatalog = new InMemoryCartRepository();
+        otherInstance(sameCatalog, new CartExpiryIndex(Duration.ofSeconds(5)), productCatalog)
+                .importCarts("carts.bin");
+
+        assertEquals("Final Fantasy 7", withoutCatalog.withCart(cartId, cart -> cart.getProducts().descriptionAt(0)));
+        assertEquals("Hades", withoutCatalog.withCart(cartId, cart -> cart.getProducts().descriptionAt(1)));
+        // An instance with the catalog stores no copy of the catalog's description
+        assertNull(sameCatalog.withCart(cartId, cart -> cart.getProducts().descriptionAt(0)));
+        assertEquals("Hades", sameCatalog.withCart(cartId, cart -> cart.getProducts().descriptionAt(1)));
+        assertNull(cartRepository.withCart(cartId, cart -> cart.getProducts().descriptionAt(0)));
+    }
+
+    @Test
+    @DisplayName("Files outside the transfer directory are refused")
+    void testFileOutsideDirectory() {
+        assertThrows(IllegalArgumentException.class, () -> cartTransferService.exportCarts("../carts.bin"));
+        assertThrows(IllegalArgumentException.class, () -> cartTransferService.importCarts("/etc/passwd"));
+        assertThrows(IllegalArgumentException.class, () -> cartTransferService.exportCarts("nested/carts.bin"));
+        assertThrows(IllegalArgumentException.class, () -> cartTransferService.exportCarts(" "));
+    }
+
+    @Test
+    @DisplayName("Import - a corrupt file imports nothing")
+    void testCorruptImport() throws Exception {
+        cartRepository.createCart();
+        cartTransferService.exportCarts("carts.bin");
+        Path file = directory.resolve("carts.bin");
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 2));
+        CartRepository target = new InMemoryCartRepository();
+
+        assertThrows(UncheckedIOException.class,
+                () -> otherInstance(target, new CartExpiryIndex(Duration.ofSeconds(5))).importCarts("carts.bin"));
+        assertEquals(0, target.count());
+    }
+
+    // A service of another instance sharing the transfer directory
+    private CartTransferService otherInstance(CartRepository repository, CartExpiryIndex expiryIndex) {
+        return otherInstance(repository, expiryIndex, new ProductCatalog(null, 10));
+    }
+
+    private CartTransferService otherInstance(CartRepository repository, CartExpiryIndex expiryIndex,
+                                              ProductCatalog catalog) {
+        CartTransferService service = new CartTransferService();
+        ReflectionTestUtils.setField(service, "cartRepository", repository);
+        ReflectionTestUtils.setField(service, "cartExpiryIndex", expiryIndex);
+        ReflectionTestUtils.setField(service, "productCatalog", catalog);
+        ReflectionTestUtils.setField(service, "cartQueryIndex", cartQueryIndex);
+        ReflectionTestUtils.setField(service, "cartProperties", cartProperties);
+        return service;
+    }
+}
@@ -0,0 +1,113 @@
+package com.onebox.ecommerce.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClientRateLimiterTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    @DisplayName("A client gets its burst at once, then one token per interval")
+    void testBurstThenRate() {
+        ClientRateLimiter rateLimiter = new ClientRateLimiter(10, 5, 100);
+        long now = 0;
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, rateLimiter.tryAcquire("client", now));
+        }
+        long wait = rateLimiter.tryAcquire("client", now);
+        assertEquals(SECOND / 10, wait);
+
+        assertTrue(rateLimiter.tryAcquire("client", now + wait - 1) > 0);
+        assertEquals(0, rateLimiter.tryAcquire("client", now + wait));
+        assertTrue(rateLimiter.tryAcquire("client", now + wait) > 0);
+
+        // Idle for long, the bucket is full again but holds no more than the burst
+        now += 60 * SECOND;
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, rateLimiter.tryAcquire("client", now));
+        }
+        assertTrue(rateLimiter.tryAcquire("client", now) > 0);
+    }
+
+    @Test
+    @DisplayName("Clients have buckets of their own")
+    void testClientsAreIndependent() {
+        ClientRateLimiter rateLimiter = new ClientRateLimiter(1, 1, 100);
+
+        assertEquals(0, rateLimiter.tryAcquire("a", 0));
+        assertTrue(rateLimiter.tryAcquire("a", 0) > 0);
+        assertEquals(0, rateLimiter.tryAcquire("b", 0));
+    }
+
+    @Test
+    @DisplayName("Buckets of idle clients are dropped once too many clients are tracked")
+    void testIdleClientsArePurged() {
+        ClientRateLimiter rateLimiter = new ClientRateLimiter(1, 1, 10);
+        for (int client = 0; client < 10; client++) {
+            rateLimiter.tryAcquire("client-" + client, 0);
+        }
+        assertEquals(10, rateLimiter.clients());
+
+        rateLimiter.tryAcquire("newcomer", 2 * SECOND);
+
+        assertEquals(1, rateLimiter.clients());
+    }
+
+    @Test
+    @DisplayName("Buckets are scanned for idle clients at most once per burst")
+    void testPurgesAreThrottled() {
+        ClientRateLimiter rateLimiter = new ClientRateLimiter(1, 5, 10);
+        for (int client = 0; client < 10; client++) {
+            rateLimiter.tryAcquire("client-" + client, 0);
+        }
+        // Every client is still draining, the scan frees nothing
+        rateLimiter.tryAcquire("newcomer-1", 0);
+        assertEquals(11, rateLimiter.clients());
+
+        // The first clients are full again, but the next scan is only due one burst after the last
+        rateLimiter.tryAcquire("newcomer-2", 2 * SECOND);
+        assertEquals(12, rateLimiter.clients());
+
+        rateLimiter.tryAcquire("newcomer-3", 5 * SECOND);
+        assertEquals(1, rateLimiter.clients());
+        assertEquals(0, rateLimiter.tryAcquire("newcomer-3", 5 * SECOND));
+    }
+
+    @Test
+    @DisplayName("Concurrent requests of a client never take more tokens than it has")
+    void testConcurrentAcquires() throws Exception {
+        ClientRateLimiter rateLimiter = new ClientRateLimiter(1, 1000, 100);
+        AtomicInteger admitted = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        if (rateLimiter.tryAcquire("client", 0) == 0) {
+                            admitted.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1000, admitted.get());
+    }
+}
@@ -0,0 +1,38 @@
+package com.onebox.ecommerce.service;
+
+import com.onebox.ecommerce.config.CartProperties;
+import com.onebox.ecommerce.model.CartResponse;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class ReactiveCartServiceImplTest {
+
+    @Test
+    @DisplayName("Scheduler - operations run on the calling thread unless the configuration makes them block")
+    void testScheduler() {
+        assertEquals(Thread.currentThread().getName(), threadOf(properties -> {
+        }));
+        assertTrue(threadOf(properties -> properties.getStorage().setType("sharded")).startsWith("boundedElastic"));
+        assertTrue(threadOf(properties -> properties.getCluster().setEnabled(true)).startsWith("boundedElastic"));
+        // Descriptions missing from the catalog's cache are read from its file
+        assertTrue(threadOf(properties -> properties.getCatalog().setFile(Path.of("catalog.csv")))
+                .startsWith("boundedElastic"));
+    }
+
+    private static String threadOf(Consumer<CartProperties> configuration) {
+        CartProperties cartProperties = new CartProperties();
+        configuration.accept(cartProperties);
+        CartService cartService = mock(CartService.class);
+        when(cartService.getCart(1)).thenAnswer(invocation -> new CartResponse());
+
+        return new ReactiveCartServiceImpl(cartService, cartProperties).getCart(1)
+                .map(cart -> Thread.currentThread().getName())
+                .block();
+    }
+}